@@ -0,0 +1,94 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999, 2000, 2001 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * An OutputStream writing to a non-blocking SocketChannel.
+ *
+ * <p>A write returns when all the bytes have been handed to the channel.
+ * When the socket send buffer is full the writing thread waits on a
+ * private Selector until the channel is writable again, so the selector
+ * threads reading the channel are not involved.</p>
+ *
+ * <p>Writes must be serialized by the caller.  Closing this stream
+ * releases its Selector, it does not close the channel, which belongs to
+ * the socket of the connection.</p>
+ */
+/* package */
+final class ChannelOutputStream extends OutputStream
+{
+    // Longest wait for the channel to become writable before retrying
+    private static final long WRITE_WAIT = 1000;
+
+    private final SocketChannel channel;
+    private Selector writeSelector = null;
+    private byte[] one = null;
+
+    /* package */
+    ChannelOutputStream( SocketChannel channel)
+    {
+        this.channel = channel;
+        return;
+    }
+
+    public void write( int b)
+        throws IOException
+    {
+        if( one == null) {
+            one = new byte[1];
+        }
+        one[0] = (byte)b;
+        write( one, 0, 1);
+        return;
+    }
+
+    public void write( byte[] b, int off, int len)
+        throws IOException
+    {
+        ByteBuffer data = ByteBuffer.wrap( b, off, len);
+        while( data.hasRemaining()) {
+            if( channel.write( data) == 0) {
+                // Send buffer full, wait until the channel is writable
+                if( writeSelector == null) {
+                    writeSelector = Selector.open();
+                    channel.register( writeSelector, SelectionKey.OP_WRITE);
+                }
+                // Time out now and then, a closed channel does not wake
+                // the selector, the next write fails instead
+                writeSelector.select( WRITE_WAIT);
+                writeSelector.selectedKeys().clear();
+            }
+        }
+        return;
+    }
+
+    public void close()
+        throws IOException
+    {
+        if( writeSelector != null) {
+            writeSelector.close();
+            writeSelector = null;
+        }
+        return;
+    }
+}
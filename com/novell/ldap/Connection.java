@@ -15,12 +15,18 @@
 
 package com.novell.ldap;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 
 
 import com.novell.ldap.asn1.*;
@@ -57,6 +63,20 @@ final class Connection
     private Object writeSemaphore = new Object();
     private int    writeSemaphoreOwner = 0;
     private int    writeSemaphoreCount = 0;
+    // Number of PDUs queued but not yet written, protected by writeSemaphore
+    private int    writesInFlight = 0;
+
+    /*
+     * Pipelined writes, see writeMessage(LDAPMessage). The writeQueue
+     * object protects the queue and the writing flag.  writeBuffer is only
+     * used by the thread writing the queue.
+     */
+    private final static int WRITE_BUFFER_SIZE = 16384;
+    private Object writeQueue = new Object();
+    private PendingWrite writeQueueHead = null;
+    private PendingWrite writeQueueTail = null;
+    private boolean writing = false;
+    private byte[] writeBuffer = null;
 
     // We need a message number for disconnect to grab the semaphore,
     // but may not have one, so we invent a unique one.
@@ -67,6 +87,8 @@ final class Connection
     private Thread reader = null; // New thread that reads data from the server.
     private Thread deadReader = null; // Identity of last reader thread
     private IOException deadReaderException = null; // Last exception of reader
+    // Reads the connection on a selector thread, see LDAPNioSocketFactory
+    private ChannelReader channelReader = null;
 
     private LBEREncoder encoder = new LBEREncoder();
     private LBERDecoder decoder = new LBERDecoder();
@@ -100,7 +122,7 @@ final class Connection
 
 
     // Place to save message information classes
-    private MessageVector messages = new MessageVector(5,5);
+    private MessageTable messages = new MessageTable();
 
     // Connection created to follow referral
     private ReferralInfo activeReferral = null;
@@ -113,6 +135,14 @@ final class Connection
     // The LDAPSocketFactory used for this connection
     private LDAPSocketFactory mySocketFactory = null;
 
+    // The LDAPThreadFactory used by default, and for this connection
+    static private LDAPThreadFactory defaultThreadFactory =
+                                        new LDAPDefaultThreadFactory();
+    private LDAPThreadFactory threadFactory = defaultThreadFactory;
+
+    // The largest response accepted from the server, in octets
+    private int maxMessageSize = LBERFrameReader.DEFAULT_MAX_FRAME_SIZE;
+
     private int myTimeOut = 0;
     private String host = null;
     private int port = 0;
@@ -180,6 +210,7 @@ final class Connection
     Object copy()
     {
         Connection c = new Connection(this.mySocketFactory);
+        c.threadFactory = this.threadFactory;
         c.host = this.host;
         c.port = this.port;
         c.protocol = this.protocol;
@@ -222,6 +253,7 @@ final class Connection
     Object copy_timeout()
     {
         Connection c = new Connection(this.myTimeOut);
+        c.threadFactory = this.threadFactory;
         c.host = this.host;
         c.port = this.port;
         c.protocol = this.protocol;
@@ -254,7 +286,8 @@ final class Connection
      * We bind using the message ID because a different thread may unlock
      * the semaphore than the one that set it.  It is cleared when the
      * response to the bind is processed, or when the bind operation times out.
-     * Returns when the semaphore is acquired.
+     * Returns when the semaphore is acquired and all PDUs queued by other
+     * owners have been written.
      *
      * @param msgId a value that identifies the owner of this semaphore. A
      * value of zero means assign a unique semaphore value.
@@ -275,6 +308,14 @@ final class Connection
                 if( writeSemaphoreOwner == 0) {
                    // we have acquired the semahpore
                    writeSemaphoreOwner = id;
+                   // let the writes queued before we owned it complete
+                   while( writesInFlight > 0) {
+                       try {
+                           writeSemaphore.wait();
+                       } catch( InterruptedException ex) {
+                           ;
+                       }
+                   }
                    break;
                 } else {
                     if( writeSemaphoreOwner == id) {
@@ -330,7 +371,8 @@ final class Connection
             // wake up all threads waiting.
             if( --writeSemaphoreCount == 0) {
                 writeSemaphoreOwner = 0;
-                writeSemaphore.notify();
+                // wake acquirers and the writers waiting to queue PDUs
+                writeSemaphore.notifyAll();
             }
         }
         return;
@@ -622,6 +664,56 @@ final class Connection
         return mySocketFactory;
     }
 
+    /**
+     * gets the thread factory used for this connection
+     *
+     * @return the thread factory for this connection
+     */
+    /* package */
+    final LDAPThreadFactory getThreadFactory()
+    {
+        return threadFactory;
+    }
+
+    /**
+     * sets the thread factory used for this connection
+     *
+     * @param factory the thread factory, or null for the default factory
+     */
+    /* package */
+    final void setThreadFactory( LDAPThreadFactory factory)
+    {
+        threadFactory = (factory != null) ? factory : defaultThreadFactory;
+        return;
+    }
+
+    /**
+     * gets the maximum size of a response read on this connection
+     *
+     * @return the maximum size in octets
+     */
+    /* package */
+    final int getMaxMessageSize()
+    {
+        return maxMessageSize;
+    }
+
+    /**
+     * sets the maximum size of a response read on this connection
+     *
+     * @param size the maximum size in octets, greater than zero
+     */
+    /* package */
+    final void setMaxMessageSize( int size)
+    {
+        if( size <= 0) {
+            throw new IllegalArgumentException(
+                "Maximum message size must be positive: " + size);
+        }
+        maxMessageSize = size;
+        return;
+    }
+
     /**
      * gets the host used for this connection
      */
@@ -719,7 +811,7 @@ final class Connection
     void writeMessage(Message info)
         throws LDAPException
     {
-    	messages.addElement( info);
+    	messages.put( info);
         // For bind requests, if not connected, attempt to reconnect
         if( info.isBindRequest() && (isConnected() == false) && (host != null)){
             connect( host, port, info.getMessageID());
@@ -739,6 +831,16 @@ final class Connection
     /**
      * Writes an LDAPMessage to the LDAP server over a socket.
      *
+     * <p>Writes are pipelined.  The encoded PDU is queued, and the first
+     * thread to find no other thread writing writes every queued PDU with
+     * a single flush, on behalf of all the threads that queued them.  The
+     * method returns when the PDU has been written.</p>
+     *
+     * <p>A PDU can only be queued when the write semaphore is free or
+     * owned by the id of this message, so nothing is written while a bind
+     * is in progress, and the owner of the semaphore, e.g. startTLS, knows
+     * that all PDUs queued before it acquired the semaphore are written.</p>
+     *
      * @param msg the message to write.
      */
     /* package */
@@ -754,7 +856,6 @@ final class Connection
             // Semaphore id for sasl bind operations
             id = bindSemaphoreId;
         }
-        OutputStream myOut = out;
 
         if( Debug.LDAP_DEBUG) {
             Debug.trace( Debug.messages, name + "Writing Message(" +
@@ -762,14 +863,14 @@ final class Connection
             Debug.trace( Debug.rawInput, name + "RawWrite: " +
                     msg.getASN1Object().toString());
         }
-        acquireWriteSemaphore(id);
+        PendingWrite write =
+            new PendingWrite( encoder.encodeToArray(msg.getASN1Object()));
+        queueWrite( id, write);
         try {
-            if( myOut == null) {
-                throw new IOException("Output stream not initialized");
+            drainWrites( write);
+            if( write.error != null) {
+                throw write.error;
             }
-            byte[] ber = msg.getASN1Object().getEncoding(encoder);
-            myOut.write(ber, 0, ber.length);
-            myOut.flush();
         } catch( IOException ioe) {
             if( Debug.LDAP_DEBUG ) {
                 Debug.trace( Debug.messages, name +
@@ -799,12 +900,161 @@ final class Connection
                     new Object[] {host, new Integer(port)},
                 LDAPException.CONNECT_ERROR, null, ioe);
             }
-        } finally {
-            freeWriteSemaphore(id);
         }
         return;
     }
 
+    /**
+     * Queues an encoded PDU for writing.  Waits while the write semaphore
+     * is owned by a different id.
+     *
+     * @param id the semaphore id of the message
+     *
+     * @param write the PDU to queue
+     */
+    private void queueWrite( int id, PendingWrite write)
+    {
+        synchronized( writeSemaphore) {
+            while( (writeSemaphoreOwner != 0) && (writeSemaphoreOwner != id)) {
+                try {
+                    // Keep trying for the semaphore to be free
+                    writeSemaphore.wait();
+                } catch( InterruptedException ex) {
+                    ;
+                }
+            }
+            writesInFlight++;
+            // Queue while holding the semaphore lock, so an owner acquiring
+            // it afterwards waits for this write
+            synchronized( writeQueue) {
+                if( writeQueueTail == null) {
+                    writeQueueHead = write;
+                } else {
+                    writeQueueTail.next = write;
+                }
+                writeQueueTail = write;
+            }
+        }
+        return;
+    }
+
+    /**
+     * Returns when a queued PDU has been written.  If no other thread is
+     * writing, this thread writes all the queued PDUs.
+     *
+     * @param mine the PDU queued by this thread
+     */
+    private void drainWrites( PendingWrite mine)
+    {
+        synchronized( writeQueue) {
+            while( writing && ! mine.done) {
+                try {
+                    writeQueue.wait();
+                } catch( InterruptedException ex) {
+                    ;
+                }
+            }
+            if( mine.done) {
+                // Written by another thread
+                return;
+            }
+            writing = true;
+        }
+        do {
+            PendingWrite batch;
+            synchronized( writeQueue) {
+                batch = writeQueueHead;
+                writeQueueHead = null;
+                writeQueueTail = null;
+            }
+            IOException error = writeBatch( batch);
+            int count = 0;
+            synchronized( writeQueue) {
+                for( PendingWrite w = batch; w != null; w = w.next) {
+                    w.error = error;
+                    w.done = true;
+                    count++;
+                }
+                if( mine.done) {
+                    // Let a waiting thread write what was queued meanwhile
+                    writing = false;
+                }
+                writeQueue.notifyAll();
+            }
+            synchronized( writeSemaphore) {
+                writesInFlight -= count;
+                if( writesInFlight == 0) {
+                    writeSemaphore.notifyAll(); // wake a waiting acquirer
+                }
+            }
+        } while( ! mine.done);
+        return;
+    }
+
+    /**
+     * Writes a list of PDUs to the socket, gathering small PDUs into one
+     * buffer, and flushes the socket once.
+     *
+     * @param batch the first PDU of the list
+     *
+     * @return the IOException that occured, or null.
+     */
+    private IOException writeBatch( PendingWrite batch)
+    {
+        OutputStream myOut = out;
+        try {
+            if( myOut == null) {
+                throw new IOException("Output stream not initialized");
+            }
+            if( batch.next == null) {
+                myOut.write( batch.ber, 0, batch.ber.length);
+            } else {
+                if( writeBuffer == null) {
+                    writeBuffer = new byte[WRITE_BUFFER_SIZE];
+                }
+                int count = 0;
+                for( PendingWrite w = batch; w != null; w = w.next) {
+                    if( w.ber.length > writeBuffer.length - count) {
+                        if( count > 0) {
+                            myOut.write( writeBuffer, 0, count);
+                            count = 0;
+                        }
+                        if( w.ber.length > writeBuffer.length) {
+                            myOut.write( w.ber, 0, w.ber.length);
+                            continue;
+                        }
+                    }
+                    System.arraycopy( w.ber, 0, writeBuffer, count, w.ber.length);
+                    count += w.ber.length;
+                }
+                if( count > 0) {
+                    myOut.write( writeBuffer, 0, count);
+                }
+            }
+            myOut.flush();
+        } catch( IOException ioe) {
+            return ioe;
+        }
+        return null;
+    }
+
+    /**
+     * An encoded PDU queued for writing.
+     */
+    private static final class PendingWrite
+    {
+        private byte[] ber;
+        private PendingWrite next = null;
+        private boolean done = false;     // protected by writeQueue
+        private IOException error = null; // protected by writeQueue
+
+        private PendingWrite( byte[] ber)
+        {
+            this.ber = ber;
+            return;
+        }
+    }
+
     /**
      * Returns the message agent for this msg ID
      */
@@ -865,7 +1115,7 @@ final class Connection
                if( myOut == null) {
                    throw new IOException("Output stream not initialized");
                }
-               byte[] ber = msg.getASN1Object().getEncoding(encoder);
+               byte[] ber = encoder.encodeToArray(msg.getASN1Object());
                myOut.write(ber, 0, ber.length);
                myOut.flush();
                } catch( IOException ioe) {
@@ -887,7 +1137,7 @@ final class Connection
     /* package */
     final void removeMessage( Message info)
     {
-        boolean done = messages.removeElement(info);
+        boolean done = messages.remove(info);
         if( Debug.LDAP_DEBUG) {
             if( done) {
                 Debug.trace( Debug.messages, name +
@@ -936,13 +1186,8 @@ final class Connection
         clientActive = false;
         while( true ) {
             // remove messages from connection list and send abandon
-            try {
-                info = (Message)messages.remove(0);
-                if( Debug.LDAP_DEBUG) {
-                    Debug.trace( Debug.messages, name +
-                       "Shutdown removed message(" + info.getMessageID() + ")");
-                }
-            } catch( ArrayIndexOutOfBoundsException ex) {
+            Object[] infos = messages.getObjectArray();
+            if( infos.length == 0) {
                 // No more messages
                 if( Debug.LDAP_DEBUG) {
                     Debug.trace( Debug.messages, name +
@@ -950,7 +1195,14 @@ final class Connection
                 }
                 break;
             }
-            info.abandon( null, notifyUser); // also notifies the application
+            for( int i = 0; i < infos.length; i++) {
+                info = (Message)infos[i];
+                if( Debug.LDAP_DEBUG) {
+                    Debug.trace( Debug.messages, name +
+                       "Shutdown removed message(" + info.getMessageID() + ")");
+                }
+                info.abandon( null, notifyUser); // also notifies the application
+            }
         }
 
         int semId = acquireWriteSemaphore( semaphoreId);
@@ -967,7 +1219,7 @@ final class Connection
                     Debug.trace( Debug.rawInput, name + "RawWrite: " +
                             msg.getASN1Object().toString());
                 }
-                byte[] ber = msg.getASN1Object().getEncoding(encoder);
+                byte[] ber = encoder.encodeToArray(msg.getASN1Object());
                 out.write(ber, 0, ber.length);
                 out.flush();
             } catch( Exception ex) {
@@ -976,6 +1228,13 @@ final class Connection
         }
         bindProperties = null;
 
+        if( out instanceof ChannelOutputStream) {
+            try {
+                out.close();
+            } catch( IOException ioe) {
+                ; // ignore problem releasing the write selector
+            }
+        }
         in = null;
         out = null;
         if( socket != null) {
@@ -989,8 +1248,11 @@ final class Connection
         }
 
         // wait until reader threads stops completely
+        ChannelReader cr = channelReader;
         try {
-        	if (reader!= Thread.currentThread())
+        	if (cr != null)
+        	     cr.stop(); // selector thread drops this connection
+        	else if (reader!= Thread.currentThread())
         	     reader.join();
 
 //      	reader.join();
@@ -1053,7 +1315,7 @@ final class Connection
 
         if( Debug.LDAP_DEBUG) {
             Debug.trace( Debug.TLS, "startTLS: areMessagesComplete? " +
-                    "MessageVector size = " + length +
+                    "MessageTable size = " + length +
                     ", bindSemaphoreId=" + bindSemaphoreId);
         }
         // Check if SASL bind in progress
@@ -1100,9 +1362,27 @@ final class Connection
      */
     /* package */
     final void startReader() throws LDAPException {
+        SocketChannel channel = (socket != null) ? socket.getChannel() : null;
+        if( (channel != null) && ! isTLS() &&
+            (mySocketFactory instanceof LDAPNioSocketFactory)) {
+            // Read on a selector thread of the socket factory
+            ChannelReader r = new ChannelReader( channel);
+            try {
+                channel.configureBlocking( false);
+                out = new ChannelOutputStream( channel);
+                in = Channels.newInputStream( channel); // never read
+                channelReader = r;
+                waitForReader( ((LDAPNioSocketFactory)mySocketFactory).
+                                        getSelectorPool().register( r).thread);
+            } catch( IOException ioe) {
+                channelReader = null;
+                throw new LDAPException( ExceptionMessages.CONNECTION_READER,
+                                LDAPException.CONNECT_ERROR, null, ioe);
+            }
+            return;
+        }
         // Start Reader Thread
-        Thread r = new Thread(new ReaderThread());
-        r.setDaemon(true); // If the last thread running, allow exit.
+        Thread r = threadFactory.newThread( new ReaderThread(), "LDAP Reader");
         r.start();
         waitForReader(r);
         return;
@@ -1153,6 +1433,11 @@ final class Connection
              *  response to the startTLS extended request was received..
              */
             waitForReader(null);
+            if( this.out instanceof ChannelOutputStream) {
+                // Leave the selector thread, TLS is read by a reader thread
+                this.out.close();
+                this.socket.getChannel().configureBlocking( true);
+            }
             this.nonTLSBackup = this.socket;
             this.socket = ((LDAPTLSSocketFactory)
                         this.mySocketFactory).createSocket( this.socket );
@@ -1223,8 +1508,79 @@ final class Connection
         return;
     }
 
+    /**
+     * Processes a message decoded by the reader.  A response is queued
+     * on the Message which requested it, an unsolicited notification is
+     * handed to the unsolicited listeners.
+     *
+     * @param msg the decoded message
+     *
+     * @return the Message the response was queued on, or null if the
+     * message was not a response to an outstanding request.
+     */
+    private Message dispatchReply( RfcLDAPMessage msg)
+    {
+        int msgId = msg.getMessageID();
+
+        // Find the message which requested this response.
+        // It is possible to receive a response for a request which
+        // has been abandoned. If abandoned, throw it away
+        try {
+            Message info = messages.findMessageById( msgId);
+            if( Debug.LDAP_DEBUG ) {
+                Debug.trace( Debug.messages, name +
+                    "reader: queue response to message(" + msgId + ")");
+            }
+            info.putReply( msg);   // queue & wake up waiting thread
+            return info;
+        } catch ( NoSuchFieldException ex) {
+
+            /*
+             * We get the NoSuchFieldException when we could not find
+             * a matching message id.  First check to see if this is
+             * an unsolicited notification (msgID == 0). If it is not
+             * we throw it away. If it is we call any unsolicited
+             * listeners that might have been registered to listen for these
+             * messages.
+             */
+
+
+            /* Note the location of this code.  We could have required
+             * that message ID 0 be just like other message ID's but
+             * since message ID 0 has to be treated specially we have
+             * a separate check for message ID 0.  Also note that
+             * this test is after the regular message list has been
+             * checked for.  We could have always checked the list
+             * of messages after checking if this is an unsolicited
+             * notification but that would have inefficient as
+             * message ID 0 is a rare event (as of this time).
+             */
+            if (msgId == 0) {
+
+                if( Debug.LDAP_DEBUG ) {
+                    Debug.trace( Debug.messages, name +
+                            "Received message id 0");
+                }
+
+                // Notify any listeners that might have been registered
+                notifyAllUnsolicitedListeners(msg);
+            } else {
+
+                if( Debug.LDAP_DEBUG ) {
+                    Debug.trace( Debug.messages, name +
+                        "reader: message(" + msgId +
+                        ") not found, discarding reply");
+                }
+
+            }
+        }
+        return null;
+    }
+
     public class ReaderThread implements Runnable
     {
+        private final ReaderResume resume = new ReaderResume();
+
         private ReaderThread()
         {
             return;
@@ -1249,26 +1605,30 @@ final class Connection
                     reader.toString());
             }
             try {
+                /* Read whole PDUs into a reusable buffer and decode them
+                 * from memory, the value of in stays consistant for the
+                 * life of this reader, i.e. even during shutdown
+                 */
+                InputStream myIn = in;
+                LBERFrameReader frames = null;
+                if( myIn != null) {
+                    frames = new LBERFrameReader( myIn);
+                    frames.setMaxFrameSize( maxMessageSize);
+                }
                 for(;;) {
                     // -------------------------------------------------------
-                    // Decode an RfcLDAPMessage directly from the socket.
+                    // Read an RfcLDAPMessage from the socket & decode it.
                     // -------------------------------------------------------
-                    ASN1Identifier asn1ID;
-                    InputStream myIn;
-                    /* get current value of in, keep value consistant
-                     * though the loop, i.e. even during shutdown
-                     */
-                    myIn = in;
-                    if( myIn == null) {
+                    if( (frames == null) || (in == null)) {
                         if( Debug.LDAP_DEBUG) {
                             Debug.trace( Debug.messages, name +
                                 "reader: thread stopping, connection shut down");
                         }
                         break;
                     }
-                    asn1ID = new ASN1Identifier(myIn);
-                    int tag = asn1ID.getTag();
-                    if(asn1ID.getTag() != ASN1Sequence.TAG) {
+                    InputStream frame = frames.readFrame();
+                    int tag = frames.getIdentifier().getTag();
+                    if( tag != ASN1Sequence.TAG) {
                         if( Debug.LDAP_DEBUG) {
                             Debug.trace( Debug.messages, name +
                                 "reader: discarding message with tag " + tag);
@@ -1277,10 +1637,8 @@ final class Connection
                     }
 
                     // Turn the message into an RfcMessage class
-                    ASN1Length asn1Len = new ASN1Length(myIn);
-
                     RfcLDAPMessage msg =
-                        new RfcLDAPMessage( decoder, myIn, asn1Len.getLength());
+                        new RfcLDAPMessage( decoder, frame, frames.getLength());
                     if( Debug.LDAP_DEBUG) {
                         Debug.trace( Debug.rawInput, name + "RawRead: " +
                                 msg.toString());
@@ -1290,74 +1648,31 @@ final class Connection
                     // Process the decoded RfcLDAPMessage.
                     // ------------------------------------------------------------
                     int msgId = msg.getMessageID();
-
-                    // Find the message which requested this response.
-                    // It is possible to receive a response for a request which
-                    // has been abandoned. If abandoned, throw it away
-                    try {
-                        info = messages.findMessageById( msgId);
-                        if( Debug.LDAP_DEBUG ) {
-                            Debug.trace( Debug.messages, name +
-                                "reader: queue response to message(" + msgId + ")");
+                    Message replied = dispatchReply( msg);
+                    if( replied != null) {
+                        info = replied;
+                        // Stop reading, and let TCP flow control hold the
+                        // server back, until the application catches up
+                        // with a request whose reply queue is full
+                        if( replied.pauseReader( resume)) {
+                            resume.await();
                         }
-                        info.putReply( msg);   // queue & wake up waiting thread
-                    } catch ( NoSuchFieldException ex) {
-
-                        /*
-                         * We get the NoSuchFieldException when we could not find
-                         * a matching message id.  First check to see if this is
-                         * an unsolicited notification (msgID == 0). If it is not
-                         * we throw it away. If it is we call any unsolicited
-                         * listeners that might have been registered to listen for these
-                         * messages.
-                         */
-
-
-                        /* Note the location of this code.  We could have required
-                         * that message ID 0 be just like other message ID's but
-                         * since message ID 0 has to be treated specially we have
-                         * a separate check for message ID 0.  Also note that
-                         * this test is after the regular message list has been
-                         * checked for.  We could have always checked the list
-                         * of messages after checking if this is an unsolicited
-                         * notification but that would have inefficient as
-                         * message ID 0 is a rare event (as of this time).
-                         */
-                        if (msgId == 0) {
-
-                            if( Debug.LDAP_DEBUG ) {
-                                Debug.trace( Debug.messages, name +
-                                        "Received message id 0");
-                            }
-
-                            // Notify any listeners that might have been registered
-                            notifyAllUnsolicitedListeners(msg);
-
-                            /*
-                             * Was this a server shutdown unsolicited notification.
-                             * IF so we quit. Actually calling the return will
-                             * first transfer control to the finally clause which
-                             * will do the necessary clean up.
-                             */
-                            if (unsolSvrShutDnNotification) {
-                                notify = new InterThreadException(
-                                    ExceptionMessages.SERVER_SHUTDOWN_REQ,
-                                    new Object[] {host, new Integer(port)},
-                                    LDAPException.CONNECT_ERROR,
-                                    null, null);
-
-                                return;
-                            }
-                        } else {
-
-                            if( Debug.LDAP_DEBUG ) {
-                                Debug.trace( Debug.messages, name +
-                                    "reader: message(" + msgId +
-                                    ") not found, discarding reply");
-                            }
+                    }
 
-                        }
+                    /*
+                     * Was this a server shutdown unsolicited notification.
+                     * IF so we quit. Actually calling the return will
+                     * first transfer control to the finally clause which
+                     * will do the necessary clean up.
+                     */
+                    if( (msgId == 0) && unsolSvrShutDnNotification) {
+                        notify = new InterThreadException(
+                            ExceptionMessages.SERVER_SHUTDOWN_REQ,
+                            new Object[] {host, new Integer(port)},
+                            LDAPException.CONNECT_ERROR,
+                            null, null);
 
+                        return;
                     }
                     if ((stopReaderMessageID == msgId) ||
                         (stopReaderMessageID == STOP_READING)) {
@@ -1430,6 +1745,342 @@ final class Connection
         }
     } // End class ReaderThread
 
+    /**
+     * Resumes a ReaderThread paused by a request whose reply queue is full.
+     */
+    private static final class ReaderResume implements Runnable
+    {
+        private boolean resumed = false;
+
+        public synchronized void run()
+        {
+            resumed = true;
+            notifyAll();
+            return;
+        }
+
+        /**
+         * Waits until run is called, if it was not already.
+         */
+        synchronized void await()
+        {
+            while( ! resumed) {
+                try {
+                    wait();
+                } catch( InterruptedException ex) {
+                    ;
+                }
+            }
+            resumed = false;
+            return;
+        }
+    }
+
+    /**
+     * Reads the connection on a selector thread of an LDAPNioSocketFactory.
+     *
+     * <p>The selector thread calls readable whenever data arrives on the
+     * channel.  The complete RfcLDAPMessages read so far are decoded and
+     * processed the same way as by the ReaderThread, incomplete ones are
+     * kept until more data arrives.  The selector thread is never blocked:
+     * when the connection must be shut down, shutdown runs on a new
+     * thread, and when the reply queue of a request is full the channel
+     * is left unread until the application catches up.</p>
+     */
+    /* package */
+    final class ChannelReader
+    {
+        private final SocketChannel channel;
+        private final LBERFrameReader frames = new LBERFrameReader();
+        private SelectionKey key = null;  // used by the selector thread only
+        private boolean done = false;     // protected by this
+        private IOException ioex = null;
+        private InterThreadException notify = null;
+        private Message info = null;
+
+        /* package */
+        SelectorPool.Worker worker = null; // set by SelectorPool.register
+
+        // Asks the selector thread to read the channel again
+        private final Runnable resume = new Runnable() {
+            public void run()
+            {
+                worker.resume( ChannelReader.this);
+                return;
+            }
+        };
+
+        private ChannelReader( SocketChannel channel)
+        {
+            this.channel = channel;
+            frames.setMaxFrameSize( maxMessageSize);
+            return;
+        }
+
+        /**
+         * Returns the selection key of the channel, or null if the channel
+         * is not registered yet.
+         */
+        /* package */
+        SelectionKey getKey()
+        {
+            return key;
+        }
+
+        /**
+         * Registers the channel for reading.  Called by the selector thread.
+         *
+         * @return false if the channel could not be registered.
+         */
+        /* package */
+        boolean start( Selector selector)
+        {
+            try {
+                key = channel.register( selector, SelectionKey.OP_READ, this);
+            } catch( ClosedChannelException ex) {
+                ioex = ex;
+                return false;
+            }
+            reader = Thread.currentThread();
+            if( Debug.LDAP_DEBUG) {
+                Debug.trace( Debug.messages, name + "reader: registered with " +
+                    reader.toString());
+            }
+            return true;
+        }
+
+        /**
+         * Reads and processes the data available on the channel.  Called
+         * by the selector thread.
+         *
+         * @return false if the connection must no longer be read.
+         */
+        /* package */
+        boolean readable()
+        {
+            return process( true);
+        }
+
+        /**
+         * Reads the channel again after a pause, starting with the data
+         * already read.  Called by the selector thread.
+         *
+         * @return false if the connection must no longer be read.
+         */
+        /* package */
+        boolean resumed()
+        {
+            key.interestOps( SelectionKey.OP_READ);
+            return process( false);
+        }
+
+        /*
+         * Processes the complete RfcLDAPMessages read so far, after reading
+         * the data available on the channel if read is true.
+         */
+        private boolean process( boolean read)
+        {
+            try {
+                if( in == null) {
+                    if( Debug.LDAP_DEBUG) {
+                        Debug.trace( Debug.messages, name +
+                            "reader: stopping, connection shut down");
+                    }
+                    return false;
+                }
+                if( read && (frames.read( channel) < 0)) {
+                    throw new EOFException("LBER: FRAME: decode error: EOF");
+                }
+                InputStream frame;
+                while( (frame = frames.nextFrame()) != null) {
+                    int tag = frames.getIdentifier().getTag();
+                    if( tag != ASN1Sequence.TAG) {
+                        if( Debug.LDAP_DEBUG) {
+                            Debug.trace( Debug.messages, name +
+                                "reader: discarding message with tag " + tag);
+                        }
+                        continue; // loop looking for an RfcLDAPMessage identifier
+                    }
+
+                    // Turn the message into an RfcMessage class
+                    RfcLDAPMessage msg =
+                        new RfcLDAPMessage( decoder, frame, frames.getLength());
+                    if( Debug.LDAP_DEBUG) {
+                        Debug.trace( Debug.rawInput, name + "RawRead: " +
+                                msg.toString());
+                    }
+
+                    int msgId = msg.getMessageID();
+                    Message replied = dispatchReply( msg);
+                    if( replied != null) {
+                        info = replied;
+                        // Leave the rest unread until the application
+                        // catches up with a request whose queue is full
+                        if( replied.pauseReader( resume)) {
+                            key.interestOps( 0);
+                            return true;
+                        }
+                    }
+                    if( (msgId == 0) && unsolSvrShutDnNotification) {
+                        notify = new InterThreadException(
+                            ExceptionMessages.SERVER_SHUTDOWN_REQ,
+                            new Object[] {host, new Integer(port)},
+                            LDAPException.CONNECT_ERROR,
+                            null, null);
+                        return false;
+                    }
+                    if ((stopReaderMessageID == msgId) ||
+                        (stopReaderMessageID == STOP_READING)) {
+                        // Stop reading, e.g. startTLS
+                        return false;
+                    }
+                }
+                return true;
+            } catch( IOException ioe) {
+                lost( ioe);
+                return false;
+            } catch( RuntimeException re) {
+                // Never let a connection kill the selector thread
+                lost( new IOException( re.toString()));
+                return false;
+            }
+        }
+
+        /*
+         * Records the loss of the connection.
+         */
+        private void lost( IOException ioe)
+        {
+            if( Debug.LDAP_DEBUG ) {
+                Debug.trace( Debug.messages, name +
+                    "Connection lost waiting for results from " +
+                    host + ":" + port + ", clientActive=" +
+                    clientActive + "\n\t" + ioe.toString());
+            }
+
+            ioex = ioe;
+            if((stopReaderMessageID != STOP_READING ) && clientActive ){
+                // Connection lost waiting for results from host:port
+                notify = new InterThreadException(
+                    ExceptionMessages.CONNECTION_WAIT,
+                            new Object[] { host, new Integer(port)},
+                            LDAPException.CONNECT_ERROR,
+                            ioe, info);
+            }
+            // The connection is no good, don't use it any more
+            in = null;
+            out = null;
+            return;
+        }
+
+        /**
+         * Called by the selector thread once the channel is deregistered.
+         * Shuts the connection down, on a new thread, unless the reader
+         * was stopped to negotiate TLS.  See ReaderThread.run.
+         */
+        /* package */
+        void stopped()
+        {
+            if( Debug.LDAP_DEBUG ) {
+                Debug.trace( Debug.messages, name +
+                "reader: deregistered from selector");
+            }
+            if( clientActive && (notify != null)) {
+                synchronized( this) {
+                    done = true;
+                    notifyAll();
+                }
+                Thread t = threadFactory.newThread( new Runnable() {
+                    public void run()
+                    {
+                        shutdown( "reader: selector stopping", 0, notify);
+                        finish();
+                        return;
+                    }
+                }, "LDAP Connection shutdown");
+                t.start();
+                return;
+            }
+            if( clientActive) {
+                stopReaderMessageID = CONTINUE_READING;
+                if( Debug.LDAP_DEBUG ) {
+                    Debug.trace( Debug.TLS,
+                        "reader: Stopping, retaining the connection");
+                }
+            }
+            finish();
+            synchronized( this) {
+                done = true;
+                notifyAll();
+            }
+            return;
+        }
+
+        /**
+         * Asks the selector thread to stop reading the channel and waits
+         * until it has.  Called by shutdown.
+         *
+         * <p>When called on the selector thread itself, for instance by a
+         * listener disconnecting from its callback, the key is cancelled
+         * and the reader stopped inline, waiting would never end.</p>
+         */
+        /* package */
+        void stop()
+        {
+            synchronized( this) {
+                if( done) {
+                    return;
+                }
+            }
+            if( worker.thread == Thread.currentThread()) {
+                if( key != null) {
+                    key.cancel();
+                }
+                stopped();
+                return;
+            }
+            worker.request( this);
+            synchronized( this) {
+                while( ! done) {
+                    try {
+                        wait();
+                    } catch( InterruptedException ex) {
+                        ;
+                    }
+                }
+            }
+            return;
+        }
+
+        /**
+         * Returns true once the selector thread has stopped reading.
+         */
+        /* package */
+        synchronized boolean isDone()
+        {
+            return done;
+        }
+
+        /*
+         * Leaves the traces waitForReader looks for.
+         */
+        private void finish()
+        {
+            if( channelReader != this) {
+                return;     // Connection already restarted
+            }
+            channelReader = null;
+            deadReaderException = ioex;
+            deadReader = reader;
+            reader = null;
+            if( Debug.LDAP_DEBUG ) {
+                Debug.trace( Debug.messages, name +
+                "reader: stopped");
+            }
+            return;
+        }
+    } // End class ChannelReader
+
     /**
      * Sets the current referral active on this connection if created to
      * follow referrals.
@@ -1481,7 +2132,7 @@ final class Connection
      *  notification.  We use this class to spawn off the unsolicited
      *  notification as a separate thread
      */
-    private class UnsolicitedListenerThread extends Thread
+    private class UnsolicitedListenerThread implements Runnable
     {
         private LDAPUnsolicitedNotificationListener listenerObj;
         private LDAPExtendedResponse unsolicitedMsg;
@@ -1548,7 +2199,7 @@ final class Connection
             // the notification listener method to return.
             UnsolicitedListenerThread u =
                     new UnsolicitedListenerThread(listener, tempLDAPMessage);
-            u.start();
+            threadFactory.newThread( u, "LDAP Unsolicited Listener").start();
         }
 
 
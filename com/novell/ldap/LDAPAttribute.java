@@ -510,6 +510,42 @@ public class LDAPAttribute implements java.lang.Cloneable,
         return bva;
      }
 
+    /**
+     * Returns the length in bytes of one value of the attribute.
+     *
+     * @param index  The index of the value, from 0 to size() - 1.
+     *
+     * @return The number of bytes of the value.
+     *
+     * @see #getByteValue(int, byte[], int)
+     */
+    public int getByteValueLength(int index)
+    {
+        return ((byte[])this.values[index]).length;
+    }
+
+    /**
+     * Copies one value of the attribute into an array.
+     *
+     * <p>Unlike getByteValueArray, no array is allocated. Writers that
+     * export many entries copy every value into the same scratch array.</p>
+     *
+     * @param index  The index of the value, from 0 to size() - 1.
+     * @param dest   The array the value is copied to, with room for
+     *               getByteValueLength(index) bytes from off.
+     * @param off    The index in dest of the first byte copied.
+     *
+     * @return The number of bytes copied.
+     *
+     * @see #size()
+     */
+    public int getByteValue(int index, byte[] dest, int off)
+    {
+        byte[] value = (byte[])this.values[index];
+        System.arraycopy(value, 0, dest, off, value.length);
+        return value.length;
+    }
+
     /**
      * Returns the language subtype of the attribute, if any.
      *
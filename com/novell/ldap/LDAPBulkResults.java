@@ -0,0 +1,117 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.util.Vector;
+
+/**
+ * Collects the outcome of the requests written by a bulk loader: the
+ * number of requests that succeeded, and the requests that failed with the
+ * exception describing each failure, in the order the failures were
+ * recorded.
+ *
+ * <p>An LDAPBulkResults is not thread safe, it is updated by the thread
+ * feeding the loader.</p>
+ *
+ * @see LDAPBulkWriter
+ */
+public class LDAPBulkResults
+{
+    private int successCount = 0;
+    private Vector failedRequests = new Vector();
+    private Vector failures = new Vector();
+
+    /**
+     * Records requests that completed successfully.
+     *
+     *  @param count The number of requests that succeeded.
+     */
+    public void addSuccesses( int count)
+    {
+        successCount += count;
+        return;
+    }
+
+    /**
+     * Records a request that failed.
+     *
+     *  @param request The request that failed.
+     *
+     *  @param ex      The exception describing the failure.
+     */
+    public void addFailure( LDAPMessage request, LDAPException ex)
+    {
+        failedRequests.addElement( request);
+        failures.addElement( ex);
+        return;
+    }
+
+    /**
+     * Returns the number of requests that completed successfully.
+     */
+    public int getSuccessCount()
+    {
+        return successCount;
+    }
+
+    /**
+     * Returns the number of requests that failed.
+     */
+    public int getFailureCount()
+    {
+        return failures.size();
+    }
+
+    /**
+     * Returns the exception describing the first failure recorded.
+     *
+     * @return the first failure, or null if no request failed.
+     */
+    public LDAPException getFirstFailure()
+    {
+        if( failures.isEmpty()) {
+            return null;
+        }
+        return (LDAPException)failures.firstElement();
+    }
+
+    /**
+     * Returns the requests that failed, in the order their failure was
+     * recorded.
+     *
+     * @return the failed requests, the exception describing the failure of
+     * each is at the same index in the array returned by getFailures.
+     */
+    public LDAPMessage[] getFailedRequests()
+    {
+        LDAPMessage[] requests = new LDAPMessage[failedRequests.size()];
+        failedRequests.copyInto( requests);
+        return requests;
+    }
+
+    /**
+     * Returns the exceptions describing the failed requests.
+     *
+     * @return the exceptions, the request that failed with each is at the
+     * same index in the array returned by getFailedRequests.
+     */
+    public LDAPException[] getFailures()
+    {
+        LDAPException[] exceptions = new LDAPException[failures.size()];
+        failures.copyInto( exceptions);
+        return exceptions;
+    }
+}
@@ -0,0 +1,438 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import com.novell.ldap.client.Debug;
+import com.novell.ldap.resources.ExceptionMessages;
+import com.novell.ldap.util.LDAPReader;
+
+/**
+ * Writes a stream of LDAP write requests to the directory, keeping a
+ * window of requests outstanding instead of waiting for the response to
+ * each request before sending the next one.
+ *
+ * <p>The requests are add, modify, delete, modify DN or extended requests,
+ * for instance the requests read from an LDIF file by
+ * {@link com.novell.ldap.util.LDIFReader#readMessage}.  The search results
+ * read from an LDIF content file are written as add requests.  Up to
+ * <code>window</code> requests are
+ * outstanding at a time, sent in turn on the connections given.
+ * Connections cloned from the same connection share a single socket;
+ * distinct connections spread the requests over several sockets.</p>
+ *
+ * <p>The server may process outstanding requests in any order, so a
+ * request is held until no outstanding request targets the same entry, its
+ * parent or one of its children.  An entry added and then modified, or the
+ * children of an entry deleted before the entry, are therefore processed
+ * in the order written.</p>
+ *
+ * <p>The writer counts the successful requests and keeps the requests that
+ * failed with the exception describing the failure.  Failing fast, the
+ * first failure stops the writer: the requests outstanding complete but no
+ * request is sent any more and write and finish throw the failure.
+ * Continuing on errors, every request is sent and the failures are only
+ * collected.</p>
+ *
+ * <p>An LDAPBulkWriter is not thread safe, it is meant to be fed by a
+ * single thread.</p>
+ *
+ * @see LDAPConnection#sendRequest
+ */
+public class LDAPBulkWriter
+{
+    private LDAPConnection[] conns;
+    private int window;
+    private boolean continueOnError;
+    private LDAPConstraints cons;
+
+    private int nextConn = 0;           // connection of the next request
+    private LDAPMessageQueue queue = null; // responses of all requests
+    private HashMap outstanding = new HashMap(); // message ID -> Operation
+    private HashMap targets = new HashMap(); // DN -> outstanding count
+    private HashMap parents = new HashMap(); // parent DN -> outstanding count
+    private LDAPBulkResults results = new LDAPBulkResults();
+    private LDAPException failure = null; // stops a failing fast writer
+
+    /**
+     * Constructs a writer sending requests on a single connection.
+     *
+     *  @param conn            The connection to send the requests on.
+     *<br><br>
+     *  @param window          The maximum number of requests outstanding.
+     *<br><br>
+     *  @param continueOnError True to send all requests whatever the
+     *                         failures, false to stop at the first failure.
+     */
+    public LDAPBulkWriter( LDAPConnection conn,
+                           int window,
+                           boolean continueOnError)
+    {
+        this( new LDAPConnection[] { conn }, window, continueOnError, null);
+        return;
+    }
+
+    /**
+     * Constructs a writer sending requests on several connections.
+     *
+     *  @param conns           The connections to send the requests on,
+     *                         used in turn.
+     *<br><br>
+     *  @param window          The maximum number of requests outstanding
+     *                         over all connections.
+     *<br><br>
+     *  @param continueOnError True to send all requests whatever the
+     *                         failures, false to stop at the first failure.
+     *<br><br>
+     *  @param cons            The constraints of each request, or null for
+     *                         those of the connection sending the request.
+     */
+    public LDAPBulkWriter( LDAPConnection[] conns,
+                           int window,
+                           boolean continueOnError,
+                           LDAPConstraints cons)
+    {
+        if( (conns == null) || (conns.length == 0) || (window <= 0)) {
+            throw new IllegalArgumentException(
+                "LDAPBulkWriter: connections and window required");
+        }
+        this.conns = conns;
+        this.window = window;
+        this.continueOnError = continueOnError;
+        this.cons = cons;
+        return;
+    }
+
+    /**
+     * Sends a write request, first waiting for responses while the window
+     * is full or while an outstanding request targets a related entry.
+     *
+     *  @param request The add, modify, delete, modify DN or extended
+     *                 request to send, or a search result whose entry is
+     *                 added.
+     *
+     * @exception LDAPException if the writer fails fast and a request
+     * failed.
+     */
+    public void write( LDAPMessage request)
+        throws LDAPException
+    {
+        request = toRequest( request);
+        if( (request == null) || ! request.isRequest() ||
+            (request.getType() == LDAPMessage.SEARCH_REQUEST) ||
+            (request.getType() == LDAPMessage.BIND_REQUEST)) {
+            throw new IllegalArgumentException(
+                "LDAPBulkWriter: write request required");
+        }
+        checkFailure();
+
+        String dn = getTarget( request);
+        String parent = (dn == null) ? null : getParent( dn);
+        while( ! outstanding.isEmpty() &&
+               ((outstanding.size() >= window) || isHeld( dn, parent))) {
+            receive();
+            checkFailure();
+        }
+
+        LDAPConnection conn = conns[nextConn];
+        nextConn = (nextConn + 1) % conns.length;
+        if( Debug.LDAP_DEBUG) {
+            Debug.trace( Debug.apiRequests, "LDAPBulkWriter: write(" +
+                request.getMessageID() + ") " + dn);
+        }
+        try {
+            queue = conn.sendRequest( request, queue, cons);
+        } catch( LDAPException ex) {
+            fail( request, ex);
+            checkFailure();
+            return;
+        }
+        outstanding.put( new Integer( request.getMessageID()),
+                         new Operation( request, dn, parent));
+        increment( targets, dn);
+        increment( parents, parent);
+        return;
+    }
+
+    /**
+     * Sends all the requests read from an LDAPReader, for instance an
+     * LDIFReader reading change records, and waits for their responses.
+     * The entries read from a content file are added.
+     *
+     *  @param reader The reader of the requests.
+     *
+     * @exception LDAPException if the writer fails fast and a request
+     * failed, or if the reader reads an invalid request.
+     *
+     * @exception IOException if the reader fails.
+     */
+    public void write( LDAPReader reader)
+        throws LDAPException, IOException
+    {
+        LDAPMessage request;
+        while( (request = reader.readMessage()) != null) {
+            write( request);
+        }
+        finish();
+        return;
+    }
+
+    /**
+     * Waits for the responses to all outstanding requests.
+     *
+     * @exception LDAPException if the writer fails fast and a request
+     * failed.
+     */
+    public void finish()
+        throws LDAPException
+    {
+        while( ! outstanding.isEmpty()) {
+            receive();
+        }
+        checkFailure();
+        return;
+    }
+
+    /**
+     * Returns the request writing a message read by an LDAPReader: an
+     * LDAPAddRequest adding the entry of an LDAPSearchResult, read from an
+     * LDIF content file, or the message itself.
+     *
+     *  @param msg The message read.
+     *
+     *  @return The request writing the message.
+     *
+     * @exception LDAPException if the add request cannot be built.
+     */
+    public static LDAPMessage toRequest( LDAPMessage msg)
+        throws LDAPException
+    {
+        if( msg instanceof LDAPSearchResult) {
+            return new LDAPAddRequest(
+                            ((LDAPSearchResult)msg).getEntry(), null);
+        }
+        return msg;
+    }
+
+    /**
+     * Returns the number of requests outstanding.
+     */
+    public int getOutstandingCount()
+    {
+        return outstanding.size();
+    }
+
+    /**
+     * Returns the number of requests that completed successfully.
+     */
+    public int getSuccessCount()
+    {
+        return results.getSuccessCount();
+    }
+
+    /**
+     * Returns the number of requests that failed.
+     */
+    public int getFailureCount()
+    {
+        return results.getFailureCount();
+    }
+
+    /**
+     * Returns the requests that failed, in the order their failure was
+     * received.
+     *
+     * @return the failed requests, the exception describing the failure of
+     * each is at the same index in the array returned by getFailures.
+     */
+    public LDAPMessage[] getFailedRequests()
+    {
+        return results.getFailedRequests();
+    }
+
+    /**
+     * Returns the exceptions describing the failed requests.
+     *
+     * @return the exceptions, the request that failed with each is at the
+     * same index in the array returned by getFailedRequests.
+     */
+    public LDAPException[] getFailures()
+    {
+        return results.getFailures();
+    }
+
+    /*
+     * Waits for the next response and completes its request.
+     */
+    private void receive()
+        throws LDAPException
+    {
+        LDAPMessage msg = queue.getResponse();
+        if( msg == null) {
+            // No request left in the queue, e.g. the connection closed:
+            // the outstanding requests will never complete
+            Iterator ops = outstanding.entrySet().iterator();
+            while( ops.hasNext()) {
+                java.util.Map.Entry e = (java.util.Map.Entry)ops.next();
+                fail( ((Operation)e.getValue()).request,
+                      new LDAPLocalException( ExceptionMessages.NO_RESPONSE,
+                                              new Object[] { e.getKey() },
+                                              LDAPException.CONNECT_ERROR));
+            }
+            outstanding.clear();
+            targets.clear();
+            parents.clear();
+            return;
+        }
+        Operation op = (Operation)outstanding.get(
+                                    new Integer( msg.getMessageID()));
+        if( (op == null) || ! (msg instanceof LDAPResponse)) {
+            return;         // intermediate response
+        }
+        outstanding.remove( new Integer( msg.getMessageID()));
+        decrement( targets, op.dn);
+        decrement( parents, op.parent);
+        try {
+            ((LDAPResponse)msg).chkResultCode();
+            results.addSuccesses( 1);
+        } catch( LDAPException ex) {
+            fail( op.request, ex);
+        }
+        return;
+    }
+
+    /*
+     * Records a failed request.
+     */
+    private void fail( LDAPMessage request, LDAPException ex)
+    {
+        results.addFailure( request, ex);
+        if( ! continueOnError && (failure == null)) {
+            failure = ex;
+        }
+        return;
+    }
+
+    /*
+     * Throws the failure that stopped a failing fast writer.
+     */
+    private void checkFailure()
+        throws LDAPException
+    {
+        if( failure != null) {
+            throw failure;
+        }
+        return;
+    }
+
+    /*
+     * Returns true if an outstanding request targets the entry, its parent
+     * or one of its children.
+     */
+    private boolean isHeld( String dn, String parent)
+    {
+        if( dn == null) {
+            return false;
+        }
+        return targets.containsKey( dn) || parents.containsKey( dn) ||
+               ((parent != null) && targets.containsKey( parent));
+    }
+
+    /*
+     * Returns the normalized DN of the entry targeted by a request, or
+     * null if the request does not target an entry.
+     */
+    private static String getTarget( LDAPMessage request)
+    {
+        String dn;
+        if( request instanceof LDAPAddRequest) {
+            dn = ((LDAPAddRequest)request).getEntry().getDN();
+        } else
+        if( request instanceof LDAPModifyRequest) {
+            dn = ((LDAPModifyRequest)request).getDN();
+        } else
+        if( request instanceof LDAPDeleteRequest) {
+            dn = ((LDAPDeleteRequest)request).getDN();
+        } else
+        if( request instanceof LDAPModifyDNRequest) {
+            dn = ((LDAPModifyDNRequest)request).getDN();
+        } else {
+            return null;
+        }
+        return LDAPEntryCache.normalize( dn);
+    }
+
+    /*
+     * Returns the parent of a normalized DN, or null for a single RDN.
+     */
+    private static String getParent( String dn)
+    {
+        for( int i = 0; i < dn.length(); i++) {
+            char c = dn.charAt( i);
+            if( c == '\\') {
+                i++;        // escaped character
+            } else
+            if( c == ',') {
+                return dn.substring( i + 1);
+            }
+        }
+        return null;
+    }
+
+    private static void increment( HashMap counts, String dn)
+    {
+        if( dn != null) {
+            Integer count = (Integer)counts.get( dn);
+            counts.put( dn, new Integer( (count == null) ?
+                                         1 : count.intValue() + 1));
+        }
+        return;
+    }
+
+    private static void decrement( HashMap counts, String dn)
+    {
+        if( dn != null) {
+            int count = ((Integer)counts.get( dn)).intValue();
+            if( count == 1) {
+                counts.remove( dn);
+            } else {
+                counts.put( dn, new Integer( count - 1));
+            }
+        }
+        return;
+    }
+
+    /*
+     * An outstanding request.
+     */
+    private static final class Operation
+    {
+        private final LDAPMessage request;
+        private final String dn;
+        private final String parent;
+
+        private Operation( LDAPMessage request, String dn, String parent)
+        {
+            this.request = request;
+            this.dn = dn;
+            this.parent = parent;
+            return;
+        }
+    }
+}
@@ -18,7 +18,9 @@ package com.novell.ldap;
 import java.io.UnsupportedEncodingException;
 import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.StringTokenizer;
 
@@ -67,6 +69,8 @@ public class LDAPConnection implements Cloneable
 
     private Connection conn = null;
 
+    private LDAPEntryCache cache = null; // Entry cache, null if disabled
+
     private static Object nameLock = new Object(); // protect agentNum
     private static int lConnNum = 0;  // Debug, LDAPConnection number
     private String name;             // String name for debug
@@ -189,6 +193,18 @@ public class LDAPConnection implements Cloneable
      */
     public static final String LDAP_PROPERTY_SECURITY = "version.security";
 
+    /**
+     * A string that can be passed in to the getProperty method.
+     *
+     *<p>LDAP_PROPERTY_PENDING_TIMERS = "timers.pending"</p>
+     *
+     * <p>You can use this string to request the number of requests
+     * currently timed by the client time limit, for all connections</p>.
+     *
+     * @see LDAPConstraints#setTimeLimit(int)
+     */
+    public static final String LDAP_PROPERTY_PENDING_TIMERS = "timers.pending";
+
     /**
      * A string that corresponds to the server shutdown notification OID.
      * This notification may be used by the server to advise the client that
@@ -391,6 +407,24 @@ public class LDAPConnection implements Cloneable
         return prop.getAuthenticationDN();
     }
 
+    /*
+     * Returns the identity the entries read are cached for: the normalized
+     * DN of a simple bind, or an empty string if the connection is
+     * anonymous.  Returns null if the connection is bound with SASL, whose
+     * authorization identity is not known: the entry cache is bypassed.
+     */
+    private String getCacheIdentity()
+    {
+        BindProperties prop = conn.getBindProperties();
+        if( (prop == null) || prop.isAnonymous()) {
+            return "";
+        }
+        if( ! "simple".equals( prop.getAuthenticationMethod())) {
+            return null;
+        }
+        return LDAPEntryCache.normalize( prop.getAuthenticationDN());
+    }
+
     /**
      * Returns the method used to authenticate the connection. The return
      * value is one of the following:
@@ -519,6 +553,10 @@ public class LDAPConnection implements Cloneable
      *  <li>LDAP_PROPERTY_SECURITY returns a comma-separated list of the
      *                             types of authentication supported, as a
      *                             string.
+     *
+     *  <li>LDAP_PROPERTY_PENDING_TIMERS returns the number of requests
+     *                             in this JVM waiting for their client
+     *                             time limit to expire, as an Integer.
      *  </ul>
      *
      *  <p>A deep copy of the property is provided where applicable; a
@@ -538,6 +576,8 @@ public class LDAPConnection implements Cloneable
             return conn.protocol;
         else if (name.equalsIgnoreCase(LDAP_PROPERTY_SECURITY))
             return conn.security;
+        else if (name.equalsIgnoreCase(LDAP_PROPERTY_PENDING_TIMERS))
+            return new Integer(TimerWheel.getShared().getPendingCount());
         else {
             return null;
         }
@@ -560,6 +600,37 @@ public class LDAPConnection implements Cloneable
         return (LDAPSearchConstraints)this.defSearchCons.clone();
     }
 
+    /**
+     * Returns the cache of the entries read by this connection.
+     *
+     * @return The entry cache, or null if entries are not cached.
+     *
+     * @see #setEntryCache( LDAPEntryCache)
+     */
+    public LDAPEntryCache getEntryCache()
+    {
+        return cache;
+    }
+
+    /**
+     * Sets the cache of the entries read by this connection.
+     *
+     * <p>When a cache is set, the entries returned by read and by
+     * synchronous base scope searches are cached, and served from the cache
+     * until they expire or are invalidated by a write sent on a connection
+     * using the same cache.  Clones created after the cache is set share
+     * it.</p>
+     *
+     * @param cache The entry cache, or null to stop caching entries.
+     *
+     * @see LDAPEntryCache
+     */
+    public void setEntryCache(LDAPEntryCache cache)
+    {
+        this.cache = cache;
+        return;
+    }
+
     /**
      * Returns the LDAPSocketFactory used to establish this server connection.
      *
@@ -573,6 +644,76 @@ public class LDAPConnection implements Cloneable
         return conn.getSocketFactory();
     }
 
+    /**
+     * Returns the LDAPThreadFactory creating the threads of this connection.
+     *
+     * @return The LDAPThreadFactory of this connection.
+     *
+     * @see #setThreadFactory( LDAPThreadFactory)
+     */
+    public LDAPThreadFactory getThreadFactory()
+    {
+        return conn.getThreadFactory();
+    }
+
+    /**
+     * Sets the LDAPThreadFactory creating the threads of this connection.
+     *
+     * <p>The factory creates the thread reading the responses of the
+     * server, the threads expiring requests with a client time limit and
+     * the threads calling unsolicited notification listeners.  It is
+     * shared by the clones of this object and applies to the threads
+     * created after this call, so it is usually set before connect.</p>
+     *
+     * <p>By default, connections share an LDAPDefaultThreadFactory,
+     * which creates virtual threads when the Java runtime supports them.</p>
+     *
+     * @param factory The LDAPThreadFactory to use, or null to use the
+     * default factory.
+     *
+     * @see #getThreadFactory()
+     */
+    public void setThreadFactory( LDAPThreadFactory factory)
+    {
+        conn.setThreadFactory( factory);
+        return;
+    }
+
+    /**
+     * Returns the maximum size of a response this connection accepts from
+     * the server.
+     *
+     * @return The maximum size of a response in octets.
+     *
+     * @see #setMaxMessageSize( int)
+     */
+    public int getMaxMessageSize()
+    {
+        return conn.getMaxMessageSize();
+    }
+
+    /**
+     * Sets the maximum size of a response this connection accepts from the
+     * server.
+     *
+     * <p>The length of a response is read before its content, and the
+     * buffer holding it is sized from that length.  A response announcing
+     * a larger size is refused without allocating a buffer for it, and the
+     * connection is closed since the rest of the stream cannot be read.
+     * The size is shared by the clones of this object and applies to
+     * connections opened after this call.  The default is 64MB.</p>
+     *
+     * @param size The maximum size of a response in octets, greater than
+     * zero.
+     *
+     * @see #getMaxMessageSize()
+     */
+    public void setMaxMessageSize( int size)
+    {
+        conn.setMaxMessageSize( size);
+        return;
+    }
+
     /**
      * Indicates whether the object has authenticated to the connected LDAP
      * server.
@@ -1077,6 +1218,7 @@ public class LDAPConnection implements Cloneable
 
         // Get a handle to the add response
         LDAPResponse addResponse = (LDAPResponse)(queue.getResponse());
+        invalidateCache( entry.getDN(), false);
 
         // Set local copy of responseControls synchronously if there were any
         synchronized (responseCtlSemaphore) {
@@ -2217,6 +2359,7 @@ public class LDAPConnection implements Cloneable
 
         // Get a handle to the delete response
         LDAPResponse deleteResponse = (LDAPResponse)(queue.getResponse());
+        invalidateCache( dn, true);
 
         // Set local copy of responseControls synchronously - if there were any
         synchronized (responseCtlSemaphore) {
@@ -2703,6 +2846,7 @@ public class LDAPConnection implements Cloneable
 
         // Get a handle to the modify response
         LDAPResponse modifyResponse = (LDAPResponse)(queue.getResponse());
+        invalidateCache( dn, false);
 
         // Set local copy of responseControls synchronously - if there were any
         synchronized (responseCtlSemaphore) {
@@ -2967,6 +3111,177 @@ public class LDAPConnection implements Cloneable
         return ret;
     }
 
+    /**
+     * Synchronously reads the entries for the specified distinguished names
+     * (DN), retrieving only the specified attributes from the entries.
+     *
+     * <p>The entries are read with base scope searches sent without waiting
+     * for the results of the previous ones, up to
+     * <code>maxOutstanding</code> searches at a time, so reading many
+     * entries costs little more than a single round trip per
+     * <code>maxOutstanding</code> entries.  Entries found in the entry
+     * cache of the connection are not read from the server.</p>
+     *
+     * <p>The returned map has a value for each distinguished name given:
+     * the LDAPEntry read, or the LDAPException that occurred reading this
+     * entry, for instance an LDAPException with the result code
+     * NO_SUCH_OBJECT if the entry does not exist.  A search that succeeds
+     * without returning the entry is also reported with the result code
+     * NO_SUCH_OBJECT.  Search result references are not followed, they are
+     * reported with an LDAPReferralException.  If the responses to some
+     * searches never arrive, for instance because the connection closed,
+     * those searches are abandoned and their distinguished names mapped to
+     * an LDAPException with the result code CONNECT_ERROR.</p>
+     *
+     *  @param dns            The distinguished names of the entries to
+     *                        retrieve.
+     *<br><br>
+     *  @param attrs          The names of the attributes to retrieve.
+     *<br><br>
+     *  @param maxOutstanding The maximum number of searches outstanding at
+     *                        a time.
+     *<br><br>
+     *  @param cons           The constraints specific to each search.
+     *
+     *  @return a Map from each distinguished name given to the LDAPEntry read
+     *  or to the LDAPException thrown reading it.
+     *
+     *  @exception LDAPException if the connection fails.
+     */
+    public Map read(String[] dns,
+                    String[] attrs,
+                    int maxOutstanding,
+                    LDAPSearchConstraints cons)
+        throws LDAPException
+    {
+        if( Debug.LDAP_DEBUG) {
+            Debug.trace( Debug.apiRequests, name +
+            "read(" + dns.length + " DNs)");
+        }
+        if( maxOutstanding <= 0) {
+            throw new IllegalArgumentException(
+                "read: maxOutstanding must be positive");
+        }
+        if( cons == null) {
+            cons = defSearchCons;
+        }
+        String identity = getCacheIdentity();
+        LDAPEntryCache cache = ((cons.getControls() == null) &&
+                                (identity != null)) ? this.cache : null;
+
+        HashMap results = new HashMap();
+        HashMap outstanding = new HashMap(); // message ID -> index in dns
+        LDAPEntry[] entries = new LDAPEntry[dns.length];
+        String[] keys = new String[dns.length];
+        long generation = 0;
+        LDAPSearchQueue queue = null;
+        int next = 0;
+        for(;;) {
+            // Keep up to maxOutstanding searches outstanding
+            while( (next < dns.length) && (outstanding.size() < maxOutstanding)) {
+                int i = next++;
+                if( cache != null) {
+                    keys[i] = LDAPEntryCache.getKey(
+                                LDAPEntryCache.normalize( dns[i]),
+                                null, attrs, false, identity);
+                    LDAPEntry entry = cache.get( keys[i]);
+                    if( entry != null) {
+                        results.put( dns[i], entry);
+                        continue;
+                    }
+                    if( outstanding.isEmpty()) {
+                        generation = cache.getGeneration();
+                    }
+                }
+                try {
+                    queue = search( dns[i], SCOPE_BASE, null, attrs, false,
+                                    queue, cons);
+                } catch( LDAPException ex) {
+                    results.put( dns[i], ex);
+                    continue;
+                }
+                int[] ids = queue.getMessageIDs();
+                outstanding.put( new Integer( ids[ids.length - 1]),
+                                 new Integer( i));
+            }
+            if( outstanding.isEmpty()) {
+                break;
+            }
+
+            LDAPMessage msg = queue.getResponse();
+            if( msg == null) {
+                // The queue lost its requests, e.g. the connection closed:
+                // report the searches outstanding and drop the queue, the
+                // DNs not sent yet are sent on a new queue
+                try {
+                    abandon( queue);
+                } catch( LDAPException ex) {
+                    ; // searches already gone
+                }
+                Iterator lost = outstanding.values().iterator();
+                while( lost.hasNext()) {
+                    String dn = dns[((Integer)lost.next()).intValue()];
+                    results.put( dn, new LDAPLocalException(
+                                    ExceptionMessages.READ_NO_RESPONSE,
+                                    new Object[] { dn },
+                                    LDAPException.CONNECT_ERROR));
+                }
+                outstanding.clear();
+                queue = null;
+                continue;
+            }
+            Integer index = (Integer)outstanding.get(
+                                    new Integer( msg.getMessageID()));
+            if( index == null) {
+                continue;
+            }
+            int i = index.intValue();
+            if( msg instanceof LDAPSearchResult) {
+                if( entries[i] != null) {
+                    // "Read response is ambiguous, multiple entries returned"
+                    results.put( dns[i], new LDAPLocalException(
+                                    ExceptionMessages.READ_MULTIPLE,
+                                    LDAPException.AMBIGUOUS_RESPONSE));
+                }
+                entries[i] = ((LDAPSearchResult)msg).getEntry();
+            } else
+            if( msg instanceof LDAPSearchResultReference) {
+                LDAPReferralException rex = new LDAPReferralException(
+                    ExceptionMessages.REFERENCE_NOFOLLOW);
+                rex.setReferrals(
+                    ((LDAPSearchResultReference)msg).getReferrals());
+                results.put( dns[i], rex);
+            } else
+            if( msg instanceof LDAPResponse) {
+                outstanding.remove( new Integer( msg.getMessageID()));
+                try {
+                    ((LDAPResponse)msg).chkResultCode();
+                } catch( LDAPException ex) {
+                    results.put( dns[i], ex);
+                    continue;
+                }
+                if( results.containsKey( dns[i])) {
+                    continue;       // ambiguous or referred
+                }
+                if( entries[i] == null) {
+                    results.put( dns[i], new LDAPLocalException(
+                                    ExceptionMessages.READ_NO_ENTRY,
+                                    new Object[] { dns[i] },
+                                    LDAPException.NO_SUCH_OBJECT));
+                    continue;
+                }
+                results.put( dns[i], entries[i]);
+                if( (cache != null) &&
+                    (entries[i].getEncodedAttributes() != null)) {
+                    cache.put( keys[i], LDAPEntryCache.normalize( dns[i]),
+                               entries[i].getDN(),
+                               entries[i].getEncodedAttributes(), generation);
+                }
+            }
+        }
+        return results;
+    }
+
     /**
      * Synchronously reads the entry specified by the LDAP URL.
      *
@@ -3161,6 +3476,7 @@ public class LDAPConnection implements Cloneable
 
         // Get a handle to the rename response
         LDAPResponse renameResponse = (LDAPResponse)(queue.getResponse());
+        invalidateCache( dn, true);
 
         // Set local copy of responseControls synchronously - if there were any
         synchronized (responseCtlSemaphore) {
@@ -3409,12 +3725,33 @@ public class LDAPConnection implements Cloneable
                                     LDAPSearchConstraints cons)
         throws LDAPException
     {
+        if( cons == null )
+            cons = defSearchCons;
+
+        LDAPEntryCache cache = this.cache;
+        String key = null;
+        long generation = 0;
+        String identity;
+        if( (cache != null) && (scope == SCOPE_BASE) && (base != null) &&
+            (cons.getControls() == null) &&
+            ((identity = getCacheIdentity()) != null)) {
+            key = LDAPEntryCache.getKey( LDAPEntryCache.normalize( base),
+                                         filter, attrs, typesOnly, identity);
+            LDAPEntry entry = cache.get( key);
+            if( entry != null) {
+                return new LDAPSearchResults( new LDAPEntry[] { entry });
+            }
+            generation = cache.getGeneration();
+        }
+
         LDAPSearchQueue queue =
             search(base, scope, filter, attrs, typesOnly, null, cons);
 
-        if( cons == null )
-            cons = defSearchCons;
-        return new LDAPSearchResults(this, queue, cons);
+        LDAPSearchResults results = new LDAPSearchResults(this, queue, cons);
+        if( key != null) {
+            results.setCache( cache, key, generation);
+        }
+        return results;
     }
 
     /**
@@ -3528,13 +3865,209 @@ public class LDAPConnection implements Cloneable
         }
 
         try {
-            agent.sendMessage( conn, msg, cons.getTimeLimit(), myqueue, null);
+            agent.sendMessage( conn, msg, cons.getTimeLimit(), myqueue, null,
+                               cons.getMaxBufferedResults(),
+                               cons.getMaxBufferedBytes());
         } catch(LDAPException lex) {
             throw lex;
         }
         return myqueue;
     }
 
+    /**
+     * Synchronously performs the search specified by the parameters,
+     * retrieving the results in pages with the paged results control
+     * (RFC 2696).
+     *
+     * <p>The returned LDAPSearchResults requests the pages as the
+     * application consumes the results, requesting the next page while the
+     * application consumes the current one, see
+     * {@link LDAPPagedSearchResults}.</p>
+     *
+     *  @param base           The base distinguished name to search from.
+     *<br><br>
+     *  @param scope          The scope of the entries to search. The following
+     *                        are the valid options:
+     *<ul>
+     *   <li>SCOPE_BASE - searches only the base DN
+     *
+     *   <li>SCOPE_ONE - searches only entries under the base DN
+     *
+     *   <li>SCOPE_SUB - searches the base DN and all entries
+     *                          within its subtree
+     *</ul><br><br>
+     *  @param filter         The search filter specifying the search criteria.
+     *<br><br>
+     *  @param attrs          The names of attributes to retrieve.
+     *<br><br>
+     *  @param typesOnly      If true, returns the names but not the values of
+     *                        the attributes found.  If false, returns the
+     *                        names and values for attributes found.
+     *<br><br>
+     *  @param pageSize       The number of entries requested per page.
+     *<br><br>
+     *  @param cons           The constraints specific to the search.  The
+     *                        batch size is ignored, each page is read in one
+     *                        batch.
+     *
+     * @exception LDAPException A general exception which includes an error
+     * message and an LDAP error code.
+     */
+    public LDAPSearchResults searchPaged(String base,
+                                         int scope,
+                                         String filter,
+                                         String[] attrs,
+                                         boolean typesOnly,
+                                         int pageSize,
+                                         LDAPSearchConstraints cons)
+        throws LDAPException
+    {
+        if( pageSize <= 0) {
+            throw new IllegalArgumentException(
+                "LDAPConnection.searchPaged: page size must be positive");
+        }
+        if( Debug.LDAP_DEBUG) {
+            Debug.trace( Debug.apiRequests, name +
+            "searchPaged(\"" + base + "\"," + scope + ",\"" + filter +
+            "\"," + pageSize + ")");
+        }
+        if( cons == null)
+            cons = defSearchCons;
+        return new LDAPPagedSearchResults( this, base, scope, filter, attrs,
+                                           typesOnly, pageSize, cons);
+    }
+
+    /**
+     * Asynchronously performs the search specified by the parameters,
+     * delivering the results to a listener as they arrive.
+     *
+     *  @param base           The base distinguished name to search from.
+     *<br><br>
+     *  @param scope          The scope of the entries to search. The following
+     *                        are the valid options:
+     *<ul>
+     *   <li>SCOPE_BASE - searches only the base DN
+     *
+     *   <li>SCOPE_ONE - searches only entries under the base DN
+     *
+     *   <li>SCOPE_SUB - searches the base DN and all entries
+     *                          within its subtree
+     *</ul><br><br>
+     *  @param filter         Search filter specifying the search criteria.
+     *<br><br>
+     *  @param attrs          Names of attributes to retrieve.
+     *<br><br>
+     *  @param typesOnly      If true, returns the names but not the values of
+     *                        the attributes found.  If false, returns the
+     *                        names and values for attributes found.
+     *<br><br>
+     *  @param listener       The listener the results are delivered to.
+     *
+     * @exception LDAPException A general exception which includes an error
+     * message and an LDAP error code.
+     *
+     * @see LDAPSearchListener
+     */
+    public void search(String base,
+                       int scope,
+                       String filter,
+                       String[] attrs,
+                       boolean typesOnly,
+                       LDAPSearchListener listener)
+        throws LDAPException
+    {
+        search(base, scope, filter, attrs, typesOnly,
+               defSearchCons, listener);
+        return;
+    }
+
+    /**
+     * Asynchronously performs the search specified by the parameters,
+     * delivering the results to a listener as they arrive.
+     *
+     * <p>The listener is called with the subscription controlling the
+     * search before the request is sent, and then by the thread reading
+     * replies from the connection as results arrive and are requested.  No
+     * thread waits for the results, so a large search can be processed as
+     * a stream at the pace of the listener, see
+     * {@link LDAPSearchListener}.</p>
+     *
+     *  @param base           The base distinguished name to search from.
+     *<br><br>
+     *  @param scope          The scope of the entries to search. The following
+     *                        are the valid options:
+     *<ul>
+     *   <li>SCOPE_BASE - searches only the base DN
+     *
+     *   <li>SCOPE_ONE - searches only entries under the base DN
+     *
+     *   <li>SCOPE_SUB - searches the base DN and all entries
+     *                           within its subtree
+     *</ul><br><br>
+     *  @param filter         The search filter specifying the search criteria.
+     *<br><br>
+     *  @param attrs          The names of attributes to retrieve.
+     *<br><br>
+     *  @param typesOnly      If true, returns the names but not the values of
+     *                        the attributes found.  If false, returns the
+     *                        names and values for attributes found.
+     * <br><br>
+     *  @param cons           The constraints specific to the search.  The
+     *                        batch size is ignored.
+     *<br><br>
+     *  @param listener       The listener the results are delivered to.
+     *
+     * @exception LDAPException A general exception which includes an error
+     * message and an LDAP error code.  The listener is not called again.
+     *
+     * @see LDAPSearchListener
+     */
+    public void search(String base,
+                       int scope,
+                       String filter,
+                       String[] attrs,
+                       boolean typesOnly,
+                       LDAPSearchConstraints cons,
+                       LDAPSearchListener listener)
+        throws LDAPException
+    {
+        if( filter == null) {
+            filter = "objectclass=*";
+        }
+        if( Debug.LDAP_DEBUG) {
+            Debug.trace( Debug.apiRequests, name +
+            "search(\"" + base + "\"," + scope + ",\"" + filter +
+            "\", listener)");
+        }
+        if(cons == null)
+            cons = defSearchCons;
+
+        LDAPMessage msg = new LDAPSearchRequest( base, scope, filter,
+                                                 attrs, cons.getDereference(),
+                                                 cons.getMaxResults(),
+                                                 cons.getServerTimeLimit(),
+                                                 typesOnly, cons.getControls());
+        MessageAgent agent = new MessageAgent();
+        LDAPSearchSubscription subscription =
+            new LDAPSearchSubscription( agent, msg.getMessageID(), listener);
+
+        // Pause the reader as soon as a result is buffered, unless the
+        // application allows more
+        int maxResults = cons.getMaxBufferedResults();
+        int maxBytes = cons.getMaxBufferedBytes();
+        if( (maxResults == 0) && (maxBytes == 0)) {
+            maxResults = 1;
+        }
+        listener.searchStarted( subscription);
+        agent.sendMessage( conn, msg, cons.getTimeLimit(), null, null,
+                           maxResults, maxBytes, subscription);
+        if( subscription.isCancelled()) {
+            // Cancelled before the request was known to the agent
+            agent.abandon( msg.getMessageID(), null);
+        }
+        return;
+    }
+
     /*
      * LDAP URL search
      */
@@ -3699,6 +4232,7 @@ public class LDAPConnection implements Cloneable
             }
         }
 
+        invalidateCache( request);
         try {
             agent.sendMessage( conn, request, cons.getTimeLimit(), myqueue, null);
         } catch(LDAPException lex) {
@@ -3740,10 +4274,57 @@ public class LDAPConnection implements Cloneable
             agent = queue.getMessageAgent();
         }
 
+        invalidateCache( msg);
         agent.sendMessage( conn, msg, timeout, queue, bindProps);
         return queue;
     }
 
+    /**
+     * Removes an entry, or a subtree, from the entry cache once a write
+     * completed, since reads racing the request may have cached the entry
+     * as it was before.
+     *
+     * @param dn the DN of the entry written.
+     *<br><br>
+     * @param subtree true if the entries below are changed too.
+     */
+    private void invalidateCache( String dn, boolean subtree)
+    {
+        if( cache != null) {
+            if( subtree) {
+                cache.invalidateSubtree( dn);
+            } else {
+                cache.invalidate( dn);
+            }
+        }
+        return;
+    }
+
+    /**
+     * Removes the entries a write request changes from the entry cache.
+     *
+     * @param msg the request sent.
+     */
+    private void invalidateCache( LDAPMessage msg)
+    {
+        if( cache == null) {
+            return;
+        }
+        if( msg instanceof LDAPAddRequest) {
+            cache.invalidate( ((LDAPAddRequest)msg).getEntry().getDN());
+        } else
+        if( msg instanceof LDAPModifyRequest) {
+            cache.invalidate( ((LDAPModifyRequest)msg).getDN());
+        } else
+        if( msg instanceof LDAPDeleteRequest) {
+            cache.invalidateSubtree( ((LDAPDeleteRequest)msg).getDN());
+        } else
+        if( msg instanceof LDAPModifyDNRequest) {
+            cache.invalidateSubtree( ((LDAPModifyDNRequest)msg).getDN());
+        }
+        return;
+    }
+
     /**
      * Return the Connection object associated with this LDAPConnection
      *
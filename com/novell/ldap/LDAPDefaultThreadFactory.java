@@ -0,0 +1,204 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999, 2000, 2001 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * The default LDAPThreadFactory, which creates virtual threads when the
+ * Java runtime supports them, and daemon platform threads otherwise.
+ *
+ * <p>A virtual thread costs a few kilobytes of heap instead of the stack
+ * of a platform thread, so an application can hold many connections, and
+ * many requests with a time limit, without one platform thread each.
+ * Virtual threads are detected at run time, this class does not require
+ * a Java runtime supporting them.</p>
+ *
+ * <p>The factory counts the threads it started and the ones still running.
+ * Subclasses can also override {@link #threadStarted} and
+ * {@link #threadTerminated} to feed their own metrics.</p>
+ *
+ * @see LDAPConnection#setThreadFactory
+ */
+public class LDAPDefaultThreadFactory implements LDAPThreadFactory
+{
+    // Thread.ofVirtual(), Thread.Builder.name(String) and
+    // Thread.Builder.unstarted(Runnable), null if not supported
+    private static Method ofVirtual = null;
+    private static Method builderName = null;
+    private static Method builderUnstarted = null;
+
+    static {
+        try {
+            Method ov = Thread.class.getMethod("ofVirtual", new Class[0]);
+            Class builder = ov.getReturnType();
+            Method bn = builder.getMethod("name", new Class[] {String.class});
+            Method bu = builder.getMethod("unstarted",
+                                          new Class[] {Runnable.class});
+            // Fails if virtual threads are a preview feature not enabled
+            ov.invoke(null, new Object[0]);
+            ofVirtual = ov;
+            builderName = bn;
+            builderUnstarted = bu;
+        } catch( Throwable t) {
+            ; // No virtual threads, use platform threads
+        }
+    }
+
+    private boolean virtual;
+    private long started = 0;
+    private int active = 0;
+
+    /**
+     * Constructs a thread factory creating virtual threads if the Java
+     * runtime supports them.
+     */
+    public LDAPDefaultThreadFactory()
+    {
+        this(true);
+        return;
+    }
+
+    /**
+     * Constructs a thread factory.
+     *
+     * @param virtual true to create virtual threads if the Java runtime
+     *             supports them, false to always create daemon platform
+     *             threads.
+     */
+    public LDAPDefaultThreadFactory(boolean virtual)
+    {
+        this.virtual = virtual && (ofVirtual != null);
+        return;
+    }
+
+    /**
+     * Returns true if the Java runtime supports virtual threads.
+     */
+    public static boolean isVirtualThreadSupported()
+    {
+        return ofVirtual != null;
+    }
+
+    /**
+     * Returns true if this factory creates virtual threads.
+     */
+    public boolean isVirtual()
+    {
+        return virtual;
+    }
+
+    /**
+     * Returns a new thread, not yet started, that runs the given task.
+     *
+     * @param task The task the thread runs.
+     *<br><br>
+     * @param name The name of the thread.
+     *
+     * @return An unstarted thread running the task.
+     */
+    public Thread newThread(Runnable task, String name)
+    {
+        Runnable counted = new CountedTask(task);
+        if( virtual) {
+            try {
+                Object builder = ofVirtual.invoke(null, new Object[0]);
+                builder = builderName.invoke(builder, new Object[] {name});
+                return (Thread)builderUnstarted.invoke(builder,
+                                                       new Object[] {counted});
+            } catch( IllegalAccessException ex) {
+                ; // Fall back to a platform thread
+            } catch( InvocationTargetException ex) {
+                ; // Fall back to a platform thread
+            }
+        }
+        Thread t = new Thread(counted, name);
+        t.setDaemon(true); // If the last thread running, allow exit.
+        return t;
+    }
+
+    /**
+     * Returns the number of threads of this factory that started running.
+     */
+    public synchronized long getStartedCount()
+    {
+        return started;
+    }
+
+    /**
+     * Returns the number of threads of this factory currently running.
+     */
+    public synchronized int getActiveCount()
+    {
+        return active;
+    }
+
+    /**
+     * Called on a thread of this factory when it starts running its task.
+     * The default implementation does nothing.
+     *
+     * @param thread The thread.
+     */
+    protected void threadStarted(Thread thread)
+    {
+        return;
+    }
+
+    /**
+     * Called on a thread of this factory when its task has returned or
+     * thrown.  The default implementation does nothing.
+     *
+     * @param thread The thread.
+     */
+    protected void threadTerminated(Thread thread)
+    {
+        return;
+    }
+
+    /*
+     * Runs a task and keeps the thread counts.
+     */
+    private final class CountedTask implements Runnable
+    {
+        private final Runnable task;
+
+        private CountedTask(Runnable task)
+        {
+            this.task = task;
+            return;
+        }
+
+        public void run()
+        {
+            Thread thread = Thread.currentThread();
+            synchronized( LDAPDefaultThreadFactory.this) {
+                started++;
+                active++;
+            }
+            try {
+                threadStarted(thread);
+                task.run();
+            } finally {
+                synchronized( LDAPDefaultThreadFactory.this) {
+                    active--;
+                }
+                threadTerminated(thread);
+            }
+            return;
+        }
+    }
+}
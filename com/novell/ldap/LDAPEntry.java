@@ -49,14 +49,23 @@ import com.novell.ldap.util.ValueXMLhandler;
 public class LDAPEntry implements java.lang.Comparable,	Externalizable
 {
     protected String dn;
+    /**
+     * The attributes of the entry.  Null in an entry of a search result
+     * until its attributes are first accessed: read them through
+     * getAttributeSet, which decodes them.  Only LDAPEntry itself is
+     * constructed with encoded attributes, never a subclass.
+     */
     protected LDAPAttributeSet attrs;
+    // Encoded attributes of a search result entry, decoded into attrs
+    // on first access
+    private volatile byte[] encodedAttrs = null;
 
     /**
      * Constructs an empty entry.
      */
     public LDAPEntry()
     {
-        this(null,null);
+        this(null,(LDAPAttributeSet)null);
     }
 
     /**
@@ -97,6 +106,54 @@ public class LDAPEntry implements java.lang.Comparable,	Externalizable
         return;
     }
 
+    /**
+     * Constructs an entry of a search result whose attributes are decoded
+     * when first accessed.  Not available to subclasses, whose code may
+     * read the attrs field directly.
+     *
+     *  @param encodedAttrs The BER encoding of the PartialAttributeList of
+     *                  the entry, as received from the server.
+     *<br><br>
+     *  @param dn       The distinguished name of the entry.
+     */
+    /* package */
+    LDAPEntry(byte[] encodedAttrs, String dn)
+    {
+        this.dn = (dn == null) ? "" : dn;
+        this.encodedAttrs = encodedAttrs;
+        return;
+    }
+
+    /**
+     * Returns the BER encoding of the attributes of a search result entry
+     * whose attributes have not been accessed yet.
+     *
+     * @return the encoded PartialAttributeList, or null if the attributes
+     * are decoded.
+     */
+    /* package */
+    byte[] getEncodedAttributes()
+    {
+        return encodedAttrs;
+    }
+
+    /*
+     * Returns the attribute set, decoding the attributes of a search
+     * result entry if this is the first access.
+     */
+    private LDAPAttributeSet attributes()
+    {
+        if( encodedAttrs != null) {
+            synchronized( this) {
+                if( encodedAttrs != null) {
+                    attrs = LDAPSearchResult.decodeAttributes( encodedAttrs);
+                    encodedAttrs = null;
+                }
+            }
+        }
+        return attrs;
+    }
+
    /**
     * Returns the attributes matching the specified attrName.
     *
@@ -106,7 +163,7 @@ public class LDAPEntry implements java.lang.Comparable,	Externalizable
     */
    public LDAPAttribute getAttribute(String attrName)
    {
-		return attrs.getAttribute(attrName);
+		return attributes().getAttribute(attrName);
    }
 
     /**
@@ -120,7 +177,7 @@ public class LDAPEntry implements java.lang.Comparable,	Externalizable
      */
     public LDAPAttributeSet getAttributeSet()
     {
-        return attrs;
+        return attributes();
     }
 
 
@@ -147,7 +204,7 @@ public class LDAPEntry implements java.lang.Comparable,	Externalizable
      */
     public LDAPAttributeSet getAttributeSet(String subtype)
     {
-		return attrs.getSubset(subtype);
+		return attributes().getSubset(subtype);
     }
 
     /**
@@ -189,7 +246,7 @@ public class LDAPEntry implements java.lang.Comparable,	Externalizable
         if( dn != null) {
             result.append(dn + "; ");
         }
-        if( attrs != null) {
+        if( attributes() != null) {
             result.append(attrs.toString());
         }
         return result.toString();
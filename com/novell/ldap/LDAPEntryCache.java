@@ -0,0 +1,504 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Vector;
+
+import com.novell.ldap.client.Debug;
+import com.novell.ldap.controls.LDAPEntryChangeControl;
+import com.novell.ldap.controls.LDAPPersistSearchControl;
+
+/**
+ * A client side cache of the entries read with base scope searches,
+ * including those made by {@link LDAPConnection#read}.
+ *
+ * <p>A cache is enabled on a connection with
+ * {@link LDAPConnection#setEntryCache}.  Entries are cached by normalized
+ * DN, filter, attributes requested and bind identity, so the identity a
+ * search is performed with only ever sees the entries read with that
+ * identity.  The identity is the DN of a simple bind, or anonymous; the
+ * authorization identity of a SASL bind is not known to the client, so
+ * the searches of a connection bound with SASL bypass the cache, as do
+ * searches sent with controls.  An entry is
+ * returned from the cache until its time to live expires or it is evicted,
+ * least recently used first, to keep the cache within its bounds in
+ * entries and bytes.  Each read returns its own LDAPEntry, decoded from
+ * the cached encoding, which the application may modify.</p>
+ *
+ * <p>Entries are invalidated when a connection using the cache sends an
+ * add, modify, delete or rename request for them, and again once
+ * a synchronous request completes.  A delete or a rename invalidates the
+ * whole subtree.  A read in progress when an entry is invalidated does not
+ * cache its result.  Changes made by other clients are only seen once the
+ * cached entries expire, unless the cache is kept up to date with a
+ * persistent search, see {@link #invalidateOnChanges}.</p>
+ *
+ * <p>The cache is safe for use by multiple threads and may be shared by
+ * connections to the same directory.</p>
+ */
+public class LDAPEntryCache
+{
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttl;
+
+    private HashMap entries = new HashMap(); // key to Node
+    private HashMap byDN = new HashMap();    // normalized DN to Vector of Nodes
+    private Node lruHead = null;             // most recently used
+    private Node lruTail = null;             // least recently used
+    private long bytes = 0;
+    private long generation = 0;             // incremented on invalidation
+
+    // Statistics
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Constructs an entry cache.
+     *
+     * @param maxEntries the maximum number of entries cached.
+     *<br><br>
+     * @param maxBytes the maximum size of the entries cached in bytes,
+     * estimated from their encoded size, 0 for no limit.
+     *<br><br>
+     * @param ttl the time an entry is cached in milliseconds, 0 for no
+     * limit.
+     */
+    public LDAPEntryCache( int maxEntries, long maxBytes, long ttl)
+    {
+        if( (maxEntries <= 0) || (maxBytes < 0) || (ttl < 0)) {
+            throw new IllegalArgumentException(
+                "LDAPEntryCache: invalid cache limits");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttl = ttl;
+        return;
+    }
+
+    /**
+     * Returns the form of a DN used in the cache keys.
+     */
+    /* package */
+    static String normalize( String dn)
+    {
+        try {
+            return LDAPDN.normalize( dn).toLowerCase();
+        } catch( IllegalArgumentException ex) {
+            return dn.trim().toLowerCase();
+        }
+    }
+
+    /**
+     * Returns the key of a base scope search.
+     *
+     * @param normDN the normalized DN of the entry.
+     *<br><br>
+     * @param filter the filter of the search.
+     *<br><br>
+     * @param attrs the attributes requested.
+     *<br><br>
+     * @param typesOnly true if only attribute types are requested.
+     *<br><br>
+     * @param identity the normalized DN the connection is bound as with a
+     * simple bind, or an empty string if anonymous.
+     */
+    /* package */
+    static String getKey( String normDN, String filter, String[] attrs,
+                          boolean typesOnly, String identity)
+    {
+        StringBuffer key = new StringBuffer( normDN);
+        key.append( '\u0000');
+        if( filter != null) {
+            key.append( filter);
+        }
+        key.append( '\u0000');
+        if( attrs != null) {
+            for( int i = 0; i < attrs.length; i++) {
+                key.append( attrs[i].toLowerCase()).append( ',');
+            }
+        }
+        key.append( typesOnly ? "\u0000t\u0000" : "\u0000a\u0000");
+        if( identity != null) {
+            key.append( identity);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the cached entry for a key, or null if the entry is not
+     * cached or expired.
+     */
+    /* package */
+    synchronized LDAPEntry get( String key)
+    {
+        Node node = (Node)entries.get( key);
+        if( (node != null) && (node.expires < System.currentTimeMillis())) {
+            remove( node);
+            node = null;
+        }
+        if( node == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        unlinkLru( node);
+        linkLru( node);
+        return new LDAPEntry( node.attrs, node.dn);
+    }
+
+    /**
+     * Returns the current generation of the cache.  A search records the
+     * generation before it is sent, and its result is not cached if any
+     * entry was invalidated since.
+     */
+    /* package */
+    synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Caches an entry read by a base scope search.
+     *
+     * @param key the key of the search.
+     *<br><br>
+     * @param normDN the normalized DN of the entry.
+     *<br><br>
+     * @param dn the DN of the entry as returned by the server.
+     *<br><br>
+     * @param attrs the encoded attributes of the entry.
+     *<br><br>
+     * @param sent the generation of the cache when the search was sent.
+     */
+    /* package */
+    synchronized void put( String key, String normDN, String dn,
+                           byte[] attrs, long sent)
+    {
+        if( sent != generation) {
+            return;         // may be stale
+        }
+        Node node = new Node( key, normDN, dn, attrs);
+        if( (maxBytes > 0) && (node.size > maxBytes)) {
+            return;
+        }
+        Node old = (Node)entries.get( key);
+        if( old != null) {
+            remove( old);
+        }
+        node.expires = (ttl > 0) ? System.currentTimeMillis() + ttl :
+                                   Long.MAX_VALUE;
+        entries.put( key, node);
+        Vector nodes = (Vector)byDN.get( normDN);
+        if( nodes == null) {
+            nodes = new Vector( 2);
+            byDN.put( normDN, nodes);
+        }
+        nodes.addElement( node);
+        linkLru( node);
+        bytes += node.size;
+        while( (entries.size() > maxEntries) ||
+               ((maxBytes > 0) && (bytes > maxBytes))) {
+            remove( lruTail);
+            evictions++;
+        }
+        return;
+    }
+
+    /**
+     * Removes an entry from the cache, whatever the attributes or identity
+     * it was read with.
+     *
+     * @param dn the DN of the entry.
+     */
+    public synchronized void invalidate( String dn)
+    {
+        generation++;
+        Vector nodes = (Vector)byDN.get( normalize( dn));
+        if( nodes != null) {
+            Object[] list = nodes.toArray();
+            for( int i = 0; i < list.length; i++) {
+                remove( (Node)list[i]);
+            }
+        }
+        return;
+    }
+
+    /**
+     * Removes an entry and all the entries below it from the cache.
+     *
+     * @param dn the DN of the base of the subtree.
+     */
+    public synchronized void invalidateSubtree( String dn)
+    {
+        invalidate( dn);
+        String suffix = "," + normalize( dn);
+        Iterator i = byDN.keySet().iterator();
+        Vector stale = null;
+        while( i.hasNext()) {
+            String normDN = (String)i.next();
+            if( normDN.endsWith( suffix)) {
+                if( stale == null) {
+                    stale = new Vector();
+                }
+                stale.addAll( (Vector)byDN.get( normDN));
+            }
+        }
+        if( stale != null) {
+            for( int j = 0; j < stale.size(); j++) {
+                remove( (Node)stale.elementAt( j));
+            }
+        }
+        return;
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public synchronized void clear()
+    {
+        generation++;
+        entries.clear();
+        byDN.clear();
+        lruHead = lruTail = null;
+        bytes = 0;
+        return;
+    }
+
+    /**
+     * Keeps the cache up to date with the changes made by other clients, by
+     * invalidating the entries reported by a persistent search.
+     *
+     * <p>The persistent search is sent on the connection given, which must
+     * not be used for other requests while the search is active since the
+     * changes are processed by its reader.  If the persistent search ends,
+     * for instance because the connection is lost, the cache is cleared
+     * since changes may be missed from then on.</p>
+     *
+     * @param conn the connection the persistent search is sent on.
+     *<br><br>
+     * @param base the base of the subtree whose changes are reported.
+     *
+     * @return the subscription used to end the persistent search.
+     *
+     * @exception LDAPException if the persistent search cannot be sent.
+     */
+    public LDAPSearchSubscription invalidateOnChanges( LDAPConnection conn,
+                                                      String base)
+        throws LDAPException
+    {
+        LDAPSearchConstraints cons = (LDAPSearchConstraints)
+                                        conn.getSearchConstraints().clone();
+        cons.setControls( new LDAPPersistSearchControl(
+                                LDAPPersistSearchControl.ANY, true, true, true));
+        cons.setTimeLimit( 0);
+        cons.setMaxBufferedResults( 0);
+        cons.setMaxBufferedBytes( 0);
+        ChangeListener listener = new ChangeListener();
+        conn.search( base, LDAPConnection.SCOPE_SUB, null,
+                     new String[] { LDAPConnection.NO_ATTRS }, true,
+                     cons, listener);
+        return listener.subscription;
+    }
+
+    /**
+     * Returns the number of entries cached.
+     */
+    public synchronized int getSize()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Returns the estimated size of the entries cached in bytes.
+     */
+    public synchronized long getByteCount()
+    {
+        return bytes;
+    }
+
+    /**
+     * Returns the number of reads served from the cache.
+     */
+    public synchronized long getHitCount()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the number of cacheable reads sent to the server.
+     */
+    public synchronized long getMissCount()
+    {
+        return misses;
+    }
+
+    /**
+     * Returns the number of entries evicted to keep the cache within its
+     * bounds.
+     */
+    public synchronized long getEvictionCount()
+    {
+        return evictions;
+    }
+
+    /*
+     * Removes a node from all the structures of the cache.  Called with
+     * the cache lock held.
+     */
+    private void remove( Node node)
+    {
+        entries.remove( node.key);
+        Vector nodes = (Vector)byDN.get( node.normDN);
+        if( nodes != null) {
+            nodes.removeElement( node);
+            if( nodes.isEmpty()) {
+                byDN.remove( node.normDN);
+            }
+        }
+        unlinkLru( node);
+        bytes -= node.size;
+        return;
+    }
+
+    /*
+     * Links a node at the most recently used end of the LRU list.
+     */
+    private void linkLru( Node node)
+    {
+        node.lruPrev = null;
+        node.lruNext = lruHead;
+        if( lruHead != null) {
+            lruHead.lruPrev = node;
+        } else {
+            lruTail = node;
+        }
+        lruHead = node;
+        return;
+    }
+
+    /*
+     * Unlinks a node from the LRU list.
+     */
+    private void unlinkLru( Node node)
+    {
+        if( node.lruPrev != null) {
+            node.lruPrev.lruNext = node.lruNext;
+        } else if( lruHead == node) {
+            lruHead = node.lruNext;
+        }
+        if( node.lruNext != null) {
+            node.lruNext.lruPrev = node.lruPrev;
+        } else if( lruTail == node) {
+            lruTail = node.lruPrev;
+        }
+        node.lruPrev = null;
+        node.lruNext = null;
+        return;
+    }
+
+    /*
+     * A cached entry.
+     */
+    private static final class Node
+    {
+        private final String key;
+        private final String normDN;
+        private final String dn;
+        private final byte[] attrs;
+        private final long size;
+        private long expires;
+        private Node lruPrev = null;
+        private Node lruNext = null;
+
+        private Node( String key, String normDN, String dn, byte[] attrs)
+        {
+            this.key = key;
+            this.normDN = normDN;
+            this.dn = dn;
+            this.attrs = attrs;
+            // Encoding, strings and fixed overhead
+            this.size = attrs.length +
+                        2 * (key.length() + normDN.length() + dn.length()) + 96;
+            return;
+        }
+    }
+
+    /*
+     * Invalidates the entries reported by a persistent search.
+     */
+    private final class ChangeListener implements LDAPSearchListener
+    {
+        private LDAPSearchSubscription subscription = null;
+
+        public void searchStarted( LDAPSearchSubscription subscription)
+        {
+            this.subscription = subscription;
+            subscription.request( Long.MAX_VALUE);
+            return;
+        }
+
+        public void messageReceived( LDAPMessage msg)
+        {
+            if( ! (msg instanceof LDAPSearchResult)) {
+                return;
+            }
+            String dn = ((LDAPSearchResult)msg).getEntry().getDN();
+            LDAPControl[] controls = msg.getControls();
+            LDAPEntryChangeControl change = null;
+            for( int i = 0; (controls != null) && (i < controls.length); i++) {
+                if( controls[i] instanceof LDAPEntryChangeControl) {
+                    change = (LDAPEntryChangeControl)controls[i];
+                }
+            }
+            if( Debug.LDAP_DEBUG) {
+                Debug.trace( Debug.messages, "LDAPEntryCache: change " +
+                    ((change == null) ? "?" : "" + change.getChangeType()) +
+                    " to " + dn);
+            }
+            if( change == null) {
+                invalidateSubtree( dn);
+            } else {
+                switch( change.getChangeType()) {
+                case LDAPPersistSearchControl.ADD:
+                case LDAPPersistSearchControl.MODIFY:
+                    invalidate( dn);
+                    break;
+                case LDAPPersistSearchControl.MODDN:
+                    if( change.getPreviousDN() != null) {
+                        invalidateSubtree( change.getPreviousDN());
+                    }
+                    invalidateSubtree( dn);
+                    break;
+                default:
+                    invalidateSubtree( dn);
+                    break;
+                }
+            }
+            return;
+        }
+
+        public void searchCompleted( LDAPResponse response)
+        {
+            // Changes are no longer reported
+            clear();
+            return;
+        }
+    }
+}
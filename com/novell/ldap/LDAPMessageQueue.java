@@ -75,6 +75,25 @@ public abstract class LDAPMessageQueue
         return name;
     }
 
+    /**
+     * Checks that two queues can be merged.  The replies of the request of
+     * an LDAPResponseFuture are delivered to the future itself, not through
+     * a message agent, so a future can neither be merged into a queue nor
+     * receive the messages of another queue.
+     *
+     * @exception IllegalArgumentException if either queue is a future.
+     */
+    /* package */
+    static void checkMerge( LDAPMessageQueue queue, LDAPMessageQueue queue2)
+    {
+        if( (queue instanceof LDAPResponseFuture) ||
+            (queue2 instanceof LDAPResponseFuture)) {
+            throw new IllegalArgumentException(
+                "LDAPMessageQueue: an LDAPResponseFuture cannot be merged");
+        }
+        return;
+    }
+
     /**
      * Returns the internal client message agent
      *
@@ -169,12 +188,32 @@ public abstract class LDAPMessageQueue
                 "getResponse(" + msgid + ")");
         }
         Object resp;
-        RfcLDAPMessage message;
-        LDAPMessage response;
 
         if( (resp = agent.getLDAPMessage( msgid)) == null) { // blocks
             return null; // no messages from this agent
         }
+        return getLDAPMessage( resp);
+    }
+
+    /**
+     * Converts a reply queued for a request to the LDAPMessage returned
+     * to the application.
+     *
+     * @param resp the queued reply, an RfcLDAPMessage or the LDAPResponse
+     * queued when a local error occurred.
+     *
+     * @return The response.
+     *
+     * @exception LDAPException if an intermediate or extended response
+     * cannot be decoded.
+     */
+    /* package */
+    static LDAPMessage getLDAPMessage( Object resp)
+        throws LDAPException
+    {
+        RfcLDAPMessage message;
+        LDAPMessage response;
+
         // Local error occurred, contains a LocalException
         if( resp instanceof LDAPResponse) {
             return (LDAPMessage)resp;
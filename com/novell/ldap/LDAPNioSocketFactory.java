@@ -0,0 +1,212 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999, 2000, 2001 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Represents a socket factory whose connections are read by a small pool
+ * of selector threads instead of one reader thread per connection.
+ *
+ * <p>The sockets created by this factory are backed by SocketChannels.
+ * When an LDAPConnection uses this factory, the channel is put in
+ * non-blocking mode once connected and registered with one of the
+ * selector threads of the factory, which reads and decodes the responses
+ * of all its connections.  An application talking to many servers, or
+ * holding many connections bound as different users, then needs a few
+ * threads rather than one thread per connection.  The selector threads
+ * are shared by all the connections created with the same factory
+ * object, and created by an LDAPThreadFactory, by default an
+ * LDAPDefaultThreadFactory creating daemon platform threads since they
+ * spend their time blocked in Selector.select.  {@link #close} stops the
+ * selector threads once the connections they read are closed.</p>
+ *
+ * <p>This factory also implements LDAPTLSSocketFactory so that startTLS
+ * can be used on its connections.  A connection protected by TLS leaves
+ * the selector threads and is read by its own reader thread, as with
+ * other socket factories, until stopTLS is called.</p>
+ *
+ * @see LDAPConnection#LDAPConnection(LDAPSocketFactory)
+ * @see LDAPConnection#setSocketFactory
+ */
+public class LDAPNioSocketFactory
+                implements LDAPTLSSocketFactory, org.ietf.ldap.LDAPSocketFactory
+{
+    /**
+     * The number of selector threads used by the default constructor.
+     */
+    public static final int DEFAULT_SELECTOR_THREADS = 2;
+
+    private SelectorPool selectors;
+    private LDAPTLSSocketFactory tlsFactory;
+
+    /**
+     * Constructs a socket factory with the default number of selector
+     * threads.  startTLS uses an LDAPJSSEStartTLSFactory with the default
+     * JSSE provider.
+     */
+    public LDAPNioSocketFactory()
+    {
+        this(DEFAULT_SELECTOR_THREADS, null);
+        return;
+    }
+
+    /**
+     * Constructs a socket factory.  startTLS uses an LDAPJSSEStartTLSFactory
+     * with the default JSSE provider.
+     *
+     * @param selectorThreads The number of selector threads reading the
+     *             connections created by this factory.
+     */
+    public LDAPNioSocketFactory(int selectorThreads)
+    {
+        this(selectorThreads, null);
+        return;
+    }
+
+    /**
+     * Constructs a socket factory.
+     *
+     * @param selectorThreads The number of selector threads reading the
+     *             connections created by this factory.
+     *<br><br>
+     * @param tlsFactory The factory used by startTLS to layer TLS over
+     *             the sockets of this factory, or null to use an
+     *             LDAPJSSEStartTLSFactory with the default JSSE provider.
+     */
+    public LDAPNioSocketFactory(int selectorThreads,
+                                LDAPTLSSocketFactory tlsFactory)
+    {
+        this(selectorThreads, tlsFactory, new LDAPDefaultThreadFactory(false));
+        return;
+    }
+
+    /**
+     * Constructs a socket factory creating its selector threads with the
+     * thread factory given.
+     *
+     * @param selectorThreads The number of selector threads reading the
+     *             connections created by this factory.
+     *<br><br>
+     * @param tlsFactory The factory used by startTLS to layer TLS over
+     *             the sockets of this factory, or null to use an
+     *             LDAPJSSEStartTLSFactory with the default JSSE provider.
+     *<br><br>
+     * @param threadFactory The factory creating the selector threads.
+     */
+    public LDAPNioSocketFactory(int selectorThreads,
+                                LDAPTLSSocketFactory tlsFactory,
+                                LDAPThreadFactory threadFactory)
+    {
+        if( selectorThreads < 1) {
+            selectorThreads = 1;
+        }
+        if( threadFactory == null) {
+            throw new IllegalArgumentException(
+                "LDAPNioSocketFactory: thread factory required");
+        }
+        this.selectors = new SelectorPool(selectorThreads, threadFactory);
+        this.tlsFactory = tlsFactory;
+        return;
+    }
+
+    /**
+     * Closes the factory.  No more sockets can be created, and each
+     * selector thread closes its Selector and exits once the connections
+     * it reads are disconnected.
+     */
+    public void close()
+    {
+        selectors.close();
+        return;
+    }
+
+    /**
+     * Returns a socket connected to the LDAP server with the specified
+     * host name and port number.  The socket is backed by a SocketChannel
+     * in blocking mode.
+     *
+     * @param host The host name or a dotted string representing the IP address
+     *             of the LDAP server to which you want to establish
+     *             a connection.
+     *<br><br>
+     * @param port The port number on the specified LDAP server that you want to
+     *             use for this connection.
+     *
+     * @return A socket to the LDAP server using the specific host name and
+     *         port number.
+     *
+     * @exception IOException A socket to the specified host and port
+     *                          could not be created, or the factory is
+     *                          closed.
+     *
+     * @exception UnknownHostException The specified host could not be found.
+     */
+    public Socket createSocket(String host, int port)
+        throws IOException, UnknownHostException
+    {
+        if( selectors.isClosed()) {
+            throw new IOException("LDAPNioSocketFactory: closed");
+        }
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if( address.isUnresolved()) {
+            throw new UnknownHostException(host);
+        }
+        SocketChannel channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+        return channel.socket();
+    }
+
+    /**
+     * Returns a TLS secured socket layered over the specified socket,
+     * using the TLS socket factory given to the constructor.
+     *
+     * @param socket The socket on which TLS is to be negotiated.
+     *
+     * @return The socket with TLS negotiated.
+     *
+     * @exception IOException The socket to the specified host and port
+     *                        could not be created.
+     *
+     * @exception UnknownHostException The specified host could not be found.
+     */
+    public Socket createSocket(Socket socket)
+        throws IOException, UnknownHostException
+    {
+        LDAPTLSSocketFactory factory;
+        synchronized( this) {
+            if( tlsFactory == null) {
+                tlsFactory = new LDAPJSSEStartTLSFactory();
+            }
+            factory = tlsFactory;
+        }
+        return factory.createSocket(socket);
+    }
+
+    /**
+     * Returns the selector threads reading the connections created by
+     * this factory.
+     */
+    /* package */
+    final SelectorPool getSelectorPool()
+    {
+        return selectors;
+    }
+}
@@ -0,0 +1,261 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.util.NoSuchElementException;
+
+import com.novell.ldap.client.Debug;
+import com.novell.ldap.controls.LDAPPagedResultsControl;
+import com.novell.ldap.controls.LDAPPagedResultsResponse;
+
+/**
+ * An LDAPSearchResults that retrieves the results of a search in pages
+ * with the paged results control defined in RFC 2696.
+ *
+ * <p>Each page is requested with an {@link LDAPPagedResultsControl} holding
+ * the cookie returned with the previous page.  The request for the next
+ * page is sent as soon as the cookie is known, so the next page is
+ * transferred while the application consumes the current one.  At most two
+ * pages are held in memory.</p>
+ *
+ * <p>The search ends with the page returned without a cookie, or without a
+ * paged results response control if the server does not support paging.
+ * The results are returned as by LDAPSearchResults, each page
+ * being read in a single batch so that its cookie is known before its
+ * entries are consumed.  If the maximum number of buffered results or
+ * octets is set in the search constraints, the cookie is only known once
+ * the last batch of the page is read.</p>
+ *
+ * @see LDAPConnection#searchPaged
+ */
+public class LDAPPagedSearchResults extends LDAPSearchResults
+{
+    private LDAPConnection conn;
+    private String base;
+    private int scope;
+    private String filter;
+    private String[] attrs;
+    private boolean typesOnly;
+    private int pageSize;
+    private LDAPSearchConstraints cons;  // constraints for each page
+    private LDAPControl[] controls;      // controls but the paging control
+    private LDAPSearchResults current;   // page being consumed
+    private LDAPSearchResults next = null; // page prefetched
+    private boolean lastPage = false;    // no page after next or current
+    private LDAPException error = null;  // failure to request a page
+    private int pages = 1;               // pages requested, for debug
+
+    /**
+     * Sends the request for the first page of a paged search.
+     *
+     * @param conn      the connection the pages are requested on.
+     *<br><br>
+     * @param pageSize  the number of entries per page.
+     *<br><br>
+     * @param cons      the constraints of the search, any paged results
+     *                  control is replaced.
+     *
+     * @exception LDAPException if the request cannot be sent.
+     */
+    /* package */
+    LDAPPagedSearchResults( LDAPConnection conn,
+                            String base,
+                            int scope,
+                            String filter,
+                            String[] attrs,
+                            boolean typesOnly,
+                            int pageSize,
+                            LDAPSearchConstraints cons)
+        throws LDAPException
+    {
+        this.conn = conn;
+        this.base = base;
+        this.scope = scope;
+        this.filter = filter;
+        this.attrs = attrs;
+        this.typesOnly = typesOnly;
+        this.pageSize = pageSize;
+
+        // Read each page in one batch, so its cookie is known at once
+        this.cons = (LDAPSearchConstraints)cons.clone();
+        this.cons.setBatchSize( 0);
+        LDAPControl[] given = this.cons.getControls(); // copy of the array
+        int count = 0;
+        if( given != null) {
+            for( int i = 0; i < given.length; i++) {
+                if( ! (given[i] instanceof LDAPPagedResultsControl)) {
+                    given[count++] = given[i];
+                }
+            }
+        }
+        controls = new LDAPControl[count];
+        if( count > 0) {
+            System.arraycopy( given, 0, controls, 0, count);
+        }
+
+        current = searchPage( null);
+        return;
+    }
+
+    /*
+     * Sends the request for a page.
+     */
+    private LDAPSearchResults searchPage( byte[] cookie)
+        throws LDAPException
+    {
+        LDAPSearchConstraints pageCons =
+            (LDAPSearchConstraints)cons.clone();
+        LDAPControl[] pageControls = new LDAPControl[controls.length + 1];
+        System.arraycopy( controls, 0, pageControls, 0, controls.length);
+        pageControls[controls.length] =
+            new LDAPPagedResultsControl( pageSize, cookie, false);
+        pageCons.setControls( pageControls);
+        if( Debug.LDAP_DEBUG) {
+            Debug.trace( Debug.messages, "LDAPPagedSearchResults: request " +
+                "page " + pages + " of " + pageSize + " entries");
+        }
+        return conn.search( base, scope, filter, attrs, typesOnly, pageCons);
+    }
+
+    /*
+     * Requests the next page once the cookie of the current page is known.
+     */
+    private void prefetch()
+    {
+        if( (next != null) || lastPage || (error != null)) {
+            return;
+        }
+        LDAPControl[] response = current.getResponseControls();
+        if( response == null) {
+            return;
+        }
+        for( int i = 0; i < response.length; i++) {
+            if( response[i] instanceof LDAPPagedResultsResponse) {
+                byte[] cookie =
+                    ((LDAPPagedResultsResponse)response[i]).getCookie();
+                if( cookie == null) {
+                    lastPage = true;
+                    return;
+                }
+                pages++;
+                try {
+                    next = searchPage( cookie);
+                } catch( LDAPException ex) {
+                    // Reported by next once the current page is consumed
+                    error = ex;
+                }
+                return;
+            }
+        }
+        return;
+    }
+
+    /**
+     * Returns a count of the results received but not yet retrieved with
+     * next, in the current page and in the page prefetched.
+     *
+     * @return The number of items received but not retrieved by the
+     * application.
+     */
+    public int getCount()
+    {
+        return current.getCount() + ((next == null) ? 0 : next.getCount());
+    }
+
+    /**
+     * Returns the latest server controls returned with the current page,
+     * or null if no server controls were returned.
+     *
+     * @return The server controls returned with the current page, or null
+     *         if none were returned.
+     */
+    public LDAPControl[] getResponseControls()
+    {
+        return current.getResponseControls();
+    }
+
+    /**
+     * Reports if there are more search results, in this page or in the
+     * pages that follow.
+     *
+     * @return true if there are more search results.
+     */
+    public boolean hasMore()
+    {
+        for(;;) {
+            boolean more = current.hasMore();
+            prefetch();
+            if( more || (error != null)) {
+                return true;
+            }
+            if( (next == null) && ! lastPage) {
+                // The page ended without a paged results response
+                lastPage = true;
+            }
+            if( next == null) {
+                return false;
+            }
+            current = next;
+            next = null;
+        }
+    }
+
+    /**
+     * Returns the next result as an LDAPEntry, requesting more pages as
+     * needed.
+     *
+     * @return The next search result as an LDAPEntry.
+     *
+     * @exception LDAPException A general exception which includes an error
+     *                          message and an LDAP error code.
+     * @exception LDAPReferralException A referral was received and not
+     *                          followed.
+     */
+    public LDAPEntry next() throws LDAPException
+    {
+        if( ! hasMore()) {
+            throw new NoSuchElementException(
+                "LDAPPagedSearchResults.next() no more results");
+        }
+        if( ! current.hasMore()) {
+            // Failed to request the next page
+            LDAPException ex = error;
+            error = null;
+            lastPage = true;
+            throw ex;
+        }
+        LDAPEntry entry = current.next();
+        prefetch();
+        return entry;
+    }
+
+    /**
+     * Abandons the current page and the page prefetched.  No more pages
+     * are requested.
+     */
+    /* package */
+    void abandon()
+    {
+        lastPage = true;
+        error = null;
+        current.abandon();
+        if( next != null) {
+            next.abandon();
+            next = null;
+        }
+        return;
+    }
+}
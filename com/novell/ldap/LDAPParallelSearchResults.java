@@ -0,0 +1,384 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.util.NoSuchElementException;
+import java.util.Vector;
+
+import com.novell.ldap.client.Debug;
+import com.novell.ldap.resources.ExceptionMessages;
+
+/**
+ * An LDAPSearchResults that performs a subtree search as concurrent
+ * searches of the partitions of the subtree.
+ *
+ * <p>The subtree is partitioned by enumerating the entries one level
+ * below the base: the base entry is searched with SCOPE_BASE and each
+ * entry below it with SCOPE_SUB.  A base with more than
+ * <code>maxPartitions</code> entries below it is not partitioned, the
+ * enumeration is abandoned and the subtree searched with a single SCOPE_SUB
+ * search, so that at most <code>maxPartitions</code> base names are held
+ * and a search is not sent for each of a large number of small subtrees.
+ * Up to <code>parallelism</code> partition
+ * searches are outstanding at a time, sent in turn on the connections
+ * given, and the results of all partitions are returned as a single
+ * enumeration.  Connections cloned from the same connection share a single
+ * socket; distinct connections, for instance from a pool, spread the
+ * transfer over several sockets.</p>
+ *
+ * <p>Unordered, the results are returned as they arrive from any
+ * partition.  Ordered, the results of each partition are returned
+ * together, the base entry first and then the subtrees in the order the
+ * server enumerated them; the results of the partitions searched ahead are
+ * buffered until their turn, and the buffering limits of the search
+ * constraints are ignored, since pausing a connection for a partition
+ * searched ahead would stall the partition being returned.</p>
+ *
+ * <p>The constraints apply to each partition search, in particular the
+ * size and time limits.  Search result references are not followed, they
+ * are reported by next with an LDAPReferralException.  A partition whose
+ * base was deleted since the enumeration is skipped.</p>
+ *
+ * @see LDAPConnection#search
+ */
+public class LDAPParallelSearchResults extends LDAPSearchResults
+{
+    /**
+     * The maximum number of partitions of the subtree when none is given,
+     * 256.
+     */
+    public static final int DEFAULT_MAX_PARTITIONS = 256;
+
+    private LDAPConnection[] conns;
+    private String filter;
+    private String[] attrs;
+    private boolean typesOnly;
+    private LDAPSearchConstraints cons;
+    private int parallelism;
+    private boolean ordered;
+
+    private Vector partitions = new Vector(); // partition base DNs
+    private int nextPartition = 0;      // next partition to search
+    private int inFlight = 0;           // partitions not completed
+    private LDAPSearchQueue shared = null; // results of all partitions
+    private Vector queues = new Vector(); // results of each partition, ordered
+    private Vector pending = new Vector(); // results or exceptions to return
+    private LDAPControl[] controls = null; // last set of controls
+    private boolean abandoned = false;
+    private boolean whole = false;      // subtree not partitioned
+
+    /**
+     * Partitions the subtree into at most DEFAULT_MAX_PARTITIONS partitions
+     * and sends the first partition searches.
+     *
+     * @see #LDAPParallelSearchResults(LDAPConnection[], String, String,
+     * String[], boolean, LDAPSearchConstraints, int, boolean, int)
+     */
+    public LDAPParallelSearchResults( LDAPConnection[] conns,
+                                      String base,
+                                      String filter,
+                                      String[] attrs,
+                                      boolean typesOnly,
+                                      LDAPSearchConstraints cons,
+                                      int parallelism,
+                                      boolean ordered)
+        throws LDAPException
+    {
+        this( conns, base, filter, attrs, typesOnly, cons, parallelism,
+              ordered, DEFAULT_MAX_PARTITIONS);
+        return;
+    }
+
+    /**
+     * Partitions the subtree and sends the first partition searches.
+     *
+     *  @param conns          The connections to search on, used in turn.
+     *<br><br>
+     *  @param base           The base distinguished name of the subtree.
+     *<br><br>
+     *  @param filter         The search filter specifying the search criteria.
+     *<br><br>
+     *  @param attrs          The names of attributes to retrieve.
+     *<br><br>
+     *  @param typesOnly      If true, returns the names but not the values of
+     *                        the attributes found.  If false, returns the
+     *                        names and values for attributes found.
+     *<br><br>
+     *  @param cons           The constraints of each partition search, or
+     *                        null for those of the first connection.
+     *<br><br>
+     *  @param parallelism    The maximum number of partitions searched at
+     *                        the same time.
+     *<br><br>
+     *  @param ordered        True to return the results partition by
+     *                        partition, false to return them as they arrive.
+     *<br><br>
+     *  @param maxPartitions  The maximum number of entries below the base
+     *                        searched as separate partitions, past which
+     *                        the subtree is searched with a single search.
+     *
+     * @exception LDAPException if the subtree cannot be enumerated or a
+     * search cannot be sent.
+     */
+    public LDAPParallelSearchResults( LDAPConnection[] conns,
+                                      String base,
+                                      String filter,
+                                      String[] attrs,
+                                      boolean typesOnly,
+                                      LDAPSearchConstraints cons,
+                                      int parallelism,
+                                      boolean ordered,
+                                      int maxPartitions)
+        throws LDAPException
+    {
+        if( (conns == null) || (conns.length == 0) || (parallelism <= 0) ||
+            (maxPartitions <= 0)) {
+            throw new IllegalArgumentException(
+                "LDAPParallelSearchResults: connections, parallelism and partitions required");
+        }
+        this.conns = conns;
+        this.filter = filter;
+        this.attrs = attrs;
+        this.typesOnly = typesOnly;
+        this.parallelism = parallelism;
+        this.ordered = ordered;
+        this.cons = (LDAPSearchConstraints)((cons == null) ?
+                        conns[0].getSearchConstraints() : cons).clone();
+        if( ordered) {
+            this.cons.setMaxBufferedResults( 0);
+            this.cons.setMaxBufferedBytes( 0);
+        }
+
+        // The base entry, then the subtree of each entry one level below
+        partitions.addElement( base);
+        LDAPSearchConstraints enumCons =
+            (LDAPSearchConstraints)this.cons.clone();
+        enumCons.setBatchSize( 0);
+        enumCons.setMaxResults( 0);
+        LDAPSearchResults children = conns[0].search( base,
+                        LDAPConnection.SCOPE_ONE, "(objectClass=*)",
+                        new String[] { LDAPConnection.NO_ATTRS }, true,
+                        enumCons);
+        Vector referrals = new Vector();
+        while( children.hasMore()) {
+            if( partitions.size() > maxPartitions) {
+                // Too many to partition, search the subtree as a whole
+                conns[0].abandon( children);
+                partitions.setSize( 1);
+                whole = true;
+                break;
+            }
+            try {
+                partitions.addElement( children.next().getDN());
+            } catch( LDAPReferralException ex) {
+                referrals.addElement( ex);  // part of the subtree elsewhere
+            }
+        }
+        if( ! whole) {
+            // A single search reports the references itself
+            for( int i = 0; i < referrals.size(); i++) {
+                pending.addElement( referrals.elementAt( i));
+            }
+        }
+        if( Debug.LDAP_DEBUG) {
+            Debug.trace( Debug.messages, "LDAPParallelSearchResults: " +
+                (whole ? "unpartitioned" : partitions.size() + " partitions") +
+                ", parallelism " + parallelism +
+                (ordered ? ", ordered" : ", unordered"));
+        }
+        submit();
+        return;
+    }
+
+    /*
+     * Sends partition searches until parallelism are outstanding.
+     */
+    private void submit()
+        throws LDAPException
+    {
+        while( ! abandoned && (inFlight < parallelism) &&
+               (nextPartition < partitions.size())) {
+            int i = nextPartition++;
+            LDAPConnection conn = conns[i % conns.length];
+            String dn = (String)partitions.elementAt( i);
+            int scope = ((i == 0) && ! whole) ? LDAPConnection.SCOPE_BASE :
+                                                LDAPConnection.SCOPE_SUB;
+            if( ordered) {
+                queues.addElement( conn.search( dn, scope, filter, attrs,
+                                   typesOnly, (LDAPSearchQueue)null, cons));
+            } else {
+                shared = conn.search( dn, scope, filter, attrs, typesOnly,
+                                      shared, cons);
+            }
+            inFlight++;
+        }
+        return;
+    }
+
+    /*
+     * Reads replies until a result or an exception can be returned, or all
+     * partitions completed.
+     */
+    private void fill()
+    {
+        while( pending.isEmpty() && ! abandoned) {
+            try {
+                if( inFlight == 0) {
+                    if( nextPartition >= partitions.size()) {
+                        return;     // all partitions completed
+                    }
+                    submit();       // resume after a failed send
+                }
+                LDAPSearchQueue queue = ordered ?
+                    (LDAPSearchQueue)queues.firstElement() : shared;
+                LDAPMessage msg = queue.getResponse();
+                if( msg == null) {
+                    // The connection timed out, no results returned
+                    pending.addElement( new LDAPException( null,
+                                LDAPException.LDAP_TIMEOUT, (String)null));
+                    abandon();
+                    return;
+                }
+                if( msg.getControls() != null) {
+                    controls = msg.getControls();
+                }
+                if( msg instanceof LDAPSearchResult) {
+                    pending.addElement( ((LDAPSearchResult)msg).getEntry());
+                } else
+                if( msg instanceof LDAPSearchResultReference) {
+                    LDAPReferralException rex = new LDAPReferralException(
+                        ExceptionMessages.REFERENCE_NOFOLLOW);
+                    rex.setReferrals(
+                        ((LDAPSearchResultReference)msg).getReferrals());
+                    pending.addElement( rex);
+                } else
+                if( msg instanceof LDAPResponse) {
+                    // A partition completed
+                    LDAPResponse resp = (LDAPResponse)msg;
+                    if( ! resp.hasException() &&
+                        (resp.getResultCode() == LDAPException.NO_SUCH_OBJECT)) {
+                        ; // deleted since enumerated
+                    } else
+                    if( resp.hasException() ||
+                        (resp.getResultCode() != LDAPException.SUCCESS)) {
+                        pending.addElement( resp);
+                    }
+                    inFlight--;
+                    if( ordered) {
+                        queues.removeElementAt( 0);
+                    }
+                    submit();
+                }
+            } catch( LDAPException ex) {
+                pending.addElement( ex);
+            }
+        }
+        return;
+    }
+
+    /**
+     * Returns a count of the results received but not yet retrieved with
+     * next, for all partitions.
+     *
+     * @return The number of items received but not retrieved by the
+     * application.
+     */
+    public int getCount()
+    {
+        int count = pending.size();
+        if( shared != null) {
+            count += shared.getMessageAgent().getCount();
+        }
+        for( int i = 0; i < queues.size(); i++) {
+            count += ((LDAPSearchQueue)queues.elementAt(i))
+                        .getMessageAgent().getCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the latest server controls returned by the server for any
+     * partition, or null if no server controls were returned.
+     *
+     * @return The server controls returned with the search, or null
+     *         if none were returned.
+     */
+    public LDAPControl[] getResponseControls()
+    {
+        return controls;
+    }
+
+    /**
+     * Reports if there are more search results.
+     *
+     * @return true if there are more search results.
+     */
+    public boolean hasMore()
+    {
+        fill();
+        return ! pending.isEmpty();
+    }
+
+    /**
+     * Returns the next result as an LDAPEntry.
+     *
+     * <p>The failure of a partition search is reported as by
+     * LDAPSearchResults, the results of the other partitions can still be
+     * enumerated afterwards.</p>
+     *
+     * @return The next search result as an LDAPEntry.
+     *
+     * @exception LDAPException A general exception which includes an error
+     *                          message and an LDAP error code.
+     * @exception LDAPReferralException A referral was received and not
+     *                          followed.
+     */
+    public LDAPEntry next() throws LDAPException
+    {
+        if( ! hasMore()) {
+            throw new NoSuchElementException(
+                "LDAPParallelSearchResults.next() no more results");
+        }
+        Object element = pending.remove( 0);
+        if( element instanceof LDAPEntry) {
+            return (LDAPEntry)element;
+        }
+        if( element instanceof LDAPResponse) {
+            ((LDAPResponse)element).chkResultCode();
+        }
+        throw (LDAPException)element;
+    }
+
+    /**
+     * Abandons the partition searches outstanding, no more partitions are
+     * searched.
+     */
+    /* package */
+    void abandon()
+    {
+        abandoned = true;
+        if( shared != null) {
+            shared.getMessageAgent().abandonAll();
+        }
+        for( int i = 0; i < queues.size(); i++) {
+            ((LDAPSearchQueue)queues.elementAt(i))
+                .getMessageAgent().abandonAll();
+        }
+        queues.removeAllElements();
+        inFlight = 0;
+        return;
+    }
+}
@@ -0,0 +1,231 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.util.Vector;
+
+import com.novell.ldap.client.Debug;
+import com.novell.ldap.resources.ExceptionMessages;
+import com.novell.ldap.rfc2251.RfcLDAPMessage;
+
+/**
+ * A response queue that completes when the response to its request
+ * arrives, and hands the response to listeners instead of to a waiting
+ * thread.
+ *
+ * <p>An LDAPResponseFuture is passed as the queue of any asynchronous
+ * operation of LDAPConnection, such as
+ * {@link LDAPConnection#add(LDAPEntry, LDAPResponseQueue, LDAPConstraints)},
+ * {@link LDAPConnection#extendedOperation(LDAPExtendedOperation,
+ * LDAPConstraints, LDAPResponseQueue)} or
+ * {@link LDAPConnection#bind(int, String, byte[], LDAPResponseQueue,
+ * LDAPConstraints)}.  The thread reading the replies completes the future
+ * as soon as it has read the response and calls the listeners, so many
+ * operations can be outstanding without a thread blocked for each.</p>
+ *
+ * <p>A future serves a single request and cannot be merged with other
+ * queues, in either direction: merge throws an IllegalArgumentException.  Intermediate responses are ignored.  If the request is
+ * abandoned, the future completes without a response and its listeners are
+ * not called.</p>
+ *
+ * @see LDAPResponseListener
+ */
+public class LDAPResponseFuture extends LDAPResponseQueue
+{
+    private Vector listeners = new Vector(); // null once completed
+    private LDAPResponse response = null;
+    private boolean done = false;
+
+    /**
+     * Constructs a future without listener.
+     */
+    public LDAPResponseFuture()
+    {
+        super( new MessageAgent());
+        return;
+    }
+
+    /**
+     * Constructs a future notifying a listener.
+     *
+     * @param listener The listener called with the response.
+     */
+    public LDAPResponseFuture( LDAPResponseListener listener)
+    {
+        this();
+        if( listener != null) {
+            listeners.addElement( listener);
+        }
+        return;
+    }
+
+    /**
+     * Adds a listener called with the response.  If the response has
+     * already arrived, the listener is called before this method returns.
+     *
+     * @param listener The listener called with the response.
+     */
+    public void addListener( LDAPResponseListener listener)
+    {
+        LDAPResponse received;
+        synchronized( this) {
+            if( ! done) {
+                listeners.addElement( listener);
+                return;
+            }
+            received = response;
+        }
+        if( received != null) {
+            callListener( listener, received);
+        }
+        return;
+    }
+
+    /**
+     * Returns true once the response has arrived or the request has been
+     * abandoned.
+     *
+     * @return true if the future is complete.
+     */
+    public synchronized boolean isDone()
+    {
+        return done;
+    }
+
+    /**
+     * Returns true once the response has arrived or the request has been
+     * abandoned.
+     *
+     * @return true if the future is complete.
+     */
+    public boolean isResponseReceived()
+    {
+        return isDone();
+    }
+
+    /**
+     * Returns the response, waiting for it if it has not arrived yet.
+     *
+     * @return The response, or null if the request was abandoned.
+     *
+     * @exception LDAPException if the thread is interrupted while waiting.
+     */
+    public LDAPMessage getResponse()
+        throws LDAPException
+    {
+        synchronized( this) {
+            while( ! done) {
+                try {
+                    wait();
+                } catch( InterruptedException ex) {
+                    throw new LDAPException( null,
+                                LDAPException.LOCAL_ERROR, ex.toString());
+                }
+            }
+            return response;
+        }
+    }
+
+    /**
+     * Returns the response, waiting for it if it has not arrived yet.
+     *
+     * @param msgid The message ID of the request.
+     *
+     * @return The response, or null if the request was abandoned.
+     *
+     * @exception LDAPException if the thread is interrupted while waiting.
+     */
+    public LDAPMessage getResponse( int msgid)
+        throws LDAPException
+    {
+        return getResponse();
+    }
+
+    /**
+     * Completes the future with the response queued for the request, or
+     * without response if the request no longer accepts replies and none
+     * is queued.  Called by the thread queuing a reply or abandoning the
+     * request.
+     *
+     * @param message the Message of the request.
+     */
+    /* package */
+    void deliver( Message message)
+    {
+        Vector notified;
+        LDAPResponse received = null;
+        synchronized( this) {
+            if( done) {
+                return;
+            }
+            Object reply;
+            while( (reply = message.getReply()) != null) {
+                if( (reply instanceof RfcLDAPMessage) &&
+                    Message.isResult( (RfcLDAPMessage)reply)) {
+                    continue;       // intermediate response
+                }
+                try {
+                    received =
+                        (LDAPResponse)LDAPMessageQueue.getLDAPMessage( reply);
+                } catch( LDAPException ex) {
+                    received = new LDAPResponse( new InterThreadException(
+                                ExceptionMessages.DECODING_ERROR, null,
+                                LDAPException.DECODING_ERROR, ex, message),
+                                null);
+                }
+                break;
+            }
+            if( (received == null) && message.acceptsReplies()) {
+                return;
+            }
+            if( Debug.LDAP_DEBUG) {
+                Debug.trace( Debug.messages, "LDAPResponseFuture(" +
+                    message.getMessageID() + "): " +
+                    ((received == null) ? "abandoned" : "completed"));
+            }
+            response = received;
+            done = true;
+            notified = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        if( received != null) {
+            for( int i = 0; i < notified.size(); i++) {
+                callListener(
+                    (LDAPResponseListener)notified.elementAt( i), received);
+            }
+        }
+        return;
+    }
+
+    /*
+     * Calls a listener, which must not kill the connection reader.
+     */
+    private static void callListener( LDAPResponseListener listener,
+                                      LDAPResponse response)
+    {
+        try {
+            listener.responseReceived( response);
+        } catch( RuntimeException ex) {
+            if( Debug.LDAP_DEBUG) {
+                Debug.trace( Debug.messages, "LDAPResponseFuture(" +
+                    response.getMessageID() + "): listener failed: " +
+                    ex.toString());
+            }
+        }
+        return;
+    }
+}
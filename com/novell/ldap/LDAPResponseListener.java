@@ -0,0 +1,46 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+/**
+ * An object that implements this interface is notified of the response to
+ * a request sent with an {@link LDAPResponseFuture} as its queue.
+ *
+ * <p>The listener is called by the thread that reads the replies from the
+ * server, so no thread waits for the response.  It must return quickly and
+ * must not perform synchronous operations on the connection the request
+ * was sent on, since the connection reads no more replies until the
+ * listener returns.  On a connection created with an
+ * {@link LDAPNioSocketFactory}, the listener runs on a selector thread that
+ * reads many connections: while it blocks, no reply is read on any
+ * connection served by that selector thread.  It may send further requests
+ * asynchronously, for instance with another LDAPResponseFuture, and may
+ * disconnect the connection.</p>
+ *
+ * @see LDAPResponseFuture
+ */
+public interface LDAPResponseListener
+{
+    /**
+     * Called with the response to the request.
+     *
+     * @param response The response, an LDAPExtendedResponse for an
+     * extended operation.  A local error, such as a timeout or the loss of
+     * the connection, is reported as a response whose result code describes
+     * it.
+     */
+    public void responseReceived( LDAPResponse response);
+}
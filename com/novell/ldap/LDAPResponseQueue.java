@@ -50,9 +50,13 @@ public class LDAPResponseQueue extends LDAPMessageQueue
      *                  The queue can be reactivated by using it in an 
      *                  LDAP request, after which it will receive responses
      *                  for that request..
+     *
+     * @exception IllegalArgumentException if either queue is an
+     *                  LDAPResponseFuture.
      */
     public void merge(LDAPMessageQueue queue2)
     {
+        checkMerge( this, queue2);
         LDAPResponseQueue q = (LDAPResponseQueue)queue2;
             if( Debug.LDAP_DEBUG) {
                 Debug.trace( Debug.apiRequests, name +
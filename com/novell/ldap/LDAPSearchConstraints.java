@@ -38,6 +38,8 @@ public class LDAPSearchConstraints extends LDAPConstraints {
     private int serverTimeLimit = 0;
     private int maxResults = 1000;
     private int batchSize = 1;
+    private int maxBufferedResults = 0;
+    private int maxBufferedBytes = 0;
     private static Object nameLock = new Object(); // protect agentNum
     private static int lSConsNum = 0;  // Debug, LDAPConnection number
     private String name;             // String name for debug
@@ -129,6 +131,8 @@ public class LDAPSearchConstraints extends LDAPConstraints {
             this.dereference = scons.getDereference();
             this.maxResults = scons.getMaxResults();
             this.batchSize = scons.getBatchSize();
+            this.maxBufferedResults = scons.getMaxBufferedResults();
+            this.maxBufferedBytes = scons.getMaxBufferedBytes();
         }
         // Get a unique connection name for debug
         if( Debug.LDAP_DEBUG) {
@@ -251,6 +255,34 @@ public class LDAPSearchConstraints extends LDAPConstraints {
         return batchSize;
     }
 
+    /**
+     * Returns the number of search results buffered by the API before it
+     * stops reading the connection.  A value of 0 means no limit.
+     * Default: 0
+     *
+     * @return The maximum number of search results buffered.
+     *
+     * @see #setMaxBufferedResults(int)
+     */
+    public int getMaxBufferedResults()
+    {
+        return maxBufferedResults;
+    }
+
+    /**
+     * Returns the number of octets of search results buffered by the API
+     * before it stops reading the connection.  A value of 0 means no
+     * limit.  Default: 0
+     *
+     * @return The maximum number of octets buffered.
+     *
+     * @see #setMaxBufferedBytes(int)
+     */
+    public int getMaxBufferedBytes()
+    {
+        return maxBufferedBytes;
+    }
+
     /**
      * Specifies when aliases should be dereferenced.
      *
@@ -327,6 +359,49 @@ public class LDAPSearchConstraints extends LDAPConstraints {
         return;
     }
 
+    /**
+     * Sets the number of search results buffered by the API before it
+     * stops reading the connection.
+     *
+     * <p>Once the limit is reached, the connection is no longer read until
+     * the application has taken half of the buffered results, so that TCP
+     * flow control holds the server back instead of the results filling
+     * the memory.  Results are streamed: a batch size of 0 is treated as
+     * a batch of this many results.</p>
+     *
+     * <p>While the connection is not read, the replies to other requests
+     * sharing the connection are held back too.  An application must not
+     * wait for other operations on the same connection while it leaves
+     * results of a streamed search unread.</p>
+     *
+     * @param maxResults  The maximum number of search results buffered,
+     *                    0 for no limit.
+     *
+     * @see #getMaxBufferedResults()
+     * @see #setMaxBufferedBytes(int)
+     */
+    public void setMaxBufferedResults(int maxResults)
+    {
+        this.maxBufferedResults = maxResults;
+        return;
+    }
+
+    /**
+     * Sets the number of octets of search results, as encoded by the
+     * server, buffered by the API before it stops reading the connection.
+     * See {@link #setMaxBufferedResults(int)}.
+     *
+     * @param maxBytes    The maximum number of octets buffered, 0 for no
+     *                    limit.
+     *
+     * @see #getMaxBufferedBytes()
+     */
+    public void setMaxBufferedBytes(int maxBytes)
+    {
+        this.maxBufferedBytes = maxBytes;
+        return;
+    }
+
     /**
      * Sets a preference indicating whether or not aliases should be
      * dereferenced, and if so, when.
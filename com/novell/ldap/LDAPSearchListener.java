@@ -0,0 +1,74 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+/**
+ * An object that implements this interface receives the results of a
+ * search as they arrive from the server.  A client starts the search with
+ * {@link LDAPConnection#search(String, int, String, String[], boolean,
+ * LDAPSearchConstraints, LDAPSearchListener)}.
+ *
+ * <p>The listener is called by the thread that reads the replies from the
+ * server whenever it can, so no thread is woken up to hand it a result.
+ * It must return quickly and must not perform synchronous operations on
+ * the connection the search was sent on, since the connection reads no
+ * more replies until the listener returns.  On a connection created with
+ * an {@link LDAPNioSocketFactory}, the listener runs on a selector thread
+ * that reads many connections: while it blocks, no reply is read on any
+ * connection served by that selector thread.  Only one method of the
+ * listener is called at a time.  The listener may disconnect the
+ * connection.</p>
+ *
+ * <p>The listener receives results only as it requests them with
+ * {@link LDAPSearchSubscription#request}.  While it does not request
+ * results, the connection stops reading from the server once the results
+ * buffered for the search reach the limits set with
+ * {@link LDAPSearchConstraints#setMaxBufferedResults} and
+ * {@link LDAPSearchConstraints#setMaxBufferedBytes}, or as soon as one
+ * result is buffered if no limit is set.</p>
+ *
+ * @see LDAPSearchSubscription
+ */
+public interface LDAPSearchListener
+{
+    /**
+     * Called once, before the search request is sent to the server.
+     *
+     * @param subscription The subscription used to request results or to
+     *                     abandon the search.
+     */
+    public void searchStarted(LDAPSearchSubscription subscription);
+
+    /**
+     * Called for each result requested by the listener.
+     *
+     * @param msg     An LDAPSearchResult, an LDAPSearchResultReference or an
+     *                LDAPIntermediateResponse.  Search result references
+     *                are not followed.
+     */
+    public void messageReceived(LDAPMessage msg);
+
+    /**
+     * Called once when the search completes, whether or not the listener
+     * requested more results.  Not called if the search is abandoned with
+     * {@link LDAPSearchSubscription#cancel}.
+     *
+     * @param response The final response to the search.  If the search
+     *                 failed or timed out on the client, the response holds
+     *                 the error, see {@link LDAPResponse#chkResultCode}.
+     */
+    public void searchCompleted(LDAPResponse response);
+}
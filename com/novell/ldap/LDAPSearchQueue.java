@@ -53,9 +53,13 @@ public class LDAPSearchQueue extends LDAPMessageQueue
      *                  The queue can be reactivated by using it in an 
      *                  LDAP request, after which it will receive responses
      *                  for that request..
+     *
+     * @exception IllegalArgumentException if either queue is an
+     *                  LDAPResponseFuture.
      */
     public void merge(LDAPMessageQueue queue2)
     {
+        checkMerge( this, queue2);
         
         LDAPSearchQueue q = (LDAPSearchQueue)queue2;
         if( Debug.LDAP_DEBUG) {
@@ -130,10 +130,19 @@ public class LDAPSearchResult extends LDAPMessage
     public LDAPEntry getEntry()
     {
         if( entry == null) {
+            RfcSearchResultEntry rfcEntry =
+                (RfcSearchResultEntry)message.getResponse();
+            byte[] encodedAttrs = rfcEntry.getEncodedAttributes();
+            if( encodedAttrs != null) {
+                // Only decode the attributes if the application reads them
+                entry = new LDAPEntry( encodedAttrs,
+                    rfcEntry.getObjectName().stringValue());
+                return entry;
+            }
+
             LDAPAttributeSet attrs = new LDAPAttributeSet();
 
-            ASN1Sequence attrList =
-                ((RfcSearchResultEntry)message.getResponse()).getAttributes();
+            ASN1Sequence attrList = rfcEntry.getAttributes();
 
             ASN1Object[] seqArray = attrList.toArray();
             for(int i = 0; i < seqArray.length; i++) {
@@ -150,12 +159,99 @@ public class LDAPSearchResult extends LDAPMessage
             }
 
             entry = new LDAPEntry(
-                ((RfcSearchResultEntry)message.getResponse()).getObjectName().stringValue(),
+                rfcEntry.getObjectName().stringValue(),
                 attrs);
         }            
         return entry;
     }
 
+    /**
+     * Decodes the attributes of a search result entry directly from their
+     * BER encoding, without building ASN1Objects.
+     *
+     * <pre>
+     *   PartialAttributeList ::= SEQUENCE OF SEQUENCE {
+     *               type    AttributeDescription,
+     *               vals    SET OF AttributeValue }
+     * </pre>
+     *
+     * <p>The encoding is checked by RfcSearchResultEntry when the message
+     * is decoded, so that an invalid entry fails the decoding of its
+     * message as it did before the attributes were decoded lazily.  The
+     * identifiers and lengths are checked again here, since the encoding
+     * may also come from the entry cache.</p>
+     *
+     * @param ber The identifier, length and content octets of the
+     * PartialAttributeList.
+     *
+     * @return The decoded attributes.
+     *
+     * @exception IllegalArgumentException if the encoding is invalid.
+     */
+    /* package */
+    static LDAPAttributeSet decodeAttributes(byte[] ber)
+    {
+        LDAPAttributeSet attrs = new LDAPAttributeSet();
+        int[] pos = new int[1];
+        try {
+            int listEnd = enter(ber, pos, 0x30, ber.length);
+            while( pos[0] < listEnd) {
+                int attrEnd = enter(ber, pos, 0x30, listEnd);
+                int nameEnd = enter(ber, pos, 0x04, attrEnd);
+                LDAPAttribute attr = new LDAPAttribute(
+                    new String(ber, pos[0], nameEnd - pos[0], "UTF-8"));
+                pos[0] = nameEnd;
+                int valsEnd = enter(ber, pos, 0x31, attrEnd);
+                while( pos[0] < valsEnd) {
+                    int valueEnd = enter(ber, pos, 0x04, valsEnd);
+                    byte[] value = new byte[valueEnd - pos[0]];
+                    System.arraycopy(ber, pos[0], value, 0, value.length);
+                    attr.addValue(value);
+                    pos[0] = valueEnd;
+                }
+                pos[0] = attrEnd;
+                attrs.add(attr);
+            }
+        } catch( java.io.UnsupportedEncodingException uee) {
+            throw new RuntimeException(uee.toString());
+        }
+        return attrs;
+    }
+
+    /*
+     * Skips the identifier and length octets of the element at pos[0],
+     * leaving pos[0] at its first content octet.  Returns the offset
+     * following the element, which must have the identifier tag and end by
+     * limit, the end of the enclosing element.  LBER only uses single
+     * octet identifiers and definite lengths.
+     */
+    private static int enter(byte[] ber, int[] pos, int tag, int limit)
+    {
+        int off = pos[0];
+        if( (off + 2 > limit) || ((ber[off++] & 0xff) != tag)) {
+            throw new IllegalArgumentException(
+                "LDAPSearchResult: invalid encoding of entry attributes");
+        }
+        int length = ber[off++] & 0xff;
+        if( length > 0x7f) {
+            int n = length & 0x7f;
+            if( (n == 0) || (n > 4) || (off + n > limit)) {
+                throw new IllegalArgumentException(
+                    "LDAPSearchResult: invalid encoding of entry attributes");
+            }
+            length = 0;
+            for( ; n > 0; n--) {
+                length = (length << 8) | (ber[off++] & 0xff);
+            }
+        }
+        if( (length < 0) || (length > limit - off)) {
+            throw new IllegalArgumentException(
+                "LDAPSearchResult: invalid encoding of entry attributes");
+        }
+        pos[0] = off;
+        return off + length;
+    }
+
     /**
      * Return a String representation of this object.
      *
@@ -71,6 +71,13 @@ implements Externalizable
     private LDAPConnection conn;        // LDAPConnection which started search
     private LDAPSearchConstraints cons; // LDAPSearchConstraints for search
     private ArrayList referralConn = null;// Referral Connections
+    // Cache the entry of a base scope search is saved in, null if none
+    private LDAPEntryCache cache = null;
+    private String cacheKey;
+    private long cacheGeneration;
+    private int cacheEntries = 0;
+    private LDAPEntry cacheEntry = null;
+    private byte[] cacheAttrs = null;
     
     /**
 	 * This constructor was added to support default Serialization
@@ -102,6 +109,16 @@ implements Externalizable
         this.conn = conn;
         this.cons = cons;
         int batchSize = cons.getBatchSize();
+        int maxBuffered = cons.getMaxBufferedResults();
+        if( (maxBuffered > 0) || (cons.getMaxBufferedBytes() > 0)) {
+            // Streaming, never collect more results than are buffered
+            if( maxBuffered == 0) {
+                maxBuffered = 1;
+            }
+            if( (batchSize == 0) || (batchSize > maxBuffered)) {
+                batchSize = maxBuffered;
+            }
+        }
         int vectorIncr = (batchSize == 0) ? 64 : 0;
         entries = new Vector( (batchSize == 0) ? 64 : batchSize, vectorIncr );
         entryCount = 0;
@@ -134,6 +151,27 @@ implements Externalizable
     {
     	this.entries = new ArrayList(Arrays.asList(entries));
     	this.entryCount = entries.length; 
+        this.completed = true;
+    }
+
+    /**
+     * Saves the entry returned by a base scope search in a cache, if the
+     * search succeeds and returns a single entry.
+     *
+     * @param cache the cache.
+     *<br><br>
+     * @param key the key of the search in the cache.
+     *<br><br>
+     * @param generation the generation of the cache when the search was
+     * sent.
+     */
+    /* package */
+    void setCache( LDAPEntryCache cache, String key, long generation)
+    {
+        this.cache = cache;
+        this.cacheKey = key;
+        this.cacheGeneration = generation;
+        return;
     }
 
     /**
@@ -153,7 +191,7 @@ implements Externalizable
      */
     public int getCount()
     {
-        int qCount = queue.getMessageAgent().getCount();
+        int qCount = (queue == null) ? 0 : queue.getMessageAgent().getCount();
         return entryCount - entryIndex + referenceCount - referenceIndex + qCount;
     }
 
@@ -362,6 +400,11 @@ implements Externalizable
 
                     if(msg instanceof LDAPSearchResult) { // Search Entry
                     	LDAPEntry entry = ((LDAPSearchResult)msg).getEntry();
+                        if( (cache != null) && (cacheEntries++ == 0)) {
+                            // Before the application decodes it
+                            cacheEntry = entry;
+                            cacheAttrs = entry.getEncodedAttributes();
+                        }
                         entries.add( entry );
                         i++;
                         entryCount++;
@@ -384,6 +427,7 @@ implements Externalizable
                             }
                         }
 
+                        cache = null;   // not the entry alone
                         if( cons.getReferralFollowing() ) {
                            referralConn = conn.chaseReferral(
                                     queue, cons, msg, refs,
@@ -411,6 +455,18 @@ implements Externalizable
                                 ", result " + resultCode);
                         }
 
+                        if( cache != null) {
+                            if( (resultCode == LDAPException.SUCCESS) &&
+                                (cacheEntries == 1) && (cacheAttrs != null)) {
+                                cache.put( cacheKey,
+                                    LDAPEntryCache.normalize(
+                                        cacheEntry.getDN()),
+                                    cacheEntry.getDN(), cacheAttrs,
+                                    cacheGeneration);
+                            }
+                            cache = null;
+                            cacheEntry = null;
+                        }
                         if( (resultCode == LDAPException.REFERRAL) &&
                                         cons.getReferralFollowing() ) {
                             // Following referrals
@@ -491,7 +547,9 @@ implements Externalizable
             Debug.trace( Debug.messages, name + "abandon: Entry");
         }
         // first, remove message ID and timer and any responses in the queue
-        queue.getMessageAgent().abandonAll();
+        if( queue != null) {
+            queue.getMessageAgent().abandonAll();
+        }
 
         // next, clear out enumeration
         resetVectors();
@@ -0,0 +1,235 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import com.novell.ldap.client.Debug;
+import com.novell.ldap.resources.ExceptionMessages;
+import com.novell.ldap.rfc2251.RfcLDAPMessage;
+
+/**
+ * Controls the delivery of the results of a search to an
+ * {@link LDAPSearchListener}.
+ *
+ * <p>The listener receives no result until it requests some.  Requests
+ * add up: a listener that wants every result as soon as it arrives
+ * requests <code>Long.MAX_VALUE</code> results in
+ * {@link LDAPSearchListener#searchStarted}, a listener that processes
+ * results in batches requests one batch each time it has finished the
+ * previous one.</p>
+ *
+ * <p>Results that arrive while the listener has no outstanding request are
+ * buffered, and delivered by the thread calling {@link #request}.</p>
+ *
+ * @see LDAPConnection#search(String, int, String, String[], boolean,
+ * LDAPSearchConstraints, LDAPSearchListener)
+ */
+public final class LDAPSearchSubscription
+{
+    private final MessageAgent agent;
+    private final LDAPSearchListener listener;
+    private final int msgId;
+    private Message message = null;  // set before the request is sent
+    private long demand = 0;         // results requested and not delivered
+    private boolean done = false;    // completed or cancelled
+    private boolean cancelled = false;
+    private boolean delivering = false;
+    private boolean missed = false;  // deliver called while delivering
+
+    /**
+     * Constructs a subscription for a search request.
+     *
+     * @param agent the private MessageAgent the request is sent with.
+     *<br><br>
+     * @param msgId the message ID of the search request.
+     *<br><br>
+     * @param listener the listener the results are delivered to.
+     */
+    /* package */
+    LDAPSearchSubscription( MessageAgent agent, int msgId,
+                            LDAPSearchListener listener)
+    {
+        this.agent = agent;
+        this.msgId = msgId;
+        this.listener = listener;
+        return;
+    }
+
+    /**
+     * Returns the message ID of the search request.
+     *
+     * @return The message ID of the search request.
+     */
+    public int getMessageID()
+    {
+        return msgId;
+    }
+
+    /**
+     * Requests more results.  Results already buffered are delivered to
+     * the listener before this method returns, unless another thread is
+     * delivering results at the time, in which case that thread delivers
+     * them.
+     *
+     * @param n The number of additional results the listener is ready to
+     *          receive, <code>Long.MAX_VALUE</code> for no limit.
+     *
+     * @exception IllegalArgumentException if n is not positive.
+     */
+    public void request( long n)
+    {
+        if( n <= 0) {
+            throw new IllegalArgumentException(
+                "LDAPSearchSubscription: number of results must be positive");
+        }
+        synchronized( this) {
+            if( done) {
+                return;
+            }
+            demand += n;
+            if( demand < 0) {
+                demand = Long.MAX_VALUE; // overflow, no limit
+            }
+        }
+        deliver();
+        return;
+    }
+
+    /**
+     * Abandons the search.  The listener receives no more results, and is
+     * not called when the search completes.
+     */
+    public void cancel()
+    {
+        synchronized( this) {
+            if( done) {
+                return;
+            }
+            done = true;
+            cancelled = true;
+        }
+        if( Debug.LDAP_DEBUG) {
+            Debug.trace( Debug.messages, "LDAPSearchSubscription(" + msgId +
+                "): cancelled");
+        }
+        agent.abandon( msgId, null);
+        return;
+    }
+
+    /**
+     * Returns true if the search was abandoned with cancel.
+     */
+    /* package */
+    synchronized boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * Sets the Message the results are read from.  Called when the Message
+     * is created, before the request is sent.
+     */
+    /* package */
+    synchronized void attach( Message message)
+    {
+        this.message = message;
+        return;
+    }
+
+    /**
+     * Delivers the buffered results the listener requested, and the final
+     * response once all results were delivered.  Called by the thread
+     * queuing a reply and by request.  Only one thread delivers at a time,
+     * a thread calling while another delivers leaves the delivery to it.
+     */
+    /* package */
+    void deliver()
+    {
+        synchronized( this) {
+            if( delivering) {
+                missed = true;
+                return;
+            }
+            delivering = true;
+        }
+        for(;;) {
+            for(;;) {
+                boolean last;
+                synchronized( this) {
+                    if( done || (message == null)) {
+                        break;
+                    }
+                    Object next = message.peekReply();
+                    if( next == null) {
+                        break;
+                    }
+                    last = ! (next instanceof RfcLDAPMessage) ||
+                           ! Message.isResult( (RfcLDAPMessage)next);
+                    if( last) {
+                        done = true;
+                    } else if( demand == 0) {
+                        break;
+                    } else if( demand != Long.MAX_VALUE) {
+                        demand--;
+                    }
+                }
+                // Only this thread takes replies, so this is the one peeked
+                Object reply = message.getReply();
+                if( reply == null) {
+                    break;
+                }
+                LDAPMessage response;
+                try {
+                    response = LDAPMessageQueue.getLDAPMessage( reply);
+                } catch( LDAPException ex) {
+                    // End the search with the decoding error
+                    response = new LDAPResponse( new InterThreadException(
+                                ExceptionMessages.DECODING_ERROR, null,
+                                LDAPException.DECODING_ERROR, ex, message),
+                                null);
+                    if( ! last) {
+                        synchronized( this) {
+                            done = true;
+                        }
+                        agent.abandon( msgId, null);
+                        last = true;
+                    }
+                }
+                try {
+                    if( last) {
+                        listener.searchCompleted( (LDAPResponse)response);
+                    } else {
+                        listener.messageReceived( response);
+                    }
+                } catch( RuntimeException ex) {
+                    // Must not kill the connection reader
+                    if( Debug.LDAP_DEBUG) {
+                        Debug.trace( Debug.messages, "LDAPSearchSubscription(" +
+                            msgId + "): listener failed, abandoning search: " +
+                            ex.toString());
+                    }
+                    cancel();
+                }
+            }
+            synchronized( this) {
+                if( ! missed) {
+                    delivering = false;
+                    return;
+                }
+                missed = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999, 2000, 2001 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+/**
+ *  Used to create the threads of an LDAPConnection.
+ *
+ *  <p>An LDAPConnection uses threads to read responses from the server, to
+ *  expire requests with a client time limit, and to call unsolicited
+ *  notification listeners.  The event sources of com.novell.ldap.events
+ *  poll their queues on threads of the connection as well.  Programmers
+ *  needing to control how these threads are created, for instance to name
+ *  them, to run them in a thread group, or to count them, can implement
+ *  this interface.</p>
+ *
+ *  <p>The default factory, LDAPDefaultThreadFactory, creates virtual
+ *  threads when the Java runtime supports them.</p>
+ *
+ *  @see LDAPConnection#setThreadFactory
+ *  @see LDAPDefaultThreadFactory
+ */
+public interface LDAPThreadFactory {
+
+   /**
+    * Returns a new thread, not yet started, that runs the given task.
+    *
+    * <p>The thread must not prevent the application from exiting,
+    * platform threads must be daemon threads.</p>
+    *
+    * @param task The task the thread runs.
+    *<br><br>
+    * @param name The name of the thread.
+    *
+    * @return An unstarted thread running the task.
+    */
+   public Thread newThread(Runnable task, String name);
+}
@@ -29,7 +29,7 @@ class Message
     private MessageAgent agent;          // MessageAgent handling this request
     private LDAPMessageQueue queue;      // Application message queue
     private int mslimit;                 // client time limit in milliseconds
-    private Thread timer = null;         // Timeout thread
+    private TimerWheel.Timer timer = null; // Timeout timer
     // Note: MessageVector is synchronized
     private MessageVector replies = new MessageVector(5,5); // place to store replies
     private int msgId;                   // message ID of this request
@@ -38,6 +38,16 @@ class Message
     private boolean complete = false;    // true LDAPResult received
     private String name;                 // String name used for Debug
     private BindProperties bindprops;    // Bind properties if a bind request
+    // Limits of the replies queued before the reader is paused, 0 for none
+    private int maxQueued = 0;
+    private int maxQueuedBytes = 0;
+    // Results and octets queued, and the task resuming a paused reader,
+    // protected by replies
+    private int queuedResults = 0;
+    private long queuedBytes = 0;
+    private Runnable resumeReader = null;
+    // Listener search the replies are delivered to, null if none
+    private LDAPSearchSubscription subscription = null;
 
     /**
      * Constructs a Message class encapsulating information about this message.
@@ -87,8 +97,8 @@ class Message
      * that window but opens the possibility for misuse.  We do not
      * enforce the requirement that it be called only once as that adds
      * extra synchronization.  We depend on the interal API to act correctly.
-     * When the message is sent, the timer thread is started to time
-     * the message.
+     * When the message is sent, a timer is scheduled on the shared
+     * TimerWheel to time the message.
      */
      /* package */
      final void sendMessage()
@@ -99,9 +109,9 @@ class Message
                 conn.getConnectionName());
         }
         conn.writeMessage( this );
-        // Start the timer thread
+        // Start the timer
         if( mslimit != 0 ) {
-            // Don't start the timer thread for abandon or Unbind
+            // Don't start the timer for abandon or Unbind
             switch( msg.getType())
             {
                 case LDAPMessage.ABANDON_REQUEST:
@@ -109,15 +119,140 @@ class Message
                     mslimit = 0;
                     break;
                 default:
-                    // start the timer thread
-                    timer = new Timeout( mslimit, this);
-                    timer.setDaemon(true); // If this is the last thread running, allow exit.
-                    timer.start();
+                    // schedule the timer on the wheel shared by all requests
+                    timer = TimerWheel.getShared().schedule(
+                                new Timeout( mslimit, this), mslimit,
+                                conn.getThreadFactory());
                     break;
             }
         }
         return;
     }
+    /**
+     * Limits the replies queued for this request.  Once either limit is
+     * reached, the connection reader is paused until the application has
+     * taken half of the queued replies, so the server stops sending when
+     * the application does not keep up.  Must be called before the
+     * request is sent.
+     *
+     * @param maxResults  the number of entries, references and
+     *                    intermediate responses queued before the reader
+     *                    is paused, 0 for no limit.
+     *<br><br>
+     * @param maxBytes    the number of encoded octets queued before the
+     *                    reader is paused, 0 for no limit.
+     */
+    /* package */
+    void setQueueLimits( int maxResults, int maxBytes)
+    {
+        this.maxQueued = maxResults;
+        this.maxQueuedBytes = maxBytes;
+        return;
+    }
+
+    /**
+     * Delivers the replies to a search listener instead of waking the
+     * threads waiting for them.  Must be called before the request is
+     * sent.
+     *
+     * @param subscription the subscription delivering the replies.
+     */
+    /* package */
+    void setSubscription( LDAPSearchSubscription subscription)
+    {
+        this.subscription = subscription;
+        if( subscription != null) {
+            subscription.attach( this);
+        }
+        return;
+    }
+
+    /**
+     * Pauses the connection reader if the replies queued for this request
+     * reached their limits.  Called by the reader after queuing a reply.
+     *
+     * @param resume the task run, once, when enough replies have been
+     * taken from the queue or the request no longer accepts replies.
+     *
+     * @return true if the reader must pause until resume is run, false
+     * if it can go on reading.
+     */
+    /* package */
+    boolean pauseReader( Runnable resume)
+    {
+        if( (maxQueued == 0) && (maxQueuedBytes == 0)) {
+            return false;
+        }
+        synchronized( replies) {
+            if( ! acceptReplies ||
+                (((maxQueued == 0) || (queuedResults < maxQueued)) &&
+                 ((maxQueuedBytes == 0) || (queuedBytes < maxQueuedBytes)))) {
+                return false;
+            }
+            if( Debug.LDAP_DEBUG) {
+                Debug.trace( Debug.messages, name + "Reader paused, " +
+                    queuedResults + " results, " + queuedBytes +
+                    " octets queued");
+            }
+            resumeReader = resume;
+            return true;
+        }
+    }
+
+    /*
+     * Accounts for a reply taken from the queue, and returns the task
+     * resuming the reader if the queue is down to half its limits.  Called
+     * with the replies lock held, the task must be run once released.
+     */
+    private Runnable dequeued( Object reply)
+    {
+        if( reply instanceof RfcLDAPMessage) {
+            RfcLDAPMessage message = (RfcLDAPMessage)reply;
+            queuedBytes -= message.getEncodedLength();
+            if( isResult( message)) {
+                queuedResults--;
+            }
+        }
+        if( (resumeReader == null) ||
+            (acceptReplies &&
+             (((maxQueued > 0) && (queuedResults > maxQueued / 2)) ||
+              ((maxQueuedBytes > 0) && (queuedBytes > maxQueuedBytes / 2))))) {
+            return null;
+        }
+        return takeResumeReader();
+    }
+
+    /*
+     * Returns the task resuming a paused reader, or null if the reader is
+     * not paused.  Called with the replies lock held.
+     */
+    private Runnable takeResumeReader()
+    {
+        Runnable resume = resumeReader;
+        resumeReader = null;
+        if( (resume != null) && Debug.LDAP_DEBUG) {
+            Debug.trace( Debug.messages, name + "Reader resumed");
+        }
+        return resume;
+    }
+
+    /**
+     * Returns true for the replies counted against the results limit,
+     * i.e. the replies that are not the final response to a request.
+     */
+    /* package */
+    static boolean isResult( RfcLDAPMessage message)
+    {
+        switch( message.getType()) {
+        case LDAPMessage.SEARCH_RESPONSE:
+        case LDAPMessage.SEARCH_RESULT_REFERENCE:
+        case LDAPMessage.INTERMEDIATE_RESPONSE:
+            return true;
+        default:
+            return false;
+        }
+    }
+
     /**
      * Returns true if replies are queued
      *
@@ -166,6 +301,22 @@ class Message
     void refuseReplies()
     {
         acceptReplies = false;
+        resumeReader();
+        return;
+    }
+
+    /*
+     * Resumes the reader if it is paused by this request.
+     */
+    private void resumeReader()
+    {
+        Runnable resume;
+        synchronized( replies) {
+            resume = takeResumeReader();
+        }
+        if( resume != null) {
+            resume.run();
+        }
         return;
     }
 
@@ -185,18 +336,28 @@ class Message
     /* package */
     void stopTimer()
     {
-        // If timer thread started, stop it
+        // If timer started, cancel it
         if( timer != null) {
-            timer.interrupt();
+            timer.cancel();
         }
         return;
     }
 
     /**
-     * Notifies all waiting threads
+     * Notifies all waiting threads, or delivers the replies to the search
+     * listener or the response future if there is one.
      */
     private void sleepersAwake()
     {
+        if( subscription != null) {
+            // Nobody waits for a listener search, deliver on this thread
+            subscription.deliver();
+            return;
+        }
+        if( queue instanceof LDAPResponseFuture) {
+            ((LDAPResponseFuture)queue).deliver( this);
+            return;
+        }
         if( Debug.LDAP_DEBUG) {
             Debug.trace( Debug.messages, name + "Sleepers Awake, " +
                 agent.getAgentName());
@@ -284,7 +445,13 @@ class Message
             }
             return;
         }
-        replies.addElement( message);
+        synchronized( replies) {
+            replies.addElement( message);
+            queuedBytes += message.getEncodedLength();
+            if( isResult( message)) {
+                queuedResults++;
+            }
+        }
         message.setRequestingMessage( msg); // Save request message info
         switch( message.getType()) {
         case LDAPMessage.SEARCH_RESPONSE:
@@ -369,8 +536,9 @@ class Message
             return null;
         }
         // sync on message so don't confuse with timer thread
+        Object msg = null;
+        Runnable resume = null;
         synchronized( replies ) {
-            Object msg = null;
             while( waitForReply ) {
                 if( replies.isEmpty()) {
                     if( Debug.LDAP_DEBUG) {
@@ -393,6 +561,7 @@ class Message
                     }
                 } else {
                     msg = replies.remove(0); // Atomic get and remove
+                    resume = dequeued( msg);
                 }
                 if( (complete || ! acceptReplies) && replies.isEmpty()) {
                     // Remove msg from connection queue when last reply read
@@ -409,9 +578,26 @@ class Message
                             replies.size() + " remaining in queue)");
                     }
                 }
-                return msg;
+                break;
             }
-            return null;
+        }
+        // Resume a paused reader without holding the lock
+        if( resume != null) {
+            resume.run();
+        }
+        return msg;
+    }
+
+    /**
+     * Returns the next reply on the reply queue without removing it.
+     *
+     * @return the next reply message on the reply queue or null if none
+     */
+    /* package */
+    Object peekReply()
+    {
+        synchronized( replies) {
+            return replies.isEmpty() ? null : replies.firstElement();
         }
     }
 
@@ -424,6 +610,7 @@ class Message
     Object getReply()
     {
             Object msg;
+            Runnable resume;
             if( replies == null) {
                 return null;
             }
@@ -437,6 +624,10 @@ class Message
                     return null;    // No data
                 }
                 msg = replies.remove(0); // Atomic get and remove
+                resume = dequeued( msg);
+            }
+            if( resume != null) {
+                resume.run();
             }
             if( Debug.LDAP_DEBUG) {
                 Debug.trace( Debug.messages, name +
@@ -476,6 +667,7 @@ class Message
         }
         acceptReplies = false;  // don't listen to anyone
         waitForReply = false;   // don't let sleeping threads lie
+        resumeReader();         // the reader must not wait for this request
         if( ! complete) {
             try {
                 // If a bind, release bind semaphore & wake up waiting threads
@@ -551,6 +743,7 @@ class Message
         stopTimer();        // Make sure timer stopped
         try {
             acceptReplies = false;
+            resumeReader();
             if( conn != null) {
                 conn.removeMessage( this );
             }
@@ -608,10 +801,10 @@ class Message
     }
 
     /**
-     * Timer class to provide timing for messages.  Only called
+     * Timer task to provide timing for messages.  Only scheduled
      * if time to wait is non zero.
      */
-    private final class Timeout extends Thread
+    private final class Timeout implements Runnable
     {
         private int timeToWait = 0;
         private Message message;
@@ -619,38 +812,27 @@ class Message
         /* package */
         Timeout( int interval, Message msg)
         {
-            super();
             timeToWait = interval;
             message = msg;
             return;
         }
 
         /**
-         * The timeout thread.  If it wakes from the sleep, future input
-         * is stopped and the request is timed out.
+         * Runs when the timer expires. Future input is stopped and the
+         * request is timed out.
         */
         public final void run()
         {
-            try {
-                if( Debug.LDAP_DEBUG) {
-                    Debug.trace( Debug.messages, message.name +
-                       "client timer started, " + timeToWait + " milliseconds");
-                }
-                sleep(timeToWait);
-                message.acceptReplies = false;
-                if( Debug.LDAP_DEBUG) {
-                    Debug.trace( Debug.messages, message.name + "client timed out");
-                }
-                // Note: Abandon clears the bind semaphore after failed bind.
-                message.abandon( null,
-                            new InterThreadException("Client request timed out",
-                            null, LDAPException.LDAP_TIMEOUT, null, message));
-            } catch ( InterruptedException ie ) {
-                if( Debug.LDAP_DEBUG) {
-                    Debug.trace( Debug.messages, message.name + "timer stopped");
-                }
-                // the timer was stopped, do nothing
+            message.acceptReplies = false;
+            message.resumeReader();
+            if( Debug.LDAP_DEBUG) {
+                Debug.trace( Debug.messages, message.name +
+                    "client timed out after " + timeToWait + " milliseconds");
             }
+            // Note: Abandon clears the bind semaphore after failed bind.
+            message.abandon( null,
+                        new InterThreadException("Client request timed out",
+                        null, LDAPException.LDAP_TIMEOUT, null, message));
             return;
         }
     }
@@ -272,11 +272,61 @@ class MessageAgent
                             LDAPMessageQueue queue,
                             BindProperties   bindProps)
             throws LDAPException
+    {
+        sendMessage( conn, msg, timeOut, queue, bindProps, 0, 0);
+        return;
+    }
+
+    /**
+     * Sends a request, limiting the replies queued for it, see
+     * {@link Message#setQueueLimits(int, int)}.
+     *
+     * @param maxResults the number of results queued before the connection
+     * reader is paused, 0 for no limit.
+     * @param maxBytes the number of octets queued before the connection
+     * reader is paused, 0 for no limit.
+     */
+    /* package */
+    final void sendMessage(
+                            Connection       conn,
+                            LDAPMessage      msg,
+                            int              timeOut,
+                            LDAPMessageQueue queue,
+                            BindProperties   bindProps,
+                            int              maxResults,
+                            int              maxBytes)
+            throws LDAPException
+    {
+        sendMessage( conn, msg, timeOut, queue, bindProps,
+                     maxResults, maxBytes, null);
+        return;
+    }
+
+    /**
+     * Sends a request whose replies are delivered to a search listener,
+     * see {@link Message#setSubscription(LDAPSearchSubscription)}.
+     *
+     * @param subscription the subscription delivering the replies, or null
+     * to queue them for the application.
+     */
+    /* package */
+    final void sendMessage(
+                            Connection       conn,
+                            LDAPMessage      msg,
+                            int              timeOut,
+                            LDAPMessageQueue queue,
+                            BindProperties   bindProps,
+                            int              maxResults,
+                            int              maxBytes,
+                            LDAPSearchSubscription subscription)
+            throws LDAPException
     {
         // creating a messageInfo causes the message to be sent
         // and a timer to be started if needed.
         Message message = new Message( msg, timeOut, conn,
                                     this, queue, bindProps);
+        message.setQueueLimits( maxResults, maxBytes);
+        message.setSubscription( subscription);
         messages.addElement( message);
         if( Debug.LDAP_DEBUG) {
             Debug.trace( Debug.messages, name +
@@ -0,0 +1,282 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999, 2000, 2001 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+/**
+ * The <code>MessageTable</code> class maps message IDs to outstanding
+ * Message objects.
+ *
+ * <p>Each segment of the table is an open addressing hash table keyed by the
+ * primitive message ID, so a lookup neither scans the outstanding messages
+ * nor creates Integer keys.  The table is split into segments with their own
+ * locks, so threads looking up different message IDs rarely contend, and
+ * a lookup never waits for the lock of the MessageVector owning the table.</p>
+ *
+ * <p>A Connection keeps its outstanding messages in a MessageTable alone,
+ * so adding and removing a message takes constant time however many
+ * requests are outstanding.</p>
+ */
+/* package */
+final class MessageTable
+{
+    // Number of segments, must be a power of 2
+    private static final int SEGMENTS = 16;
+    private static final int SEGMENT_SHIFT = 4;
+
+    // Marks a removed entry so that probe sequences are not broken
+    private static final Object REMOVED = new Object();
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /* package */
+    MessageTable()
+    {
+        for( int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+        return;
+    }
+
+    /**
+     * Returns the Message with the given message ID.
+     *
+     * @param msgId the message ID to look up
+     *
+     * @return the Message, or null if no Message with this ID is in the table.
+     */
+    /* package */
+    final Message get( int msgId)
+    {
+        return segments[msgId & (SEGMENTS - 1)].get( msgId);
+    }
+
+    /**
+     * Finds the Message object with the given MsgID.
+     *
+     * @param msgId The msgId of the Message object to return
+     *
+     * @return The Message object corresponding to this MsgId.
+     *
+     * @throws NoSuchFieldException when no object with the corresponding
+     * value for the MsgId field can be found.
+     */
+    /* package */
+    final Message findMessageById( int msgId)
+                throws NoSuchFieldException
+    {
+        Message msg = get( msgId);
+        if( msg == null) {
+            throw new NoSuchFieldException();
+        }
+        return msg;
+    }
+
+    /**
+     * Adds a Message to the table, replacing any Message with the same ID.
+     *
+     * @param msg the Message to add
+     */
+    /* package */
+    final void put( Message msg)
+    {
+        int msgId = msg.getMessageID();
+        segments[msgId & (SEGMENTS - 1)].put( msgId, msg);
+        return;
+    }
+
+    /**
+     * Removes a Message from the table.  Nothing is removed if the ID of
+     * the Message is mapped to a different Message object.
+     *
+     * @param msg the Message to remove
+     *
+     * @return true if the Message was in the table.
+     */
+    /* package */
+    final boolean remove( Message msg)
+    {
+        int msgId = msg.getMessageID();
+        return segments[msgId & (SEGMENTS - 1)].remove( msgId, msg);
+    }
+
+    /**
+     * Returns the Messages in the table and removes them from the table.
+     * Each segment is emptied atomically, a Message added to a segment
+     * already emptied is left in the table.
+     *
+     * @return the Messages removed, in no particular order.
+     */
+    /* package */
+    final Object[] getObjectArray()
+    {
+        Object[][] parts = new Object[SEGMENTS][];
+        int total = 0;
+        for( int i = 0; i < SEGMENTS; i++) {
+            parts[i] = segments[i].removeAll();
+            total += parts[i].length;
+        }
+        Object[] results = new Object[total];
+        int n = 0;
+        for( int i = 0; i < SEGMENTS; i++) {
+            System.arraycopy( parts[i], 0, results, n, parts[i].length);
+            n += parts[i].length;
+        }
+        return results;
+    }
+
+    /**
+     * Removes all Messages from the table.
+     */
+    /* package */
+    final void clear()
+    {
+        for( int i = 0; i < SEGMENTS; i++) {
+            segments[i].clear();
+        }
+        return;
+    }
+
+    /*
+     * An open addressing hash table with linear probing.  Message IDs are
+     * mostly allocated in sequence, so the ID itself spreads well over
+     * the slots once the segment bits are shifted out.
+     */
+    private static final class Segment
+    {
+        private static final int INITIAL_CAPACITY = 16; // power of 2
+
+        private Object[] table = new Object[INITIAL_CAPACITY];
+        private int count = 0; // number of Messages in the table
+        private int used = 0;  // number of Messages and REMOVED markers
+
+        private synchronized Message get( int msgId)
+        {
+            Object[] tab = table;
+            int mask = tab.length - 1;
+            for( int i = (msgId >>> SEGMENT_SHIFT) & mask; ; i = (i + 1) & mask) {
+                Object entry = tab[i];
+                if( entry == null) {
+                    return null;
+                }
+                if( (entry != REMOVED) &&
+                    (((Message)entry).getMessageID() == msgId)) {
+                    return (Message)entry;
+                }
+            }
+        }
+
+        private synchronized void put( int msgId, Message msg)
+        {
+            if( (used + 1) * 4 > table.length * 3) {
+                rehash();
+            }
+            int mask = table.length - 1;
+            int free = -1;
+            int i = (msgId >>> SEGMENT_SHIFT) & mask;
+            for( ; ; i = (i + 1) & mask) {
+                Object entry = table[i];
+                if( entry == null) {
+                    break;
+                }
+                if( entry == REMOVED) {
+                    if( free < 0) {
+                        free = i;
+                    }
+                } else if( ((Message)entry).getMessageID() == msgId) {
+                    table[i] = msg;     // replace
+                    return;
+                }
+            }
+            if( free >= 0) {
+                table[free] = msg;      // reuse a removed slot
+            } else {
+                table[i] = msg;
+                used++;
+            }
+            count++;
+            return;
+        }
+
+        private synchronized boolean remove( int msgId, Message msg)
+        {
+            int mask = table.length - 1;
+            for( int i = (msgId >>> SEGMENT_SHIFT) & mask; ; i = (i + 1) & mask) {
+                Object entry = table[i];
+                if( entry == null) {
+                    return false;
+                }
+                if( entry == msg) {
+                    table[i] = REMOVED;
+                    count--;
+                    return true;
+                }
+            }
+        }
+
+        private synchronized Object[] removeAll()
+        {
+            Object[] results = new Object[count];
+            int n = 0;
+            for( int i = 0; i < table.length; i++) {
+                Object entry = table[i];
+                if( (entry != null) && (entry != REMOVED)) {
+                    results[n++] = entry;
+                }
+            }
+            clear();
+            return results;
+        }
+
+        private synchronized void clear()
+        {
+            if( used > 0) {
+                table = new Object[INITIAL_CAPACITY];
+                count = 0;
+                used = 0;
+            }
+            return;
+        }
+
+        /*
+         * Rebuilds the table without REMOVED markers, growing it when it is
+         * more than half full of Messages.
+         */
+        private void rehash()
+        {
+            int capacity = table.length;
+            if( count * 2 >= capacity) {
+                capacity *= 2;
+            }
+            Object[] oldTable = table;
+            Object[] newTable = new Object[capacity];
+            int mask = capacity - 1;
+            for( int j = 0; j < oldTable.length; j++) {
+                Object entry = oldTable[j];
+                if( (entry == null) || (entry == REMOVED)) {
+                    continue;
+                }
+                int i = (((Message)entry).getMessageID() >>> SEGMENT_SHIFT) & mask;
+                while( newTable[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                newTable[i] = entry;
+            }
+            table = newTable;
+            used = count;
+            return;
+        }
+    }
+}
@@ -20,10 +20,17 @@ import com.novell.ldap.client.*;
 /**
  * The <code>MessageVector</code> class implements additional semantics
  * to Vector needed for handling messages.
+ *
+ * <p>Message objects added to the vector are also indexed by message ID in a
+ * {@link MessageTable}, so findMessageById does not scan the vector and
+ * does not take the vector's lock.</p>
  */
 /* package */
 class MessageVector extends java.util.Vector
 {
+    // Index of the Message objects in this vector by message ID
+    private MessageTable table = new MessageTable();
+
     /* package */
     MessageVector( int cap, int incr)
     {
@@ -43,19 +50,14 @@ class MessageVector extends java.util.Vector
      * value for the MsgId field can be found.
      */
     /* package */
-    final synchronized Message findMessageById( int msgId)
+    final Message findMessageById( int msgId)
                 throws NoSuchFieldException
     {
-        Message msg = null;
-        for( int i = 0; i < elementCount; i++) {
-            if( (msg = (Message)elementData[i]) == null) {
-                throw new NoSuchFieldException();
-            }
-            if( msg.getMessageID() == msgId) {
-                return msg;
-            }
+        Message msg = table.get( msgId);
+        if( msg == null) {
+            throw new NoSuchFieldException();
         }
-        throw new NoSuchFieldException();
+        return msg;
     }
 
     /** Returns an array containing all of the elements in this MessageVector.
@@ -73,6 +75,123 @@ class MessageVector extends java.util.Vector
             elementData[i] = null;
         }
         elementCount = 0;
+        table.clear();
         return results;
     }
+
+    /*
+     * The methods below keep the message ID index consistent with the
+     * vector.  Vector methods may call each other, so adding and removing
+     * from the index must be idempotent.  A Message is never added twice
+     * to a vector, so a Message removed from the vector is removed from
+     * the index without checking for another copy.
+     */
+
+    public synchronized void addElement( Object obj)
+    {
+        super.addElement( obj);
+        index( obj);
+        return;
+    }
+
+    public synchronized boolean add( Object obj)
+    {
+        super.add( obj);
+        index( obj);
+        return true;
+    }
+
+    public synchronized void insertElementAt( Object obj, int index)
+    {
+        super.insertElementAt( obj, index);
+        index( obj);
+        return;
+    }
+
+    public void add( int index, Object obj)
+    {
+        insertElementAt( obj, index);
+        return;
+    }
+
+    public synchronized void setElementAt( Object obj, int index)
+    {
+        unindex( elementAt( index));
+        super.setElementAt( obj, index);
+        index( obj);
+        return;
+    }
+
+    public synchronized Object set( int index, Object obj)
+    {
+        Object old = super.set( index, obj);
+        unindex( old);
+        index( obj);
+        return old;
+    }
+
+    public synchronized void removeElementAt( int index)
+    {
+        Object obj = elementAt( index);
+        super.removeElementAt( index);
+        unindex( obj);
+        return;
+    }
+
+    public synchronized Object remove( int index)
+    {
+        Object obj = super.remove( index);
+        unindex( obj);
+        return obj;
+    }
+
+    public synchronized boolean removeElement( Object obj)
+    {
+        if( super.removeElement( obj)) {
+            unindex( obj);
+            return true;
+        }
+        return false;
+    }
+
+    public boolean remove( Object obj)
+    {
+        return removeElement( obj);
+    }
+
+    public synchronized void removeAllElements()
+    {
+        super.removeAllElements();
+        table.clear();
+        return;
+    }
+
+    public void clear()
+    {
+        removeAllElements();
+        return;
+    }
+
+    /*
+     * Adds obj to the message ID index if it is a Message.  Replies queued
+     * on a Message are also kept in a MessageVector and are not indexed.
+     */
+    private void index( Object obj)
+    {
+        if( obj instanceof Message) {
+            table.put( (Message)obj);
+        }
+        return;
+    }
+
+    /*
+     * Removes obj from the message ID index if it is a Message.
+     */
+    private void unindex( Object obj)
+    {
+        if( obj instanceof Message) {
+            table.remove( (Message)obj);
+        }
+        return;
+    }
 }
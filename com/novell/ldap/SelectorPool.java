@@ -0,0 +1,260 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999, 2000, 2001 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Vector;
+import com.novell.ldap.client.Debug;
+
+/**
+ * A pool of selector threads reading non-blocking connections.
+ *
+ * <p>Each selector thread owns a Selector and reads the connections
+ * registered with it.  Connections are handed to the threads in turn.
+ * The threads are created by an LDAPThreadFactory when the first
+ * connection is registered.  Once the pool is closed, no connection can be
+ * registered and each thread closes its Selector and exits as soon as the
+ * connections it reads are closed.</p>
+ *
+ * <p>A selector thread never blocks on behalf of a connection: replies
+ * are queued on their Message, a connection whose reader is paused is
+ * not selected for reading until resumed, and a connection that must be
+ * shut down is shut down on a separate thread.</p>
+ */
+/* package */
+final class SelectorPool
+{
+    private final Worker[] workers;
+    private final LDAPThreadFactory factory;
+    private int next = 0;
+    private boolean closed = false;
+
+    /* package */
+    SelectorPool( int threads, LDAPThreadFactory factory)
+    {
+        workers = new Worker[threads];
+        this.factory = factory;
+        return;
+    }
+
+    /**
+     * Closes the pool.  The selector threads exit once the connections
+     * they read are closed, at once for those reading none.
+     */
+    /* package */
+    synchronized void close()
+    {
+        closed = true;
+        for( int i = 0; i < workers.length; i++) {
+            if( workers[i] != null) {
+                workers[i].close();
+            }
+        }
+        return;
+    }
+
+    /**
+     * Returns true if the pool is closed.
+     */
+    /* package */
+    synchronized boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * Hands a connection reader to one of the selector threads.  The
+     * reader is registered asynchronously, the selector thread calls
+     * its start method.
+     *
+     * @param reader the reader of the connection
+     *
+     * @return the selector thread that reads the connection
+     *
+     * @exception IOException if the pool is closed or a Selector cannot
+     * be opened.
+     */
+    /* package */
+    synchronized Worker register( Connection.ChannelReader reader)
+        throws IOException
+    {
+        if( closed) {
+            throw new IOException( "SelectorPool: closed");
+        }
+        int i = next;
+        next = (next + 1) % workers.length;
+        if( workers[i] == null) {
+            workers[i] = new Worker( "LDAP Selector " + (i + 1), factory);
+        }
+        Worker worker = workers[i];
+        reader.worker = worker;
+        // Queued before close can stop the thread, see Worker.run
+        worker.request( reader);
+        return worker;
+    }
+
+    /**
+     * A selector thread.
+     */
+    /* package */
+    static final class Worker implements Runnable
+    {
+        private final Selector selector;
+        /* package */
+        final Thread thread;
+        // Readers to register or to stop, protected by itself
+        private final Vector requests = new Vector();
+        // Readers to read again after a pause, protected by itself
+        private final Vector resumes = new Vector();
+        // Readers stopped while processing the selected keys
+        private final Vector stopped = new Vector();
+        // Exit once no channel is registered
+        private volatile boolean closing = false;
+
+        private Worker( String name, LDAPThreadFactory factory)
+            throws IOException
+        {
+            selector = Selector.open();
+            thread = factory.newThread( this, name);
+            thread.start();
+            return;
+        }
+
+        /**
+         * Asks the selector thread to exit once no channel is registered.
+         */
+        /* package */
+        void close()
+        {
+            closing = true;
+            selector.wakeup();
+            return;
+        }
+
+        /**
+         * Queues a reader to be registered, or stopped if it already is.
+         */
+        /* package */
+        void request( Connection.ChannelReader reader)
+        {
+            requests.addElement( reader);
+            selector.wakeup();
+            return;
+        }
+
+        /**
+         * Queues a paused reader to be read again.
+         */
+        /* package */
+        void resume( Connection.ChannelReader reader)
+        {
+            resumes.addElement( reader);
+            selector.wakeup();
+            return;
+        }
+
+        public void run()
+        {
+            for(;;) {
+                try {
+                    selector.select();
+                } catch( IOException ioe) {
+                    if( Debug.LDAP_DEBUG) {
+                        Debug.trace( Debug.messages, thread.getName() +
+                            ": select failed " + ioe.toString());
+                    }
+                    continue;
+                }
+
+                while( ! requests.isEmpty()) {
+                    Connection.ChannelReader reader =
+                        (Connection.ChannelReader)requests.remove(0);
+                    SelectionKey key = reader.getKey();
+                    if( reader.isDone()) {
+                        continue;
+                    } else if( key == null) {
+                        if( ! reader.start( selector)) {
+                            stopped.addElement( reader);
+                        }
+                    } else {
+                        // Closing the channel may have cancelled the key
+                        key.cancel();
+                        stopped.addElement( reader);
+                    }
+                }
+
+                while( ! resumes.isEmpty()) {
+                    Connection.ChannelReader reader =
+                        (Connection.ChannelReader)resumes.remove(0);
+                    SelectionKey key = reader.getKey();
+                    if( (key == null) || ! key.isValid() || reader.isDone()) {
+                        continue;   // stopped meanwhile
+                    }
+                    if( ! reader.resumed()) {
+                        key.cancel();
+                        stopped.addElement( reader);
+                    }
+                }
+
+                Iterator keys = selector.selectedKeys().iterator();
+                while( keys.hasNext()) {
+                    SelectionKey key = (SelectionKey)keys.next();
+                    keys.remove();
+                    if( ! key.isValid()) {
+                        continue;
+                    }
+                    Connection.ChannelReader reader =
+                        (Connection.ChannelReader)key.attachment();
+                    if( ! reader.readable()) {
+                        key.cancel();
+                        stopped.addElement( reader);
+                    }
+                }
+
+                if( ! stopped.isEmpty()) {
+                    try {
+                        // Deregister the cancelled keys so the channels
+                        // can be put back in blocking mode
+                        selector.selectNow();
+                    } catch( IOException ioe) {
+                        ;
+                    }
+                    for( int i = 0; i < stopped.size(); i++) {
+                        ((Connection.ChannelReader)stopped.get(i)).stopped();
+                    }
+                    stopped.removeAllElements();
+                }
+
+                if( closing && requests.isEmpty() &&
+                    selector.keys().isEmpty()) {
+                    try {
+                        selector.close();
+                    } catch( IOException ioe) {
+                        ;
+                    }
+                    if( Debug.LDAP_DEBUG) {
+                        Debug.trace( Debug.messages, thread.getName() +
+                            ": pool closed, exiting");
+                    }
+                    return;
+                }
+            }
+        }
+    }
+}
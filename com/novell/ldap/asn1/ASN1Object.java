@@ -27,6 +27,13 @@ public abstract class ASN1Object implements Serializable {
 
     private ASN1Identifier id;
 
+    /*
+     * Length of the content octets of a constructed element, cached by
+     * LBEREncoder.getEncodedLength for the following single pass encoding.
+     */
+    /* package */
+    transient int contentLength = -1;
+
     public ASN1Object(ASN1Identifier id)
     {
         this.id = id;
@@ -215,6 +215,234 @@ public class LBEREncoder implements ASN1Encoder {
       return;
    }
 
+   /* Single pass encoding into an array
+    */
+
+   /**
+    * Encode an ASN1Object into a byte array of the exact encoded size.
+    *
+    * <p>The encoded lengths of all elements are first computed bottom up
+    * and cached on the constructed elements, then the whole object is
+    * written into a single array.  Unlike the stream encoders, constructed
+    * elements are not encoded into an intermediate stream and copied into
+    * their parent, so each octet is written only once.</p>
+    *
+    * @param obj The ASN1Object to encode.
+    *
+    * @return the LBER encoding of the object.
+    */
+   public final byte[] encodeToArray(ASN1Object obj)
+   {
+      byte[] ber = new byte[getEncodedLength(obj)];
+      int end = write(obj, ber, 0);
+      if(end != ber.length) {
+         // The object was modified between sizing and writing
+         throw new RuntimeException("LBEREncoder: encoded length " + end +
+               " does not match computed length " + ber.length);
+      }
+      return ber;
+   }
+
+   /**
+    * Returns the total encoded length of an ASN1Object (length of
+    * identifier + length of length + length of content).
+    *
+    * <p>The content lengths of constructed elements are cached on the
+    * elements and used by the next call to encodeToArray.</p>
+    *
+    * @param obj The ASN1Object to size.
+    */
+   public final int getEncodedLength(ASN1Object obj)
+   {
+      int len;
+      if(obj instanceof ASN1Choice) {
+         return getEncodedLength(((ASN1Choice)obj).choiceValue());
+      }
+      else if(obj instanceof ASN1Tagged) {
+         ASN1Tagged t = (ASN1Tagged)obj;
+         if(!t.isExplicit()) {
+            return getEncodedLength(t.taggedValue());
+         }
+         len = getEncodedLength(t.taggedValue());
+         t.contentLength = len;
+      }
+      else if(obj instanceof ASN1Structured) {
+         ASN1Structured c = (ASN1Structured)obj;
+         len = 0;
+         for(int i=0; i < c.size(); i++) {
+            len += getEncodedLength(c.get(i));
+         }
+         c.contentLength = len;
+      }
+      else if(obj instanceof ASN1OctetString) {
+         len = ((ASN1OctetString)obj).byteValue().length;
+      }
+      else if(obj instanceof ASN1Numeric) {
+         len = getNumericLength(((ASN1Numeric)obj).longValue());
+      }
+      else if(obj instanceof ASN1Boolean) {
+         len = 1;
+      }
+      else if(obj instanceof ASN1Null) {
+         len = 0;
+      }
+      else {
+         // Unknown ASN1Object type, it can only encode itself
+         return obj.getEncoding(this).length;
+      }
+      return getIdentifierLength(obj.getIdentifier()) + getLengthLength(len)
+            + len;
+   }
+
+   /*
+    * Writes the encoding of obj into ber at offset off, using the content
+    * lengths cached by getEncodedLength.  Returns the offset following the
+    * encoding.
+    */
+   private int write(ASN1Object obj, byte[] ber, int off)
+   {
+      if(obj instanceof ASN1Choice) {
+         return write(((ASN1Choice)obj).choiceValue(), ber, off);
+      }
+      else if(obj instanceof ASN1Tagged) {
+         ASN1Tagged t = (ASN1Tagged)obj;
+         if(t.isExplicit()) {
+            off = writeIdentifier(t.getIdentifier(), ber, off);
+            off = writeLength(t.contentLength, ber, off);
+         }
+         return write(t.taggedValue(), ber, off);
+      }
+      else if(obj instanceof ASN1Structured) {
+         ASN1Structured c = (ASN1Structured)obj;
+         off = writeIdentifier(c.getIdentifier(), ber, off);
+         off = writeLength(c.contentLength, ber, off);
+         for(int i=0; i < c.size(); i++) {
+            off = write(c.get(i), ber, off);
+         }
+         return off;
+      }
+      else if(obj instanceof ASN1OctetString) {
+         byte[] octets = ((ASN1OctetString)obj).byteValue();
+         off = writeIdentifier(obj.getIdentifier(), ber, off);
+         off = writeLength(octets.length, ber, off);
+         System.arraycopy(octets, 0, ber, off, octets.length);
+         return off + octets.length;
+      }
+      else if(obj instanceof ASN1Numeric) {
+         long value = ((ASN1Numeric)obj).longValue();
+         int len = getNumericLength(value);
+         off = writeIdentifier(obj.getIdentifier(), ber, off);
+         ber[off++] = (byte)len;
+         for(int i=len-1; i>=0; i--) {  // two's complement, big endian
+            ber[off++] = (byte)(value >> (i * 8));
+         }
+         return off;
+      }
+      else if(obj instanceof ASN1Boolean) {
+         off = writeIdentifier(obj.getIdentifier(), ber, off);
+         ber[off++] = 0x01;
+         ber[off++] = ((ASN1Boolean)obj).booleanValue() ? (byte)0xff : (byte)0x00;
+         return off;
+      }
+      else if(obj instanceof ASN1Null) {
+         off = writeIdentifier(obj.getIdentifier(), ber, off);
+         ber[off++] = 0x00;
+         return off;
+      }
+      byte[] encoding = obj.getEncoding(this);
+      System.arraycopy(encoding, 0, ber, off, encoding.length);
+      return off + encoding.length;
+   }
+
+   /*
+    * Writes an identifier into ber at offset off, see encode(ASN1Identifier).
+    */
+   private int writeIdentifier(ASN1Identifier id, byte[] ber, int off)
+   {
+      int t = id.getTag();
+      byte ccf = (byte) ((id.getASN1Class() << 6) |
+                         (id.getConstructed() ? 0x20 : 0));
+      if(t < 30) {
+         ber[off++] = (byte)(ccf | t);
+      }
+      else {
+         ber[off++] = (byte)(ccf | 0x1F);
+         int n = getIdentifierLength(id) - 1;
+         for(int i=n-1; i>0; i--) {
+            ber[off++] = (byte)(((t >> (i * 7)) & 0x7F) | 0x80);
+         }
+         ber[off++] = (byte)(t & 0x7F);
+      }
+      return off;
+   }
+
+   /*
+    * Writes a definite length into ber at offset off, see encodeLength.
+    */
+   private int writeLength(int length, byte[] ber, int off)
+   {
+      if(length < 0x80) {
+         ber[off++] = (byte)length;
+      }
+      else {
+         int n = getLengthLength(length) - 1;
+         ber[off++] = (byte)(0x80 | n);
+         for(int i=n-1; i>=0; i--) {
+            ber[off++] = (byte)(length >> (i * 8));
+         }
+      }
+      return off;
+   }
+
+   /*
+    * Returns the number of octets used to encode an identifier.
+    */
+   private static int getIdentifierLength(ASN1Identifier id)
+   {
+      int t = id.getTag();
+      if(t < 30) {
+         return 1;
+      }
+      int n = 1;
+      for(; t != 0; t >>= 7) {
+         n++;
+      }
+      return (n == 1) ? 2 : n;
+   }
+
+   /*
+    * Returns the number of octets used to encode a definite length.
+    */
+   private static int getLengthLength(int length)
+   {
+      if(length < 0x80) {
+         return 1;
+      }
+      int n = 1;
+      for(; length != 0; length >>= 8) {
+         n++;
+      }
+      return n;
+   }
+
+   /*
+    * Returns the number of content octets of a numeric value, using the
+    * same two's complement representation as encode(ASN1Numeric).
+    */
+   private static int getNumericLength(long value)
+   {
+      long endValue = (value < 0) ? -1 : 0;
+      long endSign = endValue & 0x80;
+      int len = 0;
+      byte last = 0;
+      while(len == 0 || value != endValue || (last & 0x80) != endSign) {
+         last = (byte)(value & 0xFF);
+         value >>= 8;
+         len++;
+      }
+      return len;
+   }
+
    /* Encoders for ASN.1 useful types
     */
    /* Encoder for ASN.1 Identifier
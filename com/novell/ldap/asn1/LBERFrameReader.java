@@ -0,0 +1,416 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999, 2000, 2001 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.asn1;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * This class reads complete LBER encoded elements (frames) from an
+ * InputStream into a reusable buffer, so that they can be decoded from
+ * memory.
+ *
+ * <p>The identifier and the definite length of the outer element are
+ * parsed from the buffer and the content octets are read from the
+ * underlying stream with bulk reads until the whole element is available.
+ * The InputStream returned by {@link #readFrame} reads the content
+ * of the current element directly from the buffer, so a decoder working on
+ * it never touches the underlying stream one byte at a time.</p>
+ *
+ * <p>The buffer is reused by the next call to readFrame, which invalidates
+ * the content of the previous frame.  ASN1Objects decoded from a frame copy
+ * their values and remain valid.</p>
+ *
+ * <p>A frame reader constructed without a stream works in non-blocking
+ * mode: the owner feeds it with {@link #read(ReadableByteChannel)} and
+ * takes the elements completed so far with {@link #nextFrame}.</p>
+ *
+ * <p>This class is not thread safe, it is meant to be owned by the single
+ * thread reading a connection.</p>
+ */
+public class LBERFrameReader
+{
+    /**
+     * The initial size of the frame buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * The default maximum length of the content of an element, 64MB.
+     */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    /*
+     * A buffer grown beyond this size to hold a large frame is released
+     * once the data it holds has been consumed.
+     */
+    private static final int MAX_RETAINED_SIZE = 256 * 1024;
+
+    private InputStream in;
+    private byte[] buf;
+    private int initialSize;
+    private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private int pos = 0;    // index of the first unconsumed byte in buf
+    private int count = 0;  // index after the last valid byte in buf
+
+    private ASN1Identifier id = null;
+    private int length = 0;
+    private FrameInputStream frame = new FrameInputStream();
+    private ByteBuffer wrapped = null; // wraps buf for channel reads
+
+    /**
+     * Constructs a non-blocking frame reader with a buffer of the default
+     * size.  Data is added to the buffer by read(ReadableByteChannel).
+     */
+    public LBERFrameReader()
+    {
+        this(null, DEFAULT_BUFFER_SIZE);
+        return;
+    }
+
+    /**
+     * Constructs a frame reader with a buffer of the default size.
+     *
+     * @param in The stream the encoded elements are read from.
+     */
+    public LBERFrameReader(InputStream in)
+    {
+        this(in, DEFAULT_BUFFER_SIZE);
+        return;
+    }
+
+    /**
+     * Constructs a frame reader.
+     *
+     * @param in The stream the encoded elements are read from.
+     *
+     * @param size The initial size of the frame buffer. The buffer grows
+     * as needed to hold larger frames.
+     */
+    public LBERFrameReader(InputStream in, int size)
+    {
+        this.in = in;
+        this.initialSize = (size > 0) ? size : DEFAULT_BUFFER_SIZE;
+        this.buf = new byte[initialSize];
+        return;
+    }
+
+    /**
+     * Returns the maximum length of the content of an element.
+     *
+     * @return the maximum length in octets.
+     *
+     * @see #setMaxFrameSize(int)
+     */
+    public final int getMaxFrameSize()
+    {
+        return maxFrameSize;
+    }
+
+    /**
+     * Sets the maximum length of the content of an element.  An element
+     * announcing a longer length is rejected with an IOException before
+     * any buffer is allocated for it.
+     *
+     * @param size The maximum length in octets, greater than zero.
+     */
+    public final void setMaxFrameSize(int size)
+    {
+        if( size <= 0) {
+            throw new IllegalArgumentException(
+                "LBER: FRAME: maximum frame size must be positive: " + size);
+        }
+        maxFrameSize = size;
+        return;
+    }
+
+    /**
+     * Reads the next complete element from the stream.
+     *
+     * <p>Blocks until the identifier, the length and all content octets
+     * of the element have been read.</p>
+     *
+     * @return a stream positioned at the first content octet of the
+     * element, and holding exactly {@link #getLength} octets.
+     *
+     * @exception EOFException if the stream ends before the element is
+     * complete.
+     *
+     * @exception IOException if the element uses the indefinite length form,
+     * which LBER does not allow, if its length exceeds the maximum frame
+     * size, or if the underlying stream fails.
+     */
+    public final InputStream readFrame()
+            throws IOException
+    {
+        return parseFrame(true);
+    }
+
+    /**
+     * Returns the next element if it is complete in the buffer, without
+     * reading from the underlying stream or channel.
+     *
+     * @return a stream positioned at the first content octet of the
+     * element, and holding exactly {@link #getLength} octets, or null if
+     * more data must be read to complete the element.
+     *
+     * @exception IOException if the element uses the indefinite length form,
+     * which LBER does not allow, or if its length exceeds the maximum
+     * frame size.
+     */
+    public final InputStream nextFrame()
+            throws IOException
+    {
+        return parseFrame(false);
+    }
+
+    /**
+     * Reads the data available on a non-blocking channel into the buffer.
+     *
+     * @param channel The channel to read from.
+     *
+     * @return the number of bytes read, possibly zero, or -1 at the end of
+     * the stream.
+     *
+     * @exception IOException if the channel fails.
+     */
+    public final int read(ReadableByteChannel channel)
+            throws IOException
+    {
+        if( pos == count) {
+            pos = count = 0;
+            if( buf.length > MAX_RETAINED_SIZE) {
+                buf = new byte[initialSize];
+            }
+        }
+        if( count == buf.length) {
+            // Make room, nextFrame grows the buffer to fit a whole frame
+            // once its length is known
+            compact((pos > 0) ? buf.length : buf.length * 2);
+        }
+        if( (wrapped == null) || (wrapped.array() != buf)) {
+            wrapped = ByteBuffer.wrap(buf);
+        }
+        wrapped.limit(buf.length);
+        wrapped.position(count);
+        int r = channel.read(wrapped);
+        if( r > 0) {
+            count += r;
+        }
+        return r;
+    }
+
+    /*
+     * Parses the element at the start of the unconsumed data.  Returns null
+     * if the element is incomplete and block is false.  Nothing is consumed
+     * until the element is complete.
+     */
+    private InputStream parseFrame(boolean block)
+            throws IOException
+    {
+        if( pos == count) {
+            pos = count = 0;
+            if( buf.length > MAX_RETAINED_SIZE) {
+                buf = new byte[initialSize];
+            }
+        }
+
+        // Identifier octets
+        int off = 0;
+        if( ! ensure(off + 1, block)) {
+            return null;
+        }
+        int r = buf[pos + off++] & 0xFF;
+        int tagClass = r >> 6;
+        boolean constructed = (r & 0x20) != 0;
+        int tag = r & 0x1F;
+        if(tag == 0x1F) { // multiple octet identifier
+            tag = 0;
+            do {
+                if( ! ensure(off + 1, block)) {
+                    return null;
+                }
+                r = buf[pos + off++] & 0xFF;
+                tag = (tag << 7) + (r & 0x7F);
+            } while((r & 0x80) != 0);
+        }
+        id = new ASN1Identifier(tagClass, constructed, tag);
+
+        // Length octets
+        if( ! ensure(off + 1, block)) {
+            return null;
+        }
+        r = buf[pos + off++] & 0xFF;
+        if(r == 0x80) {
+            throw new IOException("LBER: FRAME: indefinite length not allowed");
+        } else if(r < 0x80) {
+            length = r;
+        } else {
+            int n = r & 0x7F;
+            if(n > 4) {
+                throw new IOException("LBER: FRAME: length too large");
+            }
+            length = 0;
+            for(; n > 0; n--) {
+                if( ! ensure(off + 1, block)) {
+                    return null;
+                }
+                length = (length << 8) + (buf[pos + off++] & 0xFF);
+            }
+            if(length < 0) {
+                throw new IOException("LBER: FRAME: length too large");
+            }
+        }
+        if( length > maxFrameSize) {
+            throw new IOException("LBER: FRAME: length " + length +
+                " exceeds the maximum frame size of " + maxFrameSize);
+        }
+        // Checked before off + length is computed, which could overflow
+        if( length > Integer.MAX_VALUE - off) {
+            throw new IOException("LBER: FRAME: length too large");
+        }
+
+        // Content octets, ensure may move the data so compute the start after
+        if( ! ensure(off + length, block)) {
+            return null;
+        }
+        int start = pos + off;
+        pos = start + length;
+        frame.reset(buf, start, length);
+        return frame;
+    }
+
+    /**
+     * Returns the identifier of the element last read by readFrame.
+     */
+    public final ASN1Identifier getIdentifier()
+    {
+        return id;
+    }
+
+    /**
+     * Returns the length of the content of the element last read by
+     * readFrame.
+     */
+    public final int getLength()
+    {
+        return length;
+    }
+
+    /*
+     * Makes sure that at least n unconsumed bytes are in the buffer,
+     * compacting or growing the buffer as needed.  When block is true,
+     * reads as much data as the underlying stream has available so
+     * subsequent frames can be served from memory.  When block is false,
+     * only makes room for the data and returns false if it is not there.
+     */
+    private boolean ensure(int n, boolean block)
+            throws IOException
+    {
+        if( count - pos >= n) {
+            return true;
+        }
+        if( pos + n > buf.length) {
+            compact(n);
+        }
+        if( ! block) {
+            return false;
+        }
+        while( count - pos < n) {
+            int r = in.read( buf, count, buf.length - count);
+            if( r < 0) {
+                throw new EOFException("LBER: FRAME: decode error: EOF");
+            }
+            count += r;
+        }
+        return true;
+    }
+
+    /*
+     * Moves the unconsumed bytes to the start of the buffer, into a new
+     * buffer if the current one cannot hold n bytes.
+     */
+    private void compact(int n)
+    {
+        int avail = count - pos;
+        byte[] dest = buf;
+        if( n > buf.length) {
+            int size = buf.length * 2;
+            dest = new byte[(size > n) ? size : n]; // size may overflow
+        }
+        System.arraycopy( buf, pos, dest, 0, avail);
+        buf = dest;
+        pos = 0;
+        count = avail;
+        return;
+    }
+
+    /*
+     * An unsynchronized stream over a slice of the frame buffer.
+     */
+    private static final class FrameInputStream extends InputStream
+    {
+        private byte[] data;
+        private int next;
+        private int end;
+
+        private void reset(byte[] data, int offset, int len)
+        {
+            this.data = data;
+            this.next = offset;
+            this.end = offset + len;
+            return;
+        }
+
+        public int read()
+        {
+            return (next < end) ? (data[next++] & 0xFF) : -1;
+        }
+
+        public int read(byte[] b, int off, int len)
+        {
+            if( next >= end) {
+                return (len == 0) ? 0 : -1;
+            }
+            if( len > end - next) {
+                len = end - next;
+            }
+            System.arraycopy( data, next, b, off, len);
+            next += len;
+            return len;
+        }
+
+        public long skip(long n)
+        {
+            if( n > end - next) {
+                n = end - next;
+            }
+            if( n < 0) {
+                return 0;
+            }
+            next += (int)n;
+            return n;
+        }
+
+        public int available()
+        {
+            return end - next;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999, 2000, 2001 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.client;
+
+import com.novell.ldap.LDAPThreadFactory;
+
+/**
+ * A hashed timer wheel that times any number of requests with a single
+ * thread.
+ *
+ * <p>Timers are kept in a ring of buckets, each bucket holding the timers
+ * that expire in one tick of the wheel.  The wheel thread advances one
+ * bucket per tick and expires the timers whose deadline has passed, so
+ * scheduling and cancelling a timer take constant time whatever the number
+ * of pending timers.  Timers expire up to one tick late.</p>
+ *
+ * <p>Time is read from the system clock.  If the clock is set back, the
+ * wheel is rebased on the new time, so the pending timers expire after
+ * the time they still had to run, not once the clock has caught up.  If
+ * the clock is set forward, that cannot be told apart from the wheel
+ * thread being late, and the timers whose deadline was passed expire at
+ * once.</p>
+ *
+ * <p>Expired tasks are run on their own thread, never on the wheel
+ * thread, so a task that blocks, for instance while writing an abandon
+ * request, cannot delay the expiration of other timers.  Only timers that
+ * actually expire cost a thread, created by the LDAPThreadFactory given
+ * when the task was scheduled.</p>
+ *
+ * <p>All LDAP requests share the wheel returned by {@link #getShared}.</p>
+ */
+public class TimerWheel implements Runnable
+{
+    /**
+     * The tick of the shared wheel in milliseconds.
+     */
+    public static final int DEFAULT_TICK = 10;
+
+    /**
+     * The number of buckets of the shared wheel.
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static TimerWheel shared = null;
+    private static Object sharedLock = new Object();
+
+    private final long tickMillis;
+    private final Timer[] wheel;     // bucket list heads
+    private final int mask;
+    private long startTime;          // time of tick 0, rebased if set back
+    private final String name;
+    private long tick = 0;           // next tick to process
+    private Thread worker = null;
+
+    // Statistics
+    private int pending = 0;
+    private long scheduled = 0;
+    private long expired = 0;
+    private long cancelled = 0;
+
+    /**
+     * Returns the timer wheel shared by all connections in this JVM,
+     * creating it if needed.
+     *
+     * @return the shared timer wheel.
+     */
+    public static TimerWheel getShared()
+    {
+        synchronized( sharedLock) {
+            if( shared == null) {
+                shared = new TimerWheel( DEFAULT_TICK, DEFAULT_WHEEL_SIZE,
+                                         "LDAP TimerWheel");
+            }
+            return shared;
+        }
+    }
+
+    /**
+     * Constructs a timer wheel.  The wheel thread is started when the first
+     * timer is scheduled.
+     *
+     * @param tickMillis the duration of a tick in milliseconds.
+     *<br><br>
+     * @param wheelSize the number of buckets, rounded up to a power of 2.
+     *<br><br>
+     * @param name the name of the wheel thread.
+     */
+    public TimerWheel( int tickMillis, int wheelSize, String name)
+    {
+        int size = 1;
+        while( size < wheelSize) {
+            size <<= 1;
+        }
+        this.tickMillis = (tickMillis > 0) ? tickMillis : DEFAULT_TICK;
+        this.wheel = new Timer[size];
+        this.mask = size - 1;
+        this.name = name;
+        this.startTime = currentTimeMillis();
+        return;
+    }
+
+    /**
+     * Schedules a task to run once the delay has elapsed.
+     *
+     * @param task the task to run.
+     *<br><br>
+     * @param delay the delay in milliseconds.
+     *
+     * @return the timer, which can be used to cancel the task.
+     */
+    public Timer schedule( Runnable task, long delay)
+    {
+        return schedule( task, delay, null);
+    }
+
+    /**
+     * Schedules a task to run once the delay has elapsed.
+     *
+     * @param task the task to run.
+     *<br><br>
+     * @param delay the delay in milliseconds.
+     *<br><br>
+     * @param factory creates the thread running the task, or null to run
+     * it on a daemon platform thread.
+     *
+     * @return the timer, which can be used to cancel the task.
+     */
+    public Timer schedule( Runnable task, long delay, LDAPThreadFactory factory)
+    {
+        Timer timer = new Timer( this, task, factory);
+        synchronized( this) {
+            long deadline = elapsed() + delay;
+            // Round up so that the task never runs early
+            timer.deadlineTick = Math.max( (deadline + tickMillis - 1) /
+                                           tickMillis, tick);
+            link( timer, (int)(timer.deadlineTick & mask));
+            pending++;
+            scheduled++;
+            if( worker == null) {
+                worker = new Thread( this, name);
+                worker.setDaemon(true); // If the last thread running, allow exit.
+                worker.start();
+            } else if( pending == 1) {
+                notify();   // Wake the idle wheel thread
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Returns the number of timers scheduled and not yet expired or
+     * cancelled.
+     */
+    public synchronized int getPendingCount()
+    {
+        return pending;
+    }
+
+    /**
+     * Returns the total number of timers scheduled on this wheel.
+     */
+    public synchronized long getScheduledCount()
+    {
+        return scheduled;
+    }
+
+    /**
+     * Returns the total number of timers that expired.
+     */
+    public synchronized long getExpiredCount()
+    {
+        return expired;
+    }
+
+    /**
+     * Returns the total number of timers cancelled before they expired.
+     */
+    public synchronized long getCancelledCount()
+    {
+        return cancelled;
+    }
+
+    /**
+     * The wheel thread.  Advances the wheel once per tick and hands the
+     * expired timers to their own threads.
+     */
+    public final void run()
+    {
+        for(;;) {
+            Timer expiredList = null;
+            synchronized( this) {
+                try {
+                    if( pending == 0) {
+                        wait();
+                        continue;
+                    }
+                    long now = elapsed();
+                    long nowTick = now / tickMillis;
+                    if( nowTick < tick) {
+                        // Wait for the next tick
+                        wait( Math.max( 1, Math.min( tickMillis,
+                                        tick * tickMillis - now)));
+                        continue;
+                    }
+                    // Visit each bucket at most once, even if the clock jumped
+                    long buckets = Math.min( nowTick - tick + 1, wheel.length);
+                    for( long t = tick; t < tick + buckets; t++) {
+                        int bucket = (int)(t & mask);
+                        Timer timer = wheel[bucket];
+                        while( timer != null) {
+                            Timer next = timer.next;
+                            if( timer.deadlineTick <= nowTick) {
+                                unlink( timer, bucket);
+                                timer.state = Timer.EXPIRED;
+                                timer.next = expiredList;
+                                expiredList = timer;
+                                pending--;
+                                expired++;
+                            }
+                            timer = next;
+                        }
+                    }
+                    tick = nowTick + 1;
+                } catch( InterruptedException ie) {
+                    continue;
+                }
+            }
+            while( expiredList != null) {
+                Timer timer = expiredList;
+                expiredList = timer.next;
+                timer.next = null;
+                Thread t;
+                if( timer.factory != null) {
+                    t = timer.factory.newThread( timer.task, name + " task");
+                } else {
+                    t = new Thread( timer.task, name + " task");
+                    t.setDaemon(true); // If the last thread running, allow exit.
+                }
+                t.start();
+            }
+        }
+    }
+
+    /*
+     * Returns the time elapsed since tick 0.  If the clock was set back
+     * before the last tick processed, the start time is moved back so that
+     * the clock reads the last tick processed again: the ticks, hence the
+     * buckets of the timers, keep their meaning.  Called with the wheel lock
+     * held.
+     */
+    private long elapsed()
+    {
+        long now = currentTimeMillis();
+        long last = Math.max( tick - 1, 0) * tickMillis;
+        if( now - startTime < last) {
+            startTime = now - last;
+        }
+        return now - startTime;
+    }
+
+    /*
+     * Returns the current time, overridden by the tests.
+     */
+    /* package */
+    long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    /*
+     * Links a timer at the head of a bucket.  Called with the wheel lock held.
+     */
+    private void link( Timer timer, int bucket)
+    {
+        timer.prev = null;
+        timer.next = wheel[bucket];
+        if( wheel[bucket] != null) {
+            wheel[bucket].prev = timer;
+        }
+        wheel[bucket] = timer;
+        return;
+    }
+
+    /*
+     * Unlinks a timer from its bucket.  Called with the wheel lock held.
+     */
+    private void unlink( Timer timer, int bucket)
+    {
+        if( timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else {
+            wheel[bucket] = timer.next;
+        }
+        if( timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = null;
+        timer.next = null;
+        return;
+    }
+
+    /*
+     * Cancels a timer if it is still pending.
+     */
+    private synchronized boolean cancel( Timer timer)
+    {
+        if( timer.state != Timer.PENDING) {
+            return false;
+        }
+        unlink( timer, (int)(timer.deadlineTick & mask));
+        timer.state = Timer.CANCELLED;
+        pending--;
+        cancelled++;
+        return true;
+    }
+
+    /**
+     * A task scheduled on a TimerWheel.
+     */
+    public static final class Timer
+    {
+        private static final int PENDING = 0;
+        private static final int EXPIRED = 1;
+        private static final int CANCELLED = 2;
+
+        private final TimerWheel wheel;
+        private final Runnable task;
+        private final LDAPThreadFactory factory;
+        private long deadlineTick;
+        private int state = PENDING;
+        private Timer next = null;
+        private Timer prev = null;
+
+        private Timer( TimerWheel wheel, Runnable task,
+                       LDAPThreadFactory factory)
+        {
+            this.wheel = wheel;
+            this.task = task;
+            this.factory = factory;
+            return;
+        }
+
+        /**
+         * Cancels the timer.
+         *
+         * @return true if the timer was pending, false if it already
+         * expired or was already cancelled.
+         */
+        public boolean cancel()
+        {
+            return wheel.cancel( this);
+        }
+
+        /**
+         * Returns true if the timer expired and its task was started.
+         */
+        public boolean isExpired()
+        {
+            synchronized( wheel) {
+                return state == EXPIRED;
+            }
+        }
+    }
+}
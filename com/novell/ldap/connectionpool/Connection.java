@@ -39,6 +39,9 @@ import com.novell.ldap.resources.ExceptionMessages;
     // This flag allows bind to be called from the package but not outside
     // of the package.
     private boolean allowPoolBind = false;
+
+    // The connections sharing the same physical connection as this one
+    private SharedConnections sharedConns = null;
     
     /**
      * Establish an LDAPConnection supplying an appropriate socket factory.
@@ -83,6 +86,26 @@ import com.novell.ldap.resources.ExceptionMessages;
         return inUse;
     }
     
+    /**
+     * Returns the connections sharing the physical connection of this one.
+     *
+     * @return the SharedConnections this connection belongs to.
+     */
+    SharedConnections getSharedConnections()
+    {
+        return sharedConns;
+    }
+
+    /**
+     * Sets the connections sharing the physical connection of this one.
+     *
+     * @param sharedConns the SharedConnections this connection belongs to.
+     */
+    void setSharedConnections(SharedConnections sharedConns)
+    {
+        this.sharedConns = sharedConns;
+    }
+
     /**
      * Call the super clone so that this will clone properly.
      *
@@ -0,0 +1,81 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.connectionpool;
+
+import java.util.EventListener;
+
+/**
+ * Receives the events of a connection pool, for monitoring.
+ *
+ * <p>Listeners are registered with
+ * {@link PoolManager#addPoolListener(PoolListener) PoolManager.addPoolListener}.
+ * They are called on the thread that caused the event, without any pool
+ * lock held, and must return quickly.</p>
+ *
+ * @see PoolManager#getStatistics()
+ */
+public interface PoolListener extends EventListener
+{
+    /**
+     * Called when a connection is borrowed from the pool.
+     *
+     * @param pool The pool the connection was borrowed from.
+     * @param waitTime Time spent waiting for a physical connection, in
+     *             milliseconds.  Does not include the time to open or bind
+     *             the physical connection.
+     */
+    void connectionBorrowed(PoolManager pool, long waitTime);
+
+    /**
+     * Called when no connection became available before the borrow
+     * timeout.
+     *
+     * @param pool The pool the connection was requested from.
+     * @param waitTime Time spent waiting, in milliseconds.
+     */
+    void borrowTimedOut(PoolManager pool, long waitTime);
+
+    /**
+     * Called when a physical connection is opened.
+     *
+     * @param pool The pool that opened the connection.
+     */
+    void connectionOpened(PoolManager pool);
+
+    /**
+     * Called when an open physical connection is bound with a different
+     * DN or password.
+     *
+     * @param pool The pool owning the connection.
+     * @param bindTime Time the bind took, in milliseconds.
+     * @param success true if the bind succeeded.
+     */
+    void connectionRebound(PoolManager pool, long bindTime, boolean success);
+
+    /**
+     * Called when a physical connection is closed.
+     *
+     * @param pool The pool that closed the connection.
+     */
+    void connectionClosed(PoolManager pool);
+
+    /**
+     * Called when a physical connection failed validation and is closed.
+     *
+     * @param pool The pool owning the connection.
+     */
+    void validationFailed(PoolManager pool);
+}
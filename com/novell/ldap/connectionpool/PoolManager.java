@@ -14,10 +14,17 @@
  ******************************************************************************/
 package com.novell.ldap.connectionpool;
 
+import java.lang.ref.WeakReference;
+import java.util.Vector;
+
 import com.novell.ldap.LDAPConnection;
 import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPLocalException;
+import com.novell.ldap.LDAPSearchConstraints;
+import com.novell.ldap.LDAPSearchResults;
 import com.novell.ldap.LDAPSocketFactory;
 import com.novell.ldap.LDAPTLSSocketFactory;
+import com.novell.ldap.resources.ExceptionMessages;
 
 /**
  * Manages connections to an LDAP Server.
@@ -27,7 +34,7 @@ import com.novell.ldap.LDAPTLSSocketFactory;
  * server (parameter <code>maxConns</code>) and a finite number of
  * LDAPConnection objects sharing a physical connection
  * (parameter <code>maxSharedConns</code>),
- * see the {@link #PoolManager(String, int, int, int, com.novell.ldap.LDAPSocketFactory) PoolManager}
+ * see the {@link #PoolManager(String, int, int, int, int, com.novell.ldap.LDAPSocketFactory) PoolManager}
  * constructor.</p> 
  * <p>A physical connection, and its shared LDAPConnection objects are associated
  * with an LDAP DN and password (DN/PW).
@@ -35,25 +42,91 @@ import com.novell.ldap.LDAPTLSSocketFactory;
  * searches for a physical connection associated with a given DN/PW
  * and returns an available LDAPConnection object associated with
  * that DN/PW.
- * If none are available it searches for
- * an unused physical connection, binds using the given DN/PW,
- * and returns an LDAPConnection object.
- * If no physical connection is available then it waits.
+ * If none are available it opens a new physical connection, or when
+ * <code>maxConns</code> physical connections are open it rebinds the
+ * least recently used unused one, using the given DN/PW, and returns an
+ * LDAPConnection object.
+ * If no physical connection is available then it waits, up to the
+ * borrow timeout.
  * Once an LDAPConnection object is no longer needed the 
  * {@link #makeConnectionAvailable(LDAPConnection) makeConnectionAvailable}
  * function must be called to make the LDAPConnection available to other threads.</p>
+ * <p>Physical connections are indexed by a hash of their DN and a digest
+ * of their password, in stripes with their own locks, so that borrowing
+ * and releasing connections for an identity with an open physical
+ * connection neither scans the pool nor takes a pool-wide lock.</p>
+ * <p>Physical connections are opened when needed.  A maintenance thread
+ * keeps at least <code>minConns</code> of them open, closes the ones
+ * unused for longer than the idle timeout, and validates unused ones
+ * with a search of the root DSE.  {@link #close() close} closes the pool
+ * and its connections.</p>
+ * <p>The pool counts borrows, waits, rebinds and validations.  The counters
+ * are read with {@link #getStatistics() getStatistics} or through the
+ * {@link PoolManagerMBean} interface, and {@link PoolListener}s are told
+ * of each event.</p>
  */
-public class PoolManager
+public class PoolManager implements PoolManagerMBean
 {
-    /** Contains all of the sharedConns that are in use */
-    private ListOfSharedConnections inUseListOfSharedConnections;
-    /** Contains all of the available sharedConns */
-    private ListOfSharedConnections availableListOfSharedConnections;
-    /** Set by finalize. This tells any waiting thread to shutdown.*/
-    private boolean shuttingDown;
+    /** Default idle timeout, in milliseconds */
+    public static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000;
+    /** Default validation interval, in milliseconds */
+    public static final long DEFAULT_VALIDATION_INTERVAL = 60 * 1000;
+    /** Time limit of the root DSE search validating a connection */
+    private static final int VALIDATION_TIME_LIMIT = 10 * 1000;
+    /** Longest time the maintenance thread sleeps */
+    private static final long MAX_MAINTENANCE_INTERVAL = 30 * 1000;
+    /** Upper bounds of the borrow wait time buckets, in milliseconds */
+    private static final long[] BORROW_WAIT_BUCKETS =
+        { 0, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000 };
+
+    /** Physical connections bound to each DN/PW */
+    private SharedConnectionIndex index = new SharedConnectionIndex();
+    /** Protects the pool state below, waiting threads wait on it */
+    private Object poolLock = new Object();
+    /** Unused physical connections, least recently used first.  May
+     *  contain physical connections borrowed since they were added */
+    private SharedConnections lruHead = null;
+    private SharedConnections lruTail = null;
+    /** Number of threads waiting for a connection */
+    private volatile int waiters = 0;
+    /** Set by close. This tells any waiting thread to shutdown.*/
+    private boolean shuttingDown = false;
+
+    private String host;
+    private int port;
+    private LDAPSocketFactory factory;
+    private int minConns;
+    private int maxConns;
+    private int maxSharedConns;
+    /** Number of physical connections open or being opened */
+    private int physicalConns = 0;
+
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private long validationInterval = DEFAULT_VALIDATION_INTERVAL;
+    private long borrowTimeout = 0;
+    private Maintenance maintenance = null;
+
+    /** Registered listeners, replaced when one is added or removed */
+    private volatile PoolListener[] listeners = new PoolListener[0];
+
+    // Counters, protected by poolLock.  Borrows that did not take the pool
+    // lock are counted by the index, and did not wait.
+    private long waitedBorrows = 0;
+    private long[] borrowWaitHistogram = new long[BORROW_WAIT_BUCKETS.length + 1];
+    private long totalBorrowWaitTime = 0;
+    private long maxBorrowWaitTime = 0;
+    private long borrowTimeouts = 0;
+    private long opened = 0;
+    private long closed = 0;
+    private long rebinds = 0;
+    private long totalRebindTime = 0;
+    private long bindFailures = 0;
+    private long validations = 0;
+    private long validationFailures = 0;
 
     /**
-     * Initialize the connection pool.
+     * Initialize the connection pool, without a minimum number of
+     * physical connections.
      *
      * @param host - Host name associated with this connection pool 
      * (see {@link com.novell.ldap.LDAPConnection#connect(String, int) LDAPConnection.connect()}).
@@ -78,126 +151,282 @@ public class PoolManager
                           LDAPSocketFactory factory)
         throws LDAPException
     {
-        // Use the keystore file if it is there.
+        this(host, port, 0, maxConns, maxSharedConns, factory);
+    }
 
-        inUseListOfSharedConnections = new ListOfSharedConnections();
-        availableListOfSharedConnections = new ListOfSharedConnections();
-        // Set up the max connections and max shared connections
-        // ( original + clones) in availableConnection.
-        for (int i = 0; i < maxConns; i++)
+    /**
+     * Initialize the connection pool.  No connection is opened by the
+     * constructor, the maintenance thread opens <code>minConns</code>
+     * physical connections in the background.
+     *
+     * @param host - Host name associated with this connection pool 
+     * (see {@link com.novell.ldap.LDAPConnection#connect(String, int) LDAPConnection.connect()}).
+     * @param port - Port number for the host associated with this connection
+     *   pool.
+     * (see {@link com.novell.ldap.LDAPConnection#connect(String, int) LDAPConnection.connect()}).
+     * @param minConns - Minimum number of physical connections kept open
+     *             for this host.
+     * @param maxConns - Maximum number of physical connections allowed for
+     *             this host.
+     * @param maxSharedConns - Maximum number of shared connections per physical
+     *             connection.
+     * @param factory - A socket factory used to set an encrypted connection,
+     *           or null if none.  If the factory is an instance of
+     * {@link com.novell.ldap.LDAPTLSSocketFactory} then a startTLS is
+     * performed after the connection to the server is established.
+     *           <code>LDAPTLSSocketFactory</code>
+     * (see {@link com.novell.ldap.LDAPConnection#setSocketFactory(com.novell.ldap.LDAPSocketFactory) LDAPConnection.setSocketFactory()}).
+     */
+    public PoolManager(String host,
+                          int port,
+                          int minConns,
+                          int maxConns,
+                          int maxSharedConns,
+                          LDAPSocketFactory factory)
+        throws LDAPException
+    {
+        if( (maxConns < 1) || (maxSharedConns < 1) ||
+            (minConns < 0) || (minConns > maxConns)) {
+            throw new IllegalArgumentException(
+                "PoolManager: invalid connection limits");
+        }
+        this.host = host;
+        this.port = port;
+        this.minConns = minConns;
+        this.maxConns = maxConns;
+        this.maxSharedConns = maxSharedConns;
+        this.factory = factory;
+
+        maintenance = new Maintenance(this);
+        Thread t = new Thread(maintenance, "LDAP PoolManager");
+        t.setDaemon(true); // If the last thread running, allow exit.
+        t.start();
+    }
+
+    /**
+     * Sets the time after which an unused physical connection is closed,
+     * unless fewer than <code>minConns</code> physical connections would
+     * remain open.
+     *
+     * @param idleTimeout - Idle timeout in milliseconds, 0 to keep unused
+     *             connections open.
+     */
+    public void setIdleTimeout(long idleTimeout)
+    {
+        synchronized (poolLock)
         {
-            SharedConnections sharedConns = new SharedConnections(maxSharedConns);
-            // Create connection. Initialy anonymous
-            Connection conn = new Connection(factory);
-            // At this point all of the connections anonymous
-            try
-            {
-            conn.connect(host, port);
-            }
-            catch(LDAPException e)
-            {
-            	System.out.println("Error :  " + e.getResultCode());
-            }
-            if( factory instanceof LDAPTLSSocketFactory) {
-                conn.startTLS();
-            }
-            sharedConns.add(conn);
-            // Clone the connections to make all of the sharedConns.
-            for (int j = 1; j < maxSharedConns; j++)
-            {
-                Connection cloneConn = (Connection)conn.clone();
-                sharedConns.add(cloneConn);
-            }
-            availableListOfSharedConnections.add(i, sharedConns);
+            this.idleTimeout = idleTimeout;
+        }
+        // Apply the new setting now
+        maintenance.wakeup();
+    }
+
+    /**
+     * Sets how often unused physical connections are validated by a
+     * search of the root DSE.  Connections failing validation are closed.
+     *
+     * @param validationInterval - Validation interval in milliseconds,
+     *             0 to disable validation.
+     */
+    public void setValidationInterval(long validationInterval)
+    {
+        synchronized (poolLock)
+        {
+            this.validationInterval = validationInterval;
+        }
+        // Apply the new setting now
+        maintenance.wakeup();
+    }
+
+    /**
+     * Sets how long {@link #getBoundConnection(String, byte[])} waits for
+     * a connection to become available.
+     *
+     * @param borrowTimeout - Timeout in milliseconds, 0 to wait forever.
+     */
+    public void setBorrowTimeout(long borrowTimeout)
+    {
+        synchronized (poolLock)
+        {
+            this.borrowTimeout = borrowTimeout;
         }
-        shuttingDown = false;
     }
 
     /**
      * Get a bound connection.
      * <p>This returns a bound (bind) connection for the desired DN and
-     * password.</p>
+     * password, waiting up to the borrow timeout set with
+     * {@link #setBorrowTimeout(long) setBorrowTimeout}.</p>
      * @param DN  Authentication DN used for bind and key.
      * @param PW  Authentication password used for bind and key.
-     * @throws LDAPException if an LDAPConnection could not be bound.
+     * @throws LDAPException if an LDAPConnection could not be bound, if
+     * no connection became available in time, or if the pool is closed.
      */
     public LDAPConnection getBoundConnection(String DN, byte[] PW)
             throws LDAPException, InterruptedException
     {
+        long timeout;
+        synchronized (poolLock)
+        {
+            timeout = borrowTimeout;
+        }
+        return getBoundConnection(DN, PW, timeout);
+    }
 
-        Connection        conn        = null;
-        SharedConnections sharedConns = null;
-        boolean           needToBind  = false;
+    /**
+     * Get a bound connection.
+     * <p>This returns a bound (bind) connection for the desired DN and
+     * password.</p>
+     * @param DN  Authentication DN used for bind and key.
+     * @param PW  Authentication password used for bind and key.
+     * @param timeout  Longest time to wait for a connection to become
+     *                 available, in milliseconds, 0 to wait forever.
+     * @throws LDAPException if an LDAPConnection could not be bound, if
+     * no connection became available in time, or if the pool is closed.
+     */
+    public LDAPConnection getBoundConnection(String DN, byte[] PW, long timeout)
+            throws LDAPException, InterruptedException
+    {
+        SharedConnectionIndex.Key key = new SharedConnectionIndex.Key(DN, PW);
 
-        synchronized (inUseListOfSharedConnections)
+        // See if a physical connection bound to DN,PW has a connection
+        // available, only locking the index stripe of DN,PW.
+        Connection conn = index.borrow(key);
+        if(null != conn)
         {
-            // See if there is a connection available in the in use list of
-            // sharedConns, that are in use bound to DN,PW.
-            conn = inUseListOfSharedConnections.getAvailableConnection(DN, PW);
-            if(null != conn)
-            {
-                // Set this connection inuse.
-                conn.setInUse();
-                return conn;
-            }
+            fireConnectionBorrowed(0);
+            return conn;
         }
 
-        synchronized (availableListOfSharedConnections)
+        SharedConnections sharedConns = null;
+        boolean timedOut = false;
+        long start = System.currentTimeMillis();
+        long deadline = (timeout > 0) ? start + timeout : 0;
+        long waited;
+
+        synchronized (poolLock)
         {
-            // See if there are shared connections that are available
-            // bound to DN,PW.
-            sharedConns = availableListOfSharedConnections.getSharedConns(DN, PW);
-            if(null == sharedConns) // No we need to rebind an available
+            waiters++;
+            try
             {
-                // If there are no available sharedConns wait for one.
-                while(0 == availableListOfSharedConnections.size())
+                while(true)
                 {
+                    if(shuttingDown)
+                    {
+                        throw new LDAPLocalException(ExceptionMessages.POOL_CLOSED,
+                            LDAPException.CONNECT_ERROR);
+                    }
+                    // Check again now that releasing threads see us waiting
+                    conn = index.borrow(key);
+                    if(null != conn)
+                    {
+                        break;
+                    }
+                    // Open a new physical connection if allowed
+                    if(physicalConns < maxConns)
+                    {
+                        physicalConns++;
+                        break;
+                    }
+                    // Rebind the least recently used unused connection
+                    sharedConns = takeLeastRecentlyUsed();
+                    if(null != sharedConns)
+                    {
+                        break;
+                    }
                     // Wait for available Instances
-                    availableListOfSharedConnections.wait();
-                    // If we are shutting down return null
-                    if(shuttingDown) return null;
+                    if(0 == deadline)
+                    {
+                        poolLock.wait();
+                    }
+                    else
+                    {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if(remaining <= 0)
+                        {
+                            timedOut = true;
+                            break;
+                        }
+                        poolLock.wait(remaining);
+                    }
                 }
-                // Get connection from first available sharedConns
-                sharedConns = (SharedConnections)availableListOfSharedConnections.get(0);
-                needToBind = true;
             }
+            finally
+            {
+                waiters--;
+            }
+            waited = System.currentTimeMillis() - start;
+            if(timedOut)
+            {
+                borrowTimeouts++;
+            }
+            else
+            {
+                countBorrowWait(waited);
+            }
+        }
 
-            // Remove sharedConns from available.
-            availableListOfSharedConnections.remove(sharedConns);
-            // Get the first connection and mark it inuse
-            conn = (Connection)sharedConns.get(0);
-            // Set this connection inuse.
-            conn.setInUse();
+        if(timedOut)
+        {
+            PoolListener[] l = listeners;
+            for (int i = 0; i < l.length; i++)
+            {
+                l[i].borrowTimedOut(this, waited);
+            }
+            throw new LDAPLocalException(ExceptionMessages.POOL_TIMEOUT,
+                new Object[] { new Long(timeout) },
+                LDAPException.LDAP_TIMEOUT);
+        }
+        if(null != conn)
+        {
+            fireConnectionBorrowed(waited);
+            return conn;
         }
-        // Do we need to rebind? Bind will do a connect if needed
-        if(needToBind || !conn.isConnectionAlive())
+
+        boolean rebind = (null != sharedConns);
+        if(!rebind)
         {
+            // Open the new physical connection outside of the lock
             try
             {
-                conn.poolBind(LDAPConnection.LDAP_V3, DN, PW);
-                sharedConns.setDN(DN);
-                sharedConns.setPW(PW);
-
-            }catch (LDAPException e)
+                sharedConns = createSharedConnections();
+            }
+            catch (LDAPException e)
             {
-                // If we get and exception make the shared connection available
-                conn.clearInUse();
-                sharedConns.setDN(null);
-                sharedConns.setPW(null);
-                synchronized (availableListOfSharedConnections)
+                synchronized (poolLock)
                 {
-                    availableListOfSharedConnections.add(sharedConns);
+                    physicalConns--;
+                    poolLock.notifyAll();
                 }
                 throw e;
             }
-
         }
 
-        synchronized (inUseListOfSharedConnections)
+        // The reserved physical connection is only visible to this thread
+        conn = (Connection)sharedConns.get(0);
+        conn.setInUse();
+        if(!key.equals(sharedConns.key) || !conn.isConnected())
         {
-            // Move into inuse.
-            inUseListOfSharedConnections.add(sharedConns);
+            // Bind will do a connect if needed
+            long bindStart = System.currentTimeMillis();
+            try
+            {
+                conn.poolBind(LDAPConnection.LDAP_V3, DN, PW);
+                sharedConns.key = key;
+                countBind(rebind, System.currentTimeMillis() - bindStart, true);
+            }
+            catch (LDAPException e)
+            {
+                countBind(rebind, System.currentTimeMillis() - bindStart, false);
+                // The physical connection is now anonymous
+                conn.clearInUse();
+                sharedConns.key = new SharedConnectionIndex.Key(null, null);
+                release(sharedConns, conn.isConnected());
+                throw e;
+            }
         }
+        index.add(sharedConns);
+        fireConnectionBorrowed(waited);
         return conn;
     }
 
@@ -207,47 +436,282 @@ public class PoolManager
      */
     public void makeConnectionAvailable(LDAPConnection conn)
     {
-        SharedConnections sharedConns = null;
-
-        synchronized(inUseListOfSharedConnections)
+        SharedConnections sharedConns =
+            ((Connection)conn).getSharedConnections();
+        if(!index.release((Connection)conn))
         {
-            // Mark this connection available.
-            ((Connection)conn).clearInUse();
+            // Other connections sharing the physical connection in use
+            if(waiters > 0)
+            {
+                synchronized (poolLock)
+                {
+                    poolLock.notifyAll();
+                }
+            }
+            return;
+        }
 
-            sharedConns = inUseListOfSharedConnections.getSharedConns((Connection)conn);
-            if(sharedConns==null)
+        synchronized (poolLock)
+        {
+            if(!shuttingDown)
             {
-            	sharedConns = availableListOfSharedConnections.getSharedConns((Connection)conn);
-            }		
-            // If all connections in this instance are available move to
-            // from in use to available.
-            if(sharedConns.allConnectionsAvailable())
+                // Now the most recently used
+                sharedConns.lastUsed = System.currentTimeMillis();
+                unlinkLru(sharedConns);
+                linkLru(sharedConns);
+                // Notify anyone that might be waiting on this connection.
+                poolLock.notifyAll();
+                return;
+            }
+            if(!index.reserveIfIdle(sharedConns))
             {
-                inUseListOfSharedConnections.remove(sharedConns);
+                return;
             }
-            else
+            physicalConns--;
+        }
+        disconnect(sharedConns);
+        return;
+    }
+
+    /**
+     * Close the pool.
+     * <p>Tell all waiting threads that we are shutting down, stop the
+     * maintenance thread and close the unused connections.  Connections
+     * in use are closed when they are made available.</p>
+     */
+    public void close()
+    {
+        Vector closing = new Vector();
+        synchronized (poolLock)
+        {
+            if(shuttingDown)
+            {
+                return;
+            }
+            // Notify all waiting threads.
+            shuttingDown = true;
+            SharedConnections sharedConns;
+            while(null != (sharedConns = takeLeastRecentlyUsed()))
             {
-                // Do not add to available connection list.
-                sharedConns = null;
+                closing.add(sharedConns);
             }
+            physicalConns -= closing.size();
+            poolLock.notifyAll();
+        }
+        maintenance.wakeup();
+        for (int i = 0; i < closing.size(); i++)
+        {
+            disconnect((SharedConnections)closing.get(i));
         }
+    }
 
-        if(null != sharedConns)
+    /**
+     * Adds a listener told of the events of the pool.
+     *
+     * @param listener The listener to add.
+     */
+    public void addPoolListener(PoolListener listener)
+    {
+        synchronized (poolLock)
+        {
+            PoolListener[] l = new PoolListener[listeners.length + 1];
+            System.arraycopy(listeners, 0, l, 0, listeners.length);
+            l[listeners.length] = listener;
+            listeners = l;
+        }
+    }
+
+    /**
+     * Removes a listener added with addPoolListener.
+     *
+     * @param listener The listener to remove.
+     */
+    public void removePoolListener(PoolListener listener)
+    {
+        synchronized (poolLock)
         {
-            synchronized(availableListOfSharedConnections)
+            for (int i = 0; i < listeners.length; i++)
             {
-                availableListOfSharedConnections.add(sharedConns);
-                // Notify anyone that might be waiting on this connection.
-                availableListOfSharedConnections.notify();
+                if(listeners[i] == listener)
+                {
+                    PoolListener[] l = new PoolListener[listeners.length - 1];
+                    System.arraycopy(listeners, 0, l, 0, i);
+                    System.arraycopy(listeners, i + 1, l, i, l.length - i);
+                    listeners = l;
+                    return;
+                }
             }
         }
-        return;
+    }
+
+    /**
+     * Returns a snapshot of the state and counters of the pool.
+     *
+     * @return the statistics of the pool.
+     */
+    public PoolStatistics getStatistics()
+    {
+        PoolStatistics stats = new PoolStatistics();
+        // Read the index first so that borrows counted by the index
+        // include the borrows that waited
+        int inUse = index.getInUseCount();
+        long borrowed = index.getBorrowedCount();
+        synchronized (poolLock)
+        {
+            stats.time = System.currentTimeMillis();
+            stats.physicalConnections = physicalConns;
+            stats.idlePhysicalConnections = countIdle();
+            stats.inUseConnections = inUse;
+            stats.availableConnections =
+                Math.max(0, (physicalConns * maxSharedConns) - inUse);
+            stats.waitingThreads = waiters;
+            stats.borrowCount = Math.max(borrowed, waitedBorrows);
+            stats.borrowTimeoutCount = borrowTimeouts;
+            stats.totalBorrowWaitTime = totalBorrowWaitTime;
+            stats.maxBorrowWaitTime = maxBorrowWaitTime;
+            stats.borrowWaitHistogram = (long[])borrowWaitHistogram.clone();
+            // The borrows that did not take the pool lock did not wait
+            stats.borrowWaitHistogram[0] += stats.borrowCount - waitedBorrows;
+            stats.openedCount = opened;
+            stats.closedCount = closed;
+            stats.rebindCount = rebinds;
+            stats.totalRebindTime = totalRebindTime;
+            stats.bindFailureCount = bindFailures;
+            stats.validationCount = validations;
+            stats.validationFailureCount = validationFailures;
+        }
+        return stats;
+    }
+
+    public int getPhysicalConnections()
+    {
+        synchronized (poolLock)
+        {
+            return physicalConns;
+        }
+    }
+
+    public int getIdlePhysicalConnections()
+    {
+        synchronized (poolLock)
+        {
+            return countIdle();
+        }
+    }
+
+    public int getInUseConnections()
+    {
+        return index.getInUseCount();
+    }
+
+    public int getAvailableConnections()
+    {
+        return getStatistics().getAvailableConnections();
+    }
+
+    public int getWaitingThreads()
+    {
+        return waiters;
+    }
+
+    public long getBorrowCount()
+    {
+        return getStatistics().getBorrowCount();
+    }
+
+    public long getBorrowTimeoutCount()
+    {
+        synchronized (poolLock)
+        {
+            return borrowTimeouts;
+        }
+    }
+
+    public long getTotalBorrowWaitTime()
+    {
+        synchronized (poolLock)
+        {
+            return totalBorrowWaitTime;
+        }
+    }
+
+    public long getMaxBorrowWaitTime()
+    {
+        synchronized (poolLock)
+        {
+            return maxBorrowWaitTime;
+        }
+    }
+
+    public long[] getBorrowWaitHistogram()
+    {
+        return getStatistics().getBorrowWaitHistogram();
+    }
+
+    public long[] getBorrowWaitBuckets()
+    {
+        return (long[])BORROW_WAIT_BUCKETS.clone();
+    }
+
+    public long getOpenedCount()
+    {
+        synchronized (poolLock)
+        {
+            return opened;
+        }
+    }
+
+    public long getClosedCount()
+    {
+        synchronized (poolLock)
+        {
+            return closed;
+        }
+    }
+
+    public long getRebindCount()
+    {
+        synchronized (poolLock)
+        {
+            return rebinds;
+        }
+    }
+
+    public long getTotalRebindTime()
+    {
+        synchronized (poolLock)
+        {
+            return totalRebindTime;
+        }
+    }
+
+    public long getBindFailureCount()
+    {
+        synchronized (poolLock)
+        {
+            return bindFailures;
+        }
+    }
+
+    public long getValidationCount()
+    {
+        synchronized (poolLock)
+        {
+            return validations;
+        }
+    }
+
+    public long getValidationFailureCount()
+    {
+        synchronized (poolLock)
+        {
+            return validationFailures;
+        }
     }
 
     /**
      * Free connections.
-     * <p> Tell all waiting threads that we are shutting down.
-     * Clean up the in use and available connections.</p>
+     * <p>Closes the pool if the application did not.</p>
      *
      * @throws Throwable when disconnect fails.
      */
@@ -255,12 +719,457 @@ public class PoolManager
             throws Throwable
 
     {
-        synchronized (availableListOfSharedConnections)
+        close();
+    }
+
+    /**
+     * Opens an anonymous physical connection and creates the connections
+     * sharing it.  The physical connection must have been counted in
+     * physicalConns.  The new SharedConnections is reserved.
+     */
+    private SharedConnections createSharedConnections()
+            throws LDAPException
+    {
+        SharedConnections sharedConns = new SharedConnections(maxSharedConns,
+            new SharedConnectionIndex.Key(null, null));
+        // Create connection. Initialy anonymous
+        Connection conn = new Connection(factory);
+        conn.connect(host, port);
+        try
         {
-            // Notify all waiting threads.
-            shuttingDown = true;
-            availableListOfSharedConnections.notifyAll();
+            if( factory instanceof LDAPTLSSocketFactory) {
+                conn.startTLS();
+            }
+        }
+        catch(LDAPException e)
+        {
+            conn.disconnect();
+            throw e;
+        }
+        conn.setSharedConnections(sharedConns);
+        sharedConns.add(conn);
+        // Clone the connections to make all of the sharedConns.
+        for (int j = 1; j < maxSharedConns; j++)
+        {
+            Connection cloneConn = (Connection)conn.clone();
+            cloneConn.setSharedConnections(sharedConns);
+            sharedConns.add(cloneConn);
         }
+        synchronized (poolLock)
+        {
+            opened++;
+        }
+        PoolListener[] l = listeners;
+        for (int i = 0; i < l.length; i++)
+        {
+            l[i].connectionOpened(this);
+        }
+        return sharedConns;
+    }
+
+    /**
+     * Puts a reserved, unused physical connection back in the pool, or
+     * closes it if it is no longer connected or if the pool is closed.
+     */
+    private void release(SharedConnections sharedConns, boolean connected)
+    {
+        synchronized (poolLock)
+        {
+            if(connected && !shuttingDown)
+            {
+                index.add(sharedConns);
+                linkLru(sharedConns);
+                // Notify anyone that might be waiting on this connection.
+                poolLock.notifyAll();
+                return;
+            }
+            physicalConns--;
+            poolLock.notifyAll();
+        }
+        disconnect(sharedConns);
+        return;
+    }
+
+    /**
+     * Counts a borrow that took the pool lock.  Called with poolLock held.
+     */
+    private void countBorrowWait(long waited)
+    {
+        waitedBorrows++;
+        totalBorrowWaitTime += waited;
+        if(waited > maxBorrowWaitTime)
+        {
+            maxBorrowWaitTime = waited;
+        }
+        int i = 0;
+        while((i < BORROW_WAIT_BUCKETS.length) &&
+              (waited > BORROW_WAIT_BUCKETS[i]))
+        {
+            i++;
+        }
+        borrowWaitHistogram[i]++;
+    }
+
+    /**
+     * Counts the bind of a physical connection and tells the listeners
+     * of rebinds.
+     */
+    private void countBind(boolean rebind, long bindTime, boolean success)
+    {
+        synchronized (poolLock)
+        {
+            if(rebind)
+            {
+                rebinds++;
+                totalRebindTime += bindTime;
+            }
+            if(!success)
+            {
+                bindFailures++;
+            }
+        }
+        if(rebind)
+        {
+            PoolListener[] l = listeners;
+            for (int i = 0; i < l.length; i++)
+            {
+                l[i].connectionRebound(this, bindTime, success);
+            }
+        }
+    }
+
+    /**
+     * Tells the listeners that a connection was borrowed.
+     */
+    private void fireConnectionBorrowed(long waited)
+    {
+        PoolListener[] l = listeners;
+        for (int i = 0; i < l.length; i++)
+        {
+            l[i].connectionBorrowed(this, waited);
+        }
+    }
+
+    /**
+     * Counts the unused physical connections.  Called with poolLock held.
+     */
+    private int countIdle()
+    {
+        int count = 0;
+        for (SharedConnections sc = lruHead; null != sc; sc = sc.lruNext)
+        {
+            if(sc.allConnectionsAvailable())
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reserves the least recently used unused physical connection.
+     * Physical connections borrowed since they were added to the list
+     * are dropped from it, they are added again when released.
+     * Called with poolLock held.
+     *
+     * @return the reserved physical connection, or null if none.
+     */
+    private SharedConnections takeLeastRecentlyUsed()
+    {
+        while(null != lruHead)
+        {
+            SharedConnections sharedConns = lruHead;
+            unlinkLru(sharedConns);
+            if(index.reserveIfIdle(sharedConns))
+            {
+                return sharedConns;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a physical connection at the most recently used end of the
+     * list of unused connections.  Called with poolLock held.
+     */
+    private void linkLru(SharedConnections sharedConns)
+    {
+        sharedConns.lruPrev = lruTail;
+        sharedConns.lruNext = null;
+        if(null == lruTail)
+        {
+            lruHead = sharedConns;
+        }
+        else
+        {
+            lruTail.lruNext = sharedConns;
+        }
+        lruTail = sharedConns;
+        sharedConns.inLru = true;
+    }
+
+    /**
+     * Removes a physical connection from the list of unused connections,
+     * if it is in the list.  Called with poolLock held.
+     */
+    private void unlinkLru(SharedConnections sharedConns)
+    {
+        if(!sharedConns.inLru)
+        {
+            return;
+        }
+        if(null == sharedConns.lruPrev)
+        {
+            lruHead = sharedConns.lruNext;
+        }
+        else
+        {
+            sharedConns.lruPrev.lruNext = sharedConns.lruNext;
+        }
+        if(null == sharedConns.lruNext)
+        {
+            lruTail = sharedConns.lruPrev;
+        }
+        else
+        {
+            sharedConns.lruNext.lruPrev = sharedConns.lruPrev;
+        }
+        sharedConns.lruPrev = null;
+        sharedConns.lruNext = null;
+        sharedConns.inLru = false;
     }
-}
 
+    /**
+     * Closes the physical connection and all the connections sharing it.
+     */
+    private void disconnect(SharedConnections sharedConns)
+    {
+        for (int i = 0; i < sharedConns.size(); i++)
+        {
+            try
+            {
+                ((Connection)sharedConns.get(i)).disconnect();
+            }
+            catch(LDAPException e)
+            {
+                ; // The connection is being discarded anyway
+            }
+        }
+        synchronized (poolLock)
+        {
+            closed++;
+        }
+        PoolListener[] l = listeners;
+        for (int i = 0; i < l.length; i++)
+        {
+            l[i].connectionClosed(this);
+        }
+        return;
+    }
+
+    /**
+     * Checks that a physical connection works with a base search of the
+     * root DSE.  An error returned by the server still proves that the
+     * connection works.
+     */
+    private boolean isValid(SharedConnections sharedConns)
+    {
+        Connection conn = (Connection)sharedConns.get(0);
+        if(!conn.isConnected())
+        {
+            return false;
+        }
+        try
+        {
+            LDAPSearchConstraints cons = conn.getSearchConstraints();
+            cons.setTimeLimit(VALIDATION_TIME_LIMIT);
+            cons.setReferralFollowing(false);
+            LDAPSearchResults results = conn.search("",
+                LDAPConnection.SCOPE_BASE, "(objectClass=*)",
+                new String[] { LDAPConnection.NO_ATTRS }, true, cons);
+            while(results.hasMore())
+            {
+                results.next();
+            }
+        }
+        catch(LDAPException e)
+        {
+            switch(e.getResultCode())
+            {
+            case LDAPException.CONNECT_ERROR:
+            case LDAPException.SERVER_DOWN:
+            case LDAPException.LDAP_TIMEOUT:
+                return false;
+            default:
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closes idle connections, validates unused connections and opens
+     * connections up to minConns.  Called by the maintenance thread.
+     *
+     * @return the time to sleep until the next call, or -1 once the pool
+     * is closed.
+     */
+    private long maintain()
+    {
+        Vector idle = new Vector();
+        Vector validate = new Vector();
+        int create = 0;
+        long interval = MAX_MAINTENANCE_INTERVAL;
+        long now = System.currentTimeMillis();
+
+        synchronized (poolLock)
+        {
+            if(shuttingDown)
+            {
+                return -1;
+            }
+            SharedConnections next = lruHead;
+            while(null != next)
+            {
+                SharedConnections sharedConns = next;
+                next = sharedConns.lruNext;
+                boolean expired = (idleTimeout > 0) &&
+                    (now - sharedConns.lastUsed >= idleTimeout) &&
+                    (physicalConns > minConns);
+                boolean check = (validationInterval > 0) &&
+                    (now - sharedConns.lastValidated >= validationInterval);
+                if(!expired && !check)
+                {
+                    continue;
+                }
+                // Out of the pool while being closed or validated
+                unlinkLru(sharedConns);
+                if(!index.reserveIfIdle(sharedConns))
+                {
+                    continue; // In use, added again when released
+                }
+                if(expired)
+                {
+                    physicalConns--;
+                    idle.add(sharedConns);
+                }
+                else
+                {
+                    validate.add(sharedConns);
+                }
+            }
+            if(physicalConns < minConns)
+            {
+                create = minConns - physicalConns;
+                physicalConns = minConns;
+            }
+            if(idleTimeout > 0)
+            {
+                interval = Math.min(interval, idleTimeout / 2);
+            }
+            if(validationInterval > 0)
+            {
+                interval = Math.min(interval, validationInterval / 2);
+            }
+        }
+
+        for (int i = 0; i < idle.size(); i++)
+        {
+            disconnect((SharedConnections)idle.get(i));
+        }
+        for (int i = 0; i < validate.size(); i++)
+        {
+            SharedConnections sharedConns = (SharedConnections)validate.get(i);
+            boolean valid = isValid(sharedConns);
+            sharedConns.lastValidated = System.currentTimeMillis();
+            synchronized (poolLock)
+            {
+                validations++;
+                if(!valid)
+                {
+                    validationFailures++;
+                }
+            }
+            if(!valid)
+            {
+                PoolListener[] l = listeners;
+                for (int j = 0; j < l.length; j++)
+                {
+                    l[j].validationFailed(this);
+                }
+            }
+            release(sharedConns, valid);
+        }
+        for (int i = 0; i < create; i++)
+        {
+            SharedConnections sharedConns = null;
+            try
+            {
+                sharedConns = createSharedConnections();
+            }
+            catch(LDAPException e)
+            {
+                // Server unavailable, try again later
+                synchronized (poolLock)
+                {
+                    physicalConns -= create - i;
+                    poolLock.notifyAll();
+                }
+                break;
+            }
+            release(sharedConns, true);
+        }
+        return Math.max(interval, 100);
+    }
+
+    /**
+     * Runs the maintenance of a pool until it is closed.  Only holds a weak
+     * reference to the pool so that an unreferenced pool can be finalized.
+     */
+    private static class Maintenance implements Runnable
+    {
+        private WeakReference pool;
+
+        Maintenance(PoolManager pool)
+        {
+            this.pool = new WeakReference(pool);
+        }
+
+        public void run()
+        {
+            while(true)
+            {
+                PoolManager p = (PoolManager)pool.get();
+                if(null == p)
+                {
+                    return;
+                }
+                long interval = p.maintain();
+                if(interval < 0)
+                {
+                    return;
+                }
+                p = null;
+                try
+                {
+                    synchronized (this)
+                    {
+                        wait(interval);
+                    }
+                }
+                catch(InterruptedException e)
+                {
+                    ;
+                }
+            }
+        }
+
+        /**
+         * Wakes the maintenance thread up, to apply new settings.
+         */
+        synchronized void wakeup()
+        {
+            notify();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.connectionpool;
+
+/**
+ * The management interface of a connection pool.
+ *
+ * <p>This interface follows the standard MBean naming pattern, so that an
+ * application running on a JVM with JMX can register a PoolManager with
+ * its MBean server, for instance:</p>
+ * <pre>
+ *  ManagementFactory.getPlatformMBeanServer().registerMBean(pool,
+ *      new ObjectName("com.novell.ldap:type=PoolManager,name=main"));
+ * </pre>
+ * <p>Counters are cumulative since the pool was created.  Rates, such as
+ * rebinds per second, are the difference between two readings divided
+ * by the time between them, see
+ * {@link PoolStatistics#getRebindRate(PoolStatistics)}.</p>
+ *
+ * @see PoolManager
+ * @see PoolStatistics
+ */
+public interface PoolManagerMBean
+{
+    /**
+     * Returns the number of physical connections open or being opened.
+     */
+    int getPhysicalConnections();
+
+    /**
+     * Returns the number of physical connections none of whose shared
+     * connections is in use.
+     */
+    int getIdlePhysicalConnections();
+
+    /**
+     * Returns the number of borrowed connections.
+     */
+    int getInUseConnections();
+
+    /**
+     * Returns the number of connections of the open physical connections
+     * that are not in use, whatever the DN and password they are bound
+     * with.
+     */
+    int getAvailableConnections();
+
+    /**
+     * Returns the number of threads waiting for a connection.
+     */
+    int getWaitingThreads();
+
+    /**
+     * Returns the total number of connections borrowed.
+     */
+    long getBorrowCount();
+
+    /**
+     * Returns the total number of borrows that timed out.
+     */
+    long getBorrowTimeoutCount();
+
+    /**
+     * Returns the total time spent waiting for connections, in
+     * milliseconds.
+     */
+    long getTotalBorrowWaitTime();
+
+    /**
+     * Returns the longest time spent waiting for a connection, in
+     * milliseconds.
+     */
+    long getMaxBorrowWaitTime();
+
+    /**
+     * Returns the number of borrows per wait time bucket.  Element i
+     * counts the waits up to {@link #getBorrowWaitBuckets()}[i]
+     * milliseconds, the last element the longer waits.
+     */
+    long[] getBorrowWaitHistogram();
+
+    /**
+     * Returns the upper bounds, in milliseconds, of the wait time buckets.
+     */
+    long[] getBorrowWaitBuckets();
+
+    /**
+     * Returns the total number of physical connections opened.
+     */
+    long getOpenedCount();
+
+    /**
+     * Returns the total number of physical connections closed.
+     */
+    long getClosedCount();
+
+    /**
+     * Returns the total number of binds of open physical connections with
+     * a different DN or password.
+     */
+    long getRebindCount();
+
+    /**
+     * Returns the total time spent rebinding physical connections, in
+     * milliseconds.
+     */
+    long getTotalRebindTime();
+
+    /**
+     * Returns the total number of failed binds.
+     */
+    long getBindFailureCount();
+
+    /**
+     * Returns the total number of validations of physical connections.
+     */
+    long getValidationCount();
+
+    /**
+     * Returns the total number of validations that failed.
+     */
+    long getValidationFailureCount();
+}
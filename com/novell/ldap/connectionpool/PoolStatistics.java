@@ -0,0 +1,271 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.connectionpool;
+
+/**
+ * A snapshot of the state and counters of a connection pool.
+ *
+ * <p>Returned by {@link PoolManager#getStatistics()}.  Counters are
+ * cumulative since the pool was created, the rate methods compare two
+ * snapshots of the same pool.</p>
+ *
+ * @see PoolManagerMBean
+ */
+public final class PoolStatistics
+{
+    long time;
+    int physicalConnections;
+    int idlePhysicalConnections;
+    int inUseConnections;
+    int availableConnections;
+    int waitingThreads;
+    long borrowCount;
+    long borrowTimeoutCount;
+    long totalBorrowWaitTime;
+    long maxBorrowWaitTime;
+    long[] borrowWaitHistogram;
+    long openedCount;
+    long closedCount;
+    long rebindCount;
+    long totalRebindTime;
+    long bindFailureCount;
+    long validationCount;
+    long validationFailureCount;
+
+    /* package */
+    PoolStatistics()
+    {
+        return;
+    }
+
+    /**
+     * Returns the time the snapshot was taken, as returned by
+     * System.currentTimeMillis.
+     */
+    public long getTime()
+    {
+        return time;
+    }
+
+    /**
+     * Returns the number of physical connections open or being opened.
+     */
+    public int getPhysicalConnections()
+    {
+        return physicalConnections;
+    }
+
+    /**
+     * Returns the number of physical connections none of whose shared
+     * connections is in use.
+     */
+    public int getIdlePhysicalConnections()
+    {
+        return idlePhysicalConnections;
+    }
+
+    /**
+     * Returns the number of borrowed connections.
+     */
+    public int getInUseConnections()
+    {
+        return inUseConnections;
+    }
+
+    /**
+     * Returns the number of connections of the open physical connections
+     * that are not in use, whatever the DN and password they are bound
+     * with.
+     */
+    public int getAvailableConnections()
+    {
+        return availableConnections;
+    }
+
+    /**
+     * Returns the number of threads waiting for a connection.
+     */
+    public int getWaitingThreads()
+    {
+        return waitingThreads;
+    }
+
+    /**
+     * Returns the total number of connections borrowed.
+     */
+    public long getBorrowCount()
+    {
+        return borrowCount;
+    }
+
+    /**
+     * Returns the total number of borrows that timed out.
+     */
+    public long getBorrowTimeoutCount()
+    {
+        return borrowTimeoutCount;
+    }
+
+    /**
+     * Returns the total time spent waiting for connections, in
+     * milliseconds.
+     */
+    public long getTotalBorrowWaitTime()
+    {
+        return totalBorrowWaitTime;
+    }
+
+    /**
+     * Returns the longest time spent waiting for a connection, in
+     * milliseconds.
+     */
+    public long getMaxBorrowWaitTime()
+    {
+        return maxBorrowWaitTime;
+    }
+
+    /**
+     * Returns the number of borrows per wait time bucket.  Element i
+     * counts the waits up to {@link PoolManager#getBorrowWaitBuckets()}[i]
+     * milliseconds, the last element the longer waits.
+     */
+    public long[] getBorrowWaitHistogram()
+    {
+        return (long[])borrowWaitHistogram.clone();
+    }
+
+    /**
+     * Returns the total number of physical connections opened.
+     */
+    public long getOpenedCount()
+    {
+        return openedCount;
+    }
+
+    /**
+     * Returns the total number of physical connections closed.
+     */
+    public long getClosedCount()
+    {
+        return closedCount;
+    }
+
+    /**
+     * Returns the total number of binds of open physical connections with
+     * a different DN or password.
+     */
+    public long getRebindCount()
+    {
+        return rebindCount;
+    }
+
+    /**
+     * Returns the total time spent rebinding physical connections, in
+     * milliseconds.
+     */
+    public long getTotalRebindTime()
+    {
+        return totalRebindTime;
+    }
+
+    /**
+     * Returns the total number of failed binds.
+     */
+    public long getBindFailureCount()
+    {
+        return bindFailureCount;
+    }
+
+    /**
+     * Returns the total number of validations of physical connections.
+     */
+    public long getValidationCount()
+    {
+        return validationCount;
+    }
+
+    /**
+     * Returns the total number of validations that failed.
+     */
+    public long getValidationFailureCount()
+    {
+        return validationFailureCount;
+    }
+
+    /**
+     * Returns the number of connections borrowed per second since an
+     * earlier snapshot.
+     *
+     * @param earlier A snapshot of the same pool taken before this one.
+     */
+    public double getBorrowRate(PoolStatistics earlier)
+    {
+        return rate(borrowCount - earlier.borrowCount, earlier);
+    }
+
+    /**
+     * Returns the number of rebinds per second since an earlier snapshot.
+     *
+     * @param earlier A snapshot of the same pool taken before this one.
+     */
+    public double getRebindRate(PoolStatistics earlier)
+    {
+        return rate(rebindCount - earlier.rebindCount, earlier);
+    }
+
+    /**
+     * Returns the average time spent waiting for a connection since an
+     * earlier snapshot, in milliseconds.
+     *
+     * @param earlier A snapshot of the same pool taken before this one.
+     */
+    public double getAverageBorrowWaitTime(PoolStatistics earlier)
+    {
+        long borrows = borrowCount - earlier.borrowCount;
+        if( borrows <= 0) {
+            return 0;
+        }
+        return (double)(totalBorrowWaitTime - earlier.totalBorrowWaitTime) /
+               borrows;
+    }
+
+    private double rate(long count, PoolStatistics earlier)
+    {
+        long elapsed = time - earlier.time;
+        if( elapsed <= 0) {
+            return 0;
+        }
+        return count * 1000.0 / elapsed;
+    }
+
+    /**
+     * Returns a readable summary of the snapshot.
+     */
+    public String toString()
+    {
+        return "PoolStatistics(physical=" + physicalConnections +
+               ", idle=" + idlePhysicalConnections +
+               ", inUse=" + inUseConnections +
+               ", available=" + availableConnections +
+               ", waiting=" + waitingThreads +
+               ", borrows=" + borrowCount +
+               ", timeouts=" + borrowTimeoutCount +
+               ", maxWait=" + maxBorrowWaitTime +
+               ", rebinds=" + rebindCount +
+               ", bindFailures=" + bindFailureCount +
+               ", validationFailures=" + validationFailureCount + ")";
+    }
+}
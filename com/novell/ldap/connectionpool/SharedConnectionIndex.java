@@ -0,0 +1,264 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+package com.novell.ldap.connectionpool;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Indexes the physical connections of a pool by bind identity.
+ *
+ * <p>The index maps the {@link Key Key} of a DN and password to the
+ * SharedConnections bound with them.  It is split into stripes with their
+ * own locks, selected by the hash of the key, so that threads borrowing
+ * or releasing connections for different identities rarely contend.  The
+ * stripe lock of a SharedConnections protects the in use flags of its
+ * connections.</p>
+ *
+ * <p>A SharedConnections that is not in the index, because it is being
+ * bound, validated or closed, is reserved by a single thread.</p>
+ *
+ * <p>Each stripe counts the connections in use and the connections
+ * borrowed from it, under its own lock, for the pool statistics.</p>
+ *
+ * @see PoolManager
+ */
+/* package */
+class SharedConnectionIndex
+{
+    // Number of stripes, must be a power of 2
+    private static final int STRIPES = 16;
+
+    private final HashMap[] stripes = new HashMap[STRIPES];
+    // Connections in use and connections borrowed, per stripe
+    private final int[] inUse = new int[STRIPES];
+    private final long[] borrowed = new long[STRIPES];
+
+    SharedConnectionIndex()
+    {
+        for (int i = 0; i < STRIPES; i++)
+        {
+            stripes[i] = new HashMap();
+        }
+    }
+
+    /**
+     * Borrows an available connection bound with the given identity.
+     *
+     * @return the connection, marked in use, or null if none.
+     */
+    Connection borrow(Key key)
+    {
+        int s = key.hashCode() & (STRIPES - 1);
+        HashMap stripe = stripes[s];
+        synchronized (stripe)
+        {
+            ArrayList list = (ArrayList)stripe.get(key);
+            if (null == list)
+            {
+                return null;
+            }
+            for (int i = 0; i < list.size(); i++)
+            {
+                Connection conn =
+                    ((SharedConnections)list.get(i)).getAvailableConnection();
+                if (null != conn)
+                {
+                    conn.setInUse();
+                    inUse[s]++;
+                    borrowed[s]++;
+                    return conn;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Makes a borrowed connection available.
+     *
+     * @return true if no connection of its SharedConnections is in use.
+     */
+    boolean release(Connection conn)
+    {
+        SharedConnections sharedConns = conn.getSharedConnections();
+        int s = sharedConns.key.hashCode() & (STRIPES - 1);
+        synchronized (stripes[s])
+        {
+            if (conn.inUse())
+            {
+                conn.clearInUse();
+                inUse[s]--;
+            }
+            return sharedConns.allConnectionsAvailable();
+        }
+    }
+
+    /**
+     * Adds a reserved SharedConnections to the index, under its key.  Its
+     * connections already in use are counted as borrowed.
+     */
+    void add(SharedConnections sharedConns)
+    {
+        int s = sharedConns.key.hashCode() & (STRIPES - 1);
+        HashMap stripe = stripes[s];
+        synchronized (stripe)
+        {
+            for (int i = 0; i < sharedConns.size(); i++)
+            {
+                if (((Connection)sharedConns.get(i)).inUse())
+                {
+                    inUse[s]++;
+                    borrowed[s]++;
+                }
+            }
+            ArrayList list = (ArrayList)stripe.get(sharedConns.key);
+            if (null == list)
+            {
+                list = new ArrayList(1);
+                stripe.put(sharedConns.key, list);
+            }
+            list.add(sharedConns);
+        }
+    }
+
+    /**
+     * Reserves a SharedConnections by removing it from the index, if none
+     * of its connections is in use.
+     *
+     * @return true if reserved, false if in use or not in the index.
+     */
+    boolean reserveIfIdle(SharedConnections sharedConns)
+    {
+        HashMap stripe = stripe(sharedConns.key);
+        synchronized (stripe)
+        {
+            if (!sharedConns.allConnectionsAvailable())
+            {
+                return false;
+            }
+            ArrayList list = (ArrayList)stripe.get(sharedConns.key);
+            if ((null == list) || !list.remove(sharedConns))
+            {
+                return false;
+            }
+            if (list.isEmpty())
+            {
+                stripe.remove(sharedConns.key);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns the number of connections in use.
+     */
+    int getInUseCount()
+    {
+        int count = 0;
+        for (int i = 0; i < STRIPES; i++)
+        {
+            synchronized (stripes[i])
+            {
+                count += inUse[i];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the total number of connections borrowed.
+     */
+    long getBorrowedCount()
+    {
+        long count = 0;
+        for (int i = 0; i < STRIPES; i++)
+        {
+            synchronized (stripes[i])
+            {
+                count += borrowed[i];
+            }
+        }
+        return count;
+    }
+
+    private HashMap stripe(Key key)
+    {
+        return stripes[key.hashCode() & (STRIPES - 1)];
+    }
+
+    /**
+     * Identifies the DN and password a physical connection is bound with.
+     * DNs are compared ignoring case.  Only a digest of the password is
+     * kept.
+     */
+    static final class Key
+    {
+        private final String dn;
+        private final byte[] digest;
+        private final int hash;
+
+        Key(String DN, byte[] PW)
+        {
+            dn = (null == DN) ? null : DN.toLowerCase();
+            digest = (null == PW) ? null : digest(PW);
+            int h = (null == dn) ? 0 : dn.hashCode();
+            if (null != digest)
+            {
+                for (int i = 0; i < Math.min(4, digest.length); i++)
+                {
+                    h = (h * 31) + digest[i];
+                }
+            }
+            // Spread the bits used to select a stripe
+            hash = h ^ (h >>> 16);
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key)obj;
+            if ((hash != other.hash) || !Arrays.equals(digest, other.digest))
+            {
+                return false;
+            }
+            return (null == dn) ? (null == other.dn) : dn.equals(other.dn);
+        }
+
+        private static byte[] digest(byte[] PW)
+        {
+            try
+            {
+                return MessageDigest.getInstance("SHA-1").digest(PW);
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                // Compare the password itself
+                return (byte[])PW.clone();
+            }
+        }
+    }
+}
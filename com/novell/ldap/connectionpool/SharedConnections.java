@@ -14,54 +14,43 @@
  ******************************************************************************/
 package com.novell.ldap.connectionpool;
 import java.util.ArrayList;
-import java.util.Arrays;
 
 /**
  * A list of connections sharing one physical connection.
  *
  * <p> This helper class mannages connections that
  * share the same physical connection. This class extends ArrayList.
- * The password and DN for the physical connection are saved and available
- * from this class. Connection retrieval methods are available.</p>  
+ * The key of the DN and password the physical connection is bound with
+ * is saved in this class. Connection retrieval methods are available.</p>  
  *
  * @see PoolManager
  */
 /* package */
 class SharedConnections extends ArrayList
 {
-    // Save password and DN
-    byte[] PW = null;
-    String DN = null;
+    // Identity the physical connection is bound with, changed only while
+    // the SharedConnections is reserved
+    SharedConnectionIndex.Key key;
+    // Time all the connections were last released, and time the physical
+    // connection was last validated, used by the PoolManager maintenance
+    long lastUsed;
+    long lastValidated;
+    // Links of the PoolManager list of idle physical connections, least
+    // recently used first, protected by the PoolManager lock
+    SharedConnections lruPrev = null;
+    SharedConnections lruNext = null;
+    boolean inLru = false;
     
     
-    public SharedConnections(int initialCapacity)
+    public SharedConnections(int initialCapacity,
+                             SharedConnectionIndex.Key key)
     {
         super(initialCapacity);
+        this.key = key;
+        lastUsed = lastValidated = System.currentTimeMillis();
         return;
     }
         
-    /**
-     * Set the password.
-     *
-     * @param PW the login password.
-     */
-    public void setPW(byte[] PW)
-    {
-        this.PW = PW;
-        return;
-    }
-    
-    /**
-     * Set the DN.
-     *
-     * @param DN the login DN.
-     */
-    public void setDN(String DN)
-    {
-        this.DN = DN;
-        return;
-    }
-    
     /**
      * Get an available connection from the pool.
      *
@@ -77,32 +66,6 @@ class SharedConnections extends ArrayList
         }
         return null;
     }
-        
-    /**
-     *  Check if a connection belongs to this pool.
-     *
-     * @param thisConn a Connection object to check.
-     *
-     * @return true if the Connection belongs to this pool, false otherwise.
-     */
-    public boolean isConnInHere(Connection thisConn)
-    {
-        for (int i = 0; i < super.size(); i++)
-        {
-            Connection conn = (Connection)super.get(i);
-            if(thisConn.equals(conn)) return true;
-        }
-        return false;
-    }
-    
-    /**
-     * Compare DN and PW with this DN PW
-     */
-    public boolean DNPWequals(String DN, byte[] PW)
-    {
-        return (equals(this.DN, DN) && equals(this.PW, PW));
-    }
-    
 
     /**
      * Checks if all connections are available.  If no connections
@@ -121,51 +84,4 @@ class SharedConnections extends ArrayList
         }
         return true;
     }
-    
-    /**
-     * Compare two strings values for equality.
-     *
-     * <p>Performs a case insensitive compare of tow strings. Note: null == null</p>
-     *
-     * @return true if the string values are equal, false otherwise.
-     */  
-    private boolean equals(String s1, String s2)
-    {        
-            if(null == s1)
-            {
-                if(null == s2)
-                    return true;
-                else
-                    return false;
-            }
-            else
-            {
-                if(null == s2)
-                    return false;
-            }
-        return s1.equalsIgnoreCase(s2);
-    }
-    
-    /**
-     * Compare two byte arrays for equality.
-     * Note: null == null
-     *
-     * @return true if the byte array values are equal, false otherwise.
-     */
-    private boolean equals(byte[] ba1, byte[] ba2)
-    {        
-            if(null == ba1)
-            {
-                if(null == ba2)
-                    return true;
-                else
-                    return false;
-            }
-            else
-            {
-                if(null == ba2)
-                    return false;
-            }
-        return Arrays.equals(ba1 ,ba2);
-    }
 }
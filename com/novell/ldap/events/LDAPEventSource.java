@@ -127,7 +127,8 @@ public abstract class LDAPEventSource {
         EventsGenerator eventsthread =
             createListeningThread(queue, conn, alistener, msgid, source);
 
-        eventsthread.start();
+        // Run the generator on a thread of the connection's thread factory
+        conn.getThreadFactory().newThread(eventsthread, "LDAP Events").start();
 
         List eventdecoratorlist = null;
 
@@ -195,7 +196,8 @@ public abstract class LDAPEventSource {
 
     /**
      * This inner Thread is used to notify the Registered Listener when an
-     * LDAPResponse occurs.
+     * LDAPResponse occurs.  The generator is run by a thread of the
+     * LDAPThreadFactory of the connection rather than started itself.
      */
     protected class EventsGenerator extends Thread {
         /**
@@ -0,0 +1,415 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999, 2000, 2001 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+package com.novell.ldap.extensions;
+
+import com.novell.ldap.*;
+import com.novell.ldap.asn1.*;
+import com.novell.ldap.resources.ExceptionMessages;
+import com.novell.ldap.util.LDAPReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Vector;
+
+/**
+ * Loads a stream of add, modify, delete and modify DN requests into the
+ * directory with the LBURP extended operations.
+ *
+ * <p>{@link #start} sends the StartLBURP request.  The requests given to
+ * {@link #write} are grouped into LBURP operation requests, numbered in
+ * sequence, holding up to a maximum number of operations and of encoded
+ * bytes; the maximum number of operations is lowered to the transaction
+ * size returned by the server when that is smaller.  Up to
+ * <code>window</code> packets are outstanding at a time.  {@link #finish}
+ * sends the last packet, waits for the responses to all packets and sends
+ * the EndLBURP request.  {@link #load} does all three for the requests
+ * read from an LDAPReader, such as an LDIFReader or a DSMLReader.</p>
+ *
+ * <p>The server reports the operations that failed in the response to
+ * each packet.  The loader keeps each failed request with an LDAPException
+ * holding the result code and the error message reported for it; if the
+ * server rejects a whole packet, every request of the packet fails with
+ * the exception of the packet response.</p>
+ *
+ * <p>A LburpLoader is not thread safe, it is meant to be fed by a single
+ * thread.</p>
+ */
+public class LburpLoader
+{
+    /**
+     * The default maximum number of operations in a packet.
+     */
+    public static final int DEFAULT_MAX_OPERATIONS = 100;
+
+    /**
+     * The default maximum number of encoded bytes in a packet.
+     */
+    public static final int DEFAULT_MAX_BYTES = 256 * 1024;
+
+    private LDAPConnection conn;
+    private String protocolOID;
+    private int maxOperations;
+    private int maxBytes;
+    private int window;
+    private LDAPConstraints cons;
+
+    private boolean started = false;
+    private int sequence = 0;           // sequence number of the last packet
+    private Vector packet = new Vector(); // requests of the next packet
+    private Vector packetOps = new Vector(); // their LBURP operations
+    private int packetBytes = 0;
+    private CountingOutputStream counter = new CountingOutputStream();
+    private LBEREncoder encoder = new LBEREncoder();
+    private LDAPResponseQueue queue = null; // responses to all packets
+    private HashMap outstanding = new HashMap(); // message ID -> requests
+    private LDAPBulkResults results = new LDAPBulkResults();
+
+    /**
+     * Constructs a loader with the default packet limits and a full
+     * update protocol.
+     *
+     *  @param conn   The connection to load through.
+     *<br><br>
+     *  @param window The maximum number of packets outstanding.
+     */
+    public LburpLoader( LDAPConnection conn, int window)
+    {
+        this( conn, LburpConstants.LBURPFullUpdateOID,
+              DEFAULT_MAX_OPERATIONS, DEFAULT_MAX_BYTES, window, null);
+        return;
+    }
+
+    /**
+     * Constructs a loader.
+     *
+     *  @param conn          The connection to load through.
+     *<br><br>
+     *  @param protocolOID   The update protocol, LBURPFullUpdateOID or
+     *                       LBURPIncUpdateOID.
+     *<br><br>
+     *  @param maxOperations The maximum number of operations in a packet.
+     *<br><br>
+     *  @param maxBytes      The maximum number of encoded bytes in a packet,
+     *                       exceeded only by a packet holding a single
+     *                       larger operation.
+     *<br><br>
+     *  @param window        The maximum number of packets outstanding.
+     *<br><br>
+     *  @param cons          The constraints of each LBURP request, or null
+     *                       for those of the connection.
+     */
+    public LburpLoader( LDAPConnection conn,
+                        String protocolOID,
+                        int maxOperations,
+                        int maxBytes,
+                        int window,
+                        LDAPConstraints cons)
+    {
+        if( (conn == null) || (protocolOID == null) || (maxOperations <= 0) ||
+            (maxBytes <= 0) || (window <= 0)) {
+            throw new IllegalArgumentException(
+                "LburpLoader: invalid parameter");
+        }
+        this.conn = conn;
+        this.protocolOID = protocolOID;
+        this.maxOperations = maxOperations;
+        this.maxBytes = maxBytes;
+        this.window = window;
+        this.cons = (cons == null) ? conn.getConstraints() : cons;
+        return;
+    }
+
+    /**
+     * Sends the StartLBURP request.
+     *
+     * @exception LDAPException if the server refuses to start the update.
+     */
+    public void start()
+        throws LDAPException
+    {
+        LDAPExtendedResponse response = conn.extendedOperation(
+                    new LburpStartRequest( protocolOID), cons);
+        if( response.getResultCode() != LDAPException.SUCCESS) {
+            response.chkResultCode();
+        }
+        if( response instanceof LburpStartResponse) {
+            int size = ((LburpStartResponse)response).getTranSize();
+            if( (size > 0) && (size < maxOperations)) {
+                maxOperations = size;
+            }
+        }
+        started = true;
+        return;
+    }
+
+    /**
+     * Adds a request to the next packet, sending the packet once full.
+     *
+     *  @param request The add, modify, delete or modify DN request.
+     *
+     * @exception LDAPException if the request cannot be encoded, or the
+     * connection fails.
+     */
+    public void write( LDAPMessage request)
+        throws LDAPException
+    {
+        int type = request.getType();
+        if( (type != LDAPMessage.ADD_REQUEST) &&
+            (type != LDAPMessage.MODIFY_REQUEST) &&
+            (type != LDAPMessage.DEL_REQUEST) &&
+            (type != LDAPMessage.MODIFY_RDN_REQUEST)) {
+            throw new IllegalArgumentException(
+                "LburpLoader: add, modify, delete or modify DN request required");
+        }
+        if( ! started) {
+            throw new IllegalStateException( "LburpLoader: not started");
+        }
+        LDAPLburpRequest op = new LDAPLburpRequest( request);
+        int size = getEncodedLength( op);
+        if( ! packet.isEmpty() && (packetBytes + size > maxBytes)) {
+            flush();
+        }
+        packet.addElement( request);
+        packetOps.addElement( op);
+        packetBytes += size;
+        if( packet.size() >= maxOperations) {
+            flush();
+        }
+        return;
+    }
+
+    /**
+     * Sends the last packet, waits for the responses to all packets and
+     * sends the EndLBURP request.
+     *
+     * @exception LDAPException if the connection fails or the server
+     * refuses to end the update.
+     */
+    public void finish()
+        throws LDAPException
+    {
+        if( ! packet.isEmpty()) {
+            flush();
+        }
+        while( ! outstanding.isEmpty()) {
+            receive();
+        }
+        LDAPExtendedResponse response = conn.extendedOperation(
+                    new LburpEndRequest( sequence), cons);
+        started = false;
+        response.chkResultCode();
+        return;
+    }
+
+    /**
+     * Loads all the requests read from an LDAPReader: starts the update,
+     * writes the requests and finishes the update.
+     *
+     *  @param reader The reader of the requests.
+     *
+     * @exception LDAPException if the server refuses the update or the
+     * connection fails.
+     *
+     * @exception IOException if the reader fails.
+     */
+    public void load( LDAPReader reader)
+        throws LDAPException, IOException
+    {
+        start();
+        LDAPMessage request;
+        while( (request = reader.readMessage()) != null) {
+            write( request);
+        }
+        finish();
+        return;
+    }
+
+    /**
+     * Returns the number of packets sent.
+     */
+    public int getPacketCount()
+    {
+        return sequence;
+    }
+
+    /**
+     * Returns the number of requests the server applied successfully.
+     */
+    public int getSuccessCount()
+    {
+        return results.getSuccessCount();
+    }
+
+    /**
+     * Returns the number of requests that failed.
+     */
+    public int getFailureCount()
+    {
+        return results.getFailureCount();
+    }
+
+    /**
+     * Returns the requests that failed, in the order their failure was
+     * received.
+     *
+     * @return the failed requests, the exception describing the failure of
+     * each is at the same index in the array returned by getFailures.
+     */
+    public LDAPMessage[] getFailedRequests()
+    {
+        return results.getFailedRequests();
+    }
+
+    /**
+     * Returns the exceptions describing the failed requests.
+     *
+     * @return the exceptions, the request that failed with each is at the
+     * same index in the array returned by getFailedRequests.
+     */
+    public LDAPException[] getFailures()
+    {
+        return results.getFailures();
+    }
+
+    /*
+     * Sends the current packet, first waiting for a response if the window
+     * is full.
+     */
+    private void flush()
+        throws LDAPException
+    {
+        while( outstanding.size() >= window) {
+            receive();
+        }
+        LDAPMessage[] requests = new LDAPMessage[packet.size()];
+        LDAPLburpRequest[] ops = new LDAPLburpRequest[requests.length];
+        packet.copyInto( requests);
+        packetOps.copyInto( ops);
+        packet.removeAllElements();
+        packetOps.removeAllElements();
+        packetBytes = 0;
+
+        queue = conn.extendedOperation(
+                    new LburpOperationRequest( ops, ++sequence), cons, queue);
+        int[] ids = queue.getMessageIDs();
+        outstanding.put( new Integer( ids[ids.length - 1]), requests);
+        return;
+    }
+
+    /*
+     * Waits for the response to a packet and records the failed requests.
+     */
+    private void receive()
+        throws LDAPException
+    {
+        LDAPMessage msg = queue.getResponse();
+        if( msg == null) {
+            // No request left in the queue, e.g. the connection closed:
+            // the outstanding packets will never complete
+            Iterator packets = outstanding.entrySet().iterator();
+            while( packets.hasNext()) {
+                java.util.Map.Entry e = (java.util.Map.Entry)packets.next();
+                LDAPMessage[] requests = (LDAPMessage[])e.getValue();
+                LDAPException ex = new LDAPLocalException(
+                                        ExceptionMessages.NO_RESPONSE,
+                                        new Object[] { e.getKey() },
+                                        LDAPException.CONNECT_ERROR);
+                for( int i = 0; i < requests.length; i++) {
+                    results.addFailure( requests[i], ex);
+                }
+            }
+            outstanding.clear();
+            return;
+        }
+        LDAPMessage[] requests = (LDAPMessage[])outstanding.remove(
+                                        new Integer( msg.getMessageID()));
+        if( (requests == null) || ! (msg instanceof LDAPResponse)) {
+            return;
+        }
+        LDAPResponse response = (LDAPResponse)msg;
+        try {
+            response.chkResultCode();
+        } catch( LDAPException ex) {
+            for( int i = 0; i < requests.length; i++) {
+                results.addFailure( requests[i], ex);
+            }
+            return;
+        }
+
+        int failed = 0;
+        if( response instanceof LburpOperationResponse) {
+            HashMap codes = ((LburpOperationResponse)response).getResultCodes();
+            HashMap messages = ((LburpOperationResponse)response).getResponse();
+            Iterator records = codes.keySet().iterator();
+            while( records.hasNext()) {
+                Integer record = (Integer)records.next();
+                int code = ((Integer)codes.get( record)).intValue();
+                int index = record.intValue() - 1;  // numbered from 1
+                if( (code == LDAPException.SUCCESS) ||
+                    (index < 0) || (index >= requests.length)) {
+                    continue;
+                }
+                results.addFailure( requests[index],
+                                    new LDAPException( null, code,
+                                        (String)messages.get( record)));
+                failed++;
+            }
+        }
+        results.addSuccesses( requests.length - failed);
+        return;
+    }
+
+    /*
+     * Returns the number of bytes of the encoded operation, without
+     * retaining the encoding.
+     */
+    private int getEncodedLength( LDAPLburpRequest op)
+        throws LDAPException
+    {
+        counter.count = 0;
+        try {
+            if( op.opType == LDAPMessage.DEL_REQUEST) {
+                op.getRequestASN1OcString().encode( encoder, counter);
+            } else {
+                op.getRequestASN1Sequence().encode( encoder, counter);
+            }
+        } catch( IOException ioe) {
+            throw new LDAPException( null, LDAPException.ENCODING_ERROR,
+                                     ioe.toString());
+        }
+        return counter.count;
+    }
+
+    /*
+     * An OutputStream that only counts the bytes written to it.
+     */
+    private static final class CountingOutputStream extends OutputStream
+    {
+        private int count = 0;
+
+        public void write( int b)
+        {
+            count++;
+            return;
+        }
+
+        public void write( byte[] b, int off, int len)
+        {
+            count += len;
+            return;
+        }
+    }
+}
@@ -26,6 +26,7 @@ import java.util.HashMap;
 public class LburpOperationResponse extends LDAPExtendedResponse {
     
     private HashMap response; 
+    private HashMap resultCodes;
     
     public LburpOperationResponse(RfcLDAPMessage rfcMessage)
                                   throws IOException
@@ -36,6 +37,7 @@ public class LburpOperationResponse extends LDAPExtendedResponse {
         String resp;
         
         response = new HashMap(5);
+        resultCodes = new HashMap(5);
         byte [] returnedValue = this.getValue();
         if (returnedValue == null)
                 throw new IOException("No returned value");
@@ -82,6 +84,8 @@ public class LburpOperationResponse extends LDAPExtendedResponse {
                 ByteArrayInputStream ins = new ByteArrayInputStream(bval);
                 int[] compLen = new int[1];
                 ASN1Object asb=dec.decode(ins, compLen);
+                resultCodes.put(new Integer(record),
+                        new Integer(((ASN1Enumerated)asb).intValue()));
 
                 asn1ID.reset(ins);
                 asn1Len.reset(ins);  
@@ -107,5 +111,17 @@ public class LburpOperationResponse extends LDAPExtendedResponse {
         return response;
     }
 
+    /**
+     * Returns the result code of each operation reported by the server,
+     * including the failures reported without an error message.
+     *
+     * @return a HashMap from the Integer operation number, as numbered by
+     * the server, to the Integer result code of the operation.
+     */
+    public HashMap getResultCodes()
+    {
+        return resultCodes;
+    }
+
 }
 
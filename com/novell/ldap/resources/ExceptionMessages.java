@@ -89,6 +89,11 @@ public class ExceptionMessages extends java.util.ListResourceBundle {
   public final static String NO_SCHEMA              = "NO_SCHEMA";
   public final static String READ_MULTIPLE          = "READ_MULTIPLE";
   public final static String CANNOT_BIND            = "CANNOT_BIND";
+  public final static String POOL_CLOSED            = "POOL_CLOSED";
+  public final static String POOL_TIMEOUT           = "POOL_TIMEOUT";
+  public final static String READ_NO_ENTRY          = "READ_NO_ENTRY";
+  public final static String READ_NO_RESPONSE       = "READ_NO_RESPONSE";
+  public final static String NO_RESPONSE            = "NO_RESPONSE";
 
   //End constants
 
@@ -155,7 +160,12 @@ public class ExceptionMessages extends java.util.ListResourceBundle {
       {"MULTIPLE_SCHEMA", "Multiple schema found when reading the subschemaSubentry for {0}"}, //the 0th parameter is a String DN
       {"NO_SCHEMA", "No schema found when reading the subschemaSubentry for {0}"}, //the 0th parameter is a String DN
       {"READ_MULTIPLE", "Read response is ambiguous, multiple entries returned"},
-      {"CANNOT_BIND", "Cannot bind. Use PoolManager.getBoundConnection()"}
+      {"CANNOT_BIND", "Cannot bind. Use PoolManager.getBoundConnection()"},
+      {"POOL_CLOSED", "The connection pool is closed"},
+      {"POOL_TIMEOUT", "No pooled connection became available within {0} milliseconds"}, //the 0th parameter is a Long
+      {"READ_NO_ENTRY", "Read of {0} succeeded without returning the entry"}, //the 0th parameter is a String DN
+      {"READ_NO_RESPONSE", "No response received reading {0}"}, //the 0th parameter is a String DN
+      {"NO_RESPONSE", "No response received to request {0}"} //the 0th parameter is an Integer message ID
   // END OF MATERIAL TO LOCALIZE
   };
 }//End ExceptionMessages
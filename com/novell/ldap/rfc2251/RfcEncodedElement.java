@@ -0,0 +1,72 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999, 2000, 2001 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.rfc2251;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import com.novell.ldap.asn1.*;
+
+/**
+ * Holds the encoding of an element that has not been decoded yet.
+ *
+ * <p>The element encodes itself by writing the octets it was received
+ * with, so a structure holding it can be encoded before it is decoded.</p>
+ */
+/* package */
+class RfcEncodedElement extends ASN1Object
+{
+    private final byte[] encoding;
+
+    /**
+     * Constructs an element from its encoding.
+     *
+     * @param id The identifier of the element.
+     * @param encoding The identifier, length and content octets of the
+     * element.
+     */
+    RfcEncodedElement(ASN1Identifier id, byte[] encoding)
+    {
+        super(id);
+        this.encoding = encoding;
+        return;
+    }
+
+    /**
+     * Returns the identifier, length and content octets of the element.
+     */
+    final byte[] getEncodingOctets()
+    {
+        return encoding;
+    }
+
+    /**
+     * Writes the octets the element was received with.
+     */
+    public final void encode(ASN1Encoder enc, OutputStream out)
+            throws IOException
+    {
+        out.write(encoding);
+        return;
+    }
+
+    /**
+     * Return a String representation of this element.
+     */
+    public String toString()
+    {
+        return super.toString() + "ENCODED: " + encoding.length + " octets";
+    }
+}
@@ -67,6 +67,7 @@ public class RfcLDAPMessage extends ASN1Sequence
     private ASN1Object op;
     private RfcControls controls;
     private LDAPMessage requestMessage = null;
+    private int encodedLength = 0;
 
     /**
      * Create an RfcLDAPMessage by copying the content array
@@ -178,6 +179,7 @@ public class RfcLDAPMessage extends ASN1Sequence
             throws IOException
     {
         super(dec, in, len);
+        encodedLength = len;
 
         byte[] content;
         ByteArrayInputStream bais;
@@ -258,6 +260,15 @@ public class RfcLDAPMessage extends ASN1Sequence
         return ((ASN1Integer)get(0)).intValue();
     }
 
+    /**
+     * Returns the number of content octets this RfcLDAPMessage was decoded
+     * from, or 0 if it was not decoded.
+     */
+    public final int getEncodedLength()
+    {
+        return encodedLength;
+    }
+
     /**
      * Returns this RfcLDAPMessage's message type
      */
@@ -14,6 +14,7 @@
  ******************************************************************************/
 package com.novell.ldap.rfc2251;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import com.novell.ldap.*;
@@ -31,27 +32,50 @@ import com.novell.ldap.client.Debug;
  */
 public class RfcSearchResultEntry extends ASN1Sequence {
 
+    private ASN1Decoder dec = null;  // decodes the attributes when needed
+
     //*************************************************************************
     // Constructors for SearchResultEntry
     //*************************************************************************
 
     /**
      * The only time a client will create a SearchResultEntry is when it is
-     * decoding it from an InputStream
+     * decoding it from an InputStream.
+     *
+     * <p>Only the objectName is decoded.  The attributes are kept as they
+     * were received, and decoded by the first call to getAttributes, so
+     * that an application reading only the DN, or converting the entry
+     * itself (see {@link #getEncodedAttributes}), does not pay for the
+     * ASN.1 objects of each attribute and value.  Their encoding is
+     * checked though, so that an invalid entry fails here rather than when
+     * its attributes are read.</p>
      */
     public RfcSearchResultEntry(ASN1Decoder dec, InputStream in, int len)
             throws IOException
     {
-        super(dec, in, len);
+        super(2);
+        this.dec = dec;
 
         // Decode objectName
-//      set(0, new RfcLDAPDN(((ASN1OctetString)get(0)).stringValue()));
+        int[] nameLen = new int[1];
+        add(dec.decode(in, nameLen));
 
-        // Create PartitalAttributeList. This does not need to be decoded, only
-        // typecast.
-//      set(1, new PartitalAttributeList());
+        // Keep the encoded PartialAttributeList
+        byte[] encoding = new byte[len - nameLen[0]];
+        int off = 0;
+        while(off < encoding.length) {
+            int r = in.read(encoding, off, encoding.length - off);
+            if(r < 0) {
+                throw new EOFException("RfcSearchResultEntry: decode error: EOF");
+            }
+            off += r;
+        }
+        checkAttributes(encoding);
+        add(new RfcEncodedElement(new ASN1Identifier(ASN1Identifier.UNIVERSAL,
+                                   true, ASN1Sequence.TAG), encoding));
         return;
     }
+
     /** Creates an RfcSearchResultEntry from individual ASN encoded objects.
      * @param ObjectName The LDAPDN for the search result.
      * @param attributes The various attributes for the specified attribute.
@@ -63,6 +87,69 @@ public class RfcSearchResultEntry extends ASN1Sequence {
     	add(attributes);
     }
 
+    /*
+     * Checks the identifiers and lengths of an encoded PartialAttributeList,
+     * which must fill the octets given.
+     *
+     *   PartialAttributeList ::= SEQUENCE OF SEQUENCE {
+     *               type    AttributeDescription,
+     *               vals    SET OF AttributeValue }
+     */
+    private static void checkAttributes(byte[] ber)
+            throws IOException
+    {
+        int[] pos = new int[1];
+        int listEnd = enter(ber, pos, ASN1Sequence.TAG, ber.length);
+        if(listEnd != ber.length) {
+            throw new IOException(
+                "RfcSearchResultEntry: decode error: invalid attributes");
+        }
+        while(pos[0] < listEnd) {
+            int attrEnd = enter(ber, pos, ASN1Sequence.TAG, listEnd);
+            pos[0] = enter(ber, pos, ASN1OctetString.TAG, attrEnd);
+            int valsEnd = enter(ber, pos, ASN1Set.TAG, attrEnd);
+            while(pos[0] < valsEnd) {
+                pos[0] = enter(ber, pos, ASN1OctetString.TAG, valsEnd);
+            }
+            pos[0] = attrEnd;
+        }
+        return;
+    }
+
+    /*
+     * Skips the identifier and length octets of the element at pos[0],
+     * checking that it is a universal element with the tag given that ends
+     * by limit.  Returns the offset following the element.
+     */
+    private static int enter(byte[] ber, int[] pos, int tag, int limit)
+            throws IOException
+    {
+        int off = pos[0];
+        int id = (tag == ASN1OctetString.TAG) ? tag : (tag | 0x20);
+        if((off + 2 > limit) || ((ber[off++] & 0xff) != id)) {
+            throw new IOException(
+                "RfcSearchResultEntry: decode error: invalid attributes");
+        }
+        int length = ber[off++] & 0xff;
+        if(length > 0x7f) {
+            int n = length & 0x7f;
+            if((n == 0) || (n > 4) || (off + n > limit)) {
+                throw new IOException(
+                    "RfcSearchResultEntry: decode error: invalid attributes");
+            }
+            length = 0;
+            for( ; n > 0; n--) {
+                length = (length << 8) | (ber[off++] & 0xff);
+            }
+        }
+        if((length < 0) || (length > limit - off)) {
+            throw new IOException(
+                "RfcSearchResultEntry: decode error: invalid attributes");
+        }
+        pos[0] = off;
+        return off + length;
+    }
+
     //*************************************************************************
     // Accessors
     //*************************************************************************
@@ -80,11 +167,36 @@ public class RfcSearchResultEntry extends ASN1Sequence {
     }
 
     /**
-     *
+     * Returns the attributes of the entry, decoding them if needed.
      */
     public final ASN1Sequence getAttributes()
     {
-        return (ASN1Sequence)get(1);
+        synchronized(this) {
+            ASN1Object attrs = get(1);
+            if(attrs instanceof RfcEncodedElement) {
+                attrs = dec.decode(((RfcEncodedElement)attrs).getEncodingOctets());
+                set(1, attrs);
+            }
+            return (ASN1Sequence)attrs;
+        }
+    }
+
+    /**
+     * Returns the BER encoding of the PartialAttributeList as received
+     * from the server, if getAttributes has not decoded it yet.
+     *
+     * @return the identifier, length and content octets of the attributes,
+     * or null if they are already decoded.  The array must not be modified.
+     */
+    public final byte[] getEncodedAttributes()
+    {
+        synchronized(this) {
+            ASN1Object attrs = get(1);
+            if(attrs instanceof RfcEncodedElement) {
+                return ((RfcEncodedElement)attrs).getEncodingOctets();
+            }
+            return null;
+        }
     }
 
     /**
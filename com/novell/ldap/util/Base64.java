@@ -204,6 +204,60 @@ public class Base64
         return new String(encodedChars);
     }
 
+    /**
+     * Encodes part of a byte array into a caller supplied byte array.
+     * Each output byte is one base64 character.
+     *
+     * <p>No String or char array is created, which makes this form
+     * suitable for writers producing large amounts of encoded data.</p>
+     *
+     * @param  inputBytes   The byte array that contains the data to encode.
+     * @param  start        The start index of the data.
+     * @param  end          The end index + 1 of the data.
+     * @param  encodedBytes The array the base64 characters are written to.
+     *                      It must have room for ((end - start + 2) / 3) * 4
+     *                      bytes from offset.
+     * @param  offset       The index in encodedBytes of the first character.
+     *
+     * @return The number of base64 characters written.
+     */
+    public static final int encode(byte[] inputBytes, int start, int end,
+                                   byte[] encodedBytes, int offset)
+    {
+        int i, j;
+        int t;
+        int full = start + ((end - start) / 3) * 3;
+
+        // see encode(byte[]) for the map of decoded and encoded bits.  The
+        // complete three-byte groups are encoded first, then the padding.
+        for ( i = start, j = offset; i < full; i+=3, j+=4) {
+            t = (inputBytes[i] & 0xff) << 16
+              | (inputBytes[i+1] & 0xff) << 8
+              | (inputBytes[i+2] & 0xff);
+            encodedBytes[j]   = (byte)emap[t >> 18];
+            encodedBytes[j+1] = (byte)emap[(t >> 12) & 0x3f];
+            encodedBytes[j+2] = (byte)emap[(t >> 6) & 0x3f];
+            encodedBytes[j+3] = (byte)emap[t & 0x3f];
+        }
+        if ( end - full == 1) {
+            t = inputBytes[full] & 0xff;
+            encodedBytes[j]   = (byte)emap[t >> 2];
+            encodedBytes[j+1] = (byte)emap[(t&0x03) << 4];
+            encodedBytes[j+2] = '=';
+            encodedBytes[j+3] = '=';
+            j += 4;
+        }
+        else if ( end - full == 2) {
+            t = (inputBytes[full] & 0xff) << 8 | (inputBytes[full+1] & 0xff);
+            encodedBytes[j]   = (byte)emap[t >> 10];
+            encodedBytes[j+1] = (byte)emap[(t >> 4) & 0x3f];
+            encodedBytes[j+2] = (byte)emap[(t << 2) & 0x3f];
+            encodedBytes[j+3] = '=';
+            j += 4;
+        }
+        return j - offset;
+    }
+
 
     /**
      * Decodes the input base64 encoded String.
@@ -414,6 +468,66 @@ public class Base64
         return decodedBytes;
     }
 
+    /**
+     * Decodes part of a byte array holding base64 encoded data, each byte
+     * value representing a base64 character.  The resulting binary data is
+     * returned as an array of bytes.
+     *
+     * @param  encodedBytes The byte array that contains base64 encoded data.
+     * @param  start  The start index of the base64 encoded data.
+     * @param  end  The end index + 1 of the base64 encoded data.
+     *
+     * @return The decoded byte array
+     */
+    public static final byte[] decode(byte[] encodedBytes, int start, int end)
+    {
+        int  i, j;
+        int  ebLen = end - start;   // length of the encoded part
+        int  gn = ebLen/4;          // number of four-byte groups
+        int  dByteLen;              // length of decoded bytes
+        int  pads = 0;
+        byte[] decodedBytes;        // decoded bytes
+
+        if( ebLen == 0) {
+            return new byte[0];
+        }
+        // the number of encoded bytes should be multiple of number 4
+        if ( (ebLen%4) != 0) {
+            throw new RuntimeException("com.novell.ldap.ldif_dsml."
+                + "Base64Decoder: decode error: mal-formatted encode value");
+        }
+
+        // the last group may be in the form of '**==' or '***='
+        if( encodedBytes[end-1] == '=') {
+            pads = (encodedBytes[end-2] == '=') ? 2 : 1;
+        }
+        dByteLen = gn * 3 - pads;
+        decodedBytes = new byte[dByteLen];
+
+        // see decode(char[]) for the map of encoded and decoded bits.  The
+        // groups without padding are decoded first, then the last group.
+        int full = (pads == 0) ? gn : gn - 1;
+        for ( i=start, j=0; j < full * 3; i+=4, j+=3 ) {
+            int b0 = dmap[encodedBytes[i] & 0x7f];
+            int b1 = dmap[encodedBytes[i+1] & 0x7f];
+            int b2 = dmap[encodedBytes[i+2] & 0x7f];
+            int b3 = dmap[encodedBytes[i+3] & 0x7f];
+            decodedBytes[j]   = (byte)( b0<<2 | (b1&0x30)>>4 );
+            decodedBytes[j+1] = (byte)( (b1&0x0f)<<4 | (b2&0x3c)>>2 );
+            decodedBytes[j+2] = (byte)( (b2&0x03)<<6 | b3&0x3f );
+        }
+        if( pads != 0) {
+            int b0 = dmap[encodedBytes[i] & 0x7f];
+            int b1 = dmap[encodedBytes[i+1] & 0x7f];
+            decodedBytes[j] = (byte)( b0<<2 | (b1&0x30)>>4 );
+            if( pads == 1) {
+                int b2 = dmap[encodedBytes[i+2] & 0x7f];
+                decodedBytes[j+1] = (byte)( (b1&0x0f)<<4 | (b2&0x3c)>>2 );
+            }
+        }
+        return decodedBytes;
+    }
+
     /**
      * Checks if the input byte array contains only safe values, that is,
      * the data does not need to be encoded for use with LDIF.
@@ -62,6 +62,14 @@ class DSMLHandler
   /* package */
   private ArrayList queue = new ArrayList();
 
+  /* Streaming: the parsing thread hands the messages over to readMessage
+   * through queue, waiting while capacity messages are queued.  The
+   * fields below are protected by this handler. */
+  private int capacity = 0;             // 0 keeps all messages
+  private boolean parsed = false;       // parsing ended
+  private boolean closed = false;       // the reader stopped reading
+  private Exception parseError = null;
+
   /* variables used for message information */
   private LDAPMessage message = null;
   private LDAPEntry entry = null;
@@ -981,7 +989,7 @@ private ArrayList errors = new ArrayList();
               message.setTag(requestID);
             }
             requestID = null;
-            queue.add(message);
+            queueMessage(message);
             controls.clear();
           }
           break;
@@ -1007,7 +1015,7 @@ private ArrayList errors = new ArrayList();
           requestID = null;
           errorMessage = null;
           controls.clear();
-          queue.add(message);
+          queueMessage(message);
           break;
         case SEARCH_RESPONSE :
           state = BATCH_RESPONSE;
@@ -1041,7 +1049,7 @@ private ArrayList errors = new ArrayList();
           requestID = null;
           errorMessage = null;
           controls.clear();
-          queue.add(message);
+          queueMessage(message);
           break;
 
         case EXTENDED_RESPONSE_NAME :
@@ -1094,7 +1102,7 @@ private ArrayList errors = new ArrayList();
             message.setTag(requestID);
           }
           requestID = null;
-          queue.add(message);
+          queueMessage(message);
           state = BATCH_RESPONSE;
           controls.clear();
           break;
@@ -1133,7 +1141,7 @@ private ArrayList errors = new ArrayList();
           requestID = null;
           errorMessage = null;
           controls.clear();
-          queue.add(message);
+          queueMessage(message);
           break;
         case RESULT_CODE :
           //nothing to do.
@@ -1200,7 +1208,7 @@ private ArrayList errors = new ArrayList();
             message.setTag(requestID);
           }
           requestID = null;
-          queue.add(message);
+          queueMessage(message);
           break;
         case ATTRIBUTES :
           state = SEARCH_REQUEST;
@@ -1232,7 +1240,7 @@ private ArrayList errors = new ArrayList();
               message.setTag(requestID);
             }
             requestID = null;
-            queue.add(message);
+            queueMessage(message);
             controls.clear();
             break;
           }
@@ -1271,7 +1279,7 @@ private ArrayList errors = new ArrayList();
               message.setTag(requestID);
             }
             requestID = null;
-            queue.add(message);
+            queueMessage(message);
             controls.clear();
             break;
           }
@@ -1291,7 +1299,7 @@ private ArrayList errors = new ArrayList();
               message.setTag(requestID);
             }
             requestID = null;
-            queue.add(message);
+            queueMessage(message);
             controls.clear();
             break;
           }
@@ -1310,7 +1318,7 @@ private ArrayList errors = new ArrayList();
               message.setTag(requestID);
             }
             requestID = null;
-            queue.add(message);
+            queueMessage(message);
             controls.clear();
             break;
           }
@@ -1343,7 +1351,7 @@ private ArrayList errors = new ArrayList();
             if (requestID != null)
               message.setTag(requestID);
             requestID = null;
-            queue.add(message);
+            queueMessage(message);
             controls.clear();
             break;
           }
@@ -1402,7 +1410,7 @@ private ArrayList errors = new ArrayList();
             if (requestID != null)
               message.setTag(requestID);
             requestID = null;
-            queue.add(message);
+            queueMessage(message);
             state = BATCH_REQUEST;
             controls.clear();
             break;
@@ -1770,6 +1778,92 @@ private ArrayList errors = new ArrayList();
   ArrayList getQueue() {
     return this.queue;
   }
+
+  /* package */
+  void setCapacity(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Queues a parsed message, waiting for readMessage to take messages
+   * while the queue of a streaming reader is full.
+   */
+  private void queueMessage(LDAPMessage message) throws SAXException {
+    if (capacity == 0) {
+      queue.add(message);
+      return;
+    }
+    synchronized (this) {
+      while ((queue.size() >= capacity) && !closed) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          throw new SAXException(e);
+        }
+      }
+      if (closed) {
+        throw new SAXException("DSMLReader closed");
+      }
+      queue.add(message);
+      notifyAll();
+    }
+  }
+
+  /**
+   * Takes the next message queued by the parsing thread of a streaming
+   * reader, waiting for it to be parsed.
+   *
+   * @return the next message, or null at the end of the document or once
+   * the reader is closed.
+   * @throws Exception the exception that ended the parsing early.
+   */
+  /* package */
+  synchronized LDAPMessage takeMessage() throws Exception {
+    if (closed) {
+      return null;
+    }
+    while (queue.isEmpty() && !parsed) {
+      wait();
+    }
+    if (!queue.isEmpty()) {
+      notifyAll();
+      return (LDAPMessage) queue.remove(0);
+    }
+    if (parseError != null) {
+      throw parseError;
+    }
+    return null;
+  }
+
+  /**
+   * Waits for the first message of a streaming reader to be parsed, so
+   * that the batch attributes are known.
+   *
+   * @throws Exception the exception that ended the parsing early.
+   */
+  /* package */
+  synchronized void awaitFirstMessage() throws Exception {
+    while (queue.isEmpty() && !parsed) {
+      wait();
+    }
+    if (queue.isEmpty() && (parseError != null)) {
+      throw parseError;
+    }
+  }
+
+  /* package */
+  synchronized void parseEnded(Exception error) {
+    parsed = true;
+    parseError = error;
+    notifyAll();
+  }
+
+  /* package */
+  synchronized void close() {
+    closed = true;
+    queue.clear();
+    notifyAll();
+  }
   
   ArrayList getErrors() {
   	return this.errors;
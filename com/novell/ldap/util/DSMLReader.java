@@ -45,7 +45,13 @@ import com.novell.ldap.*;
 
 public class DSMLReader implements LDAPReader {
 
+    /* The number of parsed messages a streaming reader queues ahead */
+    private static final int STREAM_CAPACITY = 64;
+
     private int messageIndex = 0;
+    private boolean streaming = false;
+    private java.io.Reader input = null;    // read by a streaming parser
+    private Thread parser = null;           // parses a streaming document
     private DSMLHandler handler = new DSMLHandler();
     private boolean            requestFile=true;          // request file=true
     private String version = "2.0";
@@ -88,6 +94,24 @@ public class DSMLReader implements LDAPReader {
         return;
     }
 
+    /**
+     * Creates a reader that reads from an inputStream containing xml with DSML
+     * tags, optionally streaming the messages.
+     *
+     * @param inputStream Stream of XML with a DSML batchRequest or
+     * batchResponse
+     * @param streaming true to parse the document as the messages are read,
+     * see {@link #DSMLReader(java.io.Reader, boolean)}
+     * @throws LDAPLocalException Occurs when no batchRequest or batchResponse
+     * is found, or the document is invalid DSML.
+     */
+    public DSMLReader (java.io.InputStream inputStream, boolean streaming)
+                throws LDAPLocalException, UnsupportedEncodingException
+    {
+        this( new java.io.InputStreamReader(inputStream,"UTF8"), streaming);
+        return;
+    }
+
     /**
      * Creates a reader that reads from a reader containing xml with DSML
      * tags.
@@ -100,46 +124,168 @@ public class DSMLReader implements LDAPReader {
      * is found, or the document is invalid DSML.
      */
     public DSMLReader (java.io.Reader reader) throws LDAPLocalException
+    {
+        this( reader, false);
+        return;
+    }
+
+    /**
+     * Creates a reader that reads from a reader containing xml with DSML
+     * tags, optionally streaming the messages.
+     *
+     * <p>Without streaming, the whole document is parsed by the
+     * constructor, and all its messages are kept in memory.  Streaming,
+     * the document is parsed by a separate thread as the messages are
+     * read: the parsing thread stays a few messages ahead of readMessage,
+     * so a document of any size is read in constant memory.  The
+     * constructor returns once the first message is parsed, so that the
+     * batchRequest attributes are known, and errors found further in the
+     * document are thrown by readMessage.  A streaming reader that is not
+     * read to the end must be closed.</p>
+     *
+     * @param reader Reader of XML with a DSML batchRequest or batchResponse
+     * @param streaming true to parse the document as the messages are read
+     * @throws LDAPLocalException Occurs when no batchRequest or batchResponse
+     * is found, or the document is invalid DSML.
+     */
+    public DSMLReader (java.io.Reader reader, boolean streaming)
+                throws LDAPLocalException
+    {
+        this( reader, streaming, null);
+        return;
+    }
+
+    /**
+     * Creates a reader that reads from a reader containing xml with DSML
+     * tags, optionally streaming the messages on a thread created by the
+     * given factory.
+     *
+     * @param reader Reader of XML with a DSML batchRequest or batchResponse
+     * @param streaming true to parse the document as the messages are read,
+     * see {@link #DSMLReader(java.io.Reader, boolean)}
+     * @param factory Creates the parsing thread of a streaming reader, or
+     * null to use an LDAPDefaultThreadFactory.
+     * @throws LDAPLocalException Occurs when no batchRequest or batchResponse
+     * is found, or the document is invalid DSML.
+     */
+    public DSMLReader (java.io.Reader reader, boolean streaming,
+                       LDAPThreadFactory factory)
+                throws LDAPLocalException
     {
         // Create an XML Parser
+        final SAXParser saxParser;
         try {
             SAXParserFactory spf = SAXParserFactory.newInstance();
             spf.setNamespaceAware(true);
             //spf.setValidating(true);
 
-            SAXParser saxParser = spf.newSAXParser();
-
-            InputSource is = new InputSource(reader);
+            saxParser = spf.newSAXParser();
+        } catch (FactoryConfigurationError e) {
+            throw toLocalException(e);
+        } catch (Exception e) {
+            throw toLocalException(e);
+        }
+        final InputSource is = new InputSource(reader);
 
+        if (! streaming) {
             // parse the document
-            saxParser.parse(is, handler);
+            try {
+                saxParser.parse(is, handler);
+            } catch (Exception e) {
+                throw toLocalException(e);
+            }
+            return;
+        }
 
-        } catch (FactoryConfigurationError e) {
-            throw new LDAPLocalException(
+        this.streaming = true;
+        handler.setCapacity(STREAM_CAPACITY);
+        if (factory == null) {
+            factory = new LDAPDefaultThreadFactory();
+        }
+        this.input = reader;
+        parser = factory.newThread(new Runnable() {
+            public void run()
+            {
+                Exception error = null;
+                try {
+                    saxParser.parse(is, handler);
+                } catch (Exception e) {
+                    error = e;
+                }
+                handler.parseEnded(error);
+                return;
+            }
+        }, "DSMLReader");
+        parser.start();
+        try {
+            handler.awaitFirstMessage();
+        } catch (Exception e) {
+            throw toLocalException(e);
+        }
+        return;
+    }
+
+    /*
+     * Converts an exception thrown creating a parser or parsing DSML.
+     */
+    private static LDAPLocalException toLocalException(Throwable e)
+    {
+        if (e instanceof FactoryConfigurationError) {
+            return new LDAPLocalException(
                     "The SAX parser factory is configured incorrectly:" + e,
                     LDAPException.LOCAL_ERROR,
                     e);
-        } catch (ParserConfigurationException e) {
-            throw new LDAPLocalException(
+        } else if (e instanceof ParserConfigurationException) {
+            return new LDAPLocalException(
                     "The SAX parser is configured incorrectly:" + e,
                     LDAPException.LOCAL_ERROR,
                     e);
-        } catch (SAXNotRecognizedException e){
-            throw new LDAPLocalException(
+        } else if (e instanceof SAXNotRecognizedException) {
+            return new LDAPLocalException(
                     null,
                     LDAPException.PROTOCOL_ERROR,
                     e);
-        } catch (SAXException e) {
-            throw new LDAPLocalException(
+        } else if (e instanceof SAXException) {
+            return new LDAPLocalException(
                     "The following error occured while parsing DSML: " + e,
                     LDAPException.DECODING_ERROR,
                     e);
-        } catch (IOException e) {
-            throw new LDAPLocalException(
+        } else {
+            return new LDAPLocalException(
                     "The following error occured while reading DSML: " + e,
                     LDAPException.LOCAL_ERROR,
                     e);
         }
+    }
+
+    /**
+     * Stops a streaming reader that is not read to the end.  The messages
+     * not yet read are discarded, the underlying reader is closed so that
+     * the parsing thread stops reading the document, and close returns
+     * once the parsing thread has ended.
+     */
+    public void close()
+    {
+        if (! streaming) {
+            return;
+        }
+        handler.close();
+        try {
+            input.close();
+        } catch (IOException e) {
+            ;   // the parsing thread fails to read and ends
+        }
+        boolean interrupted = false;
+        while (parser.isAlive()) {
+            try {
+                parser.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
         return;
     }
 
@@ -150,9 +296,22 @@ public class DSMLReader implements LDAPReader {
      * LDAPMessages<p>
      * @return LDAPMessage found in the DSML source specified in the
      * constructor.
+     * @throws LDAPLocalException Occurs when a streaming reader finds the
+     * rest of the document invalid DSML, or cannot read it.  A reader
+     * that is not streaming parses the whole document in its constructor
+     * and never throws it.  Releases before streaming was added declared
+     * no exception: code calling readMessage on a DSMLReader, rather than
+     * through LDAPReader, must now catch LDAPLocalException to compile.
      */
-    public LDAPMessage readMessage()
+    public LDAPMessage readMessage() throws LDAPLocalException
     {
+        if (streaming) {
+            try {
+                return handler.takeMessage();
+            } catch (Exception e) {
+                throw toLocalException(e);
+            }
+        }
         if (this.messageIndex >= handler.getQueue().size())
             return null;
         return (LDAPMessage) handler.getQueue().get( this.messageIndex ++ );
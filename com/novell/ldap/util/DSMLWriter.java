@@ -43,6 +43,8 @@ public class DSMLWriter implements LDAPWriter {
     private String version = "2.0";
     private boolean useSOAP;
     private boolean resumeOnError;
+    private char[] chars = new char[1024];      // value being written
+    private byte[] encoded = new byte[1024];    // base64 of a value
     
     private static final String BATCH_REQUEST_START =
             "<batchRequest xmlns=\"urn:oasis:names:tc:DSML:2:0:core\" xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" onError=\"";
@@ -70,13 +72,15 @@ public class DSMLWriter implements LDAPWriter {
      * Initializes this writer with the specified outputstream to write DSML
      * into.
      *
-     * Note that the output characters will be UTF-8 encoded.
+     * Note that the output characters will be UTF-8 encoded, through a
+     * 64K buffer that is written to the stream as it fills and by finish.
      * @param stream  Output stream to write DSML
      */
     public DSMLWriter(OutputStream stream)
     {
         try {
-            out = new OutputStreamWriter(stream, "UTF-8");
+            out = new BufferedWriter(
+                    new OutputStreamWriter(stream, "UTF-8"), 64 * 1024);
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException("UTF-8 encoding is not supported by JVM"+
                     e.toString());
@@ -1309,6 +1313,9 @@ public class DSMLWriter implements LDAPWriter {
 
     /**
      * Used to write an attribute and its values.
+     *
+     * <p>Each value is copied once, without building the array of all the
+     * values getByteValueArray returns.</p>
      * @param attr Attribute to be written.
      */
     private void writeAttribute(LDAPAttribute attr) throws IOException
@@ -1317,25 +1324,99 @@ public class DSMLWriter implements LDAPWriter {
         out.write("<attr name=\"");
         out.write(attr.getName());
         out.write("\">");
-        String values[] = attr.getStringValueArray();
-        byte bytevalues[][] = attr.getByteValueArray();
-        for(int i=0; i<values.length; i++){
+        for(int i=0, n=attr.size(); i<n; i++){
             newLine(4);
-            
-            if (Base64.isValidUTF8(bytevalues[i],true) && this.isXMLSafe(bytevalues[i])){
-                out.write("<value>");
-                String xmlvalue = makeAttributeSafe(values[i]);
-                out.write(xmlvalue);
-                out.write("</value>");
+            byte[] value = new byte[attr.getByteValueLength(i)];
+            attr.getByteValue(i, value, 0);
+            writeValue(value);
+        }
+        newLine(3);
+        out.write("</attr>");
+        return;
+    }
+
+    /**
+     * Used to write one value of an attribute, as escaped text if the value
+     * is UTF-8 without control characters, else base64 encoded.
+     *
+     * <p>Values of ASCII characters, the common case, are copied to the
+     * output a character per byte without building a String.</p>
+     * @param value the bytes of the value
+     */
+    private void writeValue(byte[] value) throws IOException
+    {
+        if (Base64.isValidUTF8(value,true) && this.isXMLSafe(value)){
+            out.write("<value>");
+            boolean ascii = true;
+            for (int i=0; i<value.length; i++) {
+                if (value[i] < 0) {
+                    ascii = false;
+                    break;
+                }
+            }
+            if (ascii) {
+                writeEscaped(value);
             } else {
-                out.write("<value xsi:type=\"xsd:base64Binary\">");
-                out.write(Base64.encode(bytevalues[i]));
-                out.write("</value>");
+                out.write(makeAttributeSafe(new String(value, "UTF-8")));
+            }
+            out.write("</value>");
+        } else {
+            out.write("<value xsi:type=\"xsd:base64Binary\">");
+            int size = ((value.length + 2) / 3) * 4;
+            if (size > encoded.length) {
+                encoded = new byte[Math.max(size, encoded.length * 2)];
+                chars = new char[encoded.length];
+            }
+            Base64.encode(value, 0, value.length, encoded, 0);
+            for (int i=0; i<size; i++) {
+                chars[i] = (char)encoded[i];
             }
+            out.write(chars, 0, size);
+            out.write("</value>");
+        }
+        return;
+    }
 
+    /**
+     * Writes ASCII bytes as characters, escaped as makeAttributeSafe does.
+     * @param value ASCII bytes to be written
+     */
+    private void writeEscaped(byte[] value) throws IOException
+    {
+        int n = 0;
+        for (int i=0; i<value.length; i++) {
+            // room for the longest escape, "&quot;"
+            if (n + 6 > chars.length) {
+                out.write(chars, 0, n);
+                n = 0;
+            }
+            char c = (char)value[i];
+            switch (c) {
+                case '&':
+                    "&amp;".getChars(0, 5, chars, n);
+                    n += 5;
+                    break;
+                case '<':
+                    "&lt;".getChars(0, 4, chars, n);
+                    n += 4;
+                    break;
+                case '>':
+                    "&gt;".getChars(0, 4, chars, n);
+                    n += 4;
+                    break;
+                case '\'':
+                    "&apos;".getChars(0, 6, chars, n);
+                    n += 6;
+                    break;
+                case '"':
+                    "&quot;".getChars(0, 6, chars, n);
+                    n += 6;
+                    break;
+                default:
+                    chars[n++] = c;
+            }
         }
-        newLine(3);
-        out.write("</attr>");
+        out.write(chars, 0, n);
         return;
     }
 
@@ -1484,4 +1565,3 @@ public class DSMLWriter implements LDAPWriter {
 		this.useSOAP = useSOAP;
 	}
 }
-
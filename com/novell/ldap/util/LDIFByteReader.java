@@ -0,0 +1,1093 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import com.novell.ldap.LDAPAddRequest;
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPControl;
+import com.novell.ldap.LDAPDeleteRequest;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPLocalException;
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.LDAPModification;
+import com.novell.ldap.LDAPModifyDNRequest;
+import com.novell.ldap.LDAPModifyRequest;
+import com.novell.ldap.LDAPSearchResult;
+
+/**
+ * Reads LDAP entries and LDAP requests from an LDIF file, working on the
+ * bytes of the file rather than on lines of characters.
+ *
+ * <p>LDIFReader reads each line into a String and each field into a
+ * StringBuffer, which are copied again when the fields are trimmed and
+ * the values decoded.  This reader scans a large reusable byte buffer
+ * instead: each record is read whole into the buffer and the attribute
+ * names and values are sliced from the buffer; only the records with
+ * continuation lines are unfolded, into a scratch buffer.  A value is
+ * copied once, into the byte array held by its attribute, and a base64
+ * value is decoded straight from the buffer into that array.  Attribute
+ * names are Strings shared by all the records of the file.</p>
+ *
+ * <p>A file given as a File is read through a memory mapping, copied into
+ * the buffer in large blocks without read system calls.</p>
+ *
+ * <p>The messages returned are those of LDIFReader: an LDAPSearchResult for
+ * each record of a content file, and for each record of a change file an
+ * LDAPAddRequest, LDAPDeleteRequest, LDAPModifyDNRequest or
+ * LDAPModifyRequest holding the controls of the record.  Values and
+ * distinguished names are UTF-8.</p>
+ *
+ * <p>A value given by URL (<code>attr:&lt; url</code>) lets the file make
+ * the reader open a local file or a network connection, so such values are
+ * rejected unless allowed with setFileURLsAllowed, and then only
+ * <code>file:</code> URLs are read.</p>
+ *
+ * @see LDIFReader
+ */
+public class LDIFByteReader implements LDAPReader {
+
+    /**
+     * The initial size of the input buffer.  The buffer grows as needed
+     * to hold a whole record.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAP_SIZE = 64 * 1024 * 1024; // mapped at a time
+    private static final int NAME_CACHE_SIZE = 256;       // a power of 2
+
+    private InputStream        in;
+    private byte[]             buf;
+    private int                pos = 0;       // first unconsumed byte in buf
+    private int                count = 0;     // after the last valid byte
+    private boolean            eof = false;   // end of the input reached
+    private int                consumed = 0;  // length of the current record
+
+    private boolean            requestFile;   // request file=true
+    private int                lNumber = 0;   // lines consumed
+    private int                dnlNumber;     // dn line number
+    private boolean            pending;       // record read by constructor
+    private int                first = 0;     // first field of the record
+    private int                fNumber = 0;   // number of fields
+    private int[]              fStart = new int[32]; // field offsets in buf
+    private int[]              fEnd = new int[32];
+    private byte[]             rec;           // holds the fields, buf or fold
+    private byte[]             fold = new byte[1024]; // unfolded fields
+    private int                vStart;        // value sliced by value()
+    private int                vEnd;
+    private byte               vType;         // ' ', ':' base64, '<' URL
+    private ArrayList          cList = new ArrayList(); // control list
+    private String[]           names = new String[NAME_CACHE_SIZE];
+    private byte[][]           nameBytes = new byte[NAME_CACHE_SIZE][];
+    private boolean            fileURLs = false; // read file: URL values
+
+    /**
+     * Constructs an LDIFByteReader reading the LDIF data of an InputStream,
+     * with a buffer of the default size.
+     *
+     * @param in The InputStream object to be processed by LDIFByteReader
+     */
+    public LDIFByteReader( InputStream in )
+                throws IOException, LDAPLocalException
+    {
+        this( in, DEFAULT_BUFFER_SIZE);
+        return;
+    }
+
+    /**
+     * Constructs an LDIFByteReader reading the LDIF data of a file through
+     * a memory mapping.
+     *
+     * @param file The LDIF file to be processed by LDIFByteReader
+     */
+    public LDIFByteReader( File file )
+                throws IOException, LDAPLocalException
+    {
+        this( new MappedInputStream( new FileInputStream( file).getChannel()),
+              DEFAULT_BUFFER_SIZE);
+        return;
+    }
+
+    /**
+     * Constructs an LDIFByteReader reading the LDIF data of an InputStream.
+     *
+     * <p>The version line and the first record are read to determine
+     * whether the data is a content file or a change file.</p>
+     *
+     * @param in The InputStream object to be processed by LDIFByteReader
+     * @param bufSize The initial size of the input buffer.
+     */
+    public LDIFByteReader( InputStream in, int bufSize )
+                throws IOException, LDAPLocalException
+    {
+        super();
+        this.in = in;
+        this.buf = new byte[(bufSize > 0) ? bufSize : DEFAULT_BUFFER_SIZE];
+
+        if ( ! readRecord() ) {
+            throw new LDAPLocalException( "com.novell.ldap.util."
+                + "LDIFByteReader: The file contains no LDIF info",
+                    LDAPException.LOCAL_ERROR);
+        }
+        int c = field( 0, "version");
+        if ( c == -1 ) {
+            throw new LDAPLocalException( "com.novell.ldap.util."
+                + "LDIFByteReader: Version line must be the first meaningful "
+                + "line(on line " + this.dnlNumber + " of the file)",
+                    LDAPException.LOCAL_ERROR);
+        }
+        value( 0, c);
+        if ( (vEnd - vStart != 1) || (rec[vStart] != '1') ) {
+            throw new LDAPLocalException( "com.novell.ldap.util."
+                + "LDIFByteReader: version: found '" + valueString()
+                + "' (on line " + this.dnlNumber + " of the file), should be "
+                + "'1'", LDAPException.LOCAL_ERROR);
+        }
+
+        // The first record may follow the version line without an empty line
+        if ( this.fNumber > 1 ) {
+            this.first = 1;
+        }
+        else if ( ! readRecord() ) {
+            throw new LDAPLocalException( "com.novell.ldap.util."
+                + "LDIFByteReader: the LDIF file only contains version line.",
+                    LDAPException.LOCAL_ERROR);
+        }
+        this.pending = true;
+        this.requestFile = (field( this.first + 1, "changetype") != -1) ||
+                           (field( this.first + 1, "control") != -1);
+        return;
+    }
+
+    /**
+     * Constructs an LDIFByteReader reading the records of a chunk of an
+     * LDIF file, without a version line, as returned by readChunk.
+     *
+     * @param data The records.
+     * @param length The length of the records in data.
+     * @param request True if the file is a change file.
+     * @param lineNumber The number of lines of the file before the chunk.
+     */
+    /* package */
+    LDIFByteReader( byte[] data, int length, boolean request, int lineNumber)
+    {
+        super();
+        this.buf = data;
+        this.count = length;
+        this.eof = true;
+        this.requestFile = request;
+        this.lNumber = lineNumber;
+        return;
+    }
+
+    /**
+     * Gets the version of the LDIF data associated with the input stream
+     *
+     * @return the version number
+     */
+    public String getVersion()
+    {
+        return "1";
+    }
+
+    /**
+     * Returns true if request data ist associated with the input stream,
+     * or false if content data.
+     *
+     * @return true if input stream contains request data.
+     */
+    public boolean isRequest()
+    {
+        return requestFile;
+    }
+
+    /**
+     * Sets whether values given by a <code>file:</code> URL are read from
+     * the file.  By default they are not, and a record holding a value
+     * given by URL fails to read; URLs of other schemes are always
+     * rejected.
+     *
+     * @param allowed True to read the values given by a file URL.
+     */
+    public void setFileURLsAllowed( boolean allowed)
+    {
+        this.fileURLs = allowed;
+        return;
+    }
+
+    /**
+     * Read LDAP Requests from the LDIF request (change) file or content file.
+     *
+     * @return LDAPMessage specified by the record, or null at the end of
+     * the file.
+     */
+    public LDAPMessage readMessage()
+                throws IOException, LDAPException
+    {
+        if ( this.pending ) {
+            this.pending = false;
+        }
+        else {
+            if ( ! readRecord() ) {
+                return null;
+            }
+            this.first = 0;
+        }
+        return toMessage();
+    }
+
+    /**
+     * Closes the input stream.
+     */
+    public void close()
+                throws IOException
+    {
+        if ( in != null ) {
+            in.close();
+        }
+        return;
+    }
+
+    /**
+     * Returns the number of lines of the file read so far.
+     */
+    /* package */
+    int getLineNumber()
+    {
+        return this.lNumber;
+    }
+
+    /**
+     * Reads the next records of the file as a chunk of at least size bytes,
+     * unless the end of the file is reached, ending at the empty line
+     * that ends a record.  The chunk is a copy, which can be read by
+     * another LDIFByteReader.  The lines of the chunk are not counted.
+     *
+     * @return the chunk, or null at the end of the file.
+     */
+    /* package */
+    byte[] readChunk( int size)
+                throws IOException
+    {
+        this.pos += this.consumed;
+        this.consumed = 0;
+        if ( buf.length < size ) {
+            byte[] dest = new byte[size];
+            System.arraycopy( buf, pos, dest, 0, count - pos);
+            buf = dest;
+            count -= pos;
+            pos = 0;
+        }
+        while ( (count - pos < size) && fill() ) {
+            ;
+        }
+        if ( pos == count ) {
+            return null;
+        }
+
+        // end the chunk at the last empty line, reading more input if
+        // a single record does not fit
+        int end;
+        while ( ((end = boundary()) == -1) && fill() ) {
+            ;
+        }
+        if ( end == -1 ) {
+            end = count;    // end of the input
+        }
+        byte[] chunk = new byte[end - pos];
+        System.arraycopy( buf, pos, chunk, 0, chunk.length);
+        this.pos = end;
+        return chunk;
+    }
+
+    /**
+     * Returns the index after the last empty line of the unconsumed data,
+     * or -1 if there is none.
+     */
+    private int boundary()
+    {
+        for (int i = count - 1; i > pos; i--) {
+            if ( (buf[i] == '\n') && ((buf[i - 1] == '\n') ||
+                 ((buf[i - 1] == '\r') && (i - 2 >= pos) &&
+                  (buf[i - 2] == '\n'))) ) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the next record into the buffer and splits it into fields.
+     *
+     * <p>The fields of a record without continuation lines are slices of
+     * the input buffer.  The fields of a record with continuation lines
+     * are unfolded into a scratch buffer, so that every field is a
+     * contiguous slice of rec.  The input buffer is never modified.</p>
+     *
+     * @return false at the end of the input.
+     */
+    private boolean readRecord()
+                throws IOException, LDAPLocalException
+    {
+        int e, end, len;
+        byte b;
+        boolean comment = false;
+
+        // release the previous record
+        this.pos += this.consumed;
+        this.consumed = 0;
+
+        // skip empty and comment lines, and the continuations of comments
+        for (;;) {
+            if ( (pos == count) && ! fill() ) {
+                return false;
+            }
+            e = lineEnd( 0);
+            b = buf[pos];
+            if ( (b == '#') || (comment && (b == ' ')) ) {
+                comment = true;
+            }
+            else if ( (e == 0) || ((e == 1) && (b == '\r')) ) {
+                comment = false;
+            }
+            else {
+                break;
+            }
+            this.pos += (pos + e < count) ? e + 1 : e;
+            this.lNumber++;
+        }
+
+        // read the lines up to the empty line ending the record. Until a
+        // continuation line is met, offsets are relative to pos, which
+        // lineEnd moves when it compacts
+        this.dnlNumber = this.lNumber + 1;
+        this.fNumber = 0;
+        boolean folded = false;
+        int off = 0;    // start of the current line
+        int w = 0;      // end of the unfolded data
+        comment = false;
+        for (;;) {
+            e = lineEnd( off);
+            boolean last = (pos + e == count);  // no newline, end of input
+            end = e;
+            if ( (end > off) && (buf[pos + end - 1] == '\r') ) {
+                end--;
+            }
+            if ( end == off ) {         // empty line or end of input
+                if ( ! last ) {
+                    this.lNumber++;
+                    e++;
+                }
+                this.consumed = e;
+                break;
+            }
+            this.lNumber++;
+            b = buf[pos + off];
+            if ( b == '#' ) {
+                comment = true;
+            }
+            else if ( b == ' ' ) {      // continuation line
+                if ( ! comment ) {
+                    if ( this.fNumber == 0 ) {
+                        throw new LDAPLocalException( "com.novell.ldap.util."
+                            + "LDIFByteReader: continuation line without a "
+                            + "field on line " + this.lNumber + " of the file.",
+                            LDAPException.LOCAL_ERROR);
+                    }
+                    if ( ! folded ) {
+                        // move the fields read so far to the scratch buffer
+                        folded = true;
+                        for (int i = 0; i < this.fNumber; i++) {
+                            len = fEnd[i] - fStart[i];
+                            w = unfold( pos + fStart[i], len, w);
+                            fStart[i] = w - len;
+                            fEnd[i] = w;
+                        }
+                    }
+                    w = unfold( pos + off + 1, end - off - 1, w);
+                    fEnd[fNumber - 1] = w;
+                }
+            }
+            else {                      // a new field
+                comment = false;
+                if ( this.fNumber == fStart.length ) {
+                    int[] t = new int[fNumber * 2];
+                    System.arraycopy( fStart, 0, t, 0, fNumber);
+                    fStart = t;
+                    t = new int[fNumber * 2];
+                    System.arraycopy( fEnd, 0, t, 0, fNumber);
+                    fEnd = t;
+                }
+                if ( folded ) {
+                    w = unfold( pos + off, end - off, w);
+                    fStart[fNumber] = w - (end - off);
+                    fEnd[fNumber++] = w;
+                }
+                else {
+                    fStart[fNumber] = off;
+                    fEnd[fNumber++] = end;
+                }
+            }
+            if ( last ) {
+                this.consumed = e;
+                break;
+            }
+            off = e + 1;
+        }
+        if ( folded ) {
+            this.rec = this.fold;
+        }
+        else {
+            this.rec = this.buf;
+            for (int i = 0; i < this.fNumber; i++) {
+                fStart[i] += pos;
+                fEnd[i] += pos;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends len bytes of the input buffer at off to the scratch buffer
+     * at w, growing it as needed.
+     *
+     * @return the end of the data in the scratch buffer.
+     */
+    private int unfold( int off, int len, int w)
+    {
+        if ( w + len > fold.length ) {
+            byte[] t = new byte[Math.max( fold.length * 2, w + len)];
+            System.arraycopy( fold, 0, t, 0, w);
+            fold = t;
+        }
+        System.arraycopy( buf, off, fold, w, len);
+        return w + len;
+    }
+
+    /**
+     * Returns the offset, relative to pos, of the newline ending the line
+     * that starts at off, reading more input as needed.  At the end of the
+     * input, returns the offset of the end of the data.
+     */
+    private int lineEnd( int off)
+                throws IOException
+    {
+        for (;;) {
+            byte[] b = this.buf;
+            int end = this.count;
+            for (int i = pos + off; i < end; i++) {
+                if ( b[i] == '\n' ) {
+                    return i - pos;
+                }
+            }
+            off = end - pos;
+            if ( ! fill() ) {
+                return off;
+            }
+        }
+    }
+
+    /**
+     * Reads more input into the buffer, moving the unconsumed data to the
+     * start of the buffer or growing it when it is full.
+     *
+     * @return false at the end of the input.
+     */
+    private boolean fill()
+                throws IOException
+    {
+        if ( this.eof ) {
+            return false;
+        }
+        if ( count == buf.length ) {
+            byte[] dest = (pos > 0) ? buf : new byte[buf.length * 2];
+            System.arraycopy( buf, pos, dest, 0, count - pos);
+            buf = dest;
+            count -= pos;
+            pos = 0;
+        }
+        int r = in.read( buf, count, buf.length - count);
+        if ( r < 0 ) {
+            this.eof = true;
+            return false;
+        }
+        count += r;
+        return true;
+    }
+
+    /**
+     * Converts the fields of the current record to an LDAPMessage.
+     */
+    private LDAPMessage toMessage()
+                throws IOException, LDAPException
+    {
+        int f = this.first;
+        int c = field( f, "dn");
+        if ( c == -1 ) {
+            throw new LDAPLocalException( "com.novell.ldap.util."
+                + "LDIFByteReader: Any record should start with 'dn:'(on line "
+                + this.dnlNumber + " of the file).", LDAPException.LOCAL_ERROR);
+        }
+        value( f++, c);
+        String dn = valueString();
+
+        if ( ! isRequest() ) {
+            return new LDAPSearchResult(
+                        new LDAPEntry( dn, toAttributeSet( f)), null);
+        }
+
+        this.cList.clear();
+        while ( (c = field( f, "control")) != -1 ) {
+            toControl( f++, c);
+        }
+        LDAPControl[] controls = null;
+        if ( this.cList.size() > 0 ) {
+            controls = (LDAPControl[])this.cList.toArray(
+                                    new LDAPControl[this.cList.size()]);
+        }
+
+        if ( (c = field( f, "changetype")) == -1 ) {
+            throw new LDAPLocalException( "com.novell.ldap.util."
+                + "LDIFByteReader: malformed changetype field in record "
+                + "starting on line " + this.dnlNumber + " of the file.",
+                LDAPException.LOCAL_ERROR);
+        }
+        value( f++, c);
+        String req = valueString();
+
+        if ( req.equalsIgnoreCase("add") ) {
+            return new LDAPAddRequest(
+                        new LDAPEntry( dn, toAttributeSet( f)), controls);
+        }
+        else if ( req.equalsIgnoreCase("delete") ) {
+            return new LDAPDeleteRequest( dn, controls);
+        }
+        else if ( req.equalsIgnoreCase("modrdn") ||
+                  req.equalsIgnoreCase("moddn") ) {
+            return toModifyDNRequest( dn, f, controls);
+        }
+        else if ( req.equalsIgnoreCase("modify") ) {
+            return new LDAPModifyRequest( dn, toModifications( f), controls);
+        }
+        throw new LDAPLocalException( "com.novell.ldap.util."
+            + "LDIFByteReader: unsupported request type '" + req
+            + "' specified in changetype filed of the record starting "
+            + "on line " + this.dnlNumber + " of the file.",
+            LDAPException.LOCAL_ERROR);
+    }
+
+    /**
+     * Builds the attributes of an entry from the fields starting at f.
+     */
+    private LDAPAttributeSet toAttributeSet( int f)
+                throws IOException, LDAPException
+    {
+        LDAPAttributeSet attrSet = new LDAPAttributeSet();
+        LDAPAttribute attr = null;
+
+        for ( ; f < this.fNumber; f++) {
+            int c = colon( f);
+            if ( c == -1 ) {
+                throw new LDAPLocalException( "com.novell.ldap.util."
+                    + "LDIFByteReader: missing ':' after attribute name in "
+                    + "record starting on line " + this.dnlNumber
+                    + " of the file.", LDAPException.LOCAL_ERROR);
+            }
+            String attrName = name( fStart[f], c);
+            // the values of an attribute are usually on consecutive fields
+            if ( (attr == null) || ((attr.getName() != attrName) &&
+                        ! attr.getName().equalsIgnoreCase( attrName)) ) {
+                attr = attrSet.getAttribute( attrName);
+                if ( attr == null ) {
+                    attr = new LDAPAttribute( attrName);
+                    attrSet.add( attr);
+                }
+            }
+            value( f, c);
+            attr.addValue( valueBytes());
+        }
+        return attrSet;
+    }
+
+    /**
+     * Builds the modifications of a modify record from the fields starting
+     * at f.
+     */
+    private LDAPModification[] toModifications( int f)
+                throws IOException, LDAPException
+    {
+        ArrayList modList = new ArrayList();
+
+        while ( f < this.fNumber ) {
+            int op;
+            int c = colon( f);
+            if ( c == -1 ) {
+                throw new LDAPLocalException( "com.novell.ldap.util."
+                   + "LDIFByteReader: malformed opName:attrName field in the "
+                   + "record starting on line " + this.dnlNumber
+                   + " of the file.", LDAPException.LOCAL_ERROR);
+            }
+            if ( field( f, "add") != -1 ) {
+                op = LDAPModification.ADD;
+            }
+            else if ( field( f, "delete") != -1 ) {
+                op = LDAPModification.DELETE;
+            }
+            else if ( field( f, "replace") != -1 ) {
+                op = LDAPModification.REPLACE;
+            }
+            else {
+                throw new LDAPLocalException( "com.novell.ldap.util."
+                    + "LDIFByteReader: Not supported modify request ("
+                    + utf8( fStart[f], c) + ") specified in record starting "
+                    + "on line " + this.dnlNumber + " of the file.",
+                    LDAPException.LOCAL_ERROR);
+            }
+            value( f++, c);
+            String attrName = name( vStart, vEnd);
+            LDAPAttribute attr = new LDAPAttribute( attrName);
+
+            // the values up to the '-' line
+            for ( ; (f < this.fNumber) && ! isSeparator( f); f++) {
+                c = colon( f);
+                if ( c == -1 ) {
+                    throw new LDAPLocalException( "com.novell.ldap.util."
+                        + "LDIFByteReader: no ':' found in attrName:attrValue "
+                        + "field in the record starting on line "
+                        + this.dnlNumber + " of the file.",
+                        LDAPException.LOCAL_ERROR);
+                }
+                String aName = name( fStart[f], c);
+                if ( ! aName.equalsIgnoreCase( attrName) ) {
+                    throw new LDAPLocalException( "com.novell.ldap.util."
+                        + "LDIFByteReader: found attribute name '" + aName
+                        + "', should be '" + attrName + "' in attrName:"
+                        + "attrValue field in the record starting on line "
+                        + this.dnlNumber + " of the file.",
+                        LDAPException.LOCAL_ERROR);
+                }
+                value( f, c);
+                attr.addValue( valueBytes());
+            }
+            if ( f == this.fNumber ) {
+                throw new LDAPLocalException( "com.novell.ldap.util."
+                    + "LDIFByteReader: modify record not ends with '-' in the "
+                    + "record starting on line " + this.dnlNumber
+                    + " of the file.", LDAPException.LOCAL_ERROR);
+            }
+            f++;    // skip '-'
+            if ( (op == LDAPModification.ADD) && (attr.size() == 0) ) {
+                throw new LDAPLocalException( "com.novell.ldap.util."
+                    + "LDIFByteReader: For 'add', no value specified for "
+                    + "atribute '" + attrName + "' in the record starting on "
+                    + "line " + this.dnlNumber + " of the file.",
+                    LDAPException.LOCAL_ERROR);
+            }
+            modList.add( new LDAPModification( op, attr));
+        }
+        LDAPModification[] mods = new LDAPModification[modList.size()];
+        return (LDAPModification[])modList.toArray( mods);
+    }
+
+    /**
+     * Builds a modify DN request from the fields starting at f.
+     */
+    private LDAPModifyDNRequest toModifyDNRequest( String dn, int f,
+                                                   LDAPControl[] controls)
+                throws IOException, LDAPException
+    {
+        String newRdn, newSuperior = null;
+        boolean deleteOldRdn;
+
+        int c = field( f, "newrdn");
+        if ( c == -1 ) {
+             throw new LDAPLocalException( "com.novell.ldap.util."
+                 + "LDIFByteReader: malformed newrdn field in record starting "
+                 + "on line " + this.dnlNumber + " of the file.",
+                 LDAPException.LOCAL_ERROR);
+        }
+        value( f++, c);
+        newRdn = valueString();
+
+        c = field( f, "deleteoldrdn");
+        if ( c == -1 ) {
+            throw new LDAPLocalException( "com.novell.ldap.util."
+                + "LDIFByteReader: malformed deleteoldrdn field in record "
+                + "starting on line " + this.dnlNumber + " of the file.",
+                LDAPException.LOCAL_ERROR);
+        }
+        value( f++, c);
+        String del = valueString();
+        if ( del.equals("1") ) {
+            deleteOldRdn = true;
+        }
+        else if ( del.equals("0") ) {
+            deleteOldRdn = false;
+        }
+        else {
+            throw new LDAPLocalException( "com.novell.ldap.util."
+               + "LDIFByteReader: value for deleteoldrdn field should '0' or "
+               + "'1', found '" + del + "' in the record starting on line "
+               + this.dnlNumber + " of the file.", LDAPException.LOCAL_ERROR);
+        }
+
+        if ( f < this.fNumber ) {
+            c = field( f, "newsuperior");
+            if ( c == -1 ) {
+                throw new LDAPLocalException( "com.novell.ldap.util."
+                    + "LDIFByteReader: malformed newsuperior field in the "
+                    + "record starting on line " + this.dnlNumber
+                    + " of the file.", LDAPException.LOCAL_ERROR);
+            }
+            value( f, c);
+            newSuperior = valueString();
+            if ( newSuperior.length() == 0 ) {
+                newSuperior = null;
+            }
+        }
+        return new LDAPModifyDNRequest( dn, newRdn, newSuperior,
+                                        deleteOldRdn, controls);
+    }
+
+    /**
+     * Adds the control of a control field to cList.  A control field looks
+     * like
+     *    1. control: 1.2.3.4 true: control value
+     *    2. control: 1.2.3.4: control value
+     *    3. control: 1.2.3.4
+     *
+     * @param f the control field.
+     * @param c the index of the ':' following 'control'.
+     */
+    private void toControl( int f, int c)
+                throws IOException, LDAPLocalException
+    {
+        int end = fEnd[f];
+        boolean criticality = false;
+        byte[] bytes = new byte[0];
+
+        c++;
+        while ( (c < end) && (rec[c] == ' ') ) {
+            c++;
+        }
+        // an oid consists of dots and digits
+        int b = c;
+        while ( (c < end) && ((rec[c] == '.') ||
+                              ((rec[c] >= '0') && (rec[c] <= '9'))) ) {
+            c++;
+        }
+        if ( b == c ) {
+            throw new LDAPLocalException( "com.novell.ldap.util."
+                + "LDIFByteReader: Control with no oid in the record "
+                + "starting on line " + this.dnlNumber + " of the file.",
+                LDAPException.LOCAL_ERROR);
+        }
+        String oid = utf8( b, c);
+
+        while ( (c < end) && (rec[c] == ' ') ) {
+            c++;
+        }
+        if ( matches( c, end, "true") ) {
+            criticality = true;
+            c += 4;
+        }
+        else if ( matches( c, end, "false") ) {
+            c += 5;
+        }
+        while ( (c < end) && (rec[c] == ' ') ) {
+            c++;
+        }
+
+        if ( c < end ) {
+            if ( rec[c] != ':' ) {
+                throw new LDAPLocalException( "com.novell.ldap.util."
+                    + "LDIFByteReader: Unexcepted char '" + (char)rec[c]
+                    + "'. Expecting to see ':' in the record starting on line "
+                    + this.dnlNumber + " of the file.",
+                    LDAPException.LOCAL_ERROR);
+            }
+            value( f, c);
+            bytes = valueBytes();
+        }
+        this.cList.add( new LDAPControl( oid, criticality, bytes));
+        return;
+    }
+
+    /**
+     * Returns the index of the ':' ending the name of field f if the name
+     * is the one given, ignoring case, or -1.
+     */
+    private int field( int f, String name)
+    {
+        if ( f >= this.fNumber ) {
+            return -1;
+        }
+        int s = fStart[f];
+        int n = name.length();
+        if ( (fEnd[f] - s <= n) || (rec[s + n] != ':') ||
+             ! matches( s, s + n, name) ) {
+            return -1;
+        }
+        return s + n;
+    }
+
+    /**
+     * Returns true if the bytes at start match the ASCII string given,
+     * ignoring case.
+     */
+    private boolean matches( int start, int end, String s)
+    {
+        int n = s.length();
+        if ( end - start < n ) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            int b = rec[start + i];
+            if ( (b >= 'A') && (b <= 'Z') ) {
+                b += 'a' - 'A';
+            }
+            if ( b != Character.toLowerCase( s.charAt(i)) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the index of the first ':' in field f, or -1.
+     */
+    private int colon( int f)
+    {
+        for (int i = fStart[f]; i < fEnd[f]; i++) {
+            if ( rec[i] == ':' ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if field f is the '-' line ending a modification.
+     */
+    private boolean isSeparator( int f)
+    {
+        int i = fStart[f];
+        if ( (i == fEnd[f]) || (rec[i] != '-') ) {
+            return false;
+        }
+        for (i++; i < fEnd[f]; i++) {
+            if ( rec[i] != ' ' ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Slices the value of field f, which follows the ':' at index c.  The
+     * value type is set to ':' for a base64 value, '<' for a URL and ' '
+     * for a string value, the spaces around the value are trimmed off.
+     */
+    private void value( int f, int c)
+    {
+        int s = c + 1;
+        int e = fEnd[f];
+        this.vType = ' ';
+        if ( (s < e) && ((rec[s] == ':') || (rec[s] == '<')) ) {
+            this.vType = rec[s++];
+        }
+        while ( (s < e) && (rec[s] == ' ') ) {
+            s++;
+        }
+        while ( (e > s) && (rec[e - 1] == ' ') ) {
+            e--;
+        }
+        this.vStart = s;
+        this.vEnd = e;
+        return;
+    }
+
+    /**
+     * Returns the value sliced by value() as a new byte array.
+     */
+    private byte[] valueBytes()
+                throws IOException, LDAPLocalException
+    {
+        if ( this.vType == ':' ) {
+            try {
+                return Base64.decode( rec, vStart, vEnd);
+            } catch( RuntimeException re) {
+                throw new LDAPLocalException( "com.novell.ldap.util."
+                    + "LDIFByteReader: malformed base64 value in the record "
+                    + "starting on line " + this.dnlNumber + " of the file.",
+                    LDAPException.LOCAL_ERROR);
+            }
+        }
+        if ( this.vType == '<' ) {
+            return readURL( utf8( vStart, vEnd));
+        }
+        byte[] bytes = new byte[vEnd - vStart];
+        System.arraycopy( rec, vStart, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * Returns the value sliced by value() as a String.
+     */
+    private String valueString()
+                throws IOException, LDAPLocalException
+    {
+        if ( this.vType == ' ' ) {
+            return utf8( vStart, vEnd);
+        }
+        try {
+            return new String( valueBytes(), "UTF-8");
+        } catch( UnsupportedEncodingException ue) {
+            throw new RuntimeException(
+                "UTF-8 String encoding not supported by JVM");
+        }
+    }
+
+    /**
+     * Returns the attribute name held by the bytes given.  The names are
+     * cached, so the records of a file share the same Strings.
+     */
+    private String name( int start, int end)
+    {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + rec[i];
+        }
+        int slot = (h ^ (h >>> 8)) & (NAME_CACHE_SIZE - 1);
+        byte[] b = nameBytes[slot];
+        if ( (b != null) && (b.length == end - start) ) {
+            int i = 0;
+            while ( (i < b.length) && (b[i] == rec[start + i]) ) {
+                i++;
+            }
+            if ( i == b.length ) {
+                return names[slot];
+            }
+        }
+        b = new byte[end - start];
+        System.arraycopy( rec, start, b, 0, b.length);
+        names[slot] = utf8( start, end);
+        nameBytes[slot] = b;
+        return names[slot];
+    }
+
+    /**
+     * Decodes UTF-8 bytes of the buffer into a String.
+     */
+    private String utf8( int start, int end)
+    {
+        try {
+            return new String( rec, start, end - start, "UTF-8");
+        } catch( UnsupportedEncodingException ue) {
+            throw new RuntimeException(
+                "UTF-8 String encoding not supported by JVM");
+        }
+    }
+
+    /**
+     * Reads the content of a file URL, if allowed.
+     */
+    private byte[] readURL( String url)
+                throws IOException, LDAPLocalException
+    {
+        URL u = new URL( url);
+        if ( ! this.fileURLs || ! "file".equalsIgnoreCase( u.getProtocol()) ) {
+            throw new LDAPLocalException( "com.novell.ldap.util."
+                + "LDIFByteReader: value given by URL '" + url + "' not "
+                + "allowed in the record starting on line " + this.dnlNumber
+                + " of the file.", LDAPException.LOCAL_ERROR);
+        }
+        InputStream is = u.openStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] b = new byte[8192];
+            int r;
+            while ( (r = is.read( b)) != -1 ) {
+                out.write( b, 0, r);
+            }
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    /*
+     * Reads a file through successive read only mappings of MAP_SIZE bytes.
+     */
+    private static final class MappedInputStream extends InputStream
+    {
+        private FileChannel channel;
+        private long size;
+        private long position = 0;          // end of the mapped region
+        private MappedByteBuffer region = null;
+
+        private MappedInputStream( FileChannel channel)
+                throws IOException
+        {
+            this.channel = channel;
+            this.size = channel.size();
+            return;
+        }
+
+        public int read()
+                throws IOException
+        {
+            byte[] b = new byte[1];
+            return (read( b, 0, 1) == -1) ? -1 : (b[0] & 0xFF);
+        }
+
+        public int read( byte[] b, int off, int len)
+                throws IOException
+        {
+            if ( (region == null) || ! region.hasRemaining() ) {
+                if ( position >= size ) {
+                    return -1;
+                }
+                long n = Math.min( MAP_SIZE, size - position);
+                region = channel.map( FileChannel.MapMode.READ_ONLY,
+                                      position, n);
+                position += n;
+            }
+            len = Math.min( len, region.remaining());
+            region.get( b, off, len);
+            return len;
+        }
+
+        public void close()
+                throws IOException
+        {
+            region = null;
+            channel.close();
+            return;
+        }
+    }
+}
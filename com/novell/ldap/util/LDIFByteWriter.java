@@ -0,0 +1,770 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+package com.novell.ldap.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.util.Iterator;
+import java.util.zip.GZIPOutputStream;
+import com.novell.ldap.LDAPAddRequest;
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPControl;
+import com.novell.ldap.LDAPDeleteRequest;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.LDAPModification;
+import com.novell.ldap.LDAPModifyDNRequest;
+import com.novell.ldap.LDAPModifyRequest;
+import com.novell.ldap.LDAPSearchResult;
+
+/**
+ * Writes LDAP entries and LDAP requests to an OutputStream as LDIF,
+ * producing the bytes of the file directly rather than lines of characters.
+ *
+ * <p>LDIFWriter builds a String for every line, copies each value out of
+ * its attribute and converts it to a String, and encodes the line again
+ * through an OutputStreamWriter.  This writer appends to a large byte
+ * buffer instead: each value is copied out of its attribute into a
+ * reusable scratch array, printable values are copied from there into the
+ * buffer and other values are base64 encoded straight into it.  Lines
+ * longer than 76 bytes are folded as the bytes are appended.  Names and
+ * distinguished names made of ASCII characters are appended without being
+ * converted to UTF-8 first.</p>
+ *
+ * <p>The output can optionally be gzip compressed, the compressor is fed
+ * with the content of the buffer each time the buffer fills.</p>
+ *
+ * <p>The records written are those of LDIFWriter, except that the
+ * deleteoldrdn field of a modify DN record is written as 0 or 1, as
+ * required by RFC 2849.</p>
+ *
+ * @see LDIFWriter
+ */
+public class LDIFByteWriter implements LDAPWriter {
+
+    /**
+     * The size of the output buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final int LINE_LENGTH = 76;    // bytes before folding
+    private static final byte[] NEWLINE =          // as BufferedWriter
+            System.getProperty("line.separator", "\n").getBytes();
+
+    private OutputStream       out;           // destination or gzip stage
+    private GZIPOutputStream   gzip;          // null if not compressed
+    private byte[]             buf = new byte[DEFAULT_BUFFER_SIZE];
+    private int                count = 0;     // bytes used in buf
+    private int                col = 0;       // bytes on the current line
+    private byte[]             encoded = new byte[1024]; // base64 scratch
+    private byte[]             valueBuf = new byte[1024]; // value scratch
+
+    private Boolean            requestFile = null;  // request file=true
+    private String             version;
+
+    /**
+     * Constructs an LDIFByteWriter object writing uncompressed LDIF, and
+     * assumes the LDIF version is "1".  The type of file written is
+     * determined by the first message written to the file.
+     *
+     * <p>If the first message is one of LDAPAddRequest,
+     * LDAPDeleteRequest, LDAPModifyDNRequest, or LDAPModifyRequest the
+     * file will be writen as an LDAP request (change) file.</p>
+     *
+     * <p>If the first message written to the file is an LDAPSearchResult object
+     * an LDIF content file will be written.</p>
+     *
+     * <p>You are not allowed to mix request data and content data</p>
+     *
+     * @param out     The OutputStream where the LDIF data will be written.
+     *
+     * @throws IOException for errors writing to the stream.
+     */
+    public LDIFByteWriter(OutputStream out)
+                throws IOException
+    {
+        this( out, "1", null, false);
+        return;
+    }
+
+    /**
+     * Constructs an LDIFByteWriter object, optionally gzip compressing the
+     * LDIF, and assumes the LDIF version is "1".  The type of file written
+     * is determined by the first message written to the file.
+     *
+     * @param out      The OutputStream where the LDIF data will be written.
+     *
+     * @param compress If true the LDIF data is written in gzip format.
+     *
+     * @throws IOException for errors writing to the stream.
+     */
+    public LDIFByteWriter(OutputStream out, boolean compress)
+                throws IOException
+    {
+        this( out, "1", null, compress);
+        return;
+    }
+
+    /**
+     * Constructs an LDIFByteWriter object writing uncompressed LDIF of the
+     * specified version and type.
+     *
+     * @param out     The OutputStream where the LDIF data will be written.
+     *
+     * @param version The version to set in the LDIF file, must be "1".
+     *
+     * @param request If true sets the out file type to request (change) data,
+     * else the file type will be content.
+     *
+     * @throws IOException for errors writing to the stream.
+     */
+    public LDIFByteWriter(OutputStream out, String version, boolean request)
+                throws IOException
+    {
+        this( out, version, new Boolean(request), false);
+        return;
+    }
+
+    /**
+     * Constructs an LDIFByteWriter object writing LDIF of the specified
+     * version and type, optionally gzip compressed.
+     *
+     * @param out      The OutputStream where the LDIF data will be written.
+     *
+     * @param version  The version to set in the LDIF file, must be "1".
+     *
+     * @param request  If true sets the out file type to request (change)
+     * data, else the file type will be content.
+     *
+     * @param compress If true the LDIF data is written in gzip format.
+     *
+     * @throws IOException for errors writing to the stream.
+     */
+    public LDIFByteWriter(OutputStream out, String version, boolean request,
+                          boolean compress)
+                throws IOException
+    {
+        this( out, version, new Boolean(request), compress);
+        return;
+    }
+
+    /**
+     * Constructs an LDIFByteWriter object and writes the header comment
+     * and the version line.
+     */
+    private LDIFByteWriter(OutputStream out, String version, Boolean request,
+                           boolean compress)
+                throws IOException
+    {
+        super();
+
+        // check LDIF file version
+        if ( ! "1".equals(version)) {
+            throw new RuntimeException(
+                        "com.novell.ldap.util.LDIFByteWriter: LDIF version:"
+                                   + "found: " + version + ", Should be: 1");
+        }
+
+        this.version = version;
+        requestFile = request;
+        if ( compress) {
+            gzip = new GZIPOutputStream( out, DEFAULT_BUFFER_SIZE);
+            this.out = gzip;
+        } else {
+            this.out = out;
+        }
+        writeComments("This LDIF file was generated by the LDIF APIs. " +
+                        "of Novell's Java LDAP SDK");
+        putAscii("version: " + getVersion());
+        newLine();
+        newLine();
+        return;
+    }
+
+    /**
+     * Write an LDAP record into LDIF file as LDAPContent data.
+     *
+     * <p>You are not allowed to mix request data and content data</p>
+     *
+     * @param entry LDAPEntry object
+     *
+     * @throws IOException if an I/O error occurs.
+     *
+     * @see com.novell.ldap.LDAPEntry
+     */
+    public void writeEntry(LDAPEntry entry)
+                throws IOException
+    {
+        writeEntry(entry, null);
+        return;
+    }
+
+    /**
+     * Write an LDAP record into LDIF file as LDAPContent data.
+     *
+     * <p>You are not allowed to mix request data and content data</p>
+     *
+     * @param entry LDAPEntry object
+     *
+     * @param controls Controls that were returned with this entry
+     *
+     * @throws IOException if an I/O error occurs.
+     *
+     * @see com.novell.ldap.LDAPEntry
+     */
+    public void writeEntry(LDAPEntry entry, LDAPControl[] controls)
+                throws IOException
+    {
+        checkType( false);
+        writeAddRequest(entry, controls);
+        newLine();
+        return;
+    }
+
+    /**
+     * Write an LDAP record into LDIF file. A request or change operation may
+     * be objects of type  LDAPAddRequest, LDAPDeleteRequest,
+     * LDAPModifyDNRequest, or LDAPModifyRequest.
+     * To write LDIF Content you must use an LDAPSearchResult object.
+     *
+     * <p>You are not allowed to mix request data and content data</p>
+     *
+     * @param request LDAPMessage object
+     *
+     * @throws IOException if an I/O error occurs.
+     *
+     * @see com.novell.ldap.LDAPSearchResults
+     * @see com.novell.ldap.LDAPAddRequest
+     * @see com.novell.ldap.LDAPDeleteRequest
+     * @see com.novell.ldap.LDAPModifyDNRequest
+     * @see com.novell.ldap.LDAPModifyRequest
+     */
+    public void writeMessage(LDAPMessage request)
+                throws IOException
+    {
+        LDAPControl[]  controls = request.getControls();
+
+        switch( request.getType()) {
+        case LDAPMessage.SEARCH_RESPONSE:
+            // LDAP Search Result Entry, write entry to outputStream
+            checkType( false);
+            writeAddRequest( ((LDAPSearchResult)request).getEntry(), controls);
+            break;
+        case LDAPMessage.ADD_REQUEST:
+            // LDAPAdd request, write entry to outputStream
+            checkType( true);
+            writeAddRequest( ((LDAPAddRequest)request).getEntry(), controls);
+            break;
+        case LDAPMessage.DEL_REQUEST:
+            // LDAPDelete request, write dn to outputStream
+            checkType( true);
+            writeDN( ((LDAPDeleteRequest)request).getDN());
+            writeControls( controls);
+            putAscii("changetype: delete");
+            newLine();
+            break;
+        case LDAPMessage.MODIFY_RDN_REQUEST:
+            // LDAPModDN request, write request data to outputStream
+            checkType( true);
+            writeModifyDNRequest( (LDAPModifyDNRequest)request, controls);
+            break;
+        case LDAPMessage.MODIFY_REQUEST:
+            // LDAPModify request, write modifications to outputStream
+            checkType( true);
+            LDAPModifyRequest mreq = (LDAPModifyRequest)request;
+            writeModifyRequest( mreq.getDN(), mreq.getModifications(),
+                                controls);
+            break;
+        default:
+            throw new RuntimeException("Unsupported request type: " +
+                    request.toString());
+        }
+        // write an empty line to separate records
+        newLine();
+        return;
+    }
+
+    /**
+     * Write a comment line into the LDIF OutputStream.
+     *
+     * <p> an '#' char is added to the front of each line to indicate that
+     * the line is a comment line. Comment lines are not folded.</p>
+     *
+     * @param line The comment lines to be written to the OutputStream
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public void writeComments (String line) throws IOException
+    {
+        BufferedReader in = new BufferedReader(new StringReader( line));
+        String rline;
+        while( (rline = in.readLine()) != null) {
+            byte[] bytes = utf8( "# " + rline);
+            putRaw( bytes, 0, bytes.length);
+            newLine();
+        }
+        return;
+    }
+
+    /**
+     * Writes an exception as a comment in LDIF.
+     * @param e  Exception to be written.
+     */
+    public void writeError(Exception e) throws IOException {
+        this.writeComments(e.toString());
+    }
+
+    /**
+     * Gets the version of the LDIF data associated with the output stream
+     *
+     * @return the version number
+     */
+    public String getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Returns true if request data is associated with the output stream,
+     * or false if content data.
+     *
+     * @return true if output stream contains request data.
+     */
+    public boolean isRequest()
+    {
+        return requestFile.booleanValue();
+    }
+
+    /**
+     * Writes the buffered data to the output stream, completes the gzip
+     * data if the output is compressed, and flushes the output stream.
+     * The output stream is not closed.
+     *
+     * <p>No more data can be written to a compressed writer once it is
+     * finished.</p>
+     */
+    public void finish() throws IOException
+    {
+        flushBuffer();
+        if ( gzip != null) {
+            gzip.finish();
+        }
+        out.flush();
+        return;
+    }
+
+    /**
+     * Sets the type of the file from the first message written, and checks
+     * that content data and request data are not mixed.
+     *
+     * @param request true for a request message, false for content.
+     */
+    private void checkType(boolean request)
+    {
+        if ( requestFile == null) {
+            requestFile = request ? Boolean.TRUE : Boolean.FALSE;
+        }
+        if ( request && ! isRequest()) {
+            throw new RuntimeException("Attempting to write request " +
+                    " in a content stream");
+        }
+        if ( ! request && isRequest()) {
+            throw new RuntimeException("Attempting to write content " +
+                    " in a request stream");
+        }
+        return;
+    }
+
+    /**
+     * Writes the lines of an entry, as a content record or as the body of
+     * an add record.
+     *
+     * @param entry  LDAPEntry object
+     * @param ctrls  LDAPControl object, only written in a request file
+     */
+    private void writeAddRequest( LDAPEntry entry, LDAPControl[] ctrls )
+            throws IOException
+    {
+        writeDN(entry.getDN());
+        if (isRequest()) {
+            writeControls( ctrls );
+            putAscii("changetype: add");
+            newLine();
+        }
+
+        Iterator allAttrs = entry.getAttributeSet().iterator();
+        while(allAttrs.hasNext()) {
+            writeValues( (LDAPAttribute)allAttrs.next());
+        }
+        return;
+    }
+
+    /**
+     * Writes the lines of a modify record after its dn line.
+     *
+     * @param dn    String object representing entry DN
+     * @param mods  LDAPModification array object
+     * @param ctrls LDAPControl array object
+     */
+    private void writeModifyRequest( String dn,
+                                     LDAPModification[] mods,
+                                     LDAPControl[] ctrls )
+                throws IOException
+    {
+        writeDN(dn);
+        writeControls( ctrls );
+        putAscii("changetype: modify");
+        newLine();
+
+        for ( int i = 0; i < mods.length; i++ ) {
+            LDAPAttribute attr = mods[i].getAttribute();
+            switch ( mods[i].getOp() )  {
+                case LDAPModification.ADD:
+                    putAscii("add: ");
+                    break;
+                case LDAPModification.DELETE:
+                    putAscii("delete: ");
+                    break;
+                case LDAPModification.REPLACE:
+                    putAscii("replace: ");
+                    break;
+                default:
+            }
+            putString( attr.getName());
+            newLine();
+            writeValues( attr);
+            // add separators between different modify operations
+            putAscii("-");
+            newLine();
+        }
+        return;
+    }
+
+    /**
+     * Writes the lines of a modify DN record after its dn line.
+     *
+     * @param request the modify DN request
+     * @param ctrls   LDAPControl array object
+     */
+    private void writeModifyDNRequest( LDAPModifyDNRequest request,
+                                       LDAPControl[] ctrls )
+                  throws IOException
+    {
+        writeDN( request.getDN());
+        writeControls( ctrls );
+        putAscii("changetype: moddn");
+        newLine();
+        writeField("newrdn", request.getNewRDN());
+        putAscii( request.getDeleteOldRDN() ? "deleteoldrdn: 1"
+                                            : "deleteoldrdn: 0");
+        newLine();
+        if ( request.getParentDN() != null) {
+            writeField("newsuperior", request.getParentDN());
+        }
+        return;
+    }
+
+    /**
+     * Write the DN to the outputStream.  If the DN characters are unsafe,
+     * the DN is encoded.
+     *
+     * @param dn the DN to write
+     */
+    private void writeDN(String dn)
+                throws IOException
+    {
+        writeField("dn", dn);
+        return;
+    }
+
+    /**
+     * Write control line(s).
+     *
+     * @param ctrls LDAPControl array object, may be null
+     */
+    private void writeControls(LDAPControl[] ctrls)
+                throws IOException
+    {
+        if ( ctrls == null) {
+            return;
+        }
+        for ( int i = 0; i < ctrls.length; i++ ) {
+            putAscii("control: ");
+            putString( ctrls[i].getID());
+            putAscii( ctrls[i].isCritical() ? " true" : " false");
+            byte[] cVal = ctrls[i].getValue();
+            if ( cVal != null && cVal.length > 0) {
+                putAscii(":: ");
+                putBase64( cVal, 0, cVal.length);
+            }
+            newLine();
+        }
+        return;
+    }
+
+    /**
+     * Writes a line holding a String value: as is if the value is LDIF
+     * safe, else base64 encoded from its UTF-8 form.  The characters of a
+     * safe value are ASCII and are appended without conversion.
+     *
+     * @param name  the field name
+     * @param value the field value
+     */
+    private void writeField(String name, String value)
+                throws IOException
+    {
+        putString( name);
+        if ( isSafe( value)) {
+            putAscii(": ");
+            putAscii( value);
+        } else {
+            byte[] bytes = utf8( value);
+            putAscii(":: ");
+            putBase64( bytes, 0, bytes.length);
+        }
+        newLine();
+        return;
+    }
+
+    /**
+     * Writes one line for each value of an attribute.  The values are
+     * copied into the value scratch array instead of a new array each.
+     *
+     * @param attr the attribute to write
+     */
+    private void writeValues(LDAPAttribute attr)
+                throws IOException
+    {
+        String name = attr.getName();
+        for ( int i = 0, n = attr.size(); i < n; i++) {
+            int len = attr.getByteValueLength( i);
+            if ( len > valueBuf.length ) {
+                valueBuf = new byte[Math.max( len, valueBuf.length * 2)];
+            }
+            attr.getByteValue( i, valueBuf, 0);
+            writeValue( name, valueBuf, 0, len);
+        }
+        return;
+    }
+
+    /**
+     * Writes an attribute line.  The value is written as is if it is made
+     * of printable ASCII characters and is LDIF safe, else base64 encoded.
+     */
+    private void writeValue(String name, byte[] value, int off, int len)
+                throws IOException
+    {
+        putString( name);
+        if ( isPrintable( value, off, len)) {
+            putAscii(": ");
+            put( value, off, len);
+        } else {
+            putAscii(":: ");
+            putBase64( value, off, len);
+        }
+        newLine();
+        return;
+    }
+
+    /**
+     * Checks if a value can be written without encoding: every byte is
+     * printable ASCII, and the value does not start with a space, ':' or
+     * '<' nor end with a space.  These are the checks of
+     * Base64.isLDIFSafe and LDIFWriter.isPrintable together.
+     */
+    private static boolean isPrintable(byte[] value, int off, int len)
+    {
+        if ( len == 0) {
+            return true;
+        }
+        int c = value[off];
+        if ( c == ' ' || c == ':' || c == '<' || value[off+len-1] == ' ') {
+            return false;
+        }
+        for ( int i = off, end = off + len; i < end; i++) {
+            c = value[i];
+            if ( c < 0x20 || c > 0x7e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a String is LDIF safe as Base64.isLDIFSafe(String) does,
+     * without converting it to UTF-8.
+     */
+    private static boolean isSafe(String str)
+    {
+        int len = str.length();
+        if ( len == 0) {
+            return true;
+        }
+        char c = str.charAt(0);
+        if ( c == ' ' || c == ':' || c == '<' || str.charAt(len-1) == ' ') {
+            return false;
+        }
+        for ( int i = 0; i < len; i++) {
+            c = str.charAt(i);
+            if ( c == 0x00 || c == 0x0A || c == 0x0D || c > 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends a String of any characters, folding the line as needed.
+     */
+    private void putString(String str)
+                throws IOException
+    {
+        for ( int i = 0, len = str.length(); i < len; i++) {
+            if ( str.charAt(i) > 0x7f) {
+                byte[] bytes = utf8( str);
+                put( bytes, 0, bytes.length);
+                return;
+            }
+        }
+        putAscii( str);
+        return;
+    }
+
+    /**
+     * Appends a String of ASCII characters, folding the line as needed.
+     */
+    private void putAscii(String str)
+                throws IOException
+    {
+        for ( int i = 0, len = str.length(); i < len; i++) {
+            if ( col == LINE_LENGTH) {
+                fold();
+            }
+            if ( count == buf.length) {
+                flushBuffer();
+            }
+            buf[count++] = (byte)str.charAt(i);
+            col++;
+        }
+        return;
+    }
+
+    /**
+     * Appends bytes, folding the line as needed.
+     */
+    private void put(byte[] bytes, int off, int len)
+                throws IOException
+    {
+        while ( len > 0) {
+            if ( col == LINE_LENGTH) {
+                fold();
+            }
+            int n = Math.min( len, LINE_LENGTH - col);
+            if ( count + n > buf.length) {
+                flushBuffer();
+            }
+            System.arraycopy( bytes, off, buf, count, n);
+            count += n;
+            col += n;
+            off += n;
+            len -= n;
+        }
+        return;
+    }
+
+    /**
+     * Appends the base64 encoding of bytes, folding the line as needed.
+     */
+    private void putBase64(byte[] bytes, int off, int len)
+                throws IOException
+    {
+        int size = ((len + 2) / 3) * 4;
+        if ( size > encoded.length) {
+            encoded = new byte[Math.max( size, encoded.length * 2)];
+        }
+        put( encoded, 0, Base64.encode( bytes, off, off + len, encoded, 0));
+        return;
+    }
+
+    /**
+     * Ends the current line and starts a continuation line.
+     */
+    private void fold()
+                throws IOException
+    {
+        newLine();
+        if ( count == buf.length) {
+            flushBuffer();
+        }
+        buf[count++] = ' ';
+        col = 1;
+        return;
+    }
+
+    /**
+     * Ends the current line.
+     */
+    private void newLine()
+                throws IOException
+    {
+        putRaw( NEWLINE, 0, NEWLINE.length);
+        col = 0;
+        return;
+    }
+
+    /**
+     * Appends bytes without folding.
+     */
+    private void putRaw(byte[] bytes, int off, int len)
+                throws IOException
+    {
+        if ( count + len > buf.length) {
+            flushBuffer();
+            if ( len > buf.length) {
+                out.write( bytes, off, len);
+                return;
+            }
+        }
+        System.arraycopy( bytes, off, buf, count, len);
+        count += len;
+        return;
+    }
+
+    /**
+     * Writes the content of the buffer to the output stream.
+     */
+    private void flushBuffer()
+                throws IOException
+    {
+        if ( count > 0) {
+            out.write( buf, 0, count);
+            count = 0;
+        }
+        return;
+    }
+
+    private static byte[] utf8(String str)
+    {
+        try {
+            return str.getBytes("UTF-8");
+        } catch( UnsupportedEncodingException ue) {
+            throw new RuntimeException(
+                    "UTF-8 String encoding not supported by JVM");
+        }
+    }
+}
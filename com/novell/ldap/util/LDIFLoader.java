@@ -0,0 +1,542 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Vector;
+import com.novell.ldap.LDAPAddRequest;
+import com.novell.ldap.LDAPBulkResults;
+import com.novell.ldap.LDAPBulkWriter;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPConstraints;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPLocalException;
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.client.Debug;
+
+/**
+ * Imports an LDIF file into the directory, parsing the file on several
+ * threads and writing its records with an LDAPBulkWriter.
+ *
+ * <p>The file is split into chunks of about CHUNK_SIZE bytes that end at
+ * the empty line ending a record.  The chunks are parsed into requests by
+ * <code>threads</code> parser threads with LDIFByteReader, while the
+ * thread calling load reads the next chunks and writes the requests of the
+ * parsed chunks in the order of the file.  The records of a content file
+ * are added with LDAPAddRequests, those of a change file are sent as they
+ * are.</p>
+ *
+ * <p>The LDAPBulkWriter holds a request while a request on the parent of
+ * its entry is outstanding, so a file listing parents before their
+ * children is loaded in order.  In a content file, an entry added before
+ * its parent fails with NO_SUCH_OBJECT: such adds are deferred and retried
+ * once the file is loaded, sorted by the depth of their DN so that the
+ * parents are added first, for as long as a retry adds some of them.  The
+ * records of a change file may depend on each other, they are never
+ * reordered and an add failing with NO_SUCH_OBJECT fails.</p>
+ *
+ * <p>A parse error stops the load once the outstanding requests completed.
+ * Failing fast, the first failed request also stops the load, checked
+ * after each chunk; continuing on errors, the failures are only
+ * collected.  The adds deferred when the load stops are not retried, they
+ * are reported as failed with NO_SUCH_OBJECT.</p>
+ *
+ * <p>An LDIFLoader is not thread safe, a single thread calls load.</p>
+ *
+ * @see LDAPBulkWriter
+ * @see LDIFByteReader
+ */
+public class LDIFLoader
+{
+    /**
+     * The size of the chunks parsed by a single thread.
+     */
+    public static final int CHUNK_SIZE = 1024 * 1024;
+
+    private LDAPConnection[] conns;
+    private int window;
+    private int threads;
+    private boolean continueOnError;
+    private LDAPConstraints cons;
+    private boolean fileURLs = false;       // read file: URL values
+
+    private LDAPBulkResults results = new LDAPBulkResults();
+
+    // Shared with the parser threads, guarded by unparsed
+    private Vector unparsed = new Vector(); // chunks not yet parsed
+    private boolean request;                // the file is a change file
+    private boolean stopped = false;        // parser threads exit
+
+    /**
+     * Constructs a loader writing on a single connection.
+     *
+     *  @param conn            The connection to write the records on.
+     *<br><br>
+     *  @param window          The maximum number of requests outstanding.
+     *<br><br>
+     *  @param threads         The number of parser threads.
+     *<br><br>
+     *  @param continueOnError True to write all records whatever the
+     *                         failures, false to stop at the first failure.
+     */
+    public LDIFLoader( LDAPConnection conn,
+                       int window,
+                       int threads,
+                       boolean continueOnError)
+    {
+        this( new LDAPConnection[] { conn }, window, threads, continueOnError,
+              null);
+        return;
+    }
+
+    /**
+     * Constructs a loader writing on several connections.
+     *
+     *  @param conns           The connections to write the records on,
+     *                         used in turn.
+     *<br><br>
+     *  @param window          The maximum number of requests outstanding
+     *                         over all connections.
+     *<br><br>
+     *  @param threads         The number of parser threads.
+     *<br><br>
+     *  @param continueOnError True to write all records whatever the
+     *                         failures, false to stop at the first failure.
+     *<br><br>
+     *  @param cons            The constraints of each request, or null for
+     *                         those of the connection sending the request.
+     */
+    public LDIFLoader( LDAPConnection[] conns,
+                       int window,
+                       int threads,
+                       boolean continueOnError,
+                       LDAPConstraints cons)
+    {
+        if( (conns == null) || (conns.length == 0) || (window <= 0) ||
+            (threads <= 0)) {
+            throw new IllegalArgumentException(
+                "LDIFLoader: connections, window and threads required");
+        }
+        this.conns = conns;
+        this.window = window;
+        this.threads = threads;
+        this.continueOnError = continueOnError;
+        this.cons = cons;
+        return;
+    }
+
+    /**
+     * Sets whether values given by a <code>file:</code> URL are read from
+     * the file, by default they are not.
+     *
+     * @param allowed True to read the values given by a file URL.
+     *
+     * @see LDIFByteReader#setFileURLsAllowed
+     */
+    public void setFileURLsAllowed( boolean allowed)
+    {
+        this.fileURLs = allowed;
+        return;
+    }
+
+    /**
+     * Loads an LDIF file, read through a memory mapping.
+     *
+     *  @param file The LDIF file.
+     *
+     * @exception LDAPException if the loader fails fast and a request
+     * failed, or if the file contains an invalid record.
+     *
+     * @exception IOException if the file cannot be read.
+     */
+    public void load( File file)
+        throws LDAPException, IOException
+    {
+        LDIFByteReader reader = new LDIFByteReader( file);
+        try {
+            load( reader);
+        } finally {
+            reader.close();
+        }
+        return;
+    }
+
+    /**
+     * Loads the LDIF data of an InputStream.
+     *
+     *  @param in The stream of LDIF data.
+     *
+     * @exception LDAPException if the loader fails fast and a request
+     * failed, or if the data contains an invalid record.
+     *
+     * @exception IOException if the stream fails.
+     */
+    public void load( InputStream in)
+        throws LDAPException, IOException
+    {
+        load( new LDIFByteReader( in));
+        return;
+    }
+
+    /**
+     * Returns the number of records written successfully.
+     */
+    public int getSuccessCount()
+    {
+        return results.getSuccessCount();
+    }
+
+    /**
+     * Returns the number of records that failed.
+     */
+    public int getFailureCount()
+    {
+        return results.getFailureCount();
+    }
+
+    /**
+     * Returns the requests that failed.
+     *
+     * @return The failed requests, in the same order as getFailures.
+     */
+    public LDAPMessage[] getFailedRequests()
+    {
+        return results.getFailedRequests();
+    }
+
+    /**
+     * Returns the exceptions describing the failed requests.
+     *
+     * @return The exceptions, in the same order as getFailedRequests.
+     */
+    public LDAPException[] getFailures()
+    {
+        return results.getFailures();
+    }
+
+    /*
+     * Loads the records of a reader positioned on its first record: the
+     * first record is written from the reader, the rest of the file is
+     * split into chunks.
+     */
+    private void load( LDIFByteReader reader)
+        throws LDAPException, IOException
+    {
+        this.request = reader.isRequest();
+        this.stopped = false;
+        reader.setFileURLsAllowed( fileURLs);
+        LDAPBulkWriter writer = new LDAPBulkWriter( conns, window, true, cons);
+        Vector deferred = new Vector();
+        int checked = 0;                // writer failures classified
+        int lineBase;                   // lines before the next chunk
+        boolean loaded = false;         // whole file written
+
+        Thread[] parsers = new Thread[threads];
+        for( int i = 0; i < threads; i++) {
+            parsers[i] = conns[0].getThreadFactory().newThread(
+                                            new Parser(), "LDIFLoader");
+            parsers[i].start();
+        }
+        try {
+            writer.write( reader.readMessage());
+            lineBase = reader.getLineNumber();
+
+            Vector chunks = new Vector();   // chunks read, not yet written
+            boolean more = true;
+            for(;;) {
+                // keep the parser threads busy
+                while( more && (chunks.size() < 2 * threads)) {
+                    byte[] data = reader.readChunk( CHUNK_SIZE);
+                    if( data == null) {
+                        more = false;
+                        break;
+                    }
+                    Chunk chunk = new Chunk( data);
+                    chunks.addElement( chunk);
+                    synchronized( unparsed) {
+                        unparsed.addElement( chunk);
+                        unparsed.notify();
+                    }
+                }
+                if( chunks.isEmpty()) {
+                    break;
+                }
+
+                Chunk chunk = (Chunk)chunks.firstElement();
+                synchronized( unparsed) {
+                    while( ! chunk.done) {
+                        try {
+                            unparsed.wait();
+                        } catch( InterruptedException ie) {
+                            ;
+                        }
+                    }
+                }
+                chunks.removeElementAt( 0);
+                for( int i = 0; i < chunk.messages.size(); i++) {
+                    writer.write( (LDAPMessage)chunk.messages.get( i));
+                }
+                if( chunk.error != null) {
+                    writer.finish();
+                    results.addSuccesses( writer.getSuccessCount());
+                    classify( writer, checked, deferred);
+                    reparse( chunk, lineBase);
+                }
+                lineBase += chunk.lines;
+                if( ! continueOnError) {
+                    checked = classify( writer, checked, deferred);
+                    if( results.getFailureCount() != 0) {
+                        writer.finish();
+                        results.addSuccesses( writer.getSuccessCount());
+                        classify( writer, checked, deferred);
+                        throw results.getFirstFailure();
+                    }
+                }
+            }
+            writer.finish();
+            results.addSuccesses( writer.getSuccessCount());
+            classify( writer, checked, deferred);
+            loaded = true;
+        } finally {
+            synchronized( unparsed) {
+                stopped = true;
+                unparsed.removeAllElements();
+                unparsed.notifyAll();
+            }
+            if( ! loaded) {
+                // stopped early, the deferred adds are not retried
+                abandon( deferred);
+            }
+        }
+
+        retry( deferred);
+        return;
+    }
+
+    /*
+     * Retries the adds deferred because of a missing parent, by increasing
+     * DN depth, for as long as some of them succeed.
+     */
+    private void retry( Vector deferred)
+        throws LDAPException
+    {
+        while( ! deferred.isEmpty()) {
+            if( Debug.LDAP_DEBUG) {
+                Debug.trace( Debug.apiRequests, "LDIFLoader: retrying " +
+                    deferred.size() + " adds");
+            }
+            // bucket the adds by depth, keeping the order of the file
+            Vector levels = new Vector();
+            for( int i = 0; i < deferred.size(); i++) {
+                LDAPAddRequest add = (LDAPAddRequest)deferred.elementAt( i);
+                int depth = depth( add.getEntry().getDN());
+                while( levels.size() <= depth) {
+                    levels.addElement( new Vector());
+                }
+                ((Vector)levels.elementAt( depth)).addElement( add);
+            }
+            LDAPBulkWriter writer =
+                new LDAPBulkWriter( conns, window, true, cons);
+            for( int i = 0; i < levels.size(); i++) {
+                Vector level = (Vector)levels.elementAt( i);
+                for( int j = 0; j < level.size(); j++) {
+                    writer.write( (LDAPMessage)level.elementAt( j));
+                }
+            }
+            writer.finish();
+            results.addSuccesses( writer.getSuccessCount());
+            if( writer.getSuccessCount() == 0) {
+                // no parent was added, the adds fail for good
+                LDAPMessage[] requests = writer.getFailedRequests();
+                LDAPException[] exceptions = writer.getFailures();
+                for( int i = 0; i < requests.length; i++) {
+                    fail( requests[i], exceptions[i]);
+                }
+                break;
+            }
+            deferred = new Vector();
+            classify( writer, 0, deferred);
+        }
+        if( ! continueOnError && (results.getFailureCount() != 0)) {
+            throw results.getFirstFailure();
+        }
+        return;
+    }
+
+    /*
+     * Records the adds deferred because of a missing parent as failed, when
+     * the load stops before they are retried.
+     */
+    private void abandon( Vector deferred)
+    {
+        for( int i = 0; i < deferred.size(); i++) {
+            fail( (LDAPMessage)deferred.elementAt( i),
+                  new LDAPException( null, LDAPException.NO_SUCH_OBJECT,
+                                     (String)null));
+        }
+        deferred.removeAllElements();
+        return;
+    }
+
+    /*
+     * Classifies the failures of a writer from index checked: the adds of
+     * a content file failing with NO_SUCH_OBJECT are deferred, the others
+     * failed.  Returns the number of failures classified.
+     */
+    private int classify( LDAPBulkWriter writer, int checked, Vector deferred)
+    {
+        if( writer.getFailureCount() == checked) {
+            return checked;
+        }
+        LDAPMessage[] requests = writer.getFailedRequests();
+        LDAPException[] exceptions = writer.getFailures();
+        for( int i = checked; i < requests.length; i++) {
+            if( ! request && (requests[i] instanceof LDAPAddRequest) &&
+                (exceptions[i].getResultCode() ==
+                                            LDAPException.NO_SUCH_OBJECT)) {
+                deferred.addElement( requests[i]);
+            } else {
+                fail( requests[i], exceptions[i]);
+            }
+        }
+        return requests.length;
+    }
+
+    /*
+     * Records a failed request.
+     */
+    private void fail( LDAPMessage request, LDAPException ex)
+    {
+        results.addFailure( request, ex);
+        return;
+    }
+
+    /*
+     * Parses a chunk that failed again, from its first line in the file, to
+     * throw the exception reporting the line numbers of the file.
+     */
+    private void reparse( Chunk chunk, int lineBase)
+        throws LDAPException, IOException
+    {
+        Exception error = chunk.error;
+        LDIFByteReader reader = new LDIFByteReader( chunk.data,
+                                    chunk.data.length, request, lineBase);
+        reader.setFileURLsAllowed( fileURLs);
+        try {
+            while( reader.readMessage() != null) {
+                ;
+            }
+        } catch( LDAPException ex) {
+            error = ex;
+        } catch( IOException ex) {
+            error = ex;
+        }
+        if( error instanceof LDAPException) {
+            throw (LDAPException)error;
+        }
+        if( error instanceof IOException) {
+            throw (IOException)error;
+        }
+        if( error instanceof RuntimeException) {
+            throw (RuntimeException)error;
+        }
+        throw new LDAPLocalException( error.toString(),
+                                      LDAPException.LOCAL_ERROR);
+    }
+
+    /*
+     * Returns the number of RDNs of a DN.
+     */
+    private static int depth( String dn)
+    {
+        int depth = 1;
+        for( int i = 0; i < dn.length(); i++) {
+            char c = dn.charAt( i);
+            if( c == '\\') {
+                i++;        // escaped character
+            } else
+            if( c == ',') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    /*
+     * A chunk of the file and the requests parsed from it.
+     */
+    private static final class Chunk
+    {
+        private final byte[] data;
+        private ArrayList messages = new ArrayList();
+        private Exception error = null;
+        private int lines = 0;
+        private boolean done = false;
+
+        private Chunk( byte[] data)
+        {
+            this.data = data;
+            return;
+        }
+    }
+
+    /*
+     * A parser thread, parsing the chunks in the order they were read.
+     */
+    private final class Parser implements Runnable
+    {
+        public void run()
+        {
+            for(;;) {
+                Chunk chunk;
+                synchronized( unparsed) {
+                    while( unparsed.isEmpty() && ! stopped) {
+                        try {
+                            unparsed.wait();
+                        } catch( InterruptedException ie) {
+                            ;
+                        }
+                    }
+                    if( stopped) {
+                        return;
+                    }
+                    chunk = (Chunk)unparsed.remove( 0);
+                }
+
+                LDIFByteReader reader = new LDIFByteReader( chunk.data,
+                                        chunk.data.length, request, 0);
+                reader.setFileURLsAllowed( fileURLs);
+                try {
+                    LDAPMessage msg;
+                    while( (msg = reader.readMessage()) != null) {
+                        chunk.messages.add( LDAPBulkWriter.toRequest( msg));
+                    }
+                } catch( Exception ex) {
+                    chunk.error = ex;
+                }
+                chunk.lines = reader.getLineNumber();
+
+                synchronized( unparsed) {
+                    chunk.done = true;
+                    unparsed.notifyAll();
+                }
+            }
+        }
+    }
+}
@@ -47,6 +47,8 @@ import com.novell.ldap.util.Base64;
  *    of the first record in the LDIF file currently being read.</p>
  *
  * <p>The constructors uses '1' as default LDIF file version</p>
+ *
+ * @see LDIFByteReader
  */
 public class LDIFReader implements LDAPReader {
 
@@ -31,6 +31,8 @@ import com.novell.ldap.util.Base64;
  *
  * <p>The object of the class is used to generate LDIF content record or LDIF
  * change record lines and write the lines to OUtputStream</p>
+ *
+ * @see LDIFByteWriter
  */
 
 
@@ -20,12 +20,20 @@ import com.novell.ldap.connectionpool.*;
 import com.novell.ldap.util.*;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Vector;
 
 /**
  * Class that provides utility functions for processing LDAP requests.
  */
 public class ImportExport
 {
+    /**
+     * The default maximum number of requests of a parallel batchRequest
+     * outstanding at a time.
+     */
+    public static final int DEFAULT_WINDOW = 64;
+
     private ImportExport()
     {
         // Don't allow an instance of this class
@@ -39,6 +47,11 @@ public class ImportExport
      * to an LDAPConnection class (obtained from the connection pool),
      * and writes the responses to an LDAPWriter class.</p>
      *
+     * <p>A DSML batchRequest with <tt>processing="parallel"</tt> keeps up
+     * to DEFAULT_WINDOW requests outstanding, see
+     * {@link #process(Authorization, PoolManager, LDAPReader, LDAPWriter,
+     * int)}.</p>
+     *
      * @param reqAuth the class that encapsulates the authentication credentials
      * @param connPool a connection pool used to obtain an connection
      * @param reqDsmlRdr the LDAPReader class that supplies the LDAP requests
@@ -49,6 +62,40 @@ public class ImportExport
                                LDAPReader reqDsmlRdr,
                                LDAPWriter rspDsmlWtr)
             throws InterruptedException, IOException
+    {
+        process(reqAuth, connPool, reqDsmlRdr, rspDsmlWtr, DEFAULT_WINDOW);
+        return;
+    }
+
+    /**
+     * Processes LDAP requests from an LDAPReader class.
+     *
+     * <p>Processes requests from an LDAPReader class, submits the requests
+     * to an LDAPConnection class (obtained from the connection pool),
+     * and writes the responses to an LDAPWriter class.</p>
+     *
+     * <p>The requests are processed one at a time, unless they come from
+     * a DSML batchRequest with <tt>processing="parallel"</tt>.  The
+     * requests of a parallel batchRequest are sent without waiting for the
+     * previous responses, up to <code>window</code> requests outstanding at
+     * a time on the same connection.  The responses to each request are
+     * written together, in the order of the requests, or as each request
+     * completes if the batchRequest also has
+     * <tt>responseOrder="unordered"</tt>.</p>
+     *
+     * @param reqAuth the class that encapsulates the authentication credentials
+     * @param connPool a connection pool used to obtain an connection
+     * @param reqDsmlRdr the LDAPReader class that supplies the LDAP requests
+     * @param rspDsmlWtr the LDAPWriter class that accepts the LDAP responses
+     * @param window the maximum number of requests of a parallel batchRequest
+     * outstanding at a time
+     */
+    static public void process(Authorization reqAuth,
+                               PoolManager connPool,
+                               LDAPReader reqDsmlRdr,
+                               LDAPWriter rspDsmlWtr,
+                               int window)
+            throws InterruptedException, IOException
     {
         LDAPConnection ldapConn = null;
         LDAPMessage reqLdapMsg, rspLdapMsg;
@@ -63,6 +110,13 @@ public class ImportExport
             }
             // Convert DSML batch request into LDAPMessage request.
             reqLdapMsg = reqDsmlRdr.readMessage();
+            if( (reqDsmlRdr instanceof DSMLReader) &&
+                ((DSMLReader)reqDsmlRdr).isParallelProcessing()) {
+                processParallel(ldapConn, reqLdapMsg, reqDsmlRdr, rspDsmlWtr,
+                        ! ((DSMLReader)reqDsmlRdr).isResponseUnordered(),
+                        window);
+                reqLdapMsg = null;
+            }
             // Process LDAP message.
             while( reqLdapMsg != null )
             {
@@ -91,4 +145,103 @@ public class ImportExport
         }
         return;
     }
+
+    /**
+     * Processes the requests of a parallel batchRequest, keeping up to
+     * <code>window</code> requests outstanding on the connection.
+     *
+     * <p>The responses of all requests are read from a single queue.  The
+     * responses of a request are buffered until the request completes, so
+     * that the results of a search are written in a single searchResponse,
+     * except when the request is the oldest outstanding one and the
+     * responses are ordered: those are written as they arrive.</p>
+     */
+    private static void processParallel(LDAPConnection ldapConn,
+                                        LDAPMessage reqLdapMsg,
+                                        LDAPReader reqDsmlRdr,
+                                        LDAPWriter rspDsmlWtr,
+                                        boolean ordered,
+                                        int window)
+            throws LDAPException, IOException
+    {
+        LDAPMessageQueue rspLdapMsgQ = null;
+        Vector outstanding = new Vector();  // Pending requests, in order
+        HashMap pending = new HashMap();    // Message ID -> Pending request
+        try {
+            while( (reqLdapMsg != null) || ! outstanding.isEmpty()) {
+                // Send requests while the window is not full
+                while( (reqLdapMsg != null) && (outstanding.size() < window)) {
+                    rspLdapMsgQ = ldapConn.sendRequest(
+                                        reqLdapMsg, rspLdapMsgQ, null);
+                    Pending req = new Pending();
+                    outstanding.addElement( req);
+                    pending.put( new Integer( reqLdapMsg.getMessageID()), req);
+                    reqLdapMsg = reqDsmlRdr.readMessage();
+                }
+
+                LDAPMessage rspLdapMsg = rspLdapMsgQ.getResponse();
+                if( rspLdapMsg == null) {
+                    break;      // nothing outstanding any more
+                }
+                Pending req = (Pending)pending.get(
+                                    new Integer( rspLdapMsg.getMessageID()));
+                if( req == null) {
+                    continue;
+                }
+                boolean last = (rspLdapMsg instanceof LDAPResponse) &&
+                               ! (rspLdapMsg instanceof LDAPIntermediateResponse);
+                if( ordered && (outstanding.firstElement() == req)) {
+                    // The oldest request, stream its responses
+                    rspDsmlWtr.writeMessage( rspLdapMsg);
+                } else {
+                    req.responses.addElement( rspLdapMsg);
+                }
+                if( last) {
+                    req.complete = true;
+                    pending.remove( new Integer( rspLdapMsg.getMessageID()));
+                    if( ! ordered) {
+                        write( req, rspDsmlWtr);
+                        outstanding.removeElement( req);
+                    }
+                }
+                // In order, write the completed requests at the head
+                while( ordered && ! outstanding.isEmpty()) {
+                    Pending head = (Pending)outstanding.firstElement();
+                    write( head, rspDsmlWtr);
+                    if( ! head.complete) {
+                        break;
+                    }
+                    outstanding.removeElementAt( 0);
+                }
+            }
+        } finally {
+            if( ! outstanding.isEmpty() && (rspLdapMsgQ != null)) {
+                ldapConn.abandon( rspLdapMsgQ);
+            }
+        }
+        return;
+    }
+
+    /*
+     * Writes the responses buffered for a request.
+     */
+    private static void write(Pending req, LDAPWriter rspDsmlWtr)
+            throws LDAPException, IOException
+    {
+        for( int i = 0; i < req.responses.size(); i++) {
+            rspDsmlWtr.writeMessage( (LDAPMessage)req.responses.elementAt( i));
+        }
+        req.responses.removeAllElements();
+        return;
+    }
+
+    /*
+     * A request of a parallel batchRequest and its responses not yet
+     * written.
+     */
+    private static final class Pending
+    {
+        private Vector responses = new Vector();
+        private boolean complete = false;
+    }
 }
@@ -154,8 +154,9 @@ public class DsmlService extends HttpServlet
 
         try
         {
-            // Get the request as a stream.
-            reqDsmlRdr = new DSMLReader(req.getInputStream());
+            // Get the request as a stream, parsed as the requests are
+            // processed so that a large batchRequest is never held in memory.
+            reqDsmlRdr = new DSMLReader(req.getInputStream(), true);
             // Get the Authorization out of the HTTP header.
             // This Authorization contains the DN and password that is
             // used to login to the LDAP server.
@@ -221,6 +222,9 @@ public class DsmlService extends HttpServlet
             status = "DsmlService - Error: " + e;
 
             throw new ServletException(status);
+        } finally {
+            // Stop parsing the rest of a request not processed to the end
+            if(null != reqDsmlRdr)reqDsmlRdr.close();
         }
         return;
     }
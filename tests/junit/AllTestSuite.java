@@ -13,9 +13,17 @@
  * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
  * CRIMINAL AND CIVIL LIABILITY.
  */
+import com.novell.ldap.LDAPEntryCacheTest;
+import com.novell.ldap.LDAPSearchResultTest;
 import com.novell.ldap.LDAPUrlTest;
+import com.novell.ldap.MessageTableTest;
+import com.novell.ldap.asn1.LBEREncoderTest;
+import com.novell.ldap.asn1.LBERFrameReaderTest;
+import com.novell.ldap.client.TimerWheelTest;
 import com.novell.ldap.util.DSMLReaderTest;
 import com.novell.ldap.util.DSMLWriterTest;
+import com.novell.ldap.util.LDIFByteReaderTest;
+import com.novell.ldap.util.LDIFByteWriterTest;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 /**
@@ -31,6 +39,14 @@ public class AllTestSuite {
 		suite.addTest(new TestSuite(LDAPUrlTest.class));
 		suite.addTest(new TestSuite(DSMLReaderTest.class));
 		suite.addTest(new TestSuite(DSMLWriterTest.class));
+		suite.addTest(new TestSuite(LBEREncoderTest.class));
+		suite.addTest(new TestSuite(LBERFrameReaderTest.class));
+		suite.addTest(new TestSuite(MessageTableTest.class));
+		suite.addTest(new TestSuite(LDAPSearchResultTest.class));
+		suite.addTest(new TestSuite(LDAPEntryCacheTest.class));
+		suite.addTest(new TestSuite(TimerWheelTest.class));
+		suite.addTest(new TestSuite(LDIFByteReaderTest.class));
+		suite.addTest(new TestSuite(LDIFByteWriterTest.class));
 		//$JUnit-END$
 		return suite;
 	}
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap;
+import com.novell.ldap.asn1.ASN1OctetString;
+import com.novell.ldap.asn1.ASN1Sequence;
+import com.novell.ldap.asn1.ASN1Set;
+import com.novell.ldap.asn1.LBEREncoder;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for the entry cache: least recently used
+ * eviction, time to live, byte bounds, and the generations keeping stale
+ * results out of the cache.
+ */
+public class LDAPEntryCacheTest extends TestCase {
+	/**
+	 * Returns the encoded attributes of an entry with a single cn value.
+	 */
+	private static byte[] encode(String cn) {
+		ASN1Sequence attr = new ASN1Sequence();
+		attr.add(new ASN1OctetString("cn"));
+		ASN1Set values = new ASN1Set();
+		values.add(new ASN1OctetString(cn));
+		attr.add(values);
+		ASN1Sequence attrs = new ASN1Sequence();
+		attrs.add(attr);
+		return new LBEREncoder().encodeToArray(attrs);
+	}
+	private static String key(String dn, String identity) {
+		return LDAPEntryCache.getKey(LDAPEntryCache.normalize(dn),
+				"(objectClass=*)", null, false, identity);
+	}
+	private static void put(LDAPEntryCache cache, String cn) {
+		String dn = "cn=" + cn + ",o=example";
+		cache.put(key(dn, ""), LDAPEntryCache.normalize(dn), dn, encode(cn),
+				cache.getGeneration());
+	}
+	private static LDAPEntry get(LDAPEntryCache cache, String cn) {
+		return cache.get(key("cn=" + cn + ",o=example", ""));
+	}
+	/**
+	 * Checks that a cached entry is returned with its attributes, as a new
+	 * LDAPEntry for each read, and the hit and miss counts.
+	 */
+	public void testPutGet() {
+		LDAPEntryCache cache = new LDAPEntryCache(10, 0, 0);
+		assertNull(get(cache, "a"));
+		put(cache, "a");
+		LDAPEntry entry = get(cache, "a");
+		assertNotNull(entry);
+		assertEquals("cn=a,o=example", entry.getDN());
+		assertEquals("a", entry.getAttribute("cn").getStringValue());
+		entry.getAttributeSet().remove("cn");
+		assertNotNull(get(cache, "a").getAttribute("cn"));
+		assertNull(cache.get(key("CN=A, O=Example", "cn=admin")));
+		assertNotNull(cache.get(key("CN=A, O=Example", "")));
+		assertEquals(1, cache.getSize());
+		assertEquals(3, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+	}
+	/**
+	 * Checks that the least recently used entry is evicted first.
+	 */
+	public void testLeastRecentlyUsed() {
+		LDAPEntryCache cache = new LDAPEntryCache(3, 0, 0);
+		put(cache, "a");
+		put(cache, "b");
+		put(cache, "c");
+		assertNotNull(get(cache, "a"));
+		put(cache, "d");
+		assertEquals(3, cache.getSize());
+		assertEquals(1, cache.getEvictionCount());
+		assertNull(get(cache, "b"));
+		assertNotNull(get(cache, "a"));
+		assertNotNull(get(cache, "c"));
+		assertNotNull(get(cache, "d"));
+		put(cache, "e");
+		assertNull(get(cache, "a"));
+	}
+	/**
+	 * Checks that an entry expires once its time to live elapsed.
+	 *
+	 * @throws Exception
+	 */
+	public void testTimeToLive() throws Exception {
+		LDAPEntryCache cache = new LDAPEntryCache(10, 0, 50);
+		put(cache, "a");
+		assertNotNull(get(cache, "a"));
+		Thread.sleep(100);
+		assertNull(get(cache, "a"));
+		assertEquals(0, cache.getSize());
+		assertEquals(0, cache.getByteCount());
+	}
+	/**
+	 * Checks that the cache is kept within its bound in bytes, and that an
+	 * entry larger than the bound is not cached.
+	 */
+	public void testByteBound() {
+		LDAPEntryCache unbounded = new LDAPEntryCache(100, 0, 0);
+		put(unbounded, "a");
+		long size = unbounded.getByteCount();
+		assertTrue(size > encode("a").length);
+
+		LDAPEntryCache cache = new LDAPEntryCache(100, 3 * size, 0);
+		put(cache, "a");
+		put(cache, "b");
+		put(cache, "c");
+		assertEquals(3, cache.getSize());
+		assertEquals(3 * size, cache.getByteCount());
+		put(cache, "d");
+		assertEquals(3, cache.getSize());
+		assertTrue(cache.getByteCount() <= 3 * size);
+		assertNull(get(cache, "a"));
+
+		StringBuffer big = new StringBuffer();
+		for (int i = 0; i < 3 * size; i++) {
+			big.append('x');
+		}
+		put(cache, big.toString());
+		assertNull(get(cache, big.toString()));
+		assertEquals(3, cache.getSize());
+		assertNotNull(get(cache, "d"));
+	}
+	/**
+	 * Checks that invalidation removes an entry for all identities and the
+	 * entries of a subtree, and that a result read across an invalidation
+	 * is not cached.
+	 */
+	public void testInvalidation() {
+		LDAPEntryCache cache = new LDAPEntryCache(10, 0, 0);
+		String dn = "cn=a,o=example";
+		String normDN = LDAPEntryCache.normalize(dn);
+		cache.put(key(dn, ""), normDN, dn, encode("a"), cache.getGeneration());
+		cache.put(key(dn, "cn=admin"), normDN, dn, encode("a"),
+				cache.getGeneration());
+		put(cache, "b");
+		assertEquals(3, cache.getSize());
+		cache.invalidate("CN=A,o=example");
+		assertNull(cache.get(key(dn, "")));
+		assertNull(cache.get(key(dn, "cn=admin")));
+		assertNotNull(get(cache, "b"));
+
+		long sent = cache.getGeneration();
+		cache.invalidate("cn=other,o=example");
+		cache.put(key(dn, ""), normDN, dn, encode("a"), sent);
+		assertNull(cache.get(key(dn, "")));
+		cache.put(key(dn, ""), normDN, dn, encode("a"), cache.getGeneration());
+		assertNotNull(cache.get(key(dn, "")));
+
+		put(cache, "c");
+		cache.put(key("o=example", ""), "o=example", "o=example",
+				encode("o"), cache.getGeneration());
+		cache.put(key("o=other", ""), "o=other", "o=other", encode("o"),
+				cache.getGeneration());
+		cache.invalidateSubtree("o=example");
+		assertEquals(1, cache.getSize());
+		assertNotNull(cache.get(key("o=other", "")));
+
+		sent = cache.getGeneration();
+		cache.clear();
+		assertEquals(0, cache.getSize());
+		assertEquals(0, cache.getByteCount());
+		assertTrue(cache.getGeneration() != sent);
+	}
+}
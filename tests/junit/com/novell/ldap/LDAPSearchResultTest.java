@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.TreeMap;
+import com.novell.ldap.asn1.ASN1OctetString;
+import com.novell.ldap.asn1.ASN1Sequence;
+import com.novell.ldap.asn1.ASN1Set;
+import com.novell.ldap.asn1.LBERDecoder;
+import com.novell.ldap.asn1.LBEREncoder;
+import com.novell.ldap.rfc2251.RfcLDAPMessage;
+import com.novell.ldap.rfc2251.RfcSearchResultEntry;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases checking that the attributes of a search
+ * result entry decoded lazily from their encoding are those decoded through
+ * ASN1Objects, and that invalid encodings are rejected.
+ */
+public class LDAPSearchResultTest extends TestCase {
+	/**
+	 * Encodes a search result entry message with a few attributes, some
+	 * values long enough to need multiple octet lengths.
+	 */
+	private static byte[] encodeEntry() throws Exception {
+		ASN1Sequence attrs = new ASN1Sequence();
+		attrs.add(attribute("cn", new byte[][] {
+				"J\u00fcrgen".getBytes("UTF-8"), "jm".getBytes("UTF-8")}));
+		attrs.add(attribute("objectClass", new byte[][] {
+				"top".getBytes("UTF-8"), "person".getBytes("UTF-8")}));
+		byte[] photo = new byte[300];
+		for (int i = 0; i < photo.length; i++) {
+			photo[i] = (byte) i;
+		}
+		attrs.add(attribute("jpegPhoto", new byte[][] {photo}));
+		attrs.add(attribute("description", new byte[][] {new byte[0]}));
+		attrs.add(attribute("member", new byte[0][]));
+		RfcLDAPMessage msg = new RfcLDAPMessage(new RfcSearchResultEntry(
+				new ASN1OctetString("cn=jm,o=example"), attrs));
+		return new LBEREncoder().encodeToArray(msg);
+	}
+	private static ASN1Sequence attribute(String name, byte[][] values) {
+		ASN1Sequence attr = new ASN1Sequence();
+		attr.add(new ASN1OctetString(name));
+		ASN1Set set = new ASN1Set();
+		for (int i = 0; i < values.length; i++) {
+			set.add(new ASN1OctetString(values[i]));
+		}
+		attr.add(set);
+		return attr;
+	}
+	/**
+	 * Decodes a message from its encoding, as the connection reader does.
+	 */
+	private static LDAPSearchResult decode(byte[] ber) throws IOException {
+		int off = 2;
+		if ((ber[1] & 0x80) != 0) {
+			off += ber[1] & 0x7f;
+		}
+		return new LDAPSearchResult(new RfcLDAPMessage(new LBERDecoder(),
+				new ByteArrayInputStream(ber, off, ber.length - off),
+				ber.length - off));
+	}
+	/**
+	 * Returns the attributes of an entry as a sorted string.
+	 */
+	private static String describe(LDAPEntry entry) {
+		TreeMap map = new TreeMap();
+		Iterator i = entry.getAttributeSet().iterator();
+		while (i.hasNext()) {
+			LDAPAttribute attr = (LDAPAttribute) i.next();
+			StringBuffer b = new StringBuffer();
+			byte[][] values = attr.getByteValueArray();
+			for (int j = 0; j < values.length; j++) {
+				b.append('[');
+				for (int k = 0; k < values[j].length; k++) {
+					b.append(values[j][k]).append(' ');
+				}
+				b.append(']');
+			}
+			map.put(attr.getName(), b.toString());
+		}
+		return entry.getDN() + map;
+	}
+	/**
+	 * The lazy decoding must give the attributes of the ASN1Object
+	 * decoding.
+	 *
+	 * @throws Exception
+	 */
+	public void testLazyMatchesEager() throws Exception {
+		byte[] ber = encodeEntry();
+		LDAPSearchResult lazy = decode(ber);
+		LDAPSearchResult eager = decode(ber);
+		RfcSearchResultEntry rfcEntry = (RfcSearchResultEntry) eager
+				.getASN1Object().getResponse();
+		assertNotNull(rfcEntry.getEncodedAttributes());
+		rfcEntry.getAttributes();
+		assertNull(rfcEntry.getEncodedAttributes());
+
+		LDAPEntry entry = lazy.getEntry();
+		assertNotNull(entry.getEncodedAttributes());
+		assertEquals(describe(eager.getEntry()), describe(entry));
+		assertNull(entry.getEncodedAttributes());
+		assertEquals(5, entry.getAttributeSet().size());
+	}
+	/**
+	 * Every truncation of the attribute encoding must be rejected by the
+	 * lazy decoder.
+	 *
+	 * @throws Exception
+	 */
+	public void testTruncatedAttributes() throws Exception {
+		LDAPSearchResult result = decode(encodeEntry());
+		byte[] attrs = result.getEntry().getEncodedAttributes();
+		LDAPSearchResult.decodeAttributes(attrs);
+		for (int len = 0; len < attrs.length; len++) {
+			byte[] cut = new byte[len];
+			System.arraycopy(attrs, 0, cut, 0, len);
+			try {
+				LDAPSearchResult.decodeAttributes(cut);
+				fail("truncated to " + len + " octets decoded");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+	/**
+	 * An attribute encoding with a wrong identifier, or with an element
+	 * overrunning the element holding it, must fail the decoding of the
+	 * message rather than the access to the attributes.
+	 *
+	 * @throws Exception
+	 */
+	public void testInvalidAttributes() throws Exception {
+		byte[] ber = encodeEntry();
+		byte[] attrs = decode(ber).getEntry().getEncodedAttributes();
+		int start = ber.length - attrs.length;
+		// offsets in attrs: list 0-3, first attribute 4-5, its type 6-7
+		assertEquals(0x30, attrs[0]);
+		assertEquals((byte) 0x82, attrs[1]);
+		assertEquals(0x30, attrs[4]);
+		assertEquals(0x04, attrs[6]);
+
+		byte[] bad = (byte[]) ber.clone();
+		bad[start + 6] = 0x05;          // type not an OCTET STRING
+		checkRejected(bad);
+
+		bad = (byte[]) ber.clone();
+		bad[start + 7] += 10;           // type overruns its attribute
+		checkRejected(bad);
+
+		bad = (byte[]) ber.clone();
+		bad[start + 5] += 1;            // attribute overruns the next one
+		checkRejected(bad);
+	}
+	private static void checkRejected(byte[] ber) {
+		try {
+			decode(ber);
+			fail("invalid attributes decoded");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap;
+import java.util.HashMap;
+import java.util.Random;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for the message ID index of outstanding
+ * messages, and for MessageVector keeping its index consistent.
+ */
+public class MessageTableTest extends TestCase {
+	private MessageTable table = null;
+	/*
+	 * @see TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		super.setUp();
+		table = new MessageTable();
+	}
+	/*
+	 * @see TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		super.tearDown();
+	}
+	private static Message newMessage() throws Exception {
+		return new Message(new LDAPDeleteRequest("cn=test", null), 0, null,
+				null, null, null);
+	}
+	/**
+	 * Checks get, put and remove of a few messages.
+	 *
+	 * @throws Exception
+	 */
+	public void testPutGetRemove() throws Exception {
+		Message m1 = newMessage();
+		Message m2 = newMessage();
+		assertNull(table.get(m1.getMessageID()));
+		table.put(m1);
+		table.put(m2);
+		assertTrue(table.get(m1.getMessageID()) == m1);
+		assertTrue(table.findMessageById(m2.getMessageID()) == m2);
+		assertTrue(table.remove(m1));
+		assertFalse(table.remove(m1));
+		assertNull(table.get(m1.getMessageID()));
+		assertTrue(table.get(m2.getMessageID()) == m2);
+		try {
+			table.findMessageById(m1.getMessageID());
+			fail("removed message found");
+		} catch (NoSuchFieldException e) {
+			// expected
+		}
+	}
+	/**
+	 * Checks that getObjectArray returns every message once and empties the
+	 * table.
+	 *
+	 * @throws Exception
+	 */
+	public void testGetObjectArray() throws Exception {
+		HashMap added = new HashMap();
+		for (int i = 0; i < 100; i++) {
+			Message m = newMessage();
+			table.put(m);
+			added.put(m, m);
+		}
+		Object[] all = table.getObjectArray();
+		assertEquals(100, all.length);
+		for (int i = 0; i < all.length; i++) {
+			assertTrue(added.remove(all[i]) != null);
+		}
+		assertEquals(0, table.getObjectArray().length);
+	}
+	/**
+	 * Adds and removes many messages in random order, so segments are
+	 * rehashed and probe sequences run over removed entries, and checks
+	 * the table against a HashMap after each step.
+	 *
+	 * @throws Exception
+	 */
+	public void testRandomOperations() throws Exception {
+		Random random = new Random(3);
+		HashMap expected = new HashMap();
+		Message[] live = new Message[2000];
+		int count = 0;
+		for (int step = 0; step < 20000; step++) {
+			if (count == 0 || (count < live.length && random.nextBoolean())) {
+				Message m = newMessage();
+				table.put(m);
+				expected.put(new Integer(m.getMessageID()), m);
+				live[count++] = m;
+			} else {
+				int i = random.nextInt(count);
+				Message m = live[i];
+				live[i] = live[--count];
+				assertTrue(table.remove(m));
+				expected.remove(new Integer(m.getMessageID()));
+				assertNull(table.get(m.getMessageID()));
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			assertTrue(table.get(live[i].getMessageID()) == live[i]);
+		}
+		assertEquals(expected.size(), table.getObjectArray().length);
+	}
+	/**
+	 * Checks that messages removed from a MessageVector by any of the
+	 * Vector methods are removed from its index.
+	 *
+	 * @throws Exception
+	 */
+	public void testMessageVectorIndex() throws Exception {
+		MessageVector vector = new MessageVector(5, 5);
+		Message m1 = newMessage();
+		Message m2 = newMessage();
+		Message m3 = newMessage();
+		vector.addElement(m1);
+		vector.add(m2);
+		vector.insertElementAt(m3, 0);
+		assertTrue(vector.findMessageById(m1.getMessageID()) == m1);
+		assertTrue(vector.removeElement(m1));
+		assertFalse(vector.removeElement(m1));
+		vector.remove(0);
+		assertTrue(vector.findMessageById(m2.getMessageID()) == m2);
+		vector.clear();
+		for (int i = 0; i < 3; i++) {
+			Message m = (i == 0) ? m1 : (i == 1) ? m2 : m3;
+			try {
+				vector.findMessageById(m.getMessageID());
+				fail("removed message found");
+			} catch (NoSuchFieldException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap.asn1;
+import java.util.Arrays;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases checking that the single pass array encoding
+ * produces the same results as the stream encoder.
+ */
+public class LBEREncoderTest extends TestCase {
+	private LBEREncoder encoder = null;
+	/*
+	 * @see TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		super.setUp();
+		encoder = new LBEREncoder();
+	}
+	/**
+	 * Builds a nested structure using every supported ASN.1 type, with
+	 * content long enough to need multiple octet lengths.
+	 */
+	private ASN1Sequence createMessage(int size) {
+		ASN1Sequence seq = new ASN1Sequence();
+		seq.add(new ASN1Integer(size));
+		ASN1Set set = new ASN1Set();
+		set.add(new ASN1OctetString(new byte[size]));
+		set.add(new ASN1Boolean(true));
+		set.add(new ASN1Null());
+		set.add(new ASN1Enumerated(-129));
+		seq.add(new ASN1Tagged(new ASN1Identifier(ASN1Identifier.APPLICATION,
+				true, 8), set, true));
+		seq.add(new ASN1Tagged(new ASN1Identifier(ASN1Identifier.CONTEXT,
+				false, 200), new ASN1OctetString("implicit"), false));
+		seq.add(new ASN1Choice(new ASN1Integer(Integer.MIN_VALUE)));
+		return seq;
+	}
+	/**
+	 * The array encoding must match the stream encoding byte for byte.
+	 */
+	public void testEncodeToArray() throws Exception {
+		int sizes[] = {0, 1, 127, 128, 255, 256, 70000};
+		for (int i = 0; i < sizes.length; i++) {
+			ASN1Sequence seq = createMessage(sizes[i]);
+			byte[] expected = seq.getEncoding(encoder);
+			assertEquals("Encoded length", expected.length, encoder
+					.getEncodedLength(seq));
+			assertTrue("Encodings should match for size " + sizes[i], Arrays
+					.equals(expected, encoder.encodeToArray(seq)));
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap.asn1;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for the frame reader splitting a stream of
+ * LBER elements: frames of any size read in any chunks, and the limit on
+ * the length of a frame.
+ */
+public class LBERFrameReaderTest extends TestCase {
+	private static final int[] SIZES = {0, 1, 127, 128, 255, 256, 70000};
+	/**
+	 * Returns the encoding of an OCTET STRING of the size given.
+	 */
+	private static byte[] encode(int size) {
+		byte[] value = new byte[size];
+		for (int i = 0; i < size; i++) {
+			value[i] = (byte) (i * 7);
+		}
+		return new LBEREncoder().encodeToArray(new ASN1OctetString(value));
+	}
+	/**
+	 * Returns the encodings of the SIZES octet strings, one after the
+	 * other.
+	 */
+	private static byte[] encodeAll() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < SIZES.length; i++) {
+			byte[] b = encode(SIZES[i]);
+			out.write(b, 0, b.length);
+		}
+		return out.toByteArray();
+	}
+	/**
+	 * Checks that a frame holds the content of the octet string of the size
+	 * given.
+	 */
+	private static void checkFrame(LBERFrameReader reader, InputStream frame,
+			int size) throws IOException {
+		assertEquals(ASN1OctetString.TAG, reader.getIdentifier().getTag());
+		assertEquals(size, reader.getLength());
+		assertEquals(size, frame.available());
+		byte[] content = new byte[size];
+		int n = 0;
+		while (n < size) {
+			int r = frame.read(content, n, size - n);
+			assertTrue(r > 0);
+			n += r;
+		}
+		assertEquals(-1, frame.read());
+		byte[] expected = encode(size);
+		byte[] value = new byte[size];
+		System.arraycopy(expected, expected.length - size, value, 0, size);
+		assertTrue("frame of " + size, Arrays.equals(value, content));
+	}
+	/**
+	 * A stream returning at most one byte per read.
+	 */
+	private static class TrickleInputStream extends InputStream {
+		private InputStream in;
+		private TrickleInputStream(byte[] data) {
+			in = new ByteArrayInputStream(data);
+		}
+		public int read() throws IOException {
+			return in.read();
+		}
+		public int read(byte[] b, int off, int len) throws IOException {
+			return in.read(b, off, Math.min(len, 1));
+		}
+	}
+	/**
+	 * Checks that frames of any size are read whole, from a stream
+	 * returning all its data or one byte at a time, and that a stream
+	 * ending within a frame is reported.
+	 *
+	 * @throws Exception
+	 */
+	public void testReadFrame() throws Exception {
+		byte[] data = encodeAll();
+		InputStream[] streams = {new ByteArrayInputStream(data),
+				new TrickleInputStream(data)};
+		for (int s = 0; s < streams.length; s++) {
+			LBERFrameReader reader = new LBERFrameReader(streams[s], 16);
+			for (int i = 0; i < SIZES.length; i++) {
+				checkFrame(reader, reader.readFrame(), SIZES[i]);
+			}
+			try {
+				reader.readFrame();
+				fail("frame read past the end of the stream");
+			} catch (EOFException e) {
+				// expected
+			}
+		}
+
+		byte[] cut = new byte[data.length - 1];
+		System.arraycopy(data, 0, cut, 0, cut.length);
+		LBERFrameReader reader = new LBERFrameReader(
+				new ByteArrayInputStream(cut));
+		for (int i = 0; i < SIZES.length - 1; i++) {
+			reader.readFrame();
+		}
+		try {
+			reader.readFrame();
+			fail("truncated frame read");
+		} catch (EOFException e) {
+			// expected
+		}
+	}
+	/**
+	 * Checks that a non-blocking reader returns each frame once complete,
+	 * whatever the amount of data read from the channel at a time.
+	 *
+	 * @throws Exception
+	 */
+	public void testNextFrame() throws Exception {
+		byte[] data = encodeAll();
+		ReadableByteChannel channel = Channels.newChannel(
+				new TrickleInputStream(data));
+		LBERFrameReader reader = new LBERFrameReader();
+		int frames = 0;
+		int incomplete = 0;
+		while (frames < SIZES.length) {
+			InputStream frame = reader.nextFrame();
+			if (frame == null) {
+				incomplete++;
+				assertTrue(reader.read(channel) > 0);
+				continue;
+			}
+			checkFrame(reader, frame, SIZES[frames++]);
+		}
+		assertTrue(incomplete >= data.length - SIZES.length);
+		assertNull(reader.nextFrame());
+		assertEquals(-1, reader.read(channel));
+	}
+	/**
+	 * Checks that a frame longer than the maximum frame size is rejected,
+	 * also when its length is too large for any buffer, and that the
+	 * indefinite length form is rejected.
+	 *
+	 * @throws Exception
+	 */
+	public void testMaxFrameSize() throws Exception {
+		LBERFrameReader reader = new LBERFrameReader(
+				new ByteArrayInputStream(encode(100)));
+		reader.setMaxFrameSize(100);
+		checkFrame(reader, reader.readFrame(), 100);
+
+		reader = new LBERFrameReader(new ByteArrayInputStream(encode(101)));
+		reader.setMaxFrameSize(100);
+		checkRejected(reader);
+
+		byte[][] headers = {
+				{0x04, (byte) 0x84, 0x7f, (byte) 0xff, (byte) 0xff,
+						(byte) 0xff},
+				{0x04, (byte) 0x84, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+						(byte) 0xff},
+				{0x04, (byte) 0x85, 0, 0, 0, 0, 1},
+				{0x30, (byte) 0x80, 0, 0}};
+		for (int i = 0; i < headers.length; i++) {
+			checkRejected(new LBERFrameReader(new ByteArrayInputStream(
+					headers[i])));
+			LBERFrameReader nonBlocking = new LBERFrameReader();
+			nonBlocking.read(Channels.newChannel(new ByteArrayInputStream(
+					headers[i])));
+			try {
+				nonBlocking.nextFrame();
+				fail("header " + i + " accepted");
+			} catch (IOException e) {
+				assertFalse(e instanceof EOFException);
+			}
+		}
+	}
+	private static void checkRejected(LBERFrameReader reader) {
+		try {
+			reader.readFrame();
+			fail("frame accepted");
+		} catch (IOException e) {
+			assertFalse(e instanceof EOFException);
+		}
+	}
+	/**
+	 * Checks the default maximum frame size, and that a maximum that is
+	 * not positive is rejected.
+	 */
+	public void testSetMaxFrameSize() {
+		LBERFrameReader reader = new LBERFrameReader();
+		assertEquals(LBERFrameReader.DEFAULT_MAX_FRAME_SIZE,
+				reader.getMaxFrameSize());
+		int[] invalid = {0, -1, Integer.MIN_VALUE};
+		for (int i = 0; i < invalid.length; i++) {
+			try {
+				reader.setMaxFrameSize(invalid[i]);
+				fail("maximum frame size " + invalid[i] + " accepted");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		assertEquals(LBERFrameReader.DEFAULT_MAX_FRAME_SIZE,
+				reader.getMaxFrameSize());
+		reader.setMaxFrameSize(1);
+		assertEquals(1, reader.getMaxFrameSize());
+	}
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap.client;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for the timer wheel timing requests: tasks
+ * never run early, cancelled tasks never run, and delays longer than one
+ * revolution of the wheel are honoured, also when the clock is set back.
+ */
+public class TimerWheelTest extends TestCase {
+	private TimerWheel wheel = null;
+	/*
+	 * @see TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		super.setUp();
+		// 8 buckets of 5ms, one revolution of the wheel is 40ms
+		wheel = new TimerWheel(5, 8, "TimerWheelTest");
+	}
+	/*
+	 * @see TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		super.tearDown();
+	}
+	/**
+	 * Records the time a task ran.
+	 */
+	private static class Task implements Runnable {
+		private long ran = 0;
+		public synchronized void run() {
+			ran = System.currentTimeMillis();
+			notifyAll();
+		}
+		private synchronized long waitRun(long timeout)
+				throws InterruptedException {
+			long end = System.currentTimeMillis() + timeout;
+			while (ran == 0 && System.currentTimeMillis() < end) {
+				wait(Math.max(1, end - System.currentTimeMillis()));
+			}
+			return ran;
+		}
+	}
+	/**
+	 * Checks that tasks with delays shorter and longer than a revolution of
+	 * the wheel run, and never before their delay.
+	 *
+	 * @throws Exception
+	 */
+	public void testNeverEarly() throws Exception {
+		long[] delays = {0, 1, 7, 33, 40, 41, 95, 170};
+		Task[] tasks = new Task[delays.length];
+		long[] start = new long[delays.length];
+		for (int i = 0; i < delays.length; i++) {
+			tasks[i] = new Task();
+			start[i] = System.currentTimeMillis();
+			wheel.schedule(tasks[i], delays[i]);
+		}
+		for (int i = 0; i < delays.length; i++) {
+			long ran = tasks[i].waitRun(5000);
+			assertTrue("task " + i + " did not run", ran != 0);
+			assertTrue("task " + i + " ran early",
+					ran - start[i] >= delays[i]);
+		}
+		assertEquals(0, wheel.getPendingCount());
+		assertEquals(delays.length, wheel.getExpiredCount());
+	}
+	/**
+	 * Checks that a cancelled task does not run, and that cancel reports
+	 * whether the timer was still pending.
+	 *
+	 * @throws Exception
+	 */
+	public void testCancel() throws Exception {
+		Task cancelled = new Task();
+		Task kept = new Task();
+		TimerWheel.Timer timer = wheel.schedule(cancelled, 50);
+		TimerWheel.Timer other = wheel.schedule(kept, 50);
+		assertEquals(2, wheel.getPendingCount());
+		assertTrue(timer.cancel());
+		assertFalse(timer.cancel());
+		assertTrue(kept.waitRun(5000) != 0);
+		assertTrue(other.isExpired());
+		assertFalse(other.cancel());
+		assertEquals(0, cancelled.waitRun(100));
+		assertFalse(timer.isExpired());
+		assertEquals(1, wheel.getCancelledCount());
+		assertEquals(1, wheel.getExpiredCount());
+		assertEquals(2, wheel.getScheduledCount());
+	}
+	/**
+	 * Schedules many timers in the same buckets and cancels every other
+	 * one, checking that the bucket lists stay consistent.
+	 *
+	 * @throws Exception
+	 */
+	public void testManyTimers() throws Exception {
+		int n = 1000;
+		Task[] tasks = new Task[n];
+		TimerWheel.Timer[] timers = new TimerWheel.Timer[n];
+		for (int i = 0; i < n; i++) {
+			tasks[i] = new Task();
+			timers[i] = wheel.schedule(tasks[i], 20 + (i % 60));
+		}
+		for (int i = 0; i < n; i += 2) {
+			assertTrue(timers[i].cancel());
+		}
+		for (int i = 1; i < n; i += 2) {
+			assertTrue("task " + i + " did not run", tasks[i].waitRun(5000) != 0);
+		}
+		for (int i = 0; i < n; i += 2) {
+			assertEquals(0, tasks[i].waitRun(0));
+		}
+		assertEquals(0, wheel.getPendingCount());
+		assertEquals(n / 2, wheel.getExpiredCount());
+		assertEquals(n / 2, wheel.getCancelledCount());
+	}
+	/**
+	 * A wheel whose clock can be set back.
+	 */
+	private static class SkewedWheel extends TimerWheel {
+		private volatile long offset = 0;
+		private SkewedWheel() {
+			super(5, 8, "TimerWheelTest");
+		}
+		long currentTimeMillis() {
+			return System.currentTimeMillis() + offset;
+		}
+	}
+	/**
+	 * Checks that pending tasks run after their delay, neither early nor
+	 * once the clock caught up, when the clock is set back.
+	 *
+	 * @throws Exception
+	 */
+	public void testClockSetBack() throws Exception {
+		SkewedWheel skewed = new SkewedWheel();
+		Task before = new Task();
+		Task after = new Task();
+		long start = System.currentTimeMillis();
+		skewed.schedule(before, 200);
+		Thread.sleep(50);
+		skewed.offset = -60000;
+		Thread.sleep(20);
+		long set = System.currentTimeMillis();
+		skewed.schedule(after, 100);
+		long ran = before.waitRun(5000);
+		assertTrue("task did not run", ran != 0);
+		assertTrue("task ran early", ran - start >= 200);
+		ran = after.waitRun(5000);
+		assertTrue("task scheduled after did not run", ran != 0);
+		assertTrue("task scheduled after ran early", ran - set >= 100);
+		assertEquals(0, skewed.getPendingCount());
+	}
+}
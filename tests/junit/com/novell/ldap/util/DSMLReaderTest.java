@@ -15,8 +15,14 @@
  */
 package com.novell.ldap.util;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import com.novell.ldap.LDAPDeleteRequest;
 import com.novell.ldap.LDAPExtendedResponse;
+import com.novell.ldap.LDAPLocalException;
 import com.novell.ldap.LDAPSearchRequest;
+import com.novell.ldap.LDAPThreadFactory;
 import junit.framework.TestCase;
 /**
  * This Class contains some testcases for DSMLReader primarily based on patches
@@ -92,4 +98,110 @@ public class DSMLReaderTest extends TestCase {
 		for (int i = 0; i < arr1.length; i++)
 			assertEquals(arr1[i], arr2[i]);
 	}
-}
\ No newline at end of file
+	private static final String BATCH_START = "<batchRequest"
+			+ " xmlns=\"urn:oasis:names:tc:DSML:2:0:core\" requestID=\"7\""
+			+ " processing=\"parallel\" responseOrder=\"unordered\""
+			+ " onError=\"resume\">";
+	private static String delRequest(int i) {
+		return "<delRequest dn=\"cn=e" + i + ",o=test\" requestID=\"" + i
+				+ "\"/>";
+	}
+	/**
+	 * Checks that a streaming reader knows the batch attributes when it is
+	 * constructed, and returns more messages than it queues, in order.
+	 *
+	 * @throws Exception
+	 */
+	public void testStreamingBatchAttributes() throws Exception {
+		StringBuffer xml = new StringBuffer(BATCH_START);
+		for (int i = 0; i < 500; i++) {
+			xml.append(delRequest(i));
+		}
+		xml.append("</batchRequest>");
+		reader = new DSMLReader(new StringReader(xml.toString()), true);
+		assertEquals("7", reader.getBatchRequestID());
+		assertTrue(reader.isParallelProcessing());
+		assertTrue(reader.isResponseUnordered());
+		assertTrue(reader.isResumeOnError());
+		for (int i = 0; i < 500; i++) {
+			LDAPDeleteRequest request = (LDAPDeleteRequest) reader
+					.readMessage();
+			assertEquals("cn=e" + i + ",o=test", request.getDN());
+		}
+		assertNull(reader.readMessage());
+	}
+	/**
+	 * Checks that a streaming reader returns the messages parsed before an
+	 * error in the document, then throws the error.
+	 *
+	 * @throws Exception
+	 */
+	public void testStreamingParseError() throws Exception {
+		StringBuffer xml = new StringBuffer(BATCH_START);
+		for (int i = 0; i < 100; i++) {
+			xml.append(delRequest(i));
+		}
+		xml.append("<delRequest dn=</batchRequest>");
+		reader = new DSMLReader(new StringReader(xml.toString()), true);
+		for (int i = 0; i < 100; i++) {
+			assertNotNull(reader.readMessage());
+		}
+		try {
+			reader.readMessage();
+			fail("no parse error");
+		} catch (LDAPLocalException e) {
+			// expected
+		}
+	}
+	/**
+	 * Checks that closing a streaming reader early closes the document
+	 * reader and ends the parsing thread before close returns.
+	 *
+	 * @throws Exception
+	 */
+	public void testStreamingClose() throws Exception {
+		EndlessReader input = new EndlessReader();
+		final Thread[] parser = new Thread[1];
+		LDAPThreadFactory factory = new LDAPThreadFactory() {
+			public Thread newThread(Runnable task, String name) {
+				parser[0] = new Thread(task, name);
+				parser[0].setDaemon(true);
+				return parser[0];
+			}
+		};
+		reader = new DSMLReader(input, true, factory);
+		for (int i = 0; i < 10; i++) {
+			assertNotNull(reader.readMessage());
+		}
+		reader.close();
+		assertTrue(input.closed);
+		assertFalse(parser[0].isAlive());
+		assertNull(reader.readMessage());
+	}
+	/**
+	 * A batchRequest of delete requests that never ends, failing to read
+	 * once closed.
+	 */
+	private static class EndlessReader extends Reader {
+		private volatile boolean closed = false;
+		private String pending = BATCH_START;
+		private int pos = 0;
+		private int count = 0;
+		public int read(char[] buf, int off, int len) throws IOException {
+			if (closed) {
+				throw new IOException("closed");
+			}
+			if (pos == pending.length()) {
+				pending = delRequest(count++);
+				pos = 0;
+			}
+			int n = Math.min(len, pending.length() - pos);
+			pending.getChars(pos, pos + n, buf, off);
+			pos += n;
+			return n;
+		}
+		public void close() {
+			closed = true;
+		}
+	}
+}
@@ -0,0 +1,342 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap.util;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Iterator;
+import java.util.TreeMap;
+import java.util.Vector;
+import com.novell.ldap.LDAPAddRequest;
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPDeleteRequest;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPLocalException;
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.LDAPModification;
+import com.novell.ldap.LDAPModifyDNRequest;
+import com.novell.ldap.LDAPModifyRequest;
+import com.novell.ldap.LDAPSearchResult;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for LDIFByteReader, checking that it reads
+ * the same messages as LDIFReader: folded lines, CRLF line ends, comments,
+ * base64 values, change records, and records split by small buffers or
+ * chunks.
+ */
+public class LDIFByteReaderTest extends TestCase {
+	private static final String CONTENT = "version: 1\n"
+			+ "# a comment before the first record\n"
+			+ "dn: cn=Alice Smith,ou=People,o=example\n"
+			+ "objectclass: top\n"
+			+ "objectclass: person\n"
+			+ "# a comment inside a record\n"
+			+ "cn: Alice Smith\n"
+			+ "description: a long value folded over several lines, the fold"
+			+ "ing \n at 76 characters being the usual practice of LDIF write"
+			+ "rs when the\n  value is long\n"
+			+ "sn: Smith\n"
+			+ "\n"
+			+ "# a comment between records\n"
+			+ "# another comment\n"
+			+ "dn:: Y249QmrDtnJuLG91PVBlb3BsZSxvPWV4YW1wbGU=\n"
+			+ "cn:: QmrDtnJu\n"
+			+ "jpegphoto:: AAECAwQFBgcICQoLDA0ODxAREhMUFRYXGBkaGxwdHh8gISIjJCU"
+			+ "mJygpKiss\n LS4vMDEyMzQ1Njc4OTo7PD0+P0BBQkNERUZH\n"
+			+ "sn: Bj\n"
+			+ "\n"
+			+ "dn: ou=People,o=example\n"
+			+ "ou: People\n"
+			+ "\n";
+	private static final String CHANGES = "version: 1\n"
+			+ "dn: cn=Alice Smith,ou=People,o=example\n"
+			+ "changetype: add\n"
+			+ "cn: Alice Smith\n"
+			+ "sn: Smith\n"
+			+ "\n"
+			+ "# modify the entry\n"
+			+ "dn: cn=Alice Smith,ou=People,o=example\n"
+			+ "changetype: modify\n"
+			+ "add: mail\n"
+			+ "mail: alice@example.com\n"
+			+ "mail: asmith@example.com\n"
+			+ "-\n"
+			+ "replace: description\n"
+			+ "description:: ZGVzY3JpcHRpb24=\n"
+			+ "-\n"
+			+ "delete: telephonenumber\n"
+			+ "-\n"
+			+ "\n"
+			+ "dn: cn=Alice Smith,ou=People,o=example\n"
+			+ "changetype: modrdn\n"
+			+ "newrdn: cn=Alice Jones\n"
+			+ "deleteoldrdn: 1\n"
+			+ "\n"
+			+ "dn: cn=Alice Jones,ou=People,o=example\n"
+			+ "changetype: moddn\n"
+			+ "newrdn: cn=Alice\n"
+			+ "deleteoldrdn: 0\n"
+			+ "newsuperior: ou=Staff,o=example\n"
+			+ "\n"
+			+ "dn: cn=Alice,ou=Staff,o=example\n"
+			+ "changetype: delete\n"
+			+ "\n";
+	/*
+	 * @see TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		super.setUp();
+	}
+	/*
+	 * @see TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		super.tearDown();
+	}
+	/**
+	 * Returns a description of a message comparable between readers.
+	 */
+	private static String describe(LDAPMessage msg) {
+		StringBuffer b = new StringBuffer();
+		if (msg instanceof LDAPSearchResult) {
+			b.append("entry ");
+			describe(b, ((LDAPSearchResult) msg).getEntry());
+		} else if (msg instanceof LDAPAddRequest) {
+			b.append("add ");
+			describe(b, ((LDAPAddRequest) msg).getEntry());
+		} else if (msg instanceof LDAPModifyRequest) {
+			LDAPModifyRequest modify = (LDAPModifyRequest) msg;
+			b.append("modify ").append(modify.getDN());
+			// LDIFReader sends one modification per value, merge them
+			LDAPModification[] mods = modify.getModifications();
+			for (int i = 0; i < mods.length; i++) {
+				LDAPAttribute attr = mods[i].getAttribute();
+				if (i == 0 || mods[i].getOp() != mods[i - 1].getOp()
+						|| !attr.getName().equalsIgnoreCase(
+								mods[i - 1].getAttribute().getName())) {
+					b.append(" op ").append(mods[i].getOp()).append(' ')
+							.append(attr.getName()).append('=');
+				}
+				describe(b, attr.getByteValueArray());
+			}
+		} else if (msg instanceof LDAPModifyDNRequest) {
+			LDAPModifyDNRequest moddn = (LDAPModifyDNRequest) msg;
+			b.append("moddn ").append(moddn.getDN()).append(' ')
+					.append(moddn.getNewRDN()).append(' ')
+					.append(moddn.getDeleteOldRDN()).append(' ')
+					.append(moddn.getParentDN());
+		} else if (msg instanceof LDAPDeleteRequest) {
+			b.append("delete ").append(((LDAPDeleteRequest) msg).getDN());
+		} else {
+			b.append(msg);
+		}
+		return b.toString();
+	}
+	private static void describe(StringBuffer b, LDAPEntry entry) {
+		b.append(entry.getDN());
+		LDAPAttributeSet set = entry.getAttributeSet();
+		TreeMap sorted = new TreeMap();
+		Iterator attrs = set.iterator();
+		while (attrs.hasNext()) {
+			LDAPAttribute attr = (LDAPAttribute) attrs.next();
+			sorted.put(attr.getName().toLowerCase(), attr);
+		}
+		Iterator names = sorted.values().iterator();
+		while (names.hasNext()) {
+			b.append(' ');
+			describe(b, (LDAPAttribute) names.next());
+		}
+	}
+	private static void describe(StringBuffer b, LDAPAttribute attr) {
+		b.append(attr.getName()).append('=');
+		describe(b, attr.getByteValueArray());
+	}
+	private static void describe(StringBuffer b, byte[][] values) {
+		for (int i = 0; i < values.length; i++) {
+			b.append('[').append(Base64.encode(values[i])).append(']');
+		}
+	}
+	/**
+	 * Reads all the messages of a reader.
+	 */
+	private static Vector readAll(LDAPReader reader) throws Exception {
+		Vector messages = new Vector();
+		LDAPMessage msg;
+		while ((msg = reader.readMessage()) != null) {
+			messages.addElement(describe(msg));
+		}
+		return messages;
+	}
+	/**
+	 * Checks that LDIFByteReader reads the same messages as LDIFReader, with
+	 * buffers of several sizes.
+	 */
+	private static void compare(String ldif) throws Exception {
+		byte[] data = ldif.getBytes("UTF-8");
+		LDIFReader expectedReader = new LDIFReader(new ByteArrayInputStream(
+				data));
+		Vector expected = readAll(expectedReader);
+		assertTrue(expected.size() > 0);
+		int[] sizes = {1, 7, 64, LDIFByteReader.DEFAULT_BUFFER_SIZE};
+		for (int i = 0; i < sizes.length; i++) {
+			LDIFByteReader reader = new LDIFByteReader(
+					new ByteArrayInputStream(data), sizes[i]);
+			assertEquals(expectedReader.isRequest(), reader.isRequest());
+			assertEquals("buffer of " + sizes[i], expected, readAll(reader));
+		}
+	}
+	/**
+	 * Checks a content file with comments, folded lines and base64 values.
+	 *
+	 * @throws Exception
+	 */
+	public void testContent() throws Exception {
+		compare(CONTENT);
+		LDIFByteReader reader = new LDIFByteReader(new ByteArrayInputStream(
+				CONTENT.getBytes("UTF-8")));
+		assertFalse(reader.isRequest());
+		LDAPEntry entry = ((LDAPSearchResult) reader.readMessage())
+				.getEntry();
+		assertEquals("a long value folded over several lines, the folding at"
+				+ " 76 characters being the usual practice of LDIF writers"
+				+ " when the value is long",
+				entry.getAttribute("description").getStringValue());
+		entry = ((LDAPSearchResult) reader.readMessage()).getEntry();
+		assertEquals("cn=Bj\u00f6rn,ou=People,o=example", entry.getDN());
+		byte[] photo = entry.getAttribute("jpegphoto").getByteValue();
+		assertEquals(72, photo.length);
+		for (int i = 0; i < photo.length; i++) {
+			assertEquals(i, photo[i]);
+		}
+	}
+	/**
+	 * Checks a change file with add, modify, modrdn with deleteoldrdn 0 and
+	 * 1, and delete records.
+	 *
+	 * @throws Exception
+	 */
+	public void testChanges() throws Exception {
+		compare(CHANGES);
+		LDIFByteReader reader = new LDIFByteReader(new ByteArrayInputStream(
+				CHANGES.getBytes("UTF-8")));
+		assertTrue(reader.isRequest());
+		reader.readMessage();
+		reader.readMessage();
+		assertTrue(((LDAPModifyDNRequest) reader.readMessage())
+				.getDeleteOldRDN());
+		assertFalse(((LDAPModifyDNRequest) reader.readMessage())
+				.getDeleteOldRDN());
+	}
+	/**
+	 * Checks files with CRLF line ends.
+	 *
+	 * @throws Exception
+	 */
+	public void testCRLF() throws Exception {
+		compare(crlf(CONTENT));
+		compare(crlf(CHANGES));
+	}
+	/**
+	 * Checks that the chunks returned by readChunk end on record boundaries
+	 * and hold all the records of the file, whatever the chunk size.
+	 *
+	 * @throws Exception
+	 */
+	public void testChunks() throws Exception {
+		String[] files = {CONTENT, CHANGES, crlf(CHANGES)};
+		for (int f = 0; f < files.length; f++) {
+			byte[] data = files[f].getBytes("UTF-8");
+			Vector expected = readAll(new LDIFReader(
+					new ByteArrayInputStream(data)));
+			int[] sizes = {1, 20, 100, 1 << 20};
+			for (int s = 0; s < sizes.length; s++) {
+				LDIFByteReader reader = new LDIFByteReader(
+						new ByteArrayInputStream(data), 16);
+				Vector read = new Vector();
+				read.addElement(describe(reader.readMessage()));
+				int lines = reader.getLineNumber();
+				byte[] chunk;
+				while ((chunk = reader.readChunk(sizes[s])) != null) {
+					LDIFByteReader chunkReader = new LDIFByteReader(chunk,
+							chunk.length, reader.isRequest(), lines);
+					read.addAll(readAll(chunkReader));
+					assertTrue(chunkReader.getLineNumber() > lines);
+					lines = chunkReader.getLineNumber();
+				}
+				assertEquals("file " + f + " chunks of " + sizes[s],
+						expected, read);
+			}
+		}
+	}
+	/**
+	 * Checks that values given by URL are rejected unless file URLs are
+	 * allowed, and that only file URLs are read then.
+	 *
+	 * @throws Exception
+	 */
+	public void testURLValues() throws Exception {
+		File file = File.createTempFile("ldifbytereader", ".txt");
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			out.write("from a file".getBytes("UTF-8"));
+			out.close();
+			String ldif = "version: 1\n\ndn: cn=url,o=example\n"
+					+ "description:< " + file.toURL() + "\n";
+			LDIFByteReader reader = new LDIFByteReader(
+					new ByteArrayInputStream(ldif.getBytes("UTF-8")));
+			try {
+				reader.readMessage();
+				fail("file URL read by default");
+			} catch (LDAPLocalException e) {
+				assertEquals(LDAPException.LOCAL_ERROR, e.getResultCode());
+			}
+
+			reader = new LDIFByteReader(new ByteArrayInputStream(
+					ldif.getBytes("UTF-8")));
+			reader.setFileURLsAllowed(true);
+			LDAPEntry entry = ((LDAPSearchResult) reader.readMessage())
+					.getEntry();
+			assertEquals("from a file",
+					entry.getAttribute("description").getStringValue());
+
+			ldif = "version: 1\n\ndn: cn=url,o=example\n"
+					+ "description:< http://localhost/\n";
+			reader = new LDIFByteReader(new ByteArrayInputStream(
+					ldif.getBytes("UTF-8")));
+			reader.setFileURLsAllowed(true);
+			try {
+				reader.readMessage();
+				fail("http URL read");
+			} catch (LDAPLocalException e) {
+				assertEquals(LDAPException.LOCAL_ERROR, e.getResultCode());
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	private static String crlf(String ldif) {
+		StringBuffer b = new StringBuffer();
+		for (int i = 0; i < ldif.length(); i++) {
+			char c = ldif.charAt(i);
+			if (c == '\n') {
+				b.append('\r');
+			}
+			b.append(c);
+		}
+		return b.toString();
+	}
+}
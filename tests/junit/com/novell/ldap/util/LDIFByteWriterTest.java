@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap.util;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import com.novell.ldap.LDAPAddRequest;
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPDeleteRequest;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.LDAPModification;
+import com.novell.ldap.LDAPModifyDNRequest;
+import com.novell.ldap.LDAPModifyRequest;
+import com.novell.ldap.LDAPSearchResult;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for LDIFByteWriter, checking that it writes
+ * the same LDIF as LDIFWriter: lines folded at 76 bytes, base64 values,
+ * change records, and that the LDIF written reads back the same.
+ */
+public class LDIFByteWriterTest extends TestCase {
+	/*
+	 * @see TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		super.setUp();
+	}
+	/*
+	 * @see TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		super.tearDown();
+	}
+	/**
+	 * Returns entries with short, long, binary, non ASCII, empty and not
+	 * LDIF safe values.
+	 */
+	private static LDAPEntry[] entries() {
+		StringBuffer longValue = new StringBuffer();
+		for (int i = 0; i < 300; i++) {
+			longValue.append((char) ('a' + i % 26));
+		}
+		byte[] binary = new byte[200];
+		for (int i = 0; i < binary.length; i++) {
+			binary[i] = (byte) i;
+		}
+		LDAPEntry[] entries = new LDAPEntry[3];
+		LDAPAttributeSet set = new LDAPAttributeSet();
+		set.add(new LDAPAttribute("objectClass", new String[] {"top",
+				"person", "inetOrgPerson"}));
+		set.add(new LDAPAttribute("cn", "Alice Smith"));
+		set.add(new LDAPAttribute("sn", "Smith"));
+		set.add(new LDAPAttribute("description", longValue.toString()));
+		set.add(new LDAPAttribute("userCertificate;binary", binary));
+		entries[0] = new LDAPEntry("cn=Alice Smith,ou=People,o=example", set);
+		set = new LDAPAttributeSet();
+		set.add(new LDAPAttribute("cn", "J\u00fcrgen"));
+		set.add(new LDAPAttribute("sn", " leading space"));
+		set.add(new LDAPAttribute("title", ":colon"));
+		set.add(new LDAPAttribute("empty", new byte[0]));
+		entries[1] = new LDAPEntry("cn=J\u00fcrgen,ou=People,o=example", set);
+		set = new LDAPAttributeSet();
+		set.add(new LDAPAttribute("ou", "People"));
+		entries[2] = new LDAPEntry("ou=" + longValue + ",o=example", set);
+		return entries;
+	}
+	/**
+	 * Returns add, modify, modrdn and delete requests.
+	 */
+	private static LDAPMessage[] requests() throws Exception {
+		LDAPEntry[] entries = entries();
+		LDAPModification[] mods = {
+				new LDAPModification(LDAPModification.ADD, new LDAPAttribute(
+						"mail", "alice@example.com")),
+				new LDAPModification(LDAPModification.REPLACE,
+						new LDAPAttribute("description", entries[0]
+								.getAttribute("description").getStringValue())),
+				new LDAPModification(LDAPModification.DELETE,
+						new LDAPAttribute("telephoneNumber"))};
+		return new LDAPMessage[] {
+				new LDAPAddRequest(entries[0], null),
+				new LDAPModifyRequest(entries[0].getDN(), mods, null),
+				new LDAPModifyDNRequest(entries[0].getDN(), "cn=Alice Jones",
+						null, true, null),
+				new LDAPModifyDNRequest("cn=Alice Jones,ou=People,o=example",
+						"cn=Alice", "ou=Staff,o=example", false, null),
+				new LDAPDeleteRequest("cn=Alice,ou=Staff,o=example", null)};
+	}
+	/**
+	 * Checks that entries are written as LDIFWriter writes them, with no
+	 * line longer than 76 bytes.
+	 *
+	 * @throws Exception
+	 */
+	public void testEntries() throws Exception {
+		LDAPEntry[] entries = entries();
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		LDIFWriter writer = new LDIFWriter(expected);
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		LDIFByteWriter byteWriter = new LDIFByteWriter(written);
+		for (int i = 0; i < entries.length; i++) {
+			writer.writeEntry(entries[i]);
+			byteWriter.writeEntry(entries[i]);
+		}
+		writer.finish();
+		byteWriter.finish();
+		assertEquals(new String(expected.toByteArray(), "UTF-8"), new String(
+				written.toByteArray(), "UTF-8"));
+		assertFoldedAt76(written.toByteArray());
+	}
+	/**
+	 * Checks that change records are written as LDIFWriter writes them,
+	 * including deleteoldrdn 0 and 1.
+	 *
+	 * @throws Exception
+	 */
+	public void testRequests() throws Exception {
+		LDAPMessage[] requests = requests();
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		LDIFWriter writer = new LDIFWriter(expected, "1", true);
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		LDIFByteWriter byteWriter = new LDIFByteWriter(written, "1", true);
+		for (int i = 0; i < requests.length; i++) {
+			writer.writeMessage(requests[i]);
+			byteWriter.writeMessage(requests[i]);
+		}
+		writer.finish();
+		byteWriter.finish();
+		String ldif = new String(written.toByteArray(), "UTF-8");
+		// LDIFWriter writes deleteoldrdn as true or false, RFC 2849 as 1 or 0
+		String expectedLdif = new String(expected.toByteArray(), "UTF-8");
+		expectedLdif = replace(expectedLdif, "deleteoldrdn:true",
+				"deleteoldrdn: 1");
+		expectedLdif = replace(expectedLdif, "deleteoldrdn:false",
+				"deleteoldrdn: 0");
+		assertEquals(expectedLdif, ldif);
+		assertTrue(ldif.indexOf("deleteoldrdn: 1") != -1);
+		assertTrue(ldif.indexOf("deleteoldrdn: 0") != -1);
+		assertFoldedAt76(written.toByteArray());
+	}
+	/**
+	 * Checks that the entries written read back the same with
+	 * LDIFByteReader.
+	 *
+	 * @throws Exception
+	 */
+	public void testRoundTrip() throws Exception {
+		LDAPEntry[] entries = entries();
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		LDIFByteWriter byteWriter = new LDIFByteWriter(written);
+		for (int i = 0; i < entries.length; i++) {
+			byteWriter.writeEntry(entries[i]);
+		}
+		byteWriter.finish();
+		LDIFByteReader reader = new LDIFByteReader(new ByteArrayInputStream(
+				written.toByteArray()));
+		for (int i = 0; i < entries.length; i++) {
+			LDAPEntry entry = ((LDAPSearchResult) reader.readMessage())
+					.getEntry();
+			assertEquals(entries[i].getDN(), entry.getDN());
+			assertEquals(entries[i].getAttributeSet().size(), entry
+					.getAttributeSet().size());
+			LDAPAttribute[] attrs = (LDAPAttribute[]) entries[i]
+					.getAttributeSet().toArray(new LDAPAttribute[0]);
+			for (int j = 0; j < attrs.length; j++) {
+				LDAPAttribute attr = entry.getAttribute(attrs[j].getName());
+				assertNotNull(attrs[j].getName(), attr);
+				byte[][] values = attrs[j].getByteValueArray();
+				byte[][] read = attr.getByteValueArray();
+				assertEquals(values.length, read.length);
+				for (int k = 0; k < values.length; k++) {
+					assertEquals(Base64.encode(values[k]), Base64
+							.encode(read[k]));
+				}
+			}
+		}
+		assertNull(reader.readMessage());
+	}
+	/**
+	 * Checks that the gzip compressed LDIF inflates to the uncompressed
+	 * LDIF.
+	 *
+	 * @throws Exception
+	 */
+	public void testCompress() throws Exception {
+		LDAPEntry[] entries = entries();
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		LDIFByteWriter plainWriter = new LDIFByteWriter(plain);
+		LDIFByteWriter gzipWriter = new LDIFByteWriter(compressed, true);
+		for (int i = 0; i < entries.length; i++) {
+			plainWriter.writeEntry(entries[i]);
+			gzipWriter.writeEntry(entries[i]);
+		}
+		plainWriter.finish();
+		gzipWriter.finish();
+		InputStream in = new GZIPInputStream(new ByteArrayInputStream(
+				compressed.toByteArray()));
+		ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+		byte[] b = new byte[1024];
+		int n;
+		while ((n = in.read(b)) > 0) {
+			inflated.write(b, 0, n);
+		}
+		assertEquals(new String(plain.toByteArray(), "UTF-8"), new String(
+				inflated.toByteArray(), "UTF-8"));
+	}
+	private static String replace(String s, String from, String to) {
+		int i = s.indexOf(from);
+		if (i == -1) {
+			return s;
+		}
+		return s.substring(0, i) + to + s.substring(i + from.length());
+	}
+	/**
+	 * Checks that no line of LDIF is longer than 76 bytes, and that some
+	 * line was folded.
+	 */
+	private static void assertFoldedAt76(byte[] ldif) {
+		int length = 0;
+		boolean folded = false;
+		for (int i = 0; i < ldif.length; i++) {
+			if (ldif[i] == '\n' || ldif[i] == '\r') {
+				length = 0;
+				continue;
+			}
+			if (length == 0 && ldif[i] == ' ') {
+				folded = true;
+			}
+			length++;
+			assertTrue("line longer than 76 bytes", length <= 76);
+		}
+		assertTrue("no line folded", folded);
+	}
+}